@@ -0,0 +1,316 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A classe `BenchmarkRunner` executa os benchmarks do sistema Jackut no estilo do JMH: cada combinação de
+ * benchmark e parâmetros roda em uma JVM própria (fork), com iterações de aquecimento e de medição, e o
+ * resultado é reportado em tempo médio por operação e em taxa de alocação.
+ *
+ * Cada fork roda em um diretório temporário próprio, pois o sistema grava o snapshot, o diário e as páginas
+ * no diretório corrente. A alocação é medida na thread do benchmark, pelo contador de bytes alocados da JVM.
+ *
+ * Modos:
+ * <ul>
+ *     <li>`avgt`: a operação é repetida durante cada iteração, e o tempo médio por operação é reportado;</li>
+ *     <li>`ss`: cada invocação é medida isoladamente, com uma preparação por invocação fora da medição.</li>
+ * </ul>
+ *
+ * Configuração (propriedades do sistema): `bench.warmupIterations`, `bench.iterations`, `bench.iterationMillis`,
+ * `bench.singleShotInvocations`, `bench.forks` (0 executa tudo na própria JVM) e `bench.jvmArgs`.
+ *
+ * Os parâmetros com nome iniciado por `jackut.` são também repassados ao fork como propriedades do sistema, o
+ * que permite comparar configurações lidas na inicialização do sistema (por exemplo,
+ * `-Dbench.jackut.snapshot.compression=0,6`). Sem forks, esses parâmetros não têm efeito.
+ */
+public class BenchmarkRunner {
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("bench.warmupIterations", 2);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final long ITERATION_MILLIS = Long.getLong("bench.iterationMillis", 1000);
+    private static final int SINGLE_SHOT_INVOCATIONS = Integer.getInteger("bench.singleShotInvocations", 20);
+    private static final int FORKS = Integer.getInteger("bench.forks", 1);
+    private static final String JVM_ARGS = System.getProperty("bench.jvmArgs", "-Xmx2g -Djackut.journal.async=true");
+    private static final String CHILD = "--fork"; // Argumento que identifica uma JVM de fork.
+    private static final String RESULT = "#RESULT\t"; // Prefixo das linhas de resultado de um fork.
+    private static final int BATCH = 16; // Operações entre duas leituras do relógio no modo `avgt`.
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static volatile long sink; // Consome os resultados das operações, para que não sejam eliminados.
+
+    /**
+     * Operação medida; recebe o número da invocação, usado para variar os dados de entrada.
+     */
+    public interface Operation {
+        Object run(long invocation) throws Exception;
+    }
+
+    /**
+     * Preparação executada fora da medição.
+     */
+    public interface Setup {
+        void run(Map<String, String> params) throws Exception;
+    }
+
+    /**
+     * Definição de um benchmark: nome, parâmetros, preparação e operação medida.
+     */
+    public static class Benchmark {
+        final String name;
+        final boolean singleShot;
+        final List<String> paramNames;
+        Setup trialSetup = params -> { };
+        Operation invocationSetup; // Apenas no modo `ss`.
+        Runnable iterationTeardown = () -> { };
+        Operation operation;
+
+        /**
+         * Construtor da classe Benchmark.
+         *
+         * @param name O nome do benchmark.
+         * @param singleShot `true` para medir cada invocação isoladamente (modo `ss`).
+         * @param paramNames Os nomes dos parâmetros do benchmark, cujos valores vêm de `bench.&lt;nome&gt;`.
+         */
+        public Benchmark(String name, boolean singleShot, String... paramNames) {
+            this.name = name;
+            this.singleShot = singleShot;
+            this.paramNames = List.of(paramNames);
+        }
+        /**
+         * Define a preparação executada uma vez antes das iterações, com os valores dos parâmetros.
+         * @param setup A preparação.
+         * @return Este benchmark.
+         */
+        public Benchmark trialSetup(Setup setup) {
+            this.trialSetup = setup;
+            return this;
+        }
+        /**
+         * Define a preparação executada antes de cada invocação, fora da medição (modo `ss`).
+         * @param setup A preparação.
+         * @return Este benchmark.
+         */
+        public Benchmark invocationSetup(Operation setup) {
+            this.invocationSetup = setup;
+            return this;
+        }
+        /**
+         * Define a limpeza executada ao final de cada iteração, fora da medição.
+         * @param teardown A limpeza.
+         * @return Este benchmark.
+         */
+        public Benchmark iterationTeardown(Runnable teardown) {
+            this.iterationTeardown = teardown;
+            return this;
+        }
+        /**
+         * Define a operação medida.
+         * @param operation A operação.
+         * @return Este benchmark.
+         */
+        public Benchmark measure(Operation operation) {
+            this.operation = operation;
+            return this;
+        }
+    }
+
+    private final Class<?> suite;
+    private final Map<String, Benchmark> benchmarks = new LinkedHashMap<>();
+    private final Map<String, List<String>> defaultParams = new LinkedHashMap<>();
+
+    /**
+     * Construtor da classe BenchmarkRunner.
+     *
+     * @param suite A classe do conjunto de benchmarks, cujo `main` é executado nos forks.
+     */
+    public BenchmarkRunner(Class<?> suite) {
+        this.suite = suite;
+    }
+    /**
+     * Declara um parâmetro e os seus valores padrão, que podem ser substituídos por `-Dbench.&lt;nome&gt;=v1,v2`.
+     *
+     * @param name O nome do parâmetro.
+     * @param values Os valores padrão, separados por vírgula.
+     */
+    public void param(String name, String values) {
+        defaultParams.put(name, List.of(System.getProperty("bench." + name, values).split(",")));
+    }
+    /**
+     * Registra um benchmark.
+     *
+     * @param benchmark O benchmark.
+     */
+    public void add(Benchmark benchmark) {
+        benchmarks.put(benchmark.name, benchmark);
+    }
+    /**
+     * Ponto de entrada do conjunto: na JVM principal, executa os benchmarks cujo nome corresponde à expressão
+     * regular informada (todos, se omitida), cada combinação de parâmetros em um fork; em um fork, executa
+     * a combinação recebida.
+     *
+     * @param args A expressão regular de filtro, ou os argumentos de um fork.
+     * @throws Exception Se um benchmark ou fork falhar.
+     */
+    public void execute(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(CHILD)) {
+            Benchmark benchmark = benchmarks.get(args[1]);
+            Map<String, String> params = new LinkedHashMap<>();
+            for (int i = 2; i + 1 < args.length; i += 2) params.put(args[i], args[i + 1]);
+            System.out.println(RESULT + run(benchmark, params));
+            System.out.flush();
+            Runtime.getRuntime().halt(0); // Não salva os dados do fork ao encerrar.
+        }
+        Pattern filter = Pattern.compile(args.length > 0 ? args[0] : ".*");
+        List<String> rows = new ArrayList<>();
+        for (Benchmark benchmark : benchmarks.values()) {
+            if (!filter.matcher(benchmark.name).find()) continue;
+            for (Map<String, String> params : combinations(benchmark.paramNames)) {
+                String row = FORKS > 0 ? fork(benchmark, params) : run(benchmark, params);
+                System.out.println(format(row));
+                rows.add(row);
+            }
+        }
+        System.out.println();
+        System.out.println(header());
+        for (String row : rows) System.out.println(format(row));
+    }
+
+    private List<Map<String, String>> combinations(List<String> names) {
+        List<Map<String, String>> combinations = new ArrayList<>();
+        combinations.add(new LinkedHashMap<>());
+        for (String name : names) {
+            List<Map<String, String>> expanded = new ArrayList<>();
+            for (Map<String, String> combination : combinations) {
+                for (String value : defaultParams.getOrDefault(name, List.of(""))) {
+                    Map<String, String> copy = new LinkedHashMap<>(combination);
+                    copy.put(name, value.trim());
+                    expanded.add(copy);
+                }
+            }
+            combinations = expanded;
+        }
+        return combinations;
+    }
+    /**
+     * Executa uma combinação em uma JVM nova, em um diretório temporário, e devolve a sua linha de resultado.
+     */
+    private String fork(Benchmark benchmark, Map<String, String> params) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("jackut-bench");
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String arg : JVM_ARGS.trim().split("\\s+")) if (!arg.isEmpty()) command.add(arg);
+        for (String property : System.getProperties().stringPropertyNames())
+            if (property.startsWith("bench.") || property.startsWith("jackut.")) command.add("-D" + property + "=" + System.getProperty(property));
+        for (Map.Entry<String, String> param : params.entrySet())
+            if (param.getKey().startsWith("jackut.")) command.add("-D" + param.getKey() + "=" + param.getValue());
+        command.add("-cp");
+        command.add(absoluteClassPath());
+        command.add(suite.getName());
+        command.add(CHILD);
+        command.add(benchmark.name);
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            command.add(param.getKey());
+            command.add(param.getValue());
+        }
+        Process process = new ProcessBuilder(command).directory(directory.toFile()).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String result = null;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            for (String line; (line = out.readLine()) != null; ) if (line.startsWith(RESULT)) result = line.substring(RESULT.length());
+        }
+        int status = process.waitFor();
+        deleteRecursively(directory);
+        if (result == null) throw new IllegalStateException("Fork de " + benchmark.name + " " + params + " terminou sem resultado (código " + status + ").");
+        return result;
+    }
+
+    private static String absoluteClassPath() {
+        StringJoiner classPath = new StringJoiner(File.pathSeparator);
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) classPath.add(new File(entry).getAbsolutePath());
+        return classPath.toString();
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (var paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+    /**
+     * Executa uma combinação na JVM corrente e devolve a linha de resultado: nome, parâmetros, modo,
+     * quantidade de medições, média e desvio padrão em ns/op, bytes alocados por operação e taxa de alocação em MB/s.
+     */
+    private String run(Benchmark benchmark, Map<String, String> params) throws Exception {
+        benchmark.trialSetup.run(params);
+        double[] scores;
+        long operations = 0, allocated = 0, nanos = 0;
+        if (benchmark.singleShot) {
+            int total = WARMUP_ITERATIONS + SINGLE_SHOT_INVOCATIONS;
+            scores = new double[SINGLE_SHOT_INVOCATIONS];
+            for (int i = 0; i < total; i++) {
+                if (benchmark.invocationSetup != null) benchmark.invocationSetup.run(i);
+                long bytes = allocatedBytes(), start = System.nanoTime();
+                consume(benchmark.operation.run(i));
+                long elapsed = System.nanoTime() - start;
+                bytes = allocatedBytes() - bytes;
+                if (i < WARMUP_ITERATIONS) continue;
+                scores[i - WARMUP_ITERATIONS] = elapsed;
+                operations++;
+                nanos += elapsed;
+                allocated += bytes;
+            }
+        } else {
+            scores = new double[ITERATIONS];
+            long invocation = 0;
+            for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+                long count = 0, bytes = allocatedBytes(), start = System.nanoTime(), deadline = start + ITERATION_MILLIS * 1_000_000, now;
+                do {
+                    for (int b = 0; b < BATCH; b++) consume(benchmark.operation.run(invocation++));
+                    count += BATCH;
+                } while ((now = System.nanoTime()) < deadline);
+                bytes = allocatedBytes() - bytes;
+                benchmark.iterationTeardown.run();
+                if (i < WARMUP_ITERATIONS) continue;
+                scores[i - WARMUP_ITERATIONS] = (double) (now - start) / count;
+                operations += count;
+                nanos += now - start;
+                allocated += bytes;
+            }
+        }
+        double mean = Arrays.stream(scores).average().orElse(0);
+        double deviation = Math.sqrt(Arrays.stream(scores).map(score -> (score - mean) * (score - mean)).sum() / Math.max(scores.length - 1, 1));
+        StringJoiner row = new StringJoiner("\t");
+        row.add(suite.getSimpleName() + "." + benchmark.name);
+        row.add(params.toString());
+        row.add(benchmark.singleShot ? "ss" : "avgt");
+        row.add(String.valueOf(scores.length));
+        row.add(String.format(Locale.ROOT, "%.3f", mean));
+        row.add(String.format(Locale.ROOT, "%.3f", deviation));
+        row.add(String.format(Locale.ROOT, "%.1f", operations == 0 ? 0 : (double) allocated / operations));
+        row.add(String.format(Locale.ROOT, "%.1f", nanos == 0 ? 0 : allocated * 1e9 / nanos / (1 << 20)));
+        return row.toString();
+    }
+
+    private static String header() {
+        return String.format(Locale.ROOT, "%-40s %-52s %4s %3s %14s %12s %6s %12s %10s",
+                "Benchmark", "(params)", "Mode", "Cnt", "Score", "Error", "Units", "alloc B/op", "alloc MB/s");
+    }
+
+    private static String format(String row) {
+        String[] fields = row.split("\t");
+        double mean = Double.parseDouble(fields[4]), deviation = Double.parseDouble(fields[5]);
+        boolean micros = fields[2].equals("ss") || mean >= 100_000; // Operações longas em µs.
+        double scale = micros ? 1e-3 : 1;
+        return String.format(Locale.ROOT, "%-40s %-52s %4s %3s %14.3f +- %10.3f %6s %12s %10s",
+                fields[0], fields[1], fields[2], fields[3], mean * scale, deviation * scale, micros ? "us/op" : "ns/op", fields[6], fields[7]);
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void consume(Object result) {
+        if (result != null) sink += result.hashCode();
+    }
+}
@@ -0,0 +1,217 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.exceptions.JackutException;
+import br.ufal.ic.p2.jackut.services.Facade;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A classe `ConcurrencyCheck` aplica operações concorrentes de várias threads sobre a {@link Facade} e, ao
+ * final, verifica os invariantes que os bloqueios devem preservar:
+ * <ul>
+ *     <li>as amizades são simétricas, e as listas de amigos e de fãs concordam com `ehAmigo` e `ehFa`;</li>
+ *     <li>nenhuma atualização se perde: cada recado enviado é lido exatamente uma vez pelo destinatário, cada
+ *     membro lê todas as mensagens enviadas às suas comunidades, cada entrada em uma comunidade aparece na
+ *     lista de membros e o último valor gravado por cada thread em um atributo é o valor final;</li>
+ *     <li>as operações só falham com as exceções de domínio do sistema ({@link JackutException}), como convites
+ *     repetidos ou caixas vazias, e nenhuma thread fica bloqueada.</li>
+ * </ul>
+ * A execução tem duas fases, separadas por uma barreira: primeiro, as threads fazem os usuários entrarem nas
+ * comunidades e enviam convites de amizade e de fãs; depois, com as comunidades fixas, enviam e leem recados
+ * e mensagens e editam atributos, junto com novos convites. As listas de membros ficam fixas na segunda fase
+ * para que a quantidade esperada de mensagens de cada membro seja conhecida.
+ *
+ * Configuração (propriedades do sistema): `check.users`, `check.communities`, `check.threads`,
+ * `check.operations` (por thread e por fase), `check.seed` e `check.timeoutSeconds`. Execute em um
+ * diretório vazio, pois o sistema grava os seus arquivos no diretório corrente, de preferência com
+ * `-Djackut.journal.async=true`. O processo termina com o código 1 se algum invariante for violado.
+ */
+public class ConcurrencyCheck {
+    private static final int USERS = Integer.getInteger("check.users", 200);
+    private static final int COMMUNITIES = Integer.getInteger("check.communities", 8);
+    private static final int THREADS = Integer.getInteger("check.threads", 8);
+    private static final int OPERATIONS = Integer.getInteger("check.operations", 20_000);
+    private static final long SEED = Long.getLong("check.seed", 42);
+    private static final long TIMEOUT_SECONDS = Long.getLong("check.timeoutSeconds", 300);
+    private static final String PASSWORD = "senha";
+
+    private static final Facade facade = new Facade();
+    private static final String[] logins = new String[USERS], sessions = new String[USERS];
+    private static final AtomicLongArray sentNotes = new AtomicLongArray(USERS), readNotes = new AtomicLongArray(USERS);
+    private static final AtomicLongArray joins = new AtomicLongArray(COMMUNITIES), sentMessages = new AtomicLongArray(COMMUNITIES);
+    private static final AtomicLongArray readMessages = new AtomicLongArray(USERS);
+    private static final long[][] lastValues = new long[THREADS][USERS]; // Último valor gravado por cada thread em cada usuário.
+    private static final Queue<Throwable> unexpected = new ConcurrentLinkedQueue<>();
+    private static final List<String> violations = new ArrayList<>();
+
+    private ConcurrencyCheck() {
+    }
+    /**
+     * Ponto de entrada da verificação.
+     *
+     * @param args Não utilizado.
+     * @throws Exception Se a execução for interrompida.
+     */
+    public static void main(String[] args) throws Exception {
+        facade.zerarSistema();
+        for (int u = 0; u < USERS; u++) {
+            logins[u] = "u" + u;
+            facade.criarUsuario(logins[u], PASSWORD, "Usuario " + u);
+            sessions[u] = facade.abrirSessao(logins[u], PASSWORD);
+        }
+        for (int c = 0; c < COMMUNITIES; c++) facade.criarComunidade(sessions[c % USERS], community(c), "Comunidade " + c);
+        for (int c = 0; c < COMMUNITIES; c++) joins.incrementAndGet(c); // O dono é o primeiro membro.
+
+        long start = System.nanoTime();
+        runPhase(ConcurrencyCheck::joinAndInvite);
+        runPhase(ConcurrencyCheck::exchange);
+        long elapsed = System.nanoTime() - start;
+
+        if (unexpected.isEmpty()) verify();
+        for (Throwable e : unexpected) violations.add("exceção inesperada: " + e);
+        System.out.printf("%d threads, %d usuários, %d operações em %.1f s%n", THREADS, USERS, 2L * THREADS * OPERATIONS, elapsed / 1e9);
+        facade.encerrarSistema();
+        if (violations.isEmpty()) {
+            System.out.println("Todos os invariantes foram preservados.");
+            return;
+        }
+        violations.stream().limit(20).forEach(System.out::println);
+        System.out.println(violations.size() + " violações.");
+        System.exit(1);
+    }
+
+    private interface Step {
+        void run(int thread, Random random);
+    }
+    /**
+     * Executa `check.operations` passos em cada thread, todas liberadas ao mesmo tempo, e aguarda o seu término.
+     * Se alguma thread não terminar no prazo, informa as threads em impasse e encerra o processo.
+     */
+    private static void runPhase(Step step) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(1), done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            Random random = new Random(SEED * 31 + t);
+            Thread worker = new Thread(() -> {
+                try {
+                    ready.await();
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        try {
+                            step.run(thread, random);
+                        } catch (JackutException expected) {
+                            // Convite repetido, caixa vazia, etc.
+                        }
+                    }
+                } catch (Throwable e) {
+                    unexpected.add(e);
+                } finally {
+                    done.countDown();
+                }
+            }, "check-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        ready.countDown();
+        if (done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) return;
+        long[] deadlocked = ManagementFactory.getThreadMXBean().findDeadlockedThreads();
+        System.out.println("As threads não terminaram em " + TIMEOUT_SECONDS + " s.");
+        if (deadlocked != null) for (ThreadInfo info : ManagementFactory.getThreadMXBean().getThreadInfo(deadlocked, true, true)) System.out.print(info);
+        System.exit(1);
+    }
+    /**
+     * Primeira fase: entradas nas comunidades e convites de amizade e de fãs.
+     */
+    private static void joinAndInvite(int thread, Random random) {
+        int user = random.nextInt(USERS), other = random.nextInt(USERS);
+        switch (random.nextInt(4)) {
+            case 0 -> {
+                int c = random.nextInt(COMMUNITIES);
+                facade.adicionarComunidade(sessions[user], community(c));
+                joins.incrementAndGet(c);
+            }
+            case 1 -> facade.adicionarIdolo(sessions[user], logins[other]);
+            default -> facade.adicionarAmigo(sessions[user], logins[other]);
+        }
+    }
+    /**
+     * Segunda fase: recados, mensagens das comunidades, atributos e novos convites de amizade.
+     * Cada contador é incrementado apenas depois que a operação foi aceita.
+     */
+    private static void exchange(int thread, Random random) {
+        int user = random.nextInt(USERS), other = random.nextInt(USERS);
+        switch (random.nextInt(7)) {
+            case 0 -> {
+                facade.enviarRecado(sessions[user], logins[other], "Recado de " + thread);
+                sentNotes.incrementAndGet(other);
+            }
+            case 1 -> {
+                facade.lerRecado(sessions[user]);
+                readNotes.incrementAndGet(user);
+            }
+            case 2 -> {
+                int c = random.nextInt(COMMUNITIES);
+                facade.enviarMensagem(sessions[user], community(c), "Mensagem de " + thread);
+                sentMessages.incrementAndGet(c);
+            }
+            case 3 -> {
+                facade.lerMensagem(sessions[user]);
+                readMessages.incrementAndGet(user);
+            }
+            case 4 -> {
+                long value = lastValues[thread][user] + 1;
+                facade.editarPerfil(sessions[user], attribute(thread), Long.toString(value));
+                lastValues[thread][user] = value;
+            }
+            default -> facade.adicionarAmigo(sessions[user], logins[other]);
+        }
+    }
+    /**
+     * Verifica os invariantes sobre o estado final, com todas as threads encerradas.
+     */
+    private static void verify() {
+        for (int u = 0; u < USERS; u++) {
+            Set<String> friends = parse(facade.getAmigos(logins[u])), fans = parse(facade.getFas(logins[u]));
+            for (int v = 0; v < USERS; v++) {
+                boolean friend = facade.ehAmigo(logins[u], logins[v]);
+                if (friend != facade.ehAmigo(logins[v], logins[u])) violations.add("amizade assimétrica: " + logins[u] + " e " + logins[v]);
+                if (friend != friends.contains(logins[v])) violations.add("lista de amigos de " + logins[u] + " diverge de ehAmigo para " + logins[v]);
+                if (facade.ehFa(logins[v], logins[u]) != fans.contains(logins[v])) violations.add("lista de fãs de " + logins[u] + " diverge de ehFa para " + logins[v]);
+            }
+        }
+        long[] expectedMessages = new long[USERS];
+        for (int c = 0; c < COMMUNITIES; c++) {
+            Set<String> members = parse(facade.getMembrosComunidade(community(c)));
+            if (members.size() != joins.get(c)) violations.add(community(c) + " tem " + members.size() + " membros, e " + joins.get(c) + " entradas foram aceitas");
+            for (int u = 0; u < USERS; u++) if (members.contains(logins[u])) expectedMessages[u] += sentMessages.get(c);
+        }
+        for (int u = 0; u < USERS; u++) {
+            long notes = readNotes.get(u), messages = readMessages.get(u);
+            while (facade.tentarLerRecado(sessions[u]).isPresent()) notes++;
+            while (facade.tentarLerMensagem(sessions[u]).isPresent()) messages++;
+            if (notes != sentNotes.get(u)) violations.add(logins[u] + " leu " + notes + " recados de " + sentNotes.get(u) + " enviados");
+            if (messages != expectedMessages[u]) violations.add(logins[u] + " leu " + messages + " mensagens de " + expectedMessages[u] + " enviadas");
+            for (int t = 0; t < THREADS; t++) {
+                if (lastValues[t][u] == 0) continue;
+                String value = facade.getAtributoUsuario(logins[u], attribute(t));
+                if (!value.equals(Long.toString(lastValues[t][u]))) violations.add(logins[u] + "." + attribute(t) + " = " + value + ", esperado " + lastValues[t][u]);
+            }
+        }
+    }
+
+    private static Set<String> parse(String list) {
+        String content = list.substring(1, list.length() - 1);
+        return content.isEmpty() ? Set.of() : new HashSet<>(Arrays.asList(content.split(",")));
+    }
+
+    private static String community(int index) {
+        return "comunidade" + index;
+    }
+
+    private static String attribute(int thread) {
+        return "contador" + thread;
+    }
+}
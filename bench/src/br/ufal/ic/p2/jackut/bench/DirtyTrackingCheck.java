@@ -0,0 +1,105 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.models.DirtyTracker;
+import br.ufal.ic.p2.jackut.services.Facade;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static br.ufal.ic.p2.jackut.services.JackutSystemManager.SYSTEM;
+
+/**
+ * A classe `DirtyTrackingCheck` verifica que apenas as alterações marcam os usuários no {@link DirtyTracker}, de
+ * modo que os salvamentos seguintes possam ser incrementais. A base é criada e salva no modo de paginação, com
+ * poucos usuários residentes (`jackut.paging.maxResidentUsers`, 4 por padrão), e o sistema é reiniciado a partir
+ * do snapshot, sem sessões abertas; em seguida:
+ * <ul>
+ *     <li>uma carga só de consultas, que carrega do arquivo de páginas quase todos os usuários, não pode deixar
+ *     nenhum usuário marcado;</li>
+ *     <li>o salvamento seguinte, que percorre os usuários fora da memória para gravar a base, também não;</li>
+ *     <li>a edição do perfil de um usuário marca apenas esse usuário.</li>
+ * </ul>
+ * Configuração (propriedades do sistema): `check.users`. Execute em um diretório vazio, pois o sistema grava os
+ * seus arquivos no diretório corrente. O processo termina com o código 1 se alguma verificação falhar.
+ */
+public class DirtyTrackingCheck {
+    private static final int USERS = Integer.getInteger("check.users", 50);
+    private static final String PASSWORD = "senha";
+
+    private static final List<String> violations = new ArrayList<>();
+
+    private DirtyTrackingCheck() {
+    }
+    /**
+     * Ponto de entrada da verificação.
+     *
+     * @param args Não utilizado.
+     * @throws IOException Se o snapshot não puder ser copiado.
+     */
+    public static void main(String[] args) throws IOException {
+        if (System.getProperty("jackut.paging.maxResidentUsers") == null) System.setProperty("jackut.paging.maxResidentUsers", "4");
+        Facade facade = new Facade(); // Lido na inicialização do sistema, depois da propriedade acima.
+        facade.zerarSistema();
+        for (int u = 0; u < USERS; u++) {
+            facade.criarUsuario(login(u), PASSWORD, "Usuario " + u);
+            String session = facade.abrirSessao(login(u), PASSWORD);
+            facade.editarPerfil(session, "cidade", "Cidade " + u);
+            if (u > 0) facade.adicionarAmigo(session, login(u - 1));
+            if (u == 0) facade.criarComunidade(session, "comunidade", "Comunidade da verificação");
+        }
+        facade.encerrarSistema();
+        restart(facade);
+        expectDirty("após a carga do snapshot", 0);
+
+        for (int u = 0; u < USERS; u++) {
+            facade.getAtributoUsuario(login(u), "cidade");
+            facade.getAtributoUsuario(login(u), "nome");
+            facade.ehAmigo(login(u), login((u + 1) % USERS));
+            facade.getAmigos(login(u));
+            facade.getComunidades(login(u));
+        }
+        expectDirty("após as consultas", 0);
+        facade.encerrarSistema();
+        expectDirty("após o salvamento seguinte às consultas", 0);
+
+        facade.editarPerfil(facade.abrirSessao(login(USERS / 2), PASSWORD), "cidade", "Outra cidade");
+        expectDirty("após a edição de um perfil", 1);
+        facade.encerrarSistema();
+
+        if (violations.isEmpty()) {
+            System.out.println("Apenas as alterações marcaram usuários.");
+            return;
+        }
+        violations.forEach(System.out::println);
+        System.exit(1);
+    }
+    /**
+     * Reinicia o sistema a partir do snapshot gravado (`jackut.snapshot*`), descartando as sessões e o cache.
+     */
+    private static void restart(Facade facade) throws IOException {
+        File saved = Files.createTempDirectory(new File(".").toPath(), "jackut").toFile();
+        copySnapshot(new File("."), saved);
+        facade.zerarSistema();
+        copySnapshot(saved, new File("."));
+        SYSTEM.loadSystem();
+    }
+
+    private static void copySnapshot(File from, File to) throws IOException {
+        File[] files = from.listFiles((dir, name) -> name.startsWith("jackut.snapshot"));
+        if (files == null) return;
+        for (File file : files) Files.copy(file.toPath(), new File(to, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void expectDirty(String moment, int expected) {
+        int dirty = DirtyTracker.USERS.size();
+        if (dirty != expected) violations.add(dirty + " usuários marcados " + moment + ", esperado " + expected);
+    }
+
+    private static String login(int index) {
+        return "u" + index;
+    }
+}
@@ -0,0 +1,305 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.bench.BenchmarkRunner.Benchmark;
+import br.ufal.ic.p2.jackut.exceptions.InvalidCredentialException;
+import br.ufal.ic.p2.jackut.exceptions.MessageNotFoundException;
+import br.ufal.ic.p2.jackut.services.Command;
+import br.ufal.ic.p2.jackut.services.Facade;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static br.ufal.ic.p2.jackut.services.JackutSystemManager.SYSTEM;
+
+/**
+ * A classe `FacadeBenchmark` mede as operações mais usadas da {@link Facade}, sobre uma base sintética
+ * parametrizada pela quantidade de usuários (`users`) e pelo grau do grafo de amizades (`degree`).
+ *
+ * A base é criada pela própria `Facade`: os usuários `u0` a `u{users-1}`, cada um amigo dos `degree / 2`
+ * usuários seguintes e dos `degree / 2` anteriores (em anel), e, para `enviarMensagem`, uma comunidade com
+ * `communitySize` membros.
+ *
+ * Uso, a partir de um diretório com as classes do sistema e deste módulo no classpath:
+ * {@code java -Dbench.users=1000,10000 -Dbench.degree=8,64 -cp ... br.ufal.ic.p2.jackut.bench.FacadeBenchmark [filtro]}
+ *
+ * Os forks usam `-Djackut.journal.async=true` por padrão (veja `bench.jvmArgs`), para que o fsync do diário
+ * não domine as operações de escrita.
+ *
+ * Os pares `lerRecadoVazio`/`tentarLerRecadoVazio` e `getAtributoUsuarioAusente`/`buscarAtributoUsuarioAusente`
+ * comparam o caminho com exceção e o caminho com `Optional`; com
+ * `-Dbench.jvmArgs="-Djackut.journal.async=true -Djackut.exceptions.stackTraces=true"`, medem também o custo
+ * das exceções com a pilha de chamadas.
+ *
+ * `executarLote` cria `batchSize` usuários por invocação, para comparação com `criarUsuario`; com
+ * `-Dbench.jvmArgs=` (diário síncrono), mede a economia de sincronizações do diário.
+ *
+ * `closeSystem` grava sempre uma base completa; `closeSystemIncremental` altera o perfil de `churn` usuários
+ * antes de cada invocação, e mede o salvamento incremental dessas alterações.
+ *
+ * `getSugestoesAmigos` consulta usuários diferentes a cada invocação: as primeiras contam os amigos em comum
+ * pelo passeio de dois saltos, e as seguintes usam as contagens guardadas.
+ *
+ * `closeSystem` e `loadSystem` são medidos em cada nível de compressão do snapshot
+ * (`jackut.snapshot.compression`, 0 sem compressão); `loadSystem` informa também, na saída de erros, o tamanho
+ * do snapshot gravado em cada nível.
+ */
+public class FacadeBenchmark {
+    private static final String PASSWORD = "senha";
+    private static final String COMPRESSION = "jackut.snapshot.compression"; // Parâmetro repassado ao fork.
+
+    private static final Facade facade = new Facade();
+    private static int users, degree;
+    private static String[] logins, sessions;
+    private static String community;
+    private static int batchSize; // Comandos por lote em `executarLote`.
+    private static int churn; // Usuários alterados antes de cada invocação de `closeSystemIncremental`.
+    private static String removableSession; // Sessão do usuário a ser removido na próxima invocação.
+    private static String[] inviters = new String[0]; // Sessões dos usuários que enviam os convites de amizade.
+    private static int inviterCount;
+    private static long invites; // Convites de amizade enviados.
+    private static File savedSnapshot; // Diretório com a cópia da base e dos fragmentos do snapshot.
+
+    private FacadeBenchmark() {
+    }
+    /**
+     * Ponto de entrada dos benchmarks.
+     *
+     * @param args A expressão regular que seleciona os benchmarks (todos, se omitida).
+     * @throws Exception Se algum benchmark falhar.
+     */
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner(FacadeBenchmark.class);
+        runner.param("users", "1000,10000");
+        runner.param("degree", "8,64");
+        runner.param("communitySize", "10,1000");
+        runner.param("batchSize", "100");
+        runner.param("churn", "100");
+        runner.param(COMPRESSION, "0,1,6,9");
+
+        runner.add(new Benchmark("abrirSessao", false, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .iterationTeardown(() -> SYSTEM.getSessionRegistry().clear()) // Sessões abertas pelo benchmark.
+                .measure(i -> facade.abrirSessao(login(i), PASSWORD)));
+        runner.add(new Benchmark("getAtributoUsuario", false, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .measure(i -> facade.getAtributoUsuario(login(i), "nome")));
+        runner.add(new Benchmark("ehAmigo", false, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .measure(i -> facade.ehAmigo(login(i), login(i + 1 + (i & 1) * degree)))); // Alterna amigos e não amigos.
+        runner.add(new Benchmark("adicionarAmigo", false, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .iterationTeardown(() -> createInviters(2 * invites + users)) // Convites da próxima iteração.
+                .measure(i -> {
+                    long invite = invites++;
+                    if (invite / users >= inviterCount) createInviters(invite + 1);
+                    facade.adicionarAmigo(inviters[(int) (invite / users)], login(invite)); // Sempre um convite novo.
+                    return null;
+                }));
+        runner.add(new Benchmark("enviarLerRecado", false, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .measure(i -> {
+                    facade.enviarRecado(sessions[(int) (i % users)], login(i + 1), "Recado " + i);
+                    return facade.lerRecado(sessions[(int) ((i + 1) % users)]);
+                }));
+        runner.add(new Benchmark("lerRecadoVazio", false, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .measure(i -> {
+                    try {
+                        return facade.lerRecado(sessions[(int) (i % users)]); // As caixas da base estão vazias.
+                    } catch (MessageNotFoundException e) {
+                        return e;
+                    }
+                }));
+        runner.add(new Benchmark("tentarLerRecadoVazio", false, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .measure(i -> facade.tentarLerRecado(sessions[(int) (i % users)])));
+        runner.add(new Benchmark("getAtributoUsuarioAusente", false, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .measure(i -> {
+                    try {
+                        return facade.getAtributoUsuario(login(i), "cidade");
+                    } catch (InvalidCredentialException e) {
+                        return e;
+                    }
+                }));
+        runner.add(new Benchmark("buscarAtributoUsuarioAusente", false, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .measure(i -> facade.buscarAtributoUsuario(login(i), "cidade")));
+        runner.add(new Benchmark("enviarMensagem", false, "users", "degree", "communitySize")
+                .trialSetup(params -> {
+                    createDataset(params);
+                    createCommunity(Integer.parseInt(params.get("communitySize")));
+                })
+                .measure(i -> {
+                    facade.enviarMensagem(sessions[0], community, "Mensagem " + i);
+                    return null;
+                }));
+        runner.add(new Benchmark("criarUsuario", false, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .measure(i -> {
+                    facade.criarUsuario("novo" + i, PASSWORD, "Novo");
+                    return null;
+                }));
+        runner.add(new Benchmark("executarLote", false, "users", "degree", "batchSize")
+                .trialSetup(params -> {
+                    createDataset(params);
+                    batchSize = Integer.parseInt(params.get("batchSize"));
+                })
+                .measure(i -> {
+                    List<Command> batch = new ArrayList<>(batchSize);
+                    for (int k = 0; k < batchSize; k++) batch.add(Command.criarUsuario("lote" + i + "-" + k, PASSWORD, "Lote"));
+                    return facade.executarLote(batch);
+                }));
+        runner.add(new Benchmark("getAmigos", false, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .measure(i -> facade.getAmigos(login(i))));
+        runner.add(new Benchmark("getSugestoesAmigos", false, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .measure(i -> facade.getSugestoesAmigos(login(i))));
+        runner.add(new Benchmark("getMembrosComunidade", false, "users", "degree", "communitySize")
+                .trialSetup(params -> {
+                    createDataset(params);
+                    createCommunity(Integer.parseInt(params.get("communitySize")));
+                })
+                .measure(i -> facade.getMembrosComunidade(community)));
+        runner.add(new Benchmark("removerUsuario", true, "users", "degree")
+                .trialSetup(FacadeBenchmark::createDataset)
+                .invocationSetup(FacadeBenchmark::createRemovableUser)
+                .measure(i -> {
+                    facade.removerUsuario(removableSession);
+                    return null;
+                }));
+        runner.add(new Benchmark("loadSystem", true, "users", "degree", COMPRESSION)
+                .trialSetup(params -> {
+                    createDataset(params);
+                    new File("jackut.snapshot").delete(); // Uma base completa, sem as camadas dos checkpoints.
+                    facade.encerrarSistema();
+                    reportSnapshotSize(params);
+                    savedSnapshot = Files.createTempDirectory(new File(".").toPath(), "jackut").toFile();
+                    copySnapshot(new File("."), savedSnapshot);
+                })
+                .invocationSetup(i -> {
+                    facade.zerarSistema();
+                    copySnapshot(savedSnapshot, new File("."));
+                    return null;
+                })
+                .measure(i -> {
+                    SYSTEM.loadSystem();
+                    return null;
+                }));
+        runner.add(new Benchmark("closeSystem", true, "users", "degree", COMPRESSION)
+                .trialSetup(FacadeBenchmark::createDataset)
+                .invocationSetup(i -> new File("jackut.snapshot").delete()) // Sem base, o salvamento é completo.
+                .measure(i -> {
+                    facade.encerrarSistema();
+                    return null;
+                }));
+        runner.add(new Benchmark("closeSystemIncremental", true, "users", "degree", "churn")
+                .trialSetup(params -> {
+                    createDataset(params);
+                    facade.encerrarSistema();
+                    churn = Math.min(Integer.parseInt(params.get("churn")), users);
+                })
+                .invocationSetup(i -> {
+                    for (int u = 0; u < churn; u++) {
+                        int user = (int) ((i * churn + u) % users);
+                        facade.editarPerfil(sessions[user], "cidade", "Cidade " + i);
+                    }
+                    return null;
+                })
+                .measure(i -> {
+                    facade.encerrarSistema();
+                    return null;
+                }));
+        runner.execute(args);
+    }
+    /**
+     * Cria a base de usuários, sessões e amizades dos parâmetros informados, a partir de um sistema vazio.
+     */
+    private static void createDataset(Map<String, String> params) {
+        users = Integer.parseInt(params.get("users"));
+        degree = Math.min(Integer.parseInt(params.get("degree")), users - 1);
+        facade.zerarSistema();
+        logins = new String[users];
+        sessions = new String[users];
+        for (int u = 0; u < users; u++) {
+            logins[u] = "u" + u;
+            facade.criarUsuario(logins[u], PASSWORD, "Usuario " + u);
+            sessions[u] = facade.abrirSessao(logins[u], PASSWORD);
+        }
+        for (int u = 0; u < users; u++) {
+            for (int k = 1; k <= degree / 2; k++) {
+                int friend = (u + k) % users;
+                facade.adicionarAmigo(sessions[u], logins[friend]);
+                facade.adicionarAmigo(sessions[friend], logins[u]);
+            }
+        }
+    }
+    /**
+     * Cria uma comunidade do usuário `u0` com os primeiros `size` usuários como membros.
+     */
+    private static void createCommunity(int size) {
+        community = "c" + size;
+        facade.criarComunidade(sessions[0], community, "Comunidade com " + size + " membros");
+        for (int u = 1; u < Math.min(size, users); u++) facade.adicionarComunidade(sessions[u], community);
+    }
+    /**
+     * Cria usuários sem amigos até que eles possam enviar a quantidade informada de convites distintos,
+     * um para cada usuário da base.
+     */
+    private static void createInviters(long count) {
+        while ((long) inviterCount * users < count) {
+            String login = "convidante" + inviterCount;
+            facade.criarUsuario(login, PASSWORD, "Convidante");
+            if (inviterCount == inviters.length) inviters = Arrays.copyOf(inviters, Math.max(16, inviterCount * 2));
+            inviters[inviterCount++] = facade.abrirSessao(login, PASSWORD);
+        }
+    }
+    /**
+     * Cria um usuário com `degree` amigos, recados enviados e uma comunidade própria, a ser removido pela
+     * invocação seguinte.
+     */
+    private static Object createRemovableUser(long invocation) {
+        String login = "removido" + invocation;
+        facade.criarUsuario(login, PASSWORD, "Removido");
+        String session = facade.abrirSessao(login, PASSWORD);
+        for (int k = 0; k < degree; k++) {
+            String friend = login(invocation * degree + k);
+            facade.adicionarAmigo(session, friend);
+            facade.adicionarAmigo(sessions[(int) ((invocation * degree + k) % users)], login);
+            facade.enviarRecado(session, friend, "Recado de " + login);
+        }
+        facade.criarComunidade(session, "comunidade-" + login, "Removida com o dono");
+        removableSession = session;
+        return null;
+    }
+    /**
+     * Informa, na saída de erros, o tamanho dos arquivos do snapshot (`jackut.snapshot*`) do diretório corrente.
+     */
+    private static void reportSnapshotSize(Map<String, String> params) {
+        File[] files = new File(".").listFiles((dir, name) -> name.startsWith("jackut.snapshot"));
+        long size = 0;
+        if (files != null) for (File file : files) size += file.length();
+        System.err.println("snapshot " + params + ": " + size + " bytes");
+    }
+    /**
+     * Copia a base do snapshot e os seus fragmentos (`jackut.snapshot*`) de um diretório para outro.
+     */
+    private static void copySnapshot(File from, File to) throws IOException {
+        File[] files = from.listFiles((dir, name) -> name.startsWith("jackut.snapshot"));
+        if (files == null) return;
+        for (File file : files) {
+            Files.copy(file.toPath(), new File(to, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String login(long index) {
+        return logins[(int) (index % users)];
+    }
+}
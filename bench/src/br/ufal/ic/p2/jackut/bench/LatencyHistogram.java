@@ -0,0 +1,103 @@
+package br.ufal.ic.p2.jackut.bench;
+
+/**
+ * A classe `LatencyHistogram` acumula latências em nanossegundos em faixas log-lineares: cada potência de
+ * dois é dividida em {@link #SUB_BUCKETS} faixas iguais, o que limita o erro relativo dos percentis a cerca
+ * de 3% com memória fixa, qualquer que seja a quantidade de amostras.
+ *
+ * Não é sincronizada: cada thread do driver registra no seu próprio histograma, e os histogramas são
+ * combinados com {@link #add(LatencyHistogram)} ao final.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long count, errors, max;
+
+    /**
+     * Registra uma latência.
+     *
+     * @param nanos A latência, em nanossegundos.
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        counts[index(nanos)]++;
+        count++;
+        max = Math.max(max, nanos);
+    }
+    /**
+     * Registra uma operação que terminou com erro de negócio (exceção da `Facade`), sem latência.
+     */
+    public void recordError() {
+        errors++;
+    }
+    /**
+     * Acrescenta as amostras de outro histograma a este.
+     *
+     * @param other O outro histograma.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+        count += other.count;
+        errors += other.errors;
+        max = Math.max(max, other.max);
+    }
+    /**
+     * Descarta todas as amostras.
+     */
+    public void reset() {
+        java.util.Arrays.fill(counts, 0);
+        count = errors = max = 0;
+    }
+    /**
+     * Obtém o valor abaixo do qual está a fração informada das amostras.
+     *
+     * @param quantile A fração, entre 0 e 1.
+     * @return O limite superior da faixa que contém o percentil, em nanossegundos (0 sem amostras).
+     */
+    public long percentile(double quantile) {
+        if (count == 0) return 0;
+        long target = Math.max((long) Math.ceil(quantile * count), 1), seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) return Math.min(upperBound(i), max);
+        }
+        return max;
+    }
+    /**
+     * Obtém a quantidade de operações concluídas sem erro.
+     * @return A quantidade de amostras.
+     */
+    public long getCount() {
+        return count;
+    }
+    /**
+     * Obtém a quantidade de operações que terminaram com erro de negócio.
+     * @return A quantidade de erros.
+     */
+    public long getErrors() {
+        return errors;
+    }
+    /**
+     * Obtém a maior latência registrada.
+     * @return A maior latência, em nanossegundos.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BUCKET_BITS
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long base = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return base + (1L << shift) - 1;
+    }
+}
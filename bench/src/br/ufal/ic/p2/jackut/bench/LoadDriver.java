@@ -0,0 +1,184 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.services.Facade;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A classe `LoadDriver` gera uma rede social com o {@link WorkloadGenerator} e aplica sobre ela, através da
+ * {@link Facade}, uma mistura de operações por várias threads, reportando a vazão e os percentis de latência
+ * de cada operação. Tudo roda localmente, na mesma JVM do sistema.
+ *
+ * Há dois modos de carga:
+ * <ul>
+ *     <li>laço fechado (`load.rate=0`, padrão): cada uma das `load.threads` threads executa uma operação
+ *     assim que a anterior termina;</li>
+ *     <li>taxa alvo (`load.rate=N` operações por segundo): as operações são agendadas em instantes fixos,
+ *     divididos entre as threads, e a latência é medida a partir do instante agendado, de modo que a fila
+ *     formada quando o sistema não acompanha a taxa aparece nos percentis.</li>
+ * </ul>
+ *
+ * O usuário que executa cada operação é sorteado uniformemente; os alvos (amigos, destinatários e ídolos)
+ * são sorteados pelos pesos de popularidade do gerador. Operações recusadas pela `Facade` (convite repetido,
+ * caixa vazia, etc.) são contadas como erros, sem latência.
+ *
+ * Configuração (propriedades do sistema): `load.users`, `load.degree`, `load.exponent`, `load.fans`,
+ * `load.communities`, `load.memberships`, `load.seed`, `load.threads`, `load.rate`, `load.warmupSeconds`,
+ * `load.seconds` e `load.mix` (pesos por operação, como `getAmigos:15,enviarRecado:15`). Execute em um
+ * diretório vazio, pois o sistema grava os seus arquivos no diretório corrente, e com
+ * `-Djackut.journal.async=true` para medir o sistema sem o fsync de cada escrita. Para execuções longas, use
+ * também `-Djackut.session.idleTtlMillis=0`, pois as sessões da geração não são renovadas.
+ */
+public class LoadDriver {
+    private static final int USERS = Integer.getInteger("load.users", 100_000);
+    private static final double DEGREE = Double.parseDouble(System.getProperty("load.degree", "20"));
+    private static final double EXPONENT = Double.parseDouble(System.getProperty("load.exponent", "2.5"));
+    private static final int FANS = Integer.getInteger("load.fans", 5);
+    private static final int COMMUNITIES = Integer.getInteger("load.communities", 1000);
+    private static final int MEMBERSHIPS = Integer.getInteger("load.memberships", 3);
+    private static final long SEED = Long.getLong("load.seed", 42);
+    private static final int THREADS = Integer.getInteger("load.threads", Runtime.getRuntime().availableProcessors());
+    private static final double RATE = Double.parseDouble(System.getProperty("load.rate", "0"));
+    private static final long WARMUP_SECONDS = Long.getLong("load.warmupSeconds", 5);
+    private static final long SECONDS = Long.getLong("load.seconds", 30);
+    private static final String MIX = System.getProperty("load.mix", "");
+
+    /**
+     * Operações da mistura, com os seus pesos padrão.
+     */
+    private enum Operation {
+        GET_AMIGOS("getAmigos", 15, (facade, workload, user, random) -> facade.getAmigos(workload.login(user))),
+        EH_AMIGO("ehAmigo", 10, (facade, workload, user, random) -> facade.ehAmigo(workload.login(user), workload.login(workload.sampleUser(random)))),
+        GET_ATRIBUTO("getAtributoUsuario", 10, (facade, workload, user, random) -> facade.getAtributoUsuario(workload.login(user), "nome")),
+        ADICIONAR_AMIGO("adicionarAmigo", 10, (facade, workload, user, random) ->
+                facade.adicionarAmigo(workload.session(user), workload.login(workload.sampleUser(random)))),
+        ENVIAR_RECADO("enviarRecado", 15, (facade, workload, user, random) ->
+                facade.enviarRecado(workload.session(user), workload.login(workload.sampleUser(random)), "Recado de " + workload.login(user))),
+        LER_RECADO("lerRecado", 10, (facade, workload, user, random) -> facade.lerRecado(workload.session(user))),
+        ENVIAR_MENSAGEM("enviarMensagem", 8, (facade, workload, user, random) -> {
+            String community = workload.sampleCommunity(user, random);
+            if (community == null) throw new IllegalStateException("Usuário sem comunidades.");
+            facade.enviarMensagem(workload.session(user), community, "Mensagem de " + workload.login(user));
+        }),
+        LER_MENSAGEM("lerMensagem", 7, (facade, workload, user, random) -> facade.lerMensagem(workload.session(user))),
+        EDITAR_PERFIL("editarPerfil", 10, (facade, workload, user, random) ->
+                facade.editarPerfil(workload.session(user), "cidade", "Cidade " + random.nextInt(1000)));
+
+        final String label;
+        final int weight;
+        final Action action;
+
+        Operation(String label, int weight, Action action) {
+            this.label = label;
+            this.weight = weight;
+            this.action = action;
+        }
+    }
+
+    private interface Action {
+        void run(Facade facade, WorkloadGenerator workload, int user, SplittableRandom random);
+    }
+
+    private LoadDriver() {
+    }
+    /**
+     * Gera a rede, aplica a carga e imprime o relatório.
+     *
+     * @param args Não utilizados; a configuração vem das propriedades do sistema.
+     * @throws InterruptedException Se a execução for interrompida.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Facade facade = new Facade();
+        WorkloadGenerator workload = new WorkloadGenerator(USERS, DEGREE, EXPONENT, FANS, COMMUNITIES, MEMBERSHIPS, SEED);
+        workload.populate(facade, THREADS);
+
+        int[] mix = mix();
+        LatencyHistogram[][] histograms = new LatencyHistogram[THREADS][Operation.values().length];
+        Thread[] workers = new Thread[THREADS];
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(SECONDS);
+        System.out.printf(Locale.ROOT, "Carga: %d threads, %s, %d s de aquecimento e %d s de medição%n", THREADS,
+                RATE > 0 ? String.format(Locale.ROOT, "%.0f ops/s", RATE) : "laço fechado", WARMUP_SECONDS, SECONDS);
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            for (int o = 0; o < Operation.values().length; o++) histograms[t][o] = new LatencyHistogram();
+            workers[t] = new Thread(() -> work(facade, workload, mix, histograms[thread], new SplittableRandom(SEED + 1000 + thread),
+                    start + (long) (thread * 1e9 / Math.max(RATE, 1)), measureStart, end), "jackut-load-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) worker.join();
+        report(histograms, end - measureStart);
+    }
+    /**
+     * Laço de uma thread: sorteia a operação e o usuário, executa e registra a latência quando dentro da medição.
+     */
+    private static void work(Facade facade, WorkloadGenerator workload, int[] mix, LatencyHistogram[] histograms,
+                             SplittableRandom random, long firstSlot, long measureStart, long end) {
+        Operation[] operations = Operation.values();
+        long interval = RATE > 0 ? (long) (THREADS * 1e9 / RATE) : 0, slot = firstSlot;
+        while (true) {
+            long begin;
+            if (interval > 0) {
+                while ((begin = System.nanoTime()) < slot) LockSupport.parkNanos(slot - begin);
+                begin = slot; // A latência inclui a espera em fila quando a thread está atrasada.
+                slot += interval;
+            } else begin = System.nanoTime();
+            if (begin >= end || System.nanoTime() >= end) return;
+            int pick = random.nextInt(mix[mix.length - 1]), o = 0;
+            while (mix[o] <= pick) o++;
+            boolean failed = false;
+            try {
+                operations[o].action.run(facade, workload, random.nextInt(workload.getUsers()), random);
+            } catch (RuntimeException e) {
+                failed = true;
+            }
+            if (begin < measureStart) continue;
+            if (failed) histograms[o].recordError();
+            else histograms[o].record(System.nanoTime() - begin);
+        }
+    }
+    /**
+     * Obtém os pesos acumulados das operações, a partir de `load.mix` ou dos pesos padrão.
+     */
+    private static int[] mix() {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) weights.put(operation.label, MIX.isBlank() ? operation.weight : 0);
+        for (String entry : MIX.split(",")) {
+            if (entry.isBlank()) continue;
+            String[] parts = entry.split(":");
+            if (parts.length != 2 || !weights.containsKey(parts[0].trim()))
+                throw new IllegalArgumentException("Entrada inválida em load.mix: " + entry + " (operações: " + weights.keySet() + ")");
+            weights.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+        }
+        int[] cumulative = new int[weights.size()];
+        int sum = 0, i = 0;
+        for (int weight : weights.values()) cumulative[i++] = sum += weight;
+        if (sum <= 0) throw new IllegalArgumentException("load.mix não tem operações com peso positivo.");
+        return cumulative;
+    }
+
+    private static void report(LatencyHistogram[][] histograms, long nanos) {
+        double seconds = nanos / 1e9;
+        LatencyHistogram total = new LatencyHistogram();
+        System.out.printf(Locale.ROOT, "%n%-20s %10s %10s %10s %10s %10s %10s %10s %10s%n",
+                "Operação", "ops/s", "erros/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "amostras");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram merged = new LatencyHistogram();
+            for (LatencyHistogram[] thread : histograms) merged.add(thread[operation.ordinal()]);
+            if (merged.getCount() + merged.getErrors() == 0) continue;
+            print(operation.label, merged, seconds);
+            total.add(merged);
+        }
+        print("total", total, seconds);
+    }
+
+    private static void print(String label, LatencyHistogram histogram, double seconds) {
+        System.out.printf(Locale.ROOT, "%-20s %10.0f %10.0f %10.1f %10.1f %10.1f %10.1f %10.1f %10d%n", label,
+                histogram.getCount() / seconds, histogram.getErrors() / seconds,
+                histogram.percentile(0.5) / 1e3, histogram.percentile(0.9) / 1e3, histogram.percentile(0.99) / 1e3,
+                histogram.percentile(0.999) / 1e3, histogram.getMax() / 1e3, histogram.getCount());
+    }
+}
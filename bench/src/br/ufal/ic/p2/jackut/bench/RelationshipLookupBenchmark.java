@@ -0,0 +1,84 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.bench.BenchmarkRunner.Benchmark;
+import br.ufal.ic.p2.jackut.models.SocialGraph;
+import br.ufal.ic.p2.jackut.models.SocialGraph.Relation;
+
+import java.util.*;
+
+/**
+ * A classe `RelationshipLookupBenchmark` mede a verificação de pertinência em uma lista de relacionamentos
+ * (`ehAmigo`, `ehFa`, `ehPaquera`, `ehInimigo` e as verificações de duplicidade dos convites), pela quantidade
+ * de logins na lista (`degree`) e pela estrutura que a guarda (`store`):
+ * <ul>
+ *     <li>`ArrayList`: a lista original, percorrida a cada verificação;</li>
+ *     <li>`LinkedHashSet`: o conjunto com ordem de inserção que a substituiu;</li>
+ *     <li>`SocialGraph`: o grafo de IDs inteiros atual, consultado como em {@code Relationships}, pelo ID do
+ *     login e pelo conjunto de arestas.</li>
+ * </ul>
+ * As consultas alternam, em ordem aleatória fixa, logins presentes na lista e logins ausentes dela.
+ *
+ * Uso, a partir de um diretório com as classes do sistema e deste módulo no classpath:
+ * {@code java -Dbench.degree=10,1000 -Dbench.store=ArrayList,LinkedHashSet -cp ... br.ufal.ic.p2.jackut.bench.RelationshipLookupBenchmark}
+ */
+public class RelationshipLookupBenchmark {
+    private static final int KEYS = 1 << 12; // Logins consultados em sequência, metade presentes e metade ausentes.
+
+    private static Collection<String> relation;
+    private static SocialGraph graph;
+    private static int owner; // Nó do dono da lista, no grafo.
+    private static String[] keys;
+
+    private RelationshipLookupBenchmark() {
+    }
+    /**
+     * Ponto de entrada dos benchmarks.
+     *
+     * @param args A expressão regular que seleciona os benchmarks (todos, se omitida).
+     * @throws Exception Se algum benchmark falhar.
+     */
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner(RelationshipLookupBenchmark.class);
+        runner.param("degree", "10,1000,100000");
+        runner.param("store", "ArrayList,LinkedHashSet,SocialGraph");
+
+        runner.add(new Benchmark("contains", false, "degree", "store")
+                .trialSetup(RelationshipLookupBenchmark::createRelation)
+                .measure(i -> {
+                    String login = keys[(int) (i & (KEYS - 1))];
+                    if (graph == null) return relation.contains(login);
+                    int target = graph.find(login);
+                    return target >= 0 && graph.contains(Relation.FRIENDS, owner, target);
+                }));
+        runner.execute(args);
+    }
+    /**
+     * Cria a lista de relacionamentos com `degree` logins na estrutura informada e sorteia os logins consultados.
+     */
+    private static void createRelation(Map<String, String> params) {
+        int degree = Integer.parseInt(params.get("degree"));
+        String store = params.get("store");
+        relation = null;
+        graph = null;
+        switch (store) {
+            case "ArrayList" -> relation = new ArrayList<>(degree);
+            case "LinkedHashSet" -> relation = new LinkedHashSet<>();
+            case "SocialGraph" -> {
+                graph = new SocialGraph();
+                owner = graph.node("dono");
+            }
+            default -> throw new IllegalArgumentException("Estrutura desconhecida: " + store);
+        }
+        for (int k = 0; k < degree; k++) {
+            String login = "amigo" + k;
+            if (graph == null) relation.add(login);
+            else graph.add(Relation.FRIENDS, owner, graph.node(login));
+        }
+        Random random = new Random(42);
+        keys = new String[KEYS];
+        for (int k = 0; k < KEYS; k++) {
+            // Logins novos a cada consulta, como os recebidos pela Facade, e não as instâncias guardadas na lista.
+            keys[k] = (random.nextBoolean() ? "amigo" : "outro") + random.nextInt(degree);
+        }
+    }
+}
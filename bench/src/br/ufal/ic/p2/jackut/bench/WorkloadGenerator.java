@@ -0,0 +1,203 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.services.Facade;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A classe `WorkloadGenerator` gera uma rede social sintética com distribuições de cauda pesada e a cria no
+ * sistema através da {@link Facade}.
+ *
+ * Cada usuário recebe um peso que segue uma lei de potência, `w(i) = (i + 1)^(-1 / (expoente - 1))`, e as
+ * pontas das amizades e os ídolos são sorteados proporcionalmente aos pesos (modelo de Chung-Lu): os graus
+ * seguem aproximadamente uma lei de potência com o expoente informado, com poucos usuários muito populares
+ * e uma maioria com poucos amigos. Os tamanhos das comunidades seguem uma distribuição de Zipf: cada
+ * participação sorteia a comunidade com peso `1 / (c + 1)`.
+ *
+ * Os sorteios de cada thread usam uma semente derivada da semente informada, e a criação é feita por várias
+ * threads. Amizades e ídolos sorteados mais de uma vez são recusados pela `Facade` e apenas contados.
+ */
+public class WorkloadGenerator {
+    private static final String PASSWORD = "senha";
+
+    private final int users, communities;
+    private final double degree;
+    private final int fansPerUser, membershipsPerUser;
+    private final long seed;
+    private final double[] userWeights, communityWeights; // Pesos acumulados, para o sorteio por busca binária.
+    private final String[] logins, sessions;
+    private final int[][] memberships; // Comunidades de cada usuário.
+
+    /**
+     * Construtor da classe WorkloadGenerator.
+     *
+     * @param users A quantidade de usuários.
+     * @param degree O grau médio de amizades.
+     * @param exponent O expoente da lei de potência dos graus (maior que 2).
+     * @param fansPerUser A quantidade média de ídolos de cada usuário.
+     * @param communities A quantidade de comunidades.
+     * @param membershipsPerUser A quantidade de comunidades de que cada usuário participa.
+     * @param seed A semente dos sorteios.
+     */
+    public WorkloadGenerator(int users, double degree, double exponent, int fansPerUser, int communities, int membershipsPerUser, long seed) {
+        this.users = users;
+        this.degree = degree;
+        this.fansPerUser = fansPerUser;
+        this.communities = Math.min(communities, users);
+        this.membershipsPerUser = membershipsPerUser;
+        this.seed = seed;
+        this.userWeights = cumulative(users, -1 / (exponent - 1));
+        this.communityWeights = cumulative(this.communities, -1);
+        this.logins = new String[users];
+        this.sessions = new String[users];
+        this.memberships = new int[users][];
+        for (int u = 0; u < users; u++) logins[u] = "u" + u;
+    }
+    /**
+     * Cria a rede no sistema, a partir de um sistema vazio: usuários e sessões, amizades, ídolos, comunidades
+     * (criadas pelos usuários de mesmo índice) e participações.
+     *
+     * @param facade A fachada do sistema.
+     * @param threads A quantidade de threads de criação.
+     * @throws InterruptedException Se a criação for interrompida.
+     */
+    public void populate(Facade facade, int threads) throws InterruptedException {
+        facade.zerarSistema();
+        AtomicLong rejected = new AtomicLong();
+        long start = System.nanoTime();
+        parallel(threads, users, (random, u) -> {
+            facade.criarUsuario(logins[u], PASSWORD, "Usuario " + u);
+            sessions[u] = facade.abrirSessao(logins[u], PASSWORD);
+        }, rejected);
+        report("usuários", users, start);
+
+        start = System.nanoTime();
+        long friendships = (long) (users * degree / 2);
+        parallel(threads, friendships, (random, i) -> {
+            int a = sampleUser(random), b = sampleUser(random);
+            if (a == b) return;
+            facade.adicionarAmigo(sessions[a], logins[b]);
+            facade.adicionarAmigo(sessions[b], logins[a]);
+        }, rejected);
+        report("amizades", friendships, start);
+
+        start = System.nanoTime();
+        long idols = (long) users * fansPerUser;
+        parallel(threads, idols, (random, i) -> {
+            int fan = random.nextInt(users), idol = sampleUser(random);
+            if (fan != idol) facade.adicionarIdolo(sessions[fan], logins[idol]);
+        }, rejected);
+        report("ídolos", idols, start);
+
+        start = System.nanoTime();
+        for (int c = 0; c < communities; c++) facade.criarComunidade(sessions[c], community(c), "Comunidade sintética " + c);
+        parallel(threads, users, (random, u) -> {
+            Set<Integer> joined = new LinkedHashSet<>();
+            if (u < communities) joined.add(u); // Comunidade própria.
+            for (int m = 0; m < membershipsPerUser && communities > 0; m++) {
+                int c = sample(communityWeights, random);
+                if (joined.add(c)) facade.adicionarComunidade(sessions[u], community(c));
+            }
+            memberships[u] = joined.stream().mapToInt(Integer::intValue).toArray();
+        }, rejected);
+        report("participações", (long) users * membershipsPerUser, start);
+        System.out.println("Operações recusadas durante a geração (repetições): " + rejected.get());
+    }
+    /**
+     * Sorteia um usuário com probabilidade proporcional ao seu peso.
+     *
+     * @param random O gerador de números aleatórios.
+     * @return O índice do usuário.
+     */
+    public int sampleUser(SplittableRandom random) {
+        return sample(userWeights, random);
+    }
+    /**
+     * Sorteia uma das comunidades de um usuário.
+     *
+     * @param user O índice do usuário.
+     * @param random O gerador de números aleatórios.
+     * @return O nome da comunidade, ou `null` se o usuário não participar de nenhuma.
+     */
+    public String sampleCommunity(int user, SplittableRandom random) {
+        int[] joined = memberships[user];
+        return joined == null || joined.length == 0 ? null : community(joined[random.nextInt(joined.length)]);
+    }
+    /**
+     * Obtém a quantidade de usuários.
+     * @return A quantidade de usuários.
+     */
+    public int getUsers() {
+        return users;
+    }
+    /**
+     * Obtém o login de um usuário.
+     * @param user O índice do usuário.
+     * @return O login.
+     */
+    public String login(int user) {
+        return logins[user];
+    }
+    /**
+     * Obtém a sessão aberta para um usuário durante a geração.
+     * @param user O índice do usuário.
+     * @return O ID da sessão.
+     */
+    public String session(int user) {
+        return sessions[user];
+    }
+    /**
+     * Obtém a semente dos sorteios.
+     * @return A semente.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    private static String community(int c) {
+        return "comunidade" + c;
+    }
+
+    private static double[] cumulative(int size, double power) {
+        double[] weights = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) weights[i] = sum += Math.pow(i + 1, power);
+        return weights;
+    }
+
+    private static int sample(double[] cumulative, SplittableRandom random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+        return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+    }
+
+    private interface Task {
+        void run(SplittableRandom random, int index);
+    }
+    /**
+     * Executa a tarefa para os índices de 0 a `count - 1`, divididos entre as threads, contando as recusas da `Facade`.
+     */
+    private void parallel(int threads, long count, Task task, AtomicLong rejected) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.execute(() -> {
+                SplittableRandom random = new SplittableRandom(seed * 31 + thread + count);
+                for (long i = thread; i < count; i += threads) {
+                    try {
+                        task.run(random, (int) (i % Integer.MAX_VALUE));
+                    } catch (RuntimeException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(1, TimeUnit.DAYS)) throw new IllegalStateException("Geração não concluída.");
+    }
+
+    private static void report(String what, long count, long start) {
+        System.out.printf(Locale.ROOT, "Gerados %d %s em %.1f s%n", count, what, (System.nanoTime() - start) / 1e9);
+    }
+}
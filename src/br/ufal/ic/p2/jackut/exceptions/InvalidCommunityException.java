@@ -1,6 +1,6 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
-public class InvalidCommunityException extends RuntimeException{
+public class InvalidCommunityException extends JackutException{
 
     public InvalidCommunityException(){
         super("Esse objeto já existe.");
@@ -1,6 +1,6 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
-public class InvalidCredentialException extends RuntimeException{
+public class InvalidCredentialException extends JackutException{
     public InvalidCredentialException(){
         super("Credencial Inválida");
     }
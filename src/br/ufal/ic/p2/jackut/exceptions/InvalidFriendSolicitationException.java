@@ -1,6 +1,6 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
-public class InvalidFriendSolicitationException extends RuntimeException{
+public class InvalidFriendSolicitationException extends JackutException{
 
     public InvalidFriendSolicitationException(){
         super("Usuário não pode ser adicionado como amigo");
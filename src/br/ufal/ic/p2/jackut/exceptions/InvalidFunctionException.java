@@ -1,6 +1,6 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
-public class InvalidFunctionException extends RuntimeException {
+public class InvalidFunctionException extends JackutException {
     public InvalidFunctionException(){
         super("Função Inválida");
     }
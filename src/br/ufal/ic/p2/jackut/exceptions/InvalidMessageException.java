@@ -1,6 +1,6 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
-public class InvalidMessageException extends RuntimeException {
+public class InvalidMessageException extends JackutException {
     public InvalidMessageException(){
         super("Usuário não pode enviar recado para esse destino.");
     }
@@ -0,0 +1,17 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+/**
+ * A classe `JackutException` é a base das exceções de domínio do sistema Jackut.
+ *
+ * Essas exceções sinalizam resultados comuns das operações (usuário inexistente, caixa vazia, atributo não
+ * preenchido), e não falhas do programa, e por isso não capturam a pilha de chamadas, cujo custo superaria o da
+ * própria operação. A captura pode ser reativada para depuração com `-Djackut.exceptions.stackTraces=true`.
+ */
+public abstract class JackutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private static final boolean STACK_TRACES = Boolean.getBoolean("jackut.exceptions.stackTraces");
+
+    protected JackutException(String message){
+        super(message, null, true, STACK_TRACES);
+    }
+}
@@ -2,7 +2,7 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 import br.ufal.ic.p2.jackut.models.Message;
 
-public class MessageNotFoundException extends RuntimeException{
+public class MessageNotFoundException extends JackutException{
     public MessageNotFoundException(){
         super("Mensagem nao encontrada.");
     }
@@ -1,6 +1,6 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
-public class UserDuplicationException extends RuntimeException {
+public class UserDuplicationException extends JackutException {
     public UserDuplicationException(){
         super("Usuário já existe.");
     }
@@ -1,8 +1,8 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
-public class UserNotFoundException extends RuntimeException{
+public class UserNotFoundException extends JackutException{
     public UserNotFoundException(){
-        super("Usurio no cadastrado.");
+        super("Usuário não cadastrado.");
     }
     public UserNotFoundException(String message){
         super(message);
@@ -0,0 +1,156 @@
+package br.ufal.ic.p2.jackut.interfaces;
+
+import java.util.Map;
+
+/**
+ * A interface `MetricsMXBean` define as métricas do sistema Jackut expostas por JMX, sob o nome
+ * `br.ufal.ic.p2.jackut:type=Metrics`.
+ *
+ * As métricas por operação são indexadas pelo nome do método da `Facade` e incluem apenas as operações já
+ * chamadas desde a inicialização ou desde o último {@link #reset()}. As latências são dadas em microssegundos e
+ * calculadas sobre uma amostra das chamadas, e incluem apenas as operações com alguma chamada amostrada.
+ */
+public interface MetricsMXBean {
+    /**
+     * Obtém a quantidade de usuários registrados.
+     * @return A quantidade de usuários.
+     */
+    int getUsers();
+    /**
+     * Obtém a quantidade de sessões ativas.
+     * @return A quantidade de sessões ativas.
+     */
+    int getSessions();
+    /**
+     * Obtém a quantidade de sessões abertas desde a inicialização.
+     * @return A quantidade de sessões abertas.
+     */
+    long getOpenedSessions();
+    /**
+     * Obtém a quantidade de sessões removidas por expiração (ociosidade ou TTL absoluto).
+     * @return A quantidade de sessões expiradas.
+     */
+    long getExpiredSessions();
+    /**
+     * Obtém a quantidade de comunidades registradas.
+     * @return A quantidade de comunidades.
+     */
+    int getCommunities();
+    /**
+     * Obtém a quantidade total de recados ainda não lidos nas caixas de mensagens dos usuários.
+     * @return A quantidade de recados enfileirados.
+     */
+    long getQueuedMessages();
+    /**
+     * Obtém a quantidade de mensagens retidas nos registros de mensagens das comunidades, à espera de
+     * algum membro que ainda não as leu.
+     * @return A quantidade de mensagens de comunidade retidas.
+     */
+    long getRetainedCommunityMessages();
+    /**
+     * Obtém a quantidade de listas servidas pelo cache de listas renderizadas.
+     * @return A quantidade de acertos do cache.
+     */
+    long getViewCacheHits();
+    /**
+     * Obtém a quantidade de listas que precisaram ser renderizadas por não estarem no cache.
+     * @return A quantidade de falhas do cache.
+     */
+    long getViewCacheMisses();
+    /**
+     * Obtém a fração das consultas de listas servidas pelo cache, entre 0 e 1.
+     * @return A taxa de acertos do cache.
+     */
+    double getViewCacheHitRate();
+    /**
+     * Obtém a quantidade de listas descartadas do cache para respeitar o limite de memória.
+     * @return A quantidade de descartes.
+     */
+    long getViewCacheEvictions();
+    /**
+     * Obtém o tamanho estimado do cache de listas renderizadas.
+     * @return O tamanho estimado, em bytes.
+     */
+    long getViewCacheBytes();
+    /**
+     * Obtém a quantidade de checkpoints em segundo plano concluídos.
+     * @return A quantidade de checkpoints.
+     */
+    long getCheckpoints();
+    /**
+     * Obtém o tempo em que as operações ficaram suspensas no último checkpoint, enquanto as alterações eram
+     * capturadas em memória.
+     * @return A pausa do último checkpoint, em microssegundos.
+     */
+    double getLastCheckpointPause();
+    /**
+     * Obtém a duração do último checkpoint, da captura ao fim da gravação e da compactação do diário.
+     * @return A duração do último checkpoint, em microssegundos.
+     */
+    double getLastCheckpointDuration();
+    /**
+     * Obtém a quantidade de acessos a usuários atendidos pelo cache do registro paginado, sem leitura do disco.
+     * @return A quantidade de acertos do cache de usuários, ou 0 se os usuários são mantidos em memória.
+     */
+    long getUserCacheHits();
+    /**
+     * Obtém a quantidade de acessos que precisaram carregar o usuário do arquivo de páginas.
+     * @return A quantidade de faltas do cache de usuários, ou 0 se os usuários são mantidos em memória.
+     */
+    long getUserCacheMisses();
+    /**
+     * Obtém a quantidade de usuários removidos do cache do registro paginado para respeitar a capacidade.
+     * @return A quantidade de remoções, ou 0 se os usuários são mantidos em memória.
+     */
+    long getUserCacheEvictions();
+    /**
+     * Obtém a quantidade de registros de usuários regravados no arquivo de páginas por conterem alterações.
+     * @return A quantidade de regravações, ou 0 se os usuários são mantidos em memória.
+     */
+    long getUserCacheWriteBacks();
+    /**
+     * Obtém a quantidade de usuários residentes no cache do registro paginado, incluindo os fixados por sessões.
+     * @return A quantidade de usuários residentes, ou a quantidade de usuários se todos são mantidos em memória.
+     */
+    int getResidentUsers();
+    /**
+     * Obtém a quantidade de chamadas de cada operação, incluindo as que terminaram com exceção.
+     * @return As chamadas por operação.
+     */
+    Map<String, Long> getCalls();
+    /**
+     * Obtém a quantidade de chamadas de cada operação que terminaram com exceção.
+     * @return Os erros por operação.
+     */
+    Map<String, Long> getErrors();
+    /**
+     * Obtém a quantidade de exceções lançadas pelas operações, por tipo de exceção.
+     * @return Os erros por nome simples da classe da exceção.
+     */
+    Map<String, Long> getErrorsByType();
+    /**
+     * Obtém a mediana da latência de cada operação.
+     * @return A latência p50 por operação, em microssegundos.
+     */
+    Map<String, Double> getLatencyP50();
+    /**
+     * Obtém o percentil 99 da latência de cada operação.
+     * @return A latência p99 por operação, em microssegundos.
+     */
+    Map<String, Double> getLatencyP99();
+    /**
+     * Obtém o percentil 99,9 da latência de cada operação.
+     * @return A latência p99,9 por operação, em microssegundos.
+     */
+    Map<String, Double> getLatencyP999();
+    /**
+     * Obtém a maior latência amostrada de cada operação.
+     * @return A latência máxima por operação, em microssegundos.
+     */
+    Map<String, Double> getLatencyMax();
+    /**
+     * Zera os contadores e os histogramas das operações. Os indicadores de estado (usuários, sessões,
+     * comunidades, mensagens, cache de listas e cache de usuários) não são afetados.
+     */
+    void reset();
+}
@@ -0,0 +1,76 @@
+package br.ufal.ic.p2.jackut.interfaces;
+
+import br.ufal.ic.p2.jackut.models.User;
+
+/**
+ * A interface `UserStore` define o registro de usuários do sistema Jackut, indexado pelo login.
+ * As implementações podem manter todos os usuários no heap ou apenas parte deles, carregando os
+ * demais sob demanda a partir do disco.
+ */
+public interface UserStore {
+    /**
+     * Obtém um usuário pelo login.
+     *
+     * @param login O login do usuário.
+     * @return O usuário, ou `null` se não existir.
+     */
+    User get(String login);
+    /**
+     * Verifica se existe um usuário com o login informado.
+     *
+     * @param login O login a ser verificado.
+     * @return `true` se o usuário existir, `false` caso contrário.
+     */
+    boolean contains(String login);
+    /**
+     * Adiciona um usuário ao registro, caso ainda não exista um usuário com o mesmo login.
+     *
+     * @param user O usuário a ser adicionado.
+     * @return `true` se o usuário foi adicionado, `false` se o login já existia.
+     */
+    boolean add(User user);
+    /**
+     * Remove um usuário do registro.
+     *
+     * @param login O login do usuário a ser removido.
+     */
+    void remove(String login);
+    /**
+     * Altera o login de um usuário, mantendo o registro indexado pelo login atual.
+     *
+     * @param user O usuário cujo login será alterado.
+     * @param login O novo login.
+     */
+    void rename(User user, String login);
+    /**
+     * Mantém o usuário residente enquanto houver uma sessão ou operação que o referencia.
+     * As fixações são contadas: o usuário só deixa de estar fixado após o mesmo número de {@link #unpin(String)}.
+     * Logins inexistentes são ignorados.
+     *
+     * @param login O login do usuário.
+     */
+    void pin(String login);
+    /**
+     * Desfaz uma fixação feita por {@link #pin(String)}. Logins não fixados são ignorados.
+     *
+     * @param login O login do usuário.
+     */
+    void unpin(String login);
+    /**
+     * Obtém a quantidade de usuários registrados.
+     * @return A quantidade de usuários.
+     */
+    int size();
+    /**
+     * Remove todos os usuários do registro.
+     */
+    void clear();
+    /**
+     * Percorre todos os usuários para leitura. Usuários que não estão residentes podem ser
+     * carregados apenas para a visita, sem entrar no cache; por isso não devem ser alterados.
+     * Para alterar um usuário encontrado, obtenha-o através de {@link #get(String)}.
+     *
+     * @return Uma visão somente leitura dos usuários.
+     */
+    Iterable<User> values();
+}
@@ -2,19 +2,25 @@ package br.ufal.ic.p2.jackut.models;
 
 import com.fasterxml.jackson.annotation.JsonAnySetter;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 /**
  * A classe Community representa uma comunidade dentro do sistema Jackut.
- * Cada comunidade tem um nome, uma descrição, um gerente e uma lista de membros.
+ * Cada comunidade tem um nome, uma descrição, um gerente e um conjunto de membros, mantido em ordem de entrada.
  * Os membros são usuários que fazem parte dessa comunidade.
+ * As mensagens enviadas à comunidade ficam no seu {@link MessageLog}, lido por cada membro através de um cursor.
  */
 public class Community {
     private String name; // O nome da comunidade.
     private String description; // A descrição da comunidade.
     private String manager; // O login do gerente da comunidade.
-    private ArrayList<String> members; // A lista de membros da comunidade.
+    private Set<String> members; // Os membros da comunidade, em ordem de entrada.
+    private final MessageLog messageLog = new MessageLog(); // O registro de mensagens da comunidade.
+    private long version = VERSIONS.incrementAndGet(); // A versão da lista de membros.
+    private static final AtomicLong VERSIONS = new AtomicLong(); // Última versão atribuída a uma lista de membros.
 
     /**
      * Construtor da classe Community.
@@ -28,7 +34,7 @@ public class Community {
         this.name = name;
         this.description = description;
         this.manager = manager;
-        this.members = new ArrayList<>();
+        this.members = new LinkedHashSet<>();
     }
     /**
      * Obtém a descrição da comunidade.
@@ -47,13 +53,34 @@ public class Community {
         return manager;
     }
     /**
-     * Obtém a lista de membros da comunidade.
+     * Obtém os membros da comunidade, em ordem de entrada.
+     * O conjunto só deve ser alterado diretamente durante a carga dos dados; depois dela, use
+     * {@link #addMember(User)} e {@link #removeMember(String)}, que renovam a versão da lista.
      *
-     * @return A lista de membros da comunidade.
+     * @return O conjunto de membros da comunidade.
      */
-    public ArrayList<String> getMembers() {
+    public Set<String> getMembers() {
         return members;
     }
+    /**
+     * Obtém a quantidade de membros da comunidade, sem percorrê-los.
+     *
+     * @return A quantidade de membros da comunidade.
+     */
+    @JsonIgnore
+    public int getMemberCount() {
+        return members.size();
+    }
+    /**
+     * Obtém a versão da lista de membros, renovada a cada entrada ou saída de um membro.
+     * As versões nunca se repetem, nem entre comunidades diferentes.
+     *
+     * @return A versão da lista de membros.
+     */
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
     /**
      * Obtém o nome da comunidade.
      *
@@ -68,7 +95,9 @@ public class Community {
      * @param name O novo nome da comunidade.
      */
     public void setName(String name) {
+        DirtyTracker.COMMUNITIES.mark(this.name);
         this.name = name;
+        DirtyTracker.COMMUNITIES.mark(name);
     }
     /**
      * Define a descrição da comunidade.
@@ -77,6 +106,7 @@ public class Community {
      */
     public void setDescription(String description) {
         this.description = description;
+        DirtyTracker.COMMUNITIES.mark(name);
     }
     /**
      * Define o gerente da comunidade.
@@ -85,22 +115,63 @@ public class Community {
      */
     public void setManager(String manager) {
         this.manager = manager;
+        DirtyTracker.COMMUNITIES.mark(name);
+    }
+    /**
+     * Define os membros da comunidade.
+     *
+     * @param members Os novos membros da comunidade, na ordem de entrada.
+     */
+    public void setMembers(Collection<String> members) {
+        this.members = new LinkedHashSet<>(members);
+        this.version = VERSIONS.incrementAndGet();
+        DirtyTracker.COMMUNITIES.mark(name);
     }
     /**
-     * Define a lista de membros da comunidade.
+     * Obtém o registro de mensagens da comunidade.
      *
-     * @param members A nova lista de membros da comunidade.
+     * @return O registro de mensagens da comunidade.
      */
-    public void setMembers(ArrayList<String> members) {
-        this.members = members;
+    public MessageLog getMessageLog() {
+        return messageLog;
     }
     /**
-     * Adiciona um usuário à lista de membros da comunidade.
+     * Adiciona um usuário à lista de membros da comunidade, com o cursor de leitura no final do registro de mensagens.
      *
      * @param user O usuário a ser adicionado à comunidade.
      */
     public void addMember(User user) {
-        members.add(user.getLogin());
+        if (members.add(user.getLogin())) version = VERSIONS.incrementAndGet();
+        messageLog.join(user.getLogin());
+        DirtyTracker.COMMUNITIES.mark(name);
+    }
+    /**
+     * Remove um membro da comunidade e o seu cursor de leitura.
+     *
+     * @param login O login do membro a ser removido.
+     */
+    public void removeMember(String login) {
+        if (members.remove(login)) version = VERSIONS.incrementAndGet();
+        messageLog.leave(login);
+        DirtyTracker.COMMUNITIES.mark(name);
+    }
+    /**
+     * Transfere a participação de um membro que trocou de login: a sua posição na lista de membros, o seu
+     * cursor de leitura e, se for o caso, a gerência da comunidade.
+     *
+     * @param oldLogin O login anterior.
+     * @param newLogin O novo login.
+     */
+    public void renameMember(String oldLogin, String newLogin) {
+        if (members.contains(oldLogin)) {
+            Set<String> renamed = new LinkedHashSet<>();
+            for (String member : members) renamed.add(member.equals(oldLogin) ? newLogin : member);
+            members = renamed;
+            version = VERSIONS.incrementAndGet();
+        }
+        if (Objects.equals(manager, oldLogin)) manager = newLogin;
+        messageLog.rename(oldLogin, newLogin);
+        DirtyTracker.COMMUNITIES.mark(name);
     }
 }
 
@@ -0,0 +1,71 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A classe `DirtyTracker` registra as chaves (logins ou nomes de comunidades) dos registros alterados desde o
+ * último salvamento, para que o próximo salvamento grave apenas esses registros em uma camada incremental.
+ *
+ * Os métodos que alteram usuários, comunidades e o {@link SocialGraph} marcam a chave do registro alterado;
+ * uma chave marcada que não existe mais no salvamento corresponde a um registro excluído. A marcação pode
+ * ser suspensa durante a carga dos dados, que não altera nada em relação aos arquivos lidos.
+ */
+public class DirtyTracker {
+    public static final DirtyTracker USERS = new DirtyTracker(); // Logins dos usuários alterados.
+    public static final DirtyTracker COMMUNITIES = new DirtyTracker(); // Nomes das comunidades alteradas.
+
+    private volatile Set<String> keys = ConcurrentHashMap.newKeySet();
+    private volatile boolean enabled = true;
+
+    private DirtyTracker() {
+    }
+    /**
+     * Marca um registro como alterado.
+     *
+     * @param key O login do usuário ou o nome da comunidade.
+     */
+    public void mark(String key) {
+        if (enabled && key != null) keys.add(key);
+    }
+    /**
+     * Retira as chaves marcadas, recomeçando o registro vazio.
+     *
+     * @return As chaves marcadas desde a última retirada.
+     */
+    public synchronized Set<String> drain() {
+        Set<String> drained = keys;
+        keys = ConcurrentHashMap.newKeySet();
+        return drained;
+    }
+    /**
+     * Devolve chaves retiradas por um salvamento que falhou, para que sejam gravadas no próximo.
+     *
+     * @param drained As chaves retiradas.
+     */
+    public void restore(Set<String> drained) {
+        keys.addAll(drained);
+    }
+    /**
+     * Descarta todas as chaves marcadas.
+     */
+    public void clear() {
+        keys.clear();
+    }
+    /**
+     * Ativa ou suspende a marcação.
+     *
+     * @param enabled `true` para marcar as alterações, `false` para ignorá-las.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    /**
+     * Obtém a quantidade de registros marcados.
+     *
+     * @return A quantidade de chaves marcadas.
+     */
+    public int size() {
+        return keys.size();
+    }
+}
@@ -0,0 +1,255 @@
+package br.ufal.ic.p2.jackut.models;
+
+import br.ufal.ic.p2.jackut.models.SocialGraph.Relation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static br.ufal.ic.p2.jackut.models.SocialGraph.GRAPH;
+
+/**
+ * A classe `FriendRecommendations` sugere amigos a um usuário: os amigos dos seus amigos, ordenados pela
+ * quantidade de amigos em comum (e pelo login, no empate), excluindo o próprio usuário, os seus amigos, as
+ * solicitações de amizade pendentes nos dois sentidos e os inimigos, também nos dois sentidos.
+ *
+ * Na primeira consulta de um usuário, a contagem de amigos em comum de cada candidato é feita por um passeio
+ * de dois saltos sobre os nós do {@link SocialGraph} e guardada em um mapa de inteiros. A partir daí, cada
+ * amizade concluída por {@link Session#addFriend(User)} atualiza as contagens guardadas: quando `u` e `v` se
+ * tornam amigos, `u` passa a ser um amigo em comum entre `v` e cada amigo de `u`, e vice-versa. Os amigos de `u`
+ * com contagens guardadas são encontrados pela lista de amigos ou pelas próprias contagens, a que for menor.
+ * Os amigos do usuário ficam marcados como excluídos no próprio mapa, pois uma amizade só é desfeita pela
+ * exclusão de uma conta; as demais exclusões mudam com frequência e são verificadas em O(1) a cada consulta.
+ *
+ * As contagens guardadas ocupam no máximo `jackut.recommendations.maxCandidates` candidatos no total
+ * (4 Mi por padrão; 0 desativa o cache), e as contagens usadas há mais tempo são descartadas primeiro.
+ * As alterações que reduzem amizades ou as criam por outros caminhos (exclusão de contas, limpeza, carga e
+ * importação dos dados) descartam todas as contagens com {@link #clear()}.
+ */
+public class FriendRecommendations {
+    private static final long MAX_CANDIDATES = Long.getLong("jackut.recommendations.maxCandidates", 4L << 20);
+    public static final FriendRecommendations RECOMMENDATIONS = new FriendRecommendations(MAX_CANDIDATES); // Instância única.
+
+    private final long maxCandidates;
+    private final LinkedHashMap<Integer, Scores> scores = new LinkedHashMap<>(16, 0.75f, true); // Ordem de acesso.
+    private long candidates; // Soma dos tamanhos dos mapas guardados.
+    private long changes; // Amizades concluídas e limpezas, para descartar contagens feitas durante uma alteração.
+
+    /**
+     * Construtor da classe FriendRecommendations.
+     *
+     * @param maxCandidates A quantidade máxima de candidatos guardados, somando todos os usuários (0 desativa o cache).
+     */
+    public FriendRecommendations(long maxCandidates) {
+        this.maxCandidates = Math.max(maxCandidates, 0);
+    }
+    /**
+     * Obtém os amigos sugeridos a um usuário.
+     *
+     * @param user O usuário.
+     * @param limit A quantidade máxima de sugestões.
+     * @return Os logins sugeridos, do maior para o menor número de amigos em comum.
+     */
+    public List<String> suggest(User user, int limit) {
+        int node = GRAPH.find(user.getLogin());
+        if (node < 0 || limit <= 0) return new ArrayList<>();
+        Scores candidates = cached(node);
+        if (candidates == null) candidates = count(node);
+        return top(node, candidates, limit);
+    }
+    /**
+     * Atualiza as contagens guardadas após a conclusão de uma amizade. Deve ser chamado depois que os dois
+     * usuários já constam como amigos um do outro.
+     *
+     * @param user Um dos usuários.
+     * @param friend O outro usuário.
+     */
+    public synchronized void friendshipAdded(User user, User friend) {
+        changes++;
+        if (scores.isEmpty()) return;
+        int u = GRAPH.find(user.getLogin()), v = GRAPH.find(friend.getLogin());
+        if (u < 0 || v < 0) return;
+        Scores ofU = scores.get(u), ofV = scores.get(v);
+        exclude(ofU, v);
+        exclude(ofV, u);
+        if (ofV != null) GRAPH.forEachNeighbour(Relation.FRIENDS, u, w -> {
+            if (w != v) increment(ofV, w);
+        });
+        if (ofU != null) GRAPH.forEachNeighbour(Relation.FRIENDS, v, x -> {
+            if (x != u) increment(ofU, x);
+        });
+        mutualAdded(u, v);
+        mutualAdded(v, u);
+        trim();
+    }
+    /**
+     * Descarta todas as contagens guardadas.
+     */
+    public synchronized void clear() {
+        changes++;
+        scores.clear();
+        candidates = 0;
+    }
+    /**
+     * Soma `node` como amigo em comum entre `candidate` e cada amigo de `node` com contagens guardadas,
+     * percorrendo os amigos de `node` ou as contagens guardadas, o que for menor.
+     */
+    private void mutualAdded(int node, int candidate) {
+        if (scores.size() < GRAPH.degree(Relation.FRIENDS, node)) {
+            for (Map.Entry<Integer, Scores> entry : scores.entrySet()) {
+                int friend = entry.getKey();
+                if (friend != candidate && GRAPH.contains(Relation.FRIENDS, node, friend)) increment(entry.getValue(), candidate);
+            }
+        } else GRAPH.forEachNeighbour(Relation.FRIENDS, node, friend -> {
+            if (friend != candidate) increment(scores.get(friend), candidate);
+        });
+    }
+
+    private void increment(Scores target, int node) {
+        if (target != null && target.increment(node)) candidates++;
+    }
+
+    private void exclude(Scores target, int node) {
+        if (target != null && target.exclude(node)) candidates++;
+    }
+
+    private synchronized Scores cached(int node) {
+        return scores.get(node);
+    }
+    /**
+     * Conta os amigos em comum de cada amigo de um amigo do usuário e guarda o resultado, se nenhuma amizade
+     * tiver sido concluída durante a contagem.
+     */
+    private Scores count(int node) {
+        long before;
+        synchronized (this) {
+            before = changes;
+        }
+        Scores counted = new Scores();
+        int[] friends = GRAPH.neighbours(Relation.FRIENDS, node);
+        for (int friend : friends) {
+            GRAPH.forEachNeighbour(Relation.FRIENDS, friend, candidate -> {
+                if (candidate != node) counted.increment(candidate);
+            });
+        }
+        for (int friend : friends) counted.exclude(friend);
+        synchronized (this) {
+            if (changes == before && counted.size <= maxCandidates / 4) { // Um usuário enorme descartaria boa parte do cache.
+                scores.put(node, counted);
+                candidates += counted.size;
+                trim();
+            }
+        }
+        return counted;
+    }
+    /**
+     * Seleciona os candidatos com mais amigos em comum, verificando as exclusões de cada um.
+     */
+    private List<String> top(int node, Scores candidates, int limit) {
+        PriorityQueue<long[]> best = new PriorityQueue<>(limit + 1, FriendRecommendations::compare);
+        synchronized (this) {
+            for (int slot = 0; slot < candidates.keys.length; slot++) {
+                int candidate = candidates.keys[slot] - 1;
+                if (candidate < 0 || candidates.counts[slot] < 0) continue;
+                long[] entry = {candidate, candidates.counts[slot]};
+                if (best.size() == limit && compare(entry, best.peek()) <= 0) continue;
+                if (excluded(node, candidate)) continue;
+                best.add(entry);
+                if (best.size() > limit) best.poll();
+            }
+        }
+        List<String> logins = new ArrayList<>(best.size());
+        while (!best.isEmpty()) logins.add(GRAPH.name((int) best.poll()[0]));
+        Collections.reverse(logins);
+        return logins;
+    }
+    /**
+     * Ordena primeiro pela quantidade de amigos em comum e, no empate, pelo login em ordem inversa, de modo que
+     * o menor elemento da fila é o primeiro a ser descartado.
+     */
+    private static int compare(long[] a, long[] b) {
+        if (a[1] != b[1]) return Long.compare(a[1], b[1]);
+        return GRAPH.name((int) b[0]).compareTo(GRAPH.name((int) a[0]));
+    }
+
+    private static boolean excluded(int node, int candidate) {
+        return GRAPH.contains(Relation.FRIEND_REQUESTS, node, candidate)
+                || GRAPH.contains(Relation.FRIEND_REQUESTS, candidate, node)
+                || GRAPH.contains(Relation.ENEMIES, node, candidate)
+                || GRAPH.contains(Relation.ENEMIES, candidate, node);
+    }
+    /**
+     * Descarta as contagens dos usuários consultados há mais tempo até respeitar o limite de candidatos.
+     */
+    private void trim() {
+        for (Iterator<Scores> entries = scores.values().iterator(); candidates > maxCandidates && entries.hasNext(); ) {
+            candidates -= entries.next().size;
+            entries.remove();
+        }
+    }
+    /**
+     * Mapa de endereçamento aberto de nó -> quantidade de amigos em comum, sem objetos por candidato.
+     * As chaves são guardadas somadas de 1, para que 0 indique uma posição livre; os amigos do usuário têm
+     * contagem negativa.
+     */
+    private static final class Scores {
+        int[] keys = new int[16], counts = new int[16];
+        int size;
+
+        /**
+         * Soma 1 à contagem de um candidato.
+         *
+         * @return `true` se o candidato é novo.
+         */
+        boolean increment(int node) {
+            int slot = slot(keys, node);
+            if (keys[slot] != 0) {
+                if (counts[slot] >= 0) counts[slot]++;
+                return false;
+            }
+            return insert(slot, node, 1);
+        }
+        /**
+         * Marca um amigo do usuário, que deixa de ser candidato.
+         *
+         * @return `true` se o nó é novo no mapa.
+         */
+        boolean exclude(int node) {
+            int slot = slot(keys, node);
+            if (keys[slot] != 0) {
+                counts[slot] = -1;
+                return false;
+            }
+            return insert(slot, node, -1);
+        }
+
+        private boolean insert(int slot, int node, int count) {
+            keys[slot] = node + 1;
+            counts[slot] = count;
+            if (++size * 2 > keys.length) grow();
+            return true;
+        }
+
+        private static int slot(int[] keys, int node) {
+            int mask = keys.length - 1, hash = node * 0x9E3779B9, slot = (hash ^ hash >>> 16) & mask;
+            while (keys[slot] != 0 && keys[slot] != node + 1) slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys, oldCounts = counts;
+            keys = new int[oldKeys.length * 2];
+            counts = new int[keys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) continue;
+                int slot = slot(keys, oldKeys[i] - 1);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A classe `Mailbox` é uma caixa de mensagens FIFO com uso de memória limitado.
+ *
+ * Apenas o início da fila (as mensagens mais antigas, que serão lidas primeiro) e um pequeno lote de mensagens
+ * recentes ficam no heap. Quando o início está cheio, as novas mensagens se acumulam no lote, que é gravado em
+ * arquivos de segmento somente de acréscimo ao encher. Ao esvaziar o início, ele é recarregado a partir dos
+ * segmentos, na ordem de chegada, com leituras posicionadas de blocos limitados a partir da posição de leitura,
+ * e cada segmento totalmente consumido é apagado. Assim, o heap ocupado por
+ * uma caixa não passa de `jackut.mailbox.memoryMessages` mensagens mais um lote, qualquer que seja o atraso
+ * do leitor (0 desativa o limite e mantém todas as mensagens em memória).
+ *
+ * Os segmentos de cada caixa são identificados por um ID próprio, e não pelo login do dono, e ficam no
+ * diretório `jackut.mailboxes`, que é recriado a cada inicialização, pois as mensagens também estão no
+ * snapshot e no diário.
+ *
+ * A caixa não é sincronizada: é sempre acessada com o bloqueio do usuário dono. A quantidade total de mensagens
+ * em todas as caixas é mantida à parte, em um contador concorrente, para as métricas do sistema.
+ */
+public class Mailbox extends AbstractQueue<Message> {
+    private static final int MEMORY_MESSAGES = Integer.getInteger("jackut.mailbox.memoryMessages", 1024);
+    private static final int BATCH_MESSAGES = Math.max(MEMORY_MESSAGES / 4, 1); // Tamanho do lote gravado de uma vez.
+    private static final long SEGMENT_BYTES = 1 << 20; // Tamanho a partir do qual um novo segmento é iniciado.
+    private static final int READ_BYTES = 64 * 1024; // Tamanho do bloco lido de um segmento a cada leitura.
+    private static final int INITIAL_CAPACITY = 2; // A maioria das caixas tem poucas mensagens.
+    private static final File DIRECTORY = new File("jackut.mailboxes");
+    private static final AtomicLong NEXT_ID = new AtomicLong(); // Próximo ID de segmentos.
+    private static final LongAdder QUEUED = new LongAdder(); // Mensagens em todas as caixas.
+
+    private ArrayDeque<Message> head; // Mensagens mais antigas, em memória (criada no primeiro uso).
+    private ArrayDeque<Message> tail; // Mensagens mais recentes que os segmentos, aguardando gravação.
+    private long id = -1; // ID dos segmentos desta caixa, ou -1 se ela nunca gravou em disco.
+    private int readSegment, writeSegment; // Segmento em leitura e segmento em gravação.
+    private long readOffset; // Posição da próxima mensagem no segmento em leitura.
+    private int spilled; // Quantidade de mensagens nos segmentos.
+
+    /**
+     * Apaga todos os segmentos gravados. É chamado na inicialização e na limpeza do sistema, antes de as
+     * caixas serem recriadas a partir do snapshot e do diário.
+     */
+    public static void resetSegments() {
+        File[] files = DIRECTORY.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        QUEUED.reset();
+    }
+    /**
+     * Obtém a quantidade total de mensagens em todas as caixas, incluindo as gravadas em segmentos.
+     *
+     * @return A quantidade de mensagens enfileiradas.
+     */
+    public static long getQueuedMessages() {
+        return QUEUED.sum();
+    }
+
+    @Override
+    public boolean offer(Message message) {
+        Objects.requireNonNull(message);
+        QUEUED.increment();
+        if (spilled == 0 && isEmpty(tail) && (MEMORY_MESSAGES <= 0 || size(head) < MEMORY_MESSAGES)) {
+            head().add(message);
+            return true;
+        }
+        if (tail == null) tail = new ArrayDeque<>(INITIAL_CAPACITY);
+        tail.add(message);
+        if (tail.size() >= BATCH_MESSAGES) spill();
+        return true;
+    }
+
+    @Override
+    public Message poll() {
+        if (isEmpty(head)) refill();
+        if (isEmpty(head)) return null;
+        QUEUED.decrement();
+        return head.poll();
+    }
+
+    @Override
+    public Message peek() {
+        if (isEmpty(head)) refill();
+        return isEmpty(head) ? null : head.peek();
+    }
+
+    @Override
+    public int size() {
+        return size(head) + spilled + size(tail);
+    }
+    /**
+     * Percorre todas as mensagens em ordem de chegada, lendo dos segmentos as que estão em disco.
+     * O iterador não permite remoções; use {@link #removeIf(Predicate)}.
+     */
+    @Override
+    public Iterator<Message> iterator() {
+        return new Iterator<>() {
+            private final Iterator<Message> memoryHead = head == null ? Collections.emptyIterator() : head.iterator();
+            private final Iterator<Message> memoryTail = tail == null ? Collections.emptyIterator() : tail.iterator();
+            private int remaining = spilled, segment = readSegment; // Mensagens e segmento ainda não lidos do disco.
+            private ByteBuffer data; // Segmento em leitura.
+
+            @Override
+            public boolean hasNext() {
+                return memoryHead.hasNext() || remaining > 0 || memoryTail.hasNext();
+            }
+
+            @Override
+            public Message next() {
+                if (memoryHead.hasNext()) return memoryHead.next();
+                if (remaining == 0) return memoryTail.next();
+                while (data == null || !data.hasRemaining()) {
+                    if (data != null) segment++;
+                    data = readSegment(segment);
+                    if (segment == readSegment) data.position((int) readOffset);
+                }
+                remaining--;
+                return new Message(getString(data), getString(data));
+            }
+        };
+    }
+    /**
+     * Remove as mensagens que satisfazem o filtro. As mensagens em disco são regravadas em novos
+     * segmentos, e os antigos são apagados.
+     */
+    @Override
+    public boolean removeIf(Predicate<? super Message> filter) {
+        int size = size();
+        boolean removed = head != null && head.removeIf(filter);
+        if (spilled > 0) {
+            List<Message> kept = new ArrayList<>();
+            Iterator<Message> messages = iterator();
+            for (int skipped = size(head); skipped > 0; skipped--) messages.next();
+            for (int count = spilled; count > 0; count--) {
+                Message message = messages.next();
+                if (!filter.test(message)) kept.add(message);
+            }
+            if (kept.size() < spilled) {
+                removed = true;
+                deleteSegments();
+                List<Message> pending = tail == null ? List.of() : new ArrayList<>(tail);
+                tail = new ArrayDeque<>(kept);
+                spilled = 0;
+                if (!tail.isEmpty()) spill();
+                tail.addAll(pending);
+            }
+        }
+        removed |= tail != null && tail.removeIf(filter);
+        QUEUED.add(size() - size);
+        return removed;
+    }
+    /**
+     * Atribui ao novo login as mensagens enviadas com o login anterior de um remetente. Se houver alguma, a caixa
+     * inteira é percorrida na ordem de chegada e regravada, inclusive os segmentos em disco.
+     *
+     * @param oldLogin O login anterior do remetente.
+     * @param newLogin O novo login do remetente.
+     * @return `true` se alguma mensagem foi alterada.
+     */
+    public boolean renameSender(String oldLogin, String newLogin) {
+        boolean found = false;
+        for (Message message : this) if (found = Objects.equals(message.getRemetente(), oldLogin)) break;
+        if (!found) return false;
+        for (int count = size(); count > 0; count--) {
+            Message message = poll();
+            offer(Objects.equals(message.getRemetente(), oldLogin) ? new Message(newLogin, message.getMessage()) : message);
+        }
+        return true;
+    }
+    /**
+     * Remove todas as mensagens e apaga os segmentos da caixa.
+     */
+    @Override
+    public void clear() {
+        QUEUED.add(-size());
+        head = null;
+        tail = null;
+        deleteSegments();
+    }
+    /**
+     * Grava o estado da caixa: as mensagens em memória e a posição dos segmentos em disco, sem as mensagens
+     * gravadas neles. Usado pelo registro paginado, para que o registro de um usuário continue pequeno.
+     *
+     * @param out O fluxo de destino.
+     * @throws IOException Se o fluxo não puder ser gravado.
+     */
+    public void writeState(DataOutputStream out) throws IOException {
+        putMessages(out, head);
+        out.writeLong(id);
+        out.writeInt(readSegment);
+        out.writeLong(readOffset);
+        out.writeInt(writeSegment);
+        out.writeInt(spilled);
+        putMessages(out, tail);
+    }
+    /**
+     * Restaura o estado gravado por {@link #writeState(DataOutputStream)}, substituindo o conteúdo em memória.
+     * As mensagens restauradas não entram na contagem total, pois já foram contadas ao chegar à caixa.
+     *
+     * @param in O registro, posicionado no início do estado.
+     */
+    public void readState(ByteBuffer in) {
+        head = getMessages(in);
+        id = in.getLong();
+        readSegment = in.getInt();
+        readOffset = in.getLong();
+        writeSegment = in.getInt();
+        spilled = in.getInt();
+        tail = getMessages(in);
+    }
+
+    private ArrayDeque<Message> head() {
+        if (head == null) head = new ArrayDeque<>(INITIAL_CAPACITY);
+        return head;
+    }
+    /**
+     * Grava o lote de mensagens recentes no segmento em gravação.
+     */
+    private void spill() {
+        if (id < 0) id = NEXT_ID.getAndIncrement();
+        File file = segment(writeSegment);
+        try {
+            DIRECTORY.mkdirs();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+                for (Message message : tail) {
+                    putString(out, message.getRemetente());
+                    putString(out, message.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao gravar o segmento da caixa de mensagens: " + file, e);
+        }
+        spilled += tail.size();
+        tail.clear();
+        if (file.length() >= SEGMENT_BYTES) writeSegment++;
+    }
+    /**
+     * Recarrega o início da fila a partir dos segmentos ou, se não houver mensagens em disco, do lote recente.
+     */
+    private void refill() {
+        if (spilled == 0) {
+            if (!isEmpty(tail)) {
+                head = tail;
+                tail = null;
+            }
+            return;
+        }
+        ArrayDeque<Message> refilled = head();
+        int limit = MEMORY_MESSAGES <= 0 ? Integer.MAX_VALUE : MEMORY_MESSAGES;
+        while (spilled > 0 && refilled.size() < limit) {
+            File file = segment(readSegment);
+            long length;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                length = channel.size();
+                ByteBuffer data = ByteBuffer.allocate(READ_BYTES);
+                while (spilled > 0 && refilled.size() < limit && readOffset < length) {
+                    data.clear().limit((int) Math.min(data.capacity(), length - readOffset));
+                    while (data.hasRemaining()) {
+                        if (channel.read(data, readOffset + data.position()) < 0) throw new EOFException(file.getPath());
+                    }
+                    data.flip();
+                    Message message;
+                    while (refilled.size() < limit && (message = nextMessage(data)) != null) {
+                        refilled.add(message);
+                        spilled--;
+                    }
+                    if (data.position() > 0) readOffset += data.position();
+                    else if (data.limit() < data.capacity()) throw new IllegalStateException("Segmento da caixa de mensagens incompleto: " + file);
+                    else data = ByteBuffer.allocate(data.capacity() * 2); // Mensagem maior que o bloco.
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Erro ao ler o segmento da caixa de mensagens: " + file, e);
+            }
+            if (spilled == 0) deleteSegments();
+            else if (readOffset >= length) {
+                if (readSegment >= writeSegment) throw new IllegalStateException("Segmentos da caixa de mensagens incompletos: " + id);
+                segment(readSegment++).delete();
+                readOffset = 0;
+            }
+        }
+    }
+    /**
+     * Lê a próxima mensagem do bloco, ou devolve `null` sem consumir nada se o bloco terminar antes do fim dela.
+     */
+    private static Message nextMessage(ByteBuffer data) {
+        int start = data.position();
+        boolean complete = skipString(data) && skipString(data);
+        data.position(start);
+        return complete ? new Message(getString(data), getString(data)) : null;
+    }
+
+    private static boolean skipString(ByteBuffer data) {
+        if (data.remaining() < 4) return false;
+        int length = data.getInt();
+        if (length <= 0) return true;
+        if (data.remaining() < length) return false;
+        data.position(data.position() + length);
+        return true;
+    }
+
+    private ByteBuffer readSegment(int segment) {
+        File file = segment(segment);
+        try {
+            return ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao ler o segmento da caixa de mensagens: " + file, e);
+        }
+    }
+
+    private void deleteSegments() {
+        if (id >= 0) for (int segment = readSegment; segment <= writeSegment; segment++) segment(segment).delete();
+        readSegment = writeSegment = 0;
+        readOffset = 0;
+        spilled = 0;
+    }
+
+    private File segment(int segment) {
+        return new File(DIRECTORY, id + "-" + segment + ".seg");
+    }
+
+    private static int size(ArrayDeque<Message> messages) {
+        return messages == null ? 0 : messages.size();
+    }
+
+    private static boolean isEmpty(ArrayDeque<Message> messages) {
+        return messages == null || messages.isEmpty();
+    }
+
+    private static void putMessages(DataOutputStream out, ArrayDeque<Message> messages) throws IOException {
+        out.writeInt(size(messages));
+        if (messages == null) return;
+        for (Message message : messages) {
+            putString(out, message.getRemetente());
+            putString(out, message.getMessage());
+        }
+    }
+
+    private static ArrayDeque<Message> getMessages(ByteBuffer in) {
+        int count = in.getInt();
+        if (count == 0) return null;
+        ArrayDeque<Message> messages = new ArrayDeque<>(count);
+        for (; count > 0; count--) messages.add(new Message(getString(in), getString(in)));
+        return messages;
+    }
+
+    private static void putString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -16,10 +16,10 @@ public class Message {
      */
     public Message(){};
     /**
-     * Construtor da classe Recado nas configuraes para armazenamento JSON.
+     * Construtor da classe Recado nas configurações para armazenamento JSON.
      *
      * @param remetente O remetente da mensagem.
-     * @param mensagem O contedo da mensagem.
+     * @param mensagem O conteúdo da mensagem.
      */
     @JsonCreator
     public Message(@JsonProperty("remetente") String remetente, @JsonProperty("mensagem") String mensagem) {
@@ -27,14 +27,14 @@ public class Message {
         this.message = mensagem;
     }
     /**
-     * Obtm o remetende da mensagem
+     * Obtém o remetende da mensagem
      * @return remetende da mensagem
      */
     public String getRemetente() {
         return remetente;
     }
     /**
-     * Obtm a mensagem
+     * Obtém a mensagem
      * @return a mensagem
      */
     public String getMessage() {
@@ -0,0 +1,218 @@
+package br.ufal.ic.p2.jackut.models;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A classe `MessageLog` é o registro de mensagens de uma comunidade do sistema Jackut.
+ *
+ * Cada mensagem enviada à comunidade é acrescentada uma única vez ao final do registro, e cada membro guarda
+ * apenas um cursor com a posição da próxima mensagem que ainda não leu. O envio custa O(1), qualquer que seja
+ * a quantidade de membros.
+ *
+ * As mensagens ficam em segmentos de tamanho fixo, e cada segmento conta quantos cursores apontam para ele.
+ * Quando o segmento mais antigo deixa de ter cursores, todos os membros já o leram e ele é descartado.
+ *
+ * Cada mensagem recebe um número de sequência global, crescente entre todas as comunidades, que permite ler
+ * as mensagens das várias comunidades de um usuário na ordem em que foram enviadas.
+ *
+ * Os métodos são sincronizados no próprio registro, pois membros bloqueados em faixas diferentes podem
+ * ler a mesma comunidade ao mesmo tempo.
+ */
+public class MessageLog {
+    private static final int SEGMENT_SIZE = 256; // Mensagens por segmento.
+    private static final AtomicLong SEQUENCE = new AtomicLong(); // Última sequência atribuída.
+
+    private Segment[] segments = new Segment[4]; // Fila circular de segmentos a partir de `base`.
+    private int head, count; // Índice do primeiro segmento da fila e quantidade de segmentos.
+    private final Map<String, Long> cursors = new HashMap<>(); // Login do membro -> próxima posição a ler.
+    private long base; // Posição da primeira mensagem retida (múltiplo de SEGMENT_SIZE).
+    private long end; // Posição da próxima mensagem acrescentada.
+
+    /**
+     * Segmento do registro, com as mensagens, as suas sequências e a quantidade de cursores que apontam para ele.
+     */
+    private static class Segment {
+        final Message[] messages = new Message[SEGMENT_SIZE];
+        final long[] sequences = new long[SEGMENT_SIZE];
+        int readers;
+    }
+
+    /**
+     * Registra um membro, com o cursor no final do registro: ele recebe apenas as mensagens enviadas
+     * a partir de agora. Não faz nada se o membro já estiver registrado.
+     *
+     * @param login O login do membro.
+     */
+    public synchronized void join(String login) {
+        if (cursors.putIfAbsent(login, end) == null) segmentAt(end).readers++;
+    }
+    /**
+     * Remove o cursor de um membro, descartando os segmentos que só ele ainda não tinha lido.
+     *
+     * @param login O login do membro.
+     */
+    public synchronized void leave(String login) {
+        Long position = cursors.remove(login);
+        if (position == null) return;
+        segmentAt(position).readers--;
+        truncate();
+    }
+    /**
+     * Transfere o cursor de um membro que trocou de login.
+     *
+     * @param oldLogin O login anterior.
+     * @param newLogin O novo login.
+     */
+    public synchronized void rename(String oldLogin, String newLogin) {
+        Long position = cursors.remove(oldLogin);
+        if (position != null) cursors.put(newLogin, position);
+    }
+    /**
+     * Acrescenta uma mensagem ao final do registro.
+     *
+     * @param message A mensagem enviada à comunidade.
+     */
+    public synchronized void append(Message message) {
+        put(end, SEQUENCE.incrementAndGet(), message);
+        truncate();
+    }
+    /**
+     * Obtém a sequência da próxima mensagem não lida de um membro, sem avançar o seu cursor.
+     *
+     * @param login O login do membro.
+     * @return A sequência global da mensagem, ou `Long.MAX_VALUE` se não houver mensagens não lidas.
+     */
+    public synchronized long peek(String login) {
+        Long position = cursors.get(login);
+        if (position == null || position == end) return Long.MAX_VALUE;
+        return segmentAt(position).sequences[(int) (position % SEGMENT_SIZE)];
+    }
+    /**
+     * Lê a próxima mensagem não lida de um membro, avançando o seu cursor.
+     *
+     * @param login O login do membro.
+     * @return A mensagem, ou `null` se não houver mensagens não lidas.
+     */
+    public synchronized Message read(String login) {
+        Long position = cursors.get(login);
+        if (position == null || position == end) return null;
+        Segment segment = segmentAt(position);
+        Message message = segment.messages[(int) (position % SEGMENT_SIZE)];
+        segment.readers--;
+        cursors.put(login, position + 1);
+        segmentAt(position + 1).readers++;
+        truncate();
+        return message;
+    }
+    /**
+     * Obtém a posição da primeira mensagem retida no registro.
+     * @return A posição da primeira mensagem retida.
+     */
+    @JsonProperty("base")
+    public synchronized long getBase() {
+        return base;
+    }
+    /**
+     * Obtém a quantidade de mensagens retidas, ainda não lidas por algum membro.
+     * @return A quantidade de mensagens retidas.
+     */
+    @JsonIgnore
+    public synchronized int getRetainedMessages() {
+        return (int) (end - base);
+    }
+    /**
+     * Obtém uma cópia das mensagens retidas, da mais antiga para a mais recente.
+     * @return As mensagens retidas.
+     */
+    @JsonProperty("messages")
+    public synchronized List<Message> getMessages() {
+        List<Message> messages = new ArrayList<>(getRetainedMessages());
+        for (long position = base; position < end; position++)
+            messages.add(segmentAt(position).messages[(int) (position % SEGMENT_SIZE)]);
+        return messages;
+    }
+    /**
+     * Obtém as sequências globais das mensagens retidas, na mesma ordem de {@link #getMessages()}.
+     * @return As sequências das mensagens retidas.
+     */
+    @JsonProperty("sequences")
+    public synchronized long[] getSequences() {
+        long[] sequences = new long[getRetainedMessages()];
+        for (long position = base; position < end; position++)
+            sequences[(int) (position - base)] = segmentAt(position).sequences[(int) (position % SEGMENT_SIZE)];
+        return sequences;
+    }
+    /**
+     * Obtém uma cópia dos cursores dos membros.
+     * @return Um mapa do login de cada membro para a posição da próxima mensagem que ele vai ler.
+     */
+    @JsonProperty("cursors")
+    public synchronized Map<String, Long> getCursors() {
+        return new LinkedHashMap<>(cursors);
+    }
+    /**
+     * Restaura o registro a partir dos dados salvos, substituindo o conteúdo atual.
+     * As posições dos cursores fora do intervalo retido são ajustadas para os seus limites.
+     *
+     * @param base A posição da primeira mensagem retida.
+     * @param messages As mensagens retidas.
+     * @param sequences As sequências globais das mensagens.
+     * @param cursors Os cursores dos membros.
+     */
+    public synchronized void restore(long base, List<Message> messages, long[] sequences, Map<String, Long> cursors) {
+        Arrays.fill(segments, null);
+        head = count = 0;
+        this.cursors.clear();
+        this.base = base - base % SEGMENT_SIZE;
+        this.end = this.base;
+        for (long position = this.base; position < base; position++) put(position, 0, null); // Posições já descartadas.
+        for (int i = 0; i < messages.size(); i++) {
+            put(end, sequences[i], messages.get(i));
+            SEQUENCE.accumulateAndGet(sequences[i], Math::max);
+        }
+        for (Map.Entry<String, Long> cursor : cursors.entrySet()) {
+            long position = Math.min(Math.max(cursor.getValue(), base), end);
+            this.cursors.put(cursor.getKey(), position);
+            segmentAt(position).readers++;
+        }
+        truncate();
+    }
+
+    private void put(long position, long sequence, Message message) {
+        Segment segment = segmentAt(position);
+        segment.messages[(int) (position % SEGMENT_SIZE)] = message;
+        segment.sequences[(int) (position % SEGMENT_SIZE)] = sequence;
+        end = position + 1;
+    }
+    /**
+     * Obtém o segmento de uma posição, criando os segmentos vazios necessários até ela.
+     */
+    private Segment segmentAt(long position) {
+        int index = (int) (position / SEGMENT_SIZE - base / SEGMENT_SIZE);
+        while (count <= index) {
+            if (count == segments.length) {
+                Segment[] grown = new Segment[segments.length * 2];
+                for (int i = 0; i < count; i++) grown[i] = segments[(head + i) & (segments.length - 1)];
+                segments = grown;
+                head = 0;
+            }
+            segments[(head + count++) & (segments.length - 1)] = new Segment();
+        }
+        return segments[(head + index) & (segments.length - 1)];
+    }
+    /**
+     * Descarta os segmentos mais antigos sem cursores e já completos.
+     */
+    private void truncate() {
+        while (count > 0 && segments[head].readers == 0 && base + SEGMENT_SIZE <= end) {
+            segments[head] = null;
+            head = (head + 1) & (segments.length - 1);
+            count--;
+            base += SEGMENT_SIZE;
+        }
+    }
+}
@@ -1,146 +1,225 @@
 package br.ufal.ic.p2.jackut.models;
 
 import br.ufal.ic.p2.jackut.exceptions.*;
-import com.fasterxml.jackson.annotation.JsonCreator;
+import br.ufal.ic.p2.jackut.models.SocialGraph.Relation;
 
-import java.util.ArrayList;
+import java.util.*;
+
+import static br.ufal.ic.p2.jackut.models.SocialGraph.GRAPH;
 /**
- * A classe Relationships representa os relacionamentos de um usurio dentro do sistema Jackut.
- * Isso inclui listas de amigos, solicitaes de amizade pendentes, dolos, fs, paqueras e inimigos.
+ * A classe Relationships representa os relacionamentos de um usuário dentro do sistema Jackut.
+ * Isso inclui listas de amigos, solicitações de amizade pendentes, ídolos, fãs, paqueras e inimigos.
+ *
+ * Os relacionamentos são guardados no {@link SocialGraph} do sistema, e cada lista é uma visão sobre as
+ * arestas do nó do usuário: as verificações de pertinência e de duplicidade são O(1), e a ordem de
+ * exibição e de serialização continua sendo a ordem de inserção.
  */
 public class Relationships {
-    private ArrayList<String> friendsList; // Lista de amigos do usurio.
-    private ArrayList<String> friendSolicitation; // Lista de solicitaes de amizade pendentes.
-    private ArrayList<String> idols; // Lista de dolos do usurio.
-    private ArrayList<String> fans; // Lista de fs do usurio.
-    private ArrayList<String> crush; // Lista de paqueras do usurio.
-    private ArrayList<String> enemy; // Lista de inimigos do usurio.
+    private final User owner; // O usuário dono dos relacionamentos.
+    private int node = -1; // O nó do usuário no grafo, resolvido no primeiro acesso.
+    // As listas são visões criadas a cada acesso, para que o usuário não guarde nenhum objeto por relacionamento.
 
     /**
      * Construtor da classe Relationships.
-     * Inicializa todas as listas como vazias.
+     * O nó do usuário no grafo é resolvido pelo seu login no primeiro acesso, pois o login pode ser
+     * definido depois da construção.
+     *
+     * @param owner O usuário dono dos relacionamentos.
      */
-    @JsonCreator
-    public Relationships() {
-       friendsList = new ArrayList<>();
-       friendSolicitation = new ArrayList<>();
-       idols = new ArrayList<>();
-       fans = new ArrayList<>();
-       crush = new ArrayList<>();
-       enemy = new ArrayList<>();
+    public Relationships(User owner) {
+        this.owner = owner;
+    }
+
+    private int node() {
+        if (node < 0) {
+            if (owner.getLogin() == null) throw new IllegalStateException("Usuário sem login não possui relacionamentos.");
+            node = GRAPH.node(owner.getLogin());
+        }
+        return node;
     }
     /**
-     * Obtm a lista de amigos do usurio
-     * @return lista de amigos do usurio
+     * Obtém a versão das listas de relacionamentos do usuário, renovada a cada alteração de qualquer uma delas,
+     * inclusive quando um usuário listado é excluído ou troca de login.
+     * @return A versão dos relacionamentos do usuário.
      */
-    public ArrayList<String> getFriendsList() {
-        return friendsList;
+    public long getVersion() {
+        return GRAPH.version(node());
     }
     /**
-     * Obtm a lista de solicitaes de amizade do usurio
-     * @return lista de solicitaes de amizade do usurio
+     * Obtém a lista de amigos do usuário
+     * @return lista de amigos do usuário
      */
-    public ArrayList<String> getFriendSolicitation() {
-        return friendSolicitation;
+    public Set<String> getFriendsList() {
+        return new RelationView(Relation.FRIENDS);
+    }
+    /**
+     * Obtém a lista de solicitações de amizade do usuário
+     * @return lista de solicitações de amizade do usuário
+     */
+    public Set<String> getFriendSolicitation() {
+        return new RelationView(Relation.FRIEND_REQUESTS);
     }
 
     /**
-     * Atualiza a lista de amigos do usurio
-     * @param friends nova lista de amigos do usurio
+     * Atualiza a lista de amigos do usuário
+     * @param friends nova lista de amigos do usuário
      */
-    public void setFriends(ArrayList<String> friends) {
-        this.friendsList = friends;
+    public void setFriends(Collection<String> friends) {
+        getFriendsList().clear();
+        getFriendsList().addAll(friends);
     }
     /**
-     * Atualiza a lista de solicitaes de amizade do usurio
-     * @param friendSolicitation nova lista de solicitaes de amizade do usurio
+     * Atualiza a lista de solicitações de amizade do usuário
+     * @param friendSolicitation nova lista de solicitações de amizade do usuário
      */
-    public void setFriendSolicitation(ArrayList<String> friendSolicitation) {
-        this.friendSolicitation = friendSolicitation;
+    public void setFriendSolicitation(Collection<String> friendSolicitation) {
+        getFriendSolicitation().clear();
+        getFriendSolicitation().addAll(friendSolicitation);
     }
     /**
-     * Adiciona um amigo  lista de amigos do usurio, removendo a solicitao de amizade, se existir.
+     * Remove todos os relacionamentos do usuário. As referências de outros usuários a ele são mantidas.
+     */
+    public void clear() {
+        if (owner.getLogin() == null) return;
+        for (Relation relation : Relation.values()) if (relation != Relation.MESSAGES) GRAPH.clearNode(relation, node());
+    }
+    /**
+     * Adiciona um amigo à lista de amigos do usuário, removendo a solicitação de amizade, se existir.
      *
      * @param friend O login do amigo a ser adicionado.
      */
     public void addFriends(String friend) {
-        this.friendSolicitation.remove(friend);
-        this.friendsList.add(friend);
+        getFriendSolicitation().remove(friend);
+        getFriendsList().add(friend);
     }
     /**
-     * Adiciona uma solicitao de amizade  lista de solicitaes pendentes.
+     * Adiciona uma solicitação de amizade à lista de solicitações pendentes.
      *
-     * @param friendSolicitation O login do usurio que enviou a solicitao de amizade.
+     * @param friendSolicitation O login do usuário que enviou a solicitação de amizade.
      */
     public void addFriendSolicitation(String friendSolicitation) {
-        this.friendSolicitation.add(friendSolicitation);
+        getFriendSolicitation().add(friendSolicitation);
     }
     /**
-     * Adiciona um dolo  lista de dolos do usurio.
+     * Adiciona um ídolo à lista de ídolos do usuário.
      *
-     * @param idol O login do dolo a ser adicionado.
-     * @throws UserDuplicationException Se o usurio j estiver adicionado como dolo.
+     * @param idol O login do ídolo a ser adicionado.
+     * @throws UserDuplicationException Se o usuário já estiver adicionado como ídolo.
      */
     public void addIdol(String idol){
-        if(this.idols.contains(idol)) throw new UserDuplicationException("Usurio j est adicionado como dolo.");
-        else this.idols.add(idol);
+        if(!getIdols().add(idol)) throw new UserDuplicationException("Usuário já está adicionado como ídolo.");
     }
     /**
-     * Adiciona um f  lista de fs do usurio.
+     * Adiciona um fã à lista de fãs do usuário.
      *
-     * @param fan O login do f a ser adicionado.
-     * @throws UserDuplicationException Se o usurio j estiver adicionado como f.
+     * @param fan O login do fã a ser adicionado.
+     * @throws UserDuplicationException Se o usuário já estiver adicionado como fã.
      */
     public void addFan(String fan){
-        if(this.fans.contains(fan)) throw new UserDuplicationException("Usurio j est adicionado como f.");
-        else this.fans.add(fan);
+        if(!getFans().add(fan)) throw new UserDuplicationException("Usuário já está adicionado como fã.");
     }
     /**
-     * Adiciona uma paquera  lista de paqueras do usurio.
+     * Adiciona uma paquera à lista de paqueras do usuário.
      *
      * @param crush O login da paquera a ser adicionada.
-     * @throws UserDuplicationException Se o usurio j estiver adicionado como paquera.
+     * @throws UserDuplicationException Se o usuário já estiver adicionado como paquera.
      */
     public void addCrush(String crush){
-        if (this.crush.contains(crush)) throw new UserDuplicationException("Usurio j est adicionado como paquera.");
-        else this.crush.add(crush);
+        if (!getCrush().add(crush)) throw new UserDuplicationException("Usuário já está adicionado como paquera.");
     }
     /**
-     * Adiciona um inimigo  lista de inimigos do usurio.
+     * Adiciona um inimigo à lista de inimigos do usuário.
      *
      * @param enemy O login do inimigo a ser adicionado.
-     * @throws UserDuplicationException Se o usurio j estiver adicionado como inimigo.
+     * @throws UserDuplicationException Se o usuário já estiver adicionado como inimigo.
      */
     public void addEnemy(String enemy){
-        if (this.enemy.contains(enemy)) throw new UserDuplicationException("Usurio j est adicionado como inimigo.");
-        else this.enemy.add(enemy);
+        if (!getEnemy().add(enemy)) throw new UserDuplicationException("Usuário já está adicionado como inimigo.");
+    }
+    /**
+     * Obtém a lista de ídolos do usuário.
+     * @return A lista de ídolos do usuário.
+     */
+    public Set<String> getIdols() {
+        return new RelationView(Relation.IDOLS);
     }
     /**
-     * Obtm a lista de dolos do usurio.
-     * @return A lista de dolos do usurio.
+     * Obtém a lista de fãs do usuário.
+     * @return A lista de fãs do usuário.
      */
-    public ArrayList<String> getIdols() {
-        return idols;
+    public Set<String> getFans() {
+        return new RelationView(Relation.FANS);
     }
     /**
-     * Obtm a lista de fs do usurio.
-     * @return A lista de fs do usurio.
+     * Obtém a lista de paqueras do usuário.
+     * @return A lista de paqueras do usuário.
      */
-    public ArrayList<String> getFans() {
-        return fans;
+    public Set<String> getCrush() {
+        return new RelationView(Relation.CRUSHES);
     }
     /**
-     * Obtm a lista de paqueras do usurio.
-     * @return A lista de paqueras do usurio.
+     * Obtém a lista de inimigos do usuário.
+     * @return A lista de inimigos do usuário.
      */
-    public ArrayList<String> getCrush() {
-        return crush;
+    public Set<String> getEnemy() {
+        return new RelationView(Relation.ENEMIES);
     }
     /**
-     * Obtm a lista de inimigos do usurio.
-     * @return A lista de inimigos do usurio.
+     * Visão de uma lista de relacionamentos sobre as arestas do nó do usuário no grafo.
+     * A iteração percorre uma cópia dos vizinhos feita no seu início.
      */
-    public ArrayList<String> getEnemy() {
-        return enemy;
+    private class RelationView extends AbstractSet<String> {
+        private final Relation relation;
+
+        RelationView(Relation relation) {
+            this.relation = relation;
+        }
+
+        @Override
+        public int size() {
+            return GRAPH.degree(relation, node());
+        }
+
+        @Override
+        public boolean contains(Object login) {
+            int target = GRAPH.find((String) login);
+            return target >= 0 && GRAPH.contains(relation, node(), target);
+        }
+
+        @Override
+        public boolean add(String login) {
+            return GRAPH.add(relation, node(), GRAPH.node(login));
+        }
+
+        @Override
+        public boolean remove(Object login) {
+            int target = GRAPH.find((String) login);
+            return target >= 0 && GRAPH.remove(relation, node(), target);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            int[] neighbours = GRAPH.neighbours(relation, node());
+            return new Iterator<>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < neighbours.length;
+                }
+
+                @Override
+                public String next() {
+                    if (next >= neighbours.length) throw new NoSuchElementException();
+                    return GRAPH.name(neighbours[next++]);
+                }
+
+                @Override
+                public void remove() {
+                    if (next == 0) throw new IllegalStateException();
+                    GRAPH.remove(relation, node(), neighbours[next - 1]);
+                }
+            };
+        }
     }
-}
\ No newline at end of file
+}
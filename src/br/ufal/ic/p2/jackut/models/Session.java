@@ -4,48 +4,47 @@ import br.ufal.ic.p2.jackut.exceptions.*;
 import br.ufal.ic.p2.jackut.interfaces.MessageStrategy;
 import br.ufal.ic.p2.jackut.services.JackutSystemManager;
 
+import java.util.Collection;
 import java.util.Objects;
 /**
- * A classe Session representa uma sesso de usurio no sistema Jackut.
- * Cada sesso est associada a um usurio autenticado e possui um ID exclusivo.
+ * A classe Session representa uma sessão de usuário no sistema Jackut.
+ * Cada sessão está associada a um usuário autenticado e possui um ID exclusivo.
  */
 public class Session {
-    private User user; // O usurio associado  sesso.
-    private String ID; // O ID exclusivo da sesso.
+    private User user; // O usuário associado à sessão.
+    private String ID; // O ID exclusivo da sessão.
     /**
      * Construtor da classe Session.
-     * @param user O usurio associado  sesso.
+     * @param user O usuário associado à sessão.
+     * @param ID O token exclusivo da sessão, gerado pelo registro de sessões.
      */
-    public Session(User user){
+    public Session(User user, String ID){
         this.user = user;
-        this.ID = generateSessionId(user.getUserAttribute("login"));
+        this.ID = ID;
     }
     /**
-     * Gera um ID nico de sesso combinando o login do usurio e o momento da criao.
-     *
-     * @param login O login do usurio.
-     * @return O ID exclusivo da sesso.
+     * Cria uma sessão temporária, sem ID, usada para reaplicar operações do diário em nome do usuário.
+     * @param user O usuário associado à sessão.
      */
-    private String generateSessionId(String login) {
-        long timestamp = System.currentTimeMillis();
-        return login + "_" + timestamp;
+    public Session(User user){
+        this(user, null);
     }
     /**
-     * Obtm o usurio associado  sesso.
-     * @return O usurio associado  sesso.
+     * Obtém o usuário associado à sessão.
+     * @return O usuário associado à sessão.
      */
     public User getUser() {
         return user;
     }
     /**
-     * Obtm o ID exclusivo da sesso.
-     * @return O ID exclusivo da sesso.
+     * Obtém o ID exclusivo da sessão.
+     * @return O ID exclusivo da sessão.
      */
     public String getID() {
         return ID;
     }
     /**
-     * Edita o perfil do usurio autenticado.
+     * Edita o perfil do usuário autenticado.
      * @param atributte O atributo a ser editado ("nome", "senha", "login" ou atributo extra).
      * @param valor O novo valor para o atributo.
      */
@@ -54,65 +53,68 @@ public class Session {
         if (Objects.equals(atributte, "nome")) this.user.setName(valor);
         else if (Objects.equals(atributte, "senha")) this.user.setPassword(valor);
         else if (Objects.equals(atributte, "login")) {
-            if (JackutSystemManager.SYSTEM.verifyUser(valor)) throw new InvalidCredentialException("Login invlido.");
-            else this.user.setLogin(valor);
+            if (JackutSystemManager.SYSTEM.verifyUser(valor)) throw new InvalidCredentialException("Login inválido.");
+            else JackutSystemManager.SYSTEM.changeLogin(this.user, valor);
         }
         else this.user.setAttributes(atributte, valor);
     }
     /**
-     * Adiciona um usurio autenticado como amigo de outro usurio enviando uma solicitao.
-     * @param friend O usurio a ser adicionado como amigo.
-     * @throws RuntimeException Se algum dos usurios no for encontrado ou se houver um erro na solicitao.
+     * Adiciona um usuário autenticado como amigo de outro usuário enviando uma solicitação.
+     * @param friend O usuário a ser adicionado como amigo.
+     * @throws RuntimeException Se algum dos usuários não for encontrado ou se houver um erro na solicitação.
      */
     public void addFriend(User friend) {
         if (friend.isEnemy(this.user.getLogin())){
-            throw new InvalidFunctionException("Funo invlida: " + friend.getName() + "  seu inimigo.");
+            throw new InvalidFunctionException("Função inválida: " + friend.getName() + " é seu inimigo.");
         }
         else if (Objects.equals(this.user, friend))
-            throw new InvalidFriendSolicitationException("Usurio no pode adicionar a si mesmo como amigo.");
+            throw new InvalidFriendSolicitationException("Usuário não pode adicionar a si mesmo como amigo.");
         else if (user.getMyRelationships().getFriendSolicitation().contains(friend.getLogin())) {
             user.getMyRelationships().addFriends(friend.getLogin());
             friend.getMyRelationships().addFriends(user.getLogin());
+            FriendRecommendations.RECOMMENDATIONS.friendshipAdded(user, friend);
         } else if (friend.getMyRelationships().getFriendSolicitation().contains(user.getLogin()))
-            throw new InvalidFriendSolicitationException("Usurio j est adicionado como amigo, esperando aceitao do convite.");
+            throw new InvalidFriendSolicitationException("Usuário já está adicionado como amigo, esperando aceitação do convite.");
         else if (user.isFriend(friend.getLogin()))
-            throw new UserDuplicationException("Usurio j est adicionado como amigo.");
+            throw new UserDuplicationException("Usuário já está adicionado como amigo.");
         else {
             friend.getMyRelationships().addFriendSolicitation(user.getLogin());
         }
     }
     /**
-     * Adiciona um usurio autenticado como paquera de outro usurio.
-     * @param crush O usurio a ser adicionado como paquera.
-     * @throws RuntimeException Se algum dos usurios no for encontrado ou se houver um erro na operao.
+     * Adiciona um usuário autenticado como paquera de outro usuário.
+     * @param crush O usuário a ser adicionado como paquera.
+     * @throws RuntimeException Se algum dos usuários não for encontrado ou se houver um erro na operação.
      */
     public void addCrush(User crush){
         if (crush.isEnemy(this.user.getLogin())){
-            throw new InvalidFunctionException("Funo invlida: " + crush.getName() + "  seu inimigo.");
+            throw new InvalidFunctionException("Função inválida: " + crush.getName() + " é seu inimigo.");
         }
         else if(this.user == crush){
-            throw new InvalidCredentialException("Usurio no pode ser paquera de si mesmo.");
+            throw new InvalidCredentialException("Usuário não pode ser paquera de si mesmo.");
         }
         else if(crush.isCrush(this.user.getLogin())){
             this.user.getMyRelationships().addCrush(crush.getLogin());
-            Message messageUser = new Message("System", crush.getName() + "  seu paquera - Recado do Jackut.");
-            Message messageCrush = new Message("System", this.user.getName() + "  seu paquera - Recado do Jackut.");
+            Message messageUser = new Message("System", crush.getName() + " é seu paquera - Recado do Jackut.");
+            Message messageCrush = new Message("System", this.user.getName() + " é seu paquera - Recado do Jackut.");
             this.user.getMessageBox().add(messageUser);
             crush.getMessageBox().add(messageCrush);
+            DirtyTracker.USERS.mark(this.user.getLogin());
+            DirtyTracker.USERS.mark(crush.getLogin());
         }
         else this.user.getMyRelationships().addCrush(crush.getLogin());
     }
     /**
-     * Adiciona um usurio autenticado como dolo de outro usurio, e consequentemente o outro usurio como f.
-     * @param idol O usurio a ser adicionado como dolo.
-     * @throws RuntimeException Se algum dos usurios no for encontrado ou se houver um erro na operao.
+     * Adiciona um usuário autenticado como ídolo de outro usuário, e consequentemente o outro usuário como fã.
+     * @param idol O usuário a ser adicionado como ídolo.
+     * @throws RuntimeException Se algum dos usuários não for encontrado ou se houver um erro na operação.
      */
     public void addIdol(User idol){
         if (idol.isEnemy(this.user.getLogin())){
-            throw new InvalidFunctionException("Funo invlida: " + idol.getName() + "  seu inimigo.");
+            throw new InvalidFunctionException("Função inválida: " + idol.getName() + " é seu inimigo.");
         }
         else if (this.user == idol){
-            throw new InvalidCredentialException("Usurio no pode ser f de si mesmo.");
+            throw new InvalidCredentialException("Usuário não pode ser fã de si mesmo.");
         }
         else{
             this.user.getMyRelationships().addIdol(idol.getLogin());
@@ -120,22 +122,22 @@ public class Session {
         }
     }
     /**
-     * Adiciona um usurio autenticado como inimigo de outro usurio.
+     * Adiciona um usuário autenticado como inimigo de outro usuário.
      *
-     * @param enemy O login do usurio a ser adicionado como inimigo.
-     * @throws RuntimeException Se houver um erro na operao.
+     * @param enemy O login do usuário a ser adicionado como inimigo.
+     * @throws RuntimeException Se houver um erro na operação.
      */
     public void addEnemy(String enemy){
         if (Objects.equals(this.user.getLogin(), enemy)){
-            throw new InvalidCredentialException("Usurio no pode ser inimigo de si mesmo.");
+            throw new InvalidCredentialException("Usuário não pode ser inimigo de si mesmo.");
         }
         else this.user.getMyRelationships().addEnemy(enemy);
     }
     /**
-     * Cria uma nova comunidade com um nome e descrio especificados.
+     * Cria uma nova comunidade com um nome e descrição especificados.
      *
      * @param name O nome da comunidade.
-     * @param description A descrio da comunidade.
+     * @param description A descrição da comunidade.
      * @return A nova comunidade criada.
      */
     public Community createCommunity(String name, String description){
@@ -145,30 +147,31 @@ public class Session {
         return newCommunity;
     }
     /**
-     * Adiciona o usurio autenticado como membro de uma comunidade existente.
+     * Adiciona o usuário autenticado como membro de uma comunidade existente.
      *
-     * @param community A comunidade  qual o usurio ser adicionado.
-     * @throws RuntimeException Se o usurio j faz parte da comunidade.
+     * @param community A comunidade à qual o usuário será adicionado.
+     * @throws RuntimeException Se o usuário já faz parte da comunidade.
      */
     public void joinCommunity(Community community){
-        if(this.user.getMyCommunities().contains(community.getName())) throw new InvalidCommunityException("Usuario j faz parte dessa comunidade.");
+        if(this.user.getMyCommunities().contains(community.getName())) throw new InvalidCommunityException("Usuario já faz parte dessa comunidade.");
         else {
             community.addMember(this.user);
             this.user.addCommunity(community.getName());
         }
     }
     /**
-     * L as mensagens da comunidade  qual o usurio pertence.
-     * @return As mensagens da comunidade.
+     * Lê a próxima mensagem das comunidades às quais o usuário pertence.
+     * @param communities As comunidades do usuário.
+     * @return A mensagem lida.
      */
-    public String readCommunityMessages(){
-        return this.user.readCommunityMessage();
+    public String readCommunityMessages(Collection<Community> communities){
+        return this.user.readCommunityMessage(communities);
     }
     /**
-     * Envia uma mensagem para um destinatrio especfico com base na estratgia de mensagem fornecida.
-     * @param receiver O destinatrio da mensagem.
-     * @param message O contedo da mensagem.
-     * @param messageStrategy A estratgia de mensagem utilizada.
+     * Envia uma mensagem para um destinatário específico com base na estratégia de mensagem fornecida.
+     * @param receiver O destinatário da mensagem.
+     * @param message O conteúdo da mensagem.
+     * @param messageStrategy A estratégia de mensagem utilizada.
      */
     public void messageSender (String receiver, String message, MessageStrategy messageStrategy){
         messageStrategy.sendMessage(message, this.user.getLogin(), receiver);
@@ -0,0 +1,717 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+/**
+ * A classe `SocialGraph` armazena todos os relacionamentos do sistema Jackut em um único grafo, no qual
+ * cada login recebe um ID inteiro denso; os IDs dos nós excluídos são reutilizados pelos próximos nós, de modo
+ * que os vetores indexados por ID não crescem com as exclusões. Os objetos {@link Relationships} de cada
+ * usuário são visões sobre ele.
+ *
+ * Cada tipo de relacionamento ({@link Relation}) é um grafo direcionado próprio, guardado em três camadas:
+ * <ul>
+ *     <li>uma forma compacta CSR (`offsets`/`targets`), com os vizinhos de cada nó em ordem de inserção;
+ *     arestas removidas viram marcas (-1) até a próxima compactação;</li>
+ *     <li>uma camada delta mutável, com as arestas inseridas desde a última compactação em um vetor de
+ *     inteiros por nó; quando ela cresce além de uma fração da forma compacta, as duas são fundidas;</li>
+ *     <li>um conjunto hash de arestas (pares de IDs em um `long`), que responde às verificações de
+ *     pertinência e de duplicidade em O(1).</li>
+ * </ul>
+ * As duas primeiras camadas existem nos dois sentidos: além dos vizinhos de saída, cada nó guarda os nós que
+ * apontam para ele, o que permite remover um nó por completo em tempo proporcional ao seu grau.
+ * Cada aresta custa em torno de 8 bytes nas formas compactas e de 8 a 16 bytes no conjunto hash, sem objetos por aresta.
+ *
+ * Cada nó tem uma versão, renovada sempre que alguma das suas listas exibíveis muda, inclusive quando um
+ * vizinho é excluído ou troca de login. As versões vêm de um contador que nunca recomeça, nem na limpeza do
+ * grafo, de modo que servem para validar as listas renderizadas guardadas em cache. Cada renovação também
+ * marca o login do nó no {@link DirtyTracker}, para o salvamento incremental.
+ *
+ * Os nós são distribuídos em `jackut.graph.stripes` faixas pelo seu ID, cada uma com as suas próprias
+ * camadas e o seu próprio bloqueio de leitura e escrita: a faixa de um nó guarda as suas listas de saída e
+ * de entrada e as arestas que partem dele. Assim, relacionamentos entre usuários de faixas diferentes são
+ * alterados em paralelo; uma aresta bloqueia apenas as faixas dos seus dois nós, em ordem crescente de índice.
+ * A atribuição de novos nós, a troca de login, a exclusão de um nó, a limpeza e a compactação alteram várias
+ * faixas de uma vez e usam o bloqueio estrutural exclusivo do grafo, que as demais operações mantêm compartilhado.
+ */
+public class SocialGraph {
+    private static final int MIN_COMPACTION = 1 << 12; // Tamanho mínimo da camada delta de uma faixa antes de compactar.
+    private static final int STRIPE_BITS = Integer.numberOfTrailingZeros(
+            Integer.highestOneBit(Math.max(Integer.getInteger("jackut.graph.stripes", 64), 1) - 1) << 1);
+    private static final int STRIPES = 1 << STRIPE_BITS; // Quantidade de faixas, arredondada para uma potência de dois.
+
+    public static final SocialGraph GRAPH = new SocialGraph(); // Grafo único do sistema.
+
+    /**
+     * Tipos de relacionamento, cada um guardado como um grafo direcionado.
+     */
+    public enum Relation {
+        FRIENDS, FRIEND_REQUESTS, IDOLS, FANS, CRUSHES, ENEMIES,
+        /**
+         * Uso interno: liga o remetente de um recado a cada destinatário que o recebeu. As arestas não são
+         * removidas na leitura do recado, de modo que o conjunto pode conter destinatários que já leram
+         * todos os recados; ele é refeito apenas com as caixas de mensagens na próxima carga dos dados.
+         */
+        MESSAGES
+    }
+
+    private final ReentrantReadWriteLock structure = new ReentrantReadWriteLock(); // Nós e operações em várias faixas.
+    private final Map<String, Integer> ids = new HashMap<>(); // Login -> ID do nó.
+    private String[] names = new String[1024]; // ID do nó -> login.
+    private long[] versions = new long[1024]; // ID do nó -> versão das suas listas.
+    private final AtomicLong lastVersion = new AtomicLong(); // Última versão atribuída.
+    private int nodeCount; // Quantidade de IDs atribuídos, incluindo os livres.
+    private int[] free = new int[16]; // IDs de nós excluídos, a serem reutilizados.
+    private int freeCount;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * Construtor da classe SocialGraph.
+     */
+    public SocialGraph() {
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new Stripe();
+    }
+    /**
+     * Obtém o ID do nó de um login, atribuindo um novo ID se o login ainda não estiver no grafo.
+     *
+     * @param login O login.
+     * @return O ID do nó.
+     */
+    public int node(String login) {
+        int node = find(login);
+        if (node >= 0) return node;
+        structure.writeLock().lock();
+        try {
+            Integer existing = ids.get(login);
+            if (existing != null) return existing;
+            if (freeCount > 0) node = free[--freeCount];
+            else {
+                if (nodeCount == names.length) {
+                    names = Arrays.copyOf(names, names.length * 2);
+                    versions = Arrays.copyOf(versions, names.length);
+                }
+                node = nodeCount++;
+            }
+            names[node] = login;
+            versions[node] = lastVersion.incrementAndGet(); // Uma versão nova, mesmo para um ID reutilizado.
+            ids.put(login, node);
+            return node;
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+    /**
+     * Obtém o ID do nó de um login, sem atribuir um novo.
+     *
+     * @param login O login.
+     * @return O ID do nó, ou -1 se o login não estiver no grafo.
+     */
+    public int find(String login) {
+        structure.readLock().lock();
+        try {
+            Integer node = ids.get(login);
+            return node == null ? -1 : node;
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+    /**
+     * Obtém o login de um nó.
+     *
+     * @param node O ID do nó.
+     * @return O login associado ao nó, ou `null` se o nó tiver sido excluído.
+     */
+    public String name(int node) {
+        structure.readLock().lock();
+        try {
+            return names[node];
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+    /**
+     * Obtém a versão das listas de um nó, que muda a cada alteração de qualquer uma delas.
+     *
+     * @param node O ID do nó.
+     * @return A versão das listas do nó.
+     */
+    public long version(int node) {
+        Stripe stripe = readLock(node);
+        try {
+            return versions[node];
+        } finally {
+            readUnlock(stripe);
+        }
+    }
+    /**
+     * Associa o nó de um login a um novo login, mantendo todas as suas arestas.
+     * Se o novo login já tiver um nó, esse nó deixa de ser encontrado pelo login, mas continua exibindo o
+     * mesmo nome.
+     *
+     * @param oldLogin O login atual.
+     * @param newLogin O novo login.
+     */
+    public void rename(String oldLogin, String newLogin) {
+        structure.writeLock().lock();
+        try {
+            Integer node = ids.remove(oldLogin);
+            if (node == null) return;
+            ids.put(newLogin, node);
+            DirtyTracker.USERS.mark(oldLogin);
+            names[node] = newLogin;
+            touch(node);
+            touchIncoming(node); // As listas que exibem o login antigo.
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+    /**
+     * Adiciona uma aresta, caso ainda não exista.
+     *
+     * @param relation O tipo de relacionamento.
+     * @param from O nó de origem.
+     * @param to O nó de destino.
+     * @return `true` se a aresta foi adicionada, `false` se já existia.
+     */
+    public boolean add(Relation relation, int from, int to) {
+        structure.readLock().lock();
+        Stripe source = stripe(from), target = stripe(to);
+        writeLock(from, to);
+        try {
+            Adjacency outgoing = source.relations[relation.ordinal()], incoming = target.relations[relation.ordinal()];
+            if (!outgoing.edges.add(key(from, to))) return false;
+            outgoing.out.append(local(from), to);
+            incoming.in.append(local(to), from);
+            outgoing.compactIfNeeded(localCount(index(from)));
+            incoming.compactIfNeeded(localCount(index(to)));
+            if (relation != Relation.MESSAGES) touch(from);
+            return true;
+        } finally {
+            writeUnlock(from, to);
+            structure.readLock().unlock();
+        }
+    }
+    /**
+     * Remove uma aresta.
+     *
+     * @param relation O tipo de relacionamento.
+     * @param from O nó de origem.
+     * @param to O nó de destino.
+     * @return `true` se a aresta existia.
+     */
+    public boolean remove(Relation relation, int from, int to) {
+        structure.readLock().lock();
+        Stripe source = stripe(from), target = stripe(to);
+        writeLock(from, to);
+        try {
+            Adjacency outgoing = source.relations[relation.ordinal()], incoming = target.relations[relation.ordinal()];
+            if (!outgoing.edges.remove(key(from, to))) return false;
+            outgoing.out.remove(local(from), to);
+            incoming.in.remove(local(to), from);
+            outgoing.compactIfNeeded(localCount(index(from)));
+            incoming.compactIfNeeded(localCount(index(to)));
+            if (relation != Relation.MESSAGES) touch(from);
+            return true;
+        } finally {
+            writeUnlock(from, to);
+            structure.readLock().unlock();
+        }
+    }
+    /**
+     * Verifica se uma aresta existe.
+     *
+     * @param relation O tipo de relacionamento.
+     * @param from O nó de origem.
+     * @param to O nó de destino.
+     * @return `true` se a aresta existir.
+     */
+    public boolean contains(Relation relation, int from, int to) {
+        Stripe stripe = readLock(from);
+        try {
+            return stripe.relations[relation.ordinal()].edges.contains(key(from, to));
+        } finally {
+            readUnlock(stripe);
+        }
+    }
+    /**
+     * Obtém a quantidade de vizinhos de um nó.
+     *
+     * @param relation O tipo de relacionamento.
+     * @param from O nó de origem.
+     * @return O grau de saída do nó.
+     */
+    public int degree(Relation relation, int from) {
+        Stripe stripe = readLock(from);
+        try {
+            return stripe.relations[relation.ordinal()].out.degree(local(from));
+        } finally {
+            readUnlock(stripe);
+        }
+    }
+    /**
+     * Percorre os vizinhos de um nó em ordem de inserção, sem alocar memória por vizinho.
+     * A ação é executada com o bloqueio de leitura da faixa do nó e não deve acessar o grafo.
+     *
+     * @param relation O tipo de relacionamento.
+     * @param from O nó de origem.
+     * @param action A ação executada para cada vizinho.
+     */
+    public void forEachNeighbour(Relation relation, int from, IntConsumer action) {
+        Stripe stripe = readLock(from);
+        try {
+            stripe.relations[relation.ordinal()].out.forEach(local(from), action);
+        } finally {
+            readUnlock(stripe);
+        }
+    }
+    /**
+     * Copia os vizinhos de um nó, em ordem de inserção.
+     *
+     * @param relation O tipo de relacionamento.
+     * @param from O nó de origem.
+     * @return Os IDs dos vizinhos.
+     */
+    public int[] neighbours(Relation relation, int from) {
+        Stripe stripe = readLock(from);
+        try {
+            return copy(stripe.relations[relation.ordinal()].out, local(from));
+        } finally {
+            readUnlock(stripe);
+        }
+    }
+    /**
+     * Copia os nós que apontam para um nó (o índice reverso do relacionamento), em ordem de inserção.
+     *
+     * @param relation O tipo de relacionamento.
+     * @param to O nó de destino.
+     * @return Os IDs dos nós de origem.
+     */
+    public int[] incoming(Relation relation, int to) {
+        Stripe stripe = readLock(to);
+        try {
+            return copy(stripe.relations[relation.ordinal()].in, local(to));
+        } finally {
+            readUnlock(stripe);
+        }
+    }
+    /**
+     * Remove todas as arestas de saída de um nó em um tipo de relacionamento.
+     * As arestas de outros nós que apontam para ele são mantidas.
+     *
+     * @param relation O tipo de relacionamento.
+     * @param node O ID do nó.
+     */
+    public void clearNode(Relation relation, int node) {
+        structure.writeLock().lock();
+        try {
+            clearOutgoing(relation.ordinal(), node);
+            if (relation != Relation.MESSAGES) touch(node);
+            compactIfNeeded();
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+    /**
+     * Exclui um nó: remove todas as suas arestas, de saída e de entrada, em todos os tipos de relacionamento,
+     * e libera o seu login e o seu ID, que passa a ser reutilizado pelos próximos nós.
+     * As arestas de entrada são localizadas pelo índice reverso, em tempo proporcional ao grau do nó.
+     *
+     * @param node O ID do nó.
+     */
+    public void removeNode(int node) {
+        structure.writeLock().lock();
+        try {
+            String login = names[node];
+            if (login == null) return;
+            touch(node);
+            touchIncoming(node);
+            for (int relation = 0; relation < Relation.values().length; relation++) {
+                clearOutgoing(relation, node);
+                clearIncoming(relation, node);
+            }
+            ids.remove(login, node); // O login pode já ter sido associado a outro nó por uma troca de login.
+            names[node] = null;
+            versions[node] = 0;
+            if (freeCount == free.length) free = Arrays.copyOf(free, freeCount * 2);
+            free[freeCount++] = node;
+            compactIfNeeded();
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+    /**
+     * Remove todos os nós e arestas.
+     */
+    public void clear() {
+        structure.writeLock().lock();
+        try {
+            ids.clear();
+            names = new String[1024];
+            versions = new long[1024]; // O contador de versões continua, para não repetir versões anteriores.
+            nodeCount = 0;
+            freeCount = 0;
+            for (int i = 0; i < stripes.length; i++) stripes[i] = new Stripe();
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+    /**
+     * Funde a camada delta de todos os tipos de relacionamento na forma compacta.
+     * É chamado após a carga dos dados; durante o uso, cada faixa é compactada automaticamente.
+     */
+    public void compact() {
+        structure.writeLock().lock();
+        try {
+            for (int i = 0; i < stripes.length; i++)
+                for (Adjacency adjacency : stripes[i].relations) adjacency.compact(localCount(i));
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+    /**
+     * Obtém a quantidade de nós do grafo, sem os excluídos.
+     * @return A quantidade de nós.
+     */
+    public int getNodeCount() {
+        structure.readLock().lock();
+        try {
+            return nodeCount - freeCount;
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+    /**
+     * Obtém a quantidade de arestas de todos os tipos de relacionamento.
+     * @return A quantidade de arestas.
+     */
+    public long getEdgeCount() {
+        structure.writeLock().lock();
+        try {
+            long edges = 0;
+            for (Stripe stripe : stripes) for (Adjacency adjacency : stripe.relations) edges += adjacency.edges.size;
+            return edges;
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Grafo social: " + getNodeCount() + " nós, " + getEdgeCount() + " arestas";
+    }
+
+    private void touch(int node) {
+        versions[node] = lastVersion.incrementAndGet();
+        DirtyTracker.USERS.mark(names[node]);
+    }
+    /**
+     * Renova a versão dos nós cujas listas exibíveis contêm o nó informado.
+     * Deve ser chamado com o bloqueio estrutural exclusivo.
+     */
+    private void touchIncoming(int node) {
+        for (Relation relation : Relation.values())
+            if (relation != Relation.MESSAGES) stripe(node).relations[relation.ordinal()].in.forEach(local(node), this::touch);
+    }
+    /**
+     * Remove as arestas de saída de um nó, nas faixas dos seus vizinhos. Deve ser chamado com o bloqueio
+     * estrutural exclusivo.
+     */
+    private void clearOutgoing(int relation, int node) {
+        Adjacency adjacency = stripe(node).relations[relation];
+        adjacency.out.forEach(local(node), target -> {
+            adjacency.edges.remove(key(node, target));
+            stripe(target).relations[relation].in.remove(local(target), node);
+        });
+        adjacency.out.clear(local(node));
+    }
+    /**
+     * Remove as arestas de entrada de um nó, nas faixas dos nós que apontam para ele. Deve ser chamado com o
+     * bloqueio estrutural exclusivo.
+     */
+    private void clearIncoming(int relation, int node) {
+        Adjacency adjacency = stripe(node).relations[relation];
+        adjacency.in.forEach(local(node), source -> {
+            Adjacency outgoing = stripe(source).relations[relation];
+            outgoing.edges.remove(key(source, node));
+            outgoing.out.remove(local(source), node);
+        });
+        adjacency.in.clear(local(node));
+    }
+
+    private void compactIfNeeded() {
+        for (int i = 0; i < stripes.length; i++)
+            for (Adjacency adjacency : stripes[i].relations) adjacency.compactIfNeeded(localCount(i));
+    }
+
+    private Stripe stripe(int node) {
+        return stripes[index(node)];
+    }
+    /**
+     * Obtém o índice da faixa de um nó.
+     */
+    private static int index(int node) {
+        return node & (STRIPES - 1);
+    }
+    /**
+     * Obtém a posição de um nó nas listas da sua faixa.
+     */
+    private static int local(int node) {
+        return node >>> STRIPE_BITS;
+    }
+    /**
+     * Obtém a quantidade de nós de uma faixa.
+     */
+    private int localCount(int stripe) {
+        return (nodeCount + STRIPES - 1 - stripe) >>> STRIPE_BITS;
+    }
+    /**
+     * Adquire o bloqueio estrutural compartilhado e o bloqueio de leitura da faixa de um nó.
+     */
+    private Stripe readLock(int node) {
+        structure.readLock().lock();
+        Stripe stripe = stripe(node);
+        stripe.lock.readLock().lock();
+        return stripe;
+    }
+
+    private void readUnlock(Stripe stripe) {
+        stripe.lock.readLock().unlock();
+        structure.readLock().unlock();
+    }
+    /**
+     * Adquire o bloqueio de escrita das faixas de dois nós, em ordem crescente de índice.
+     */
+    private void writeLock(int first, int second) {
+        int a = index(first), b = index(second);
+        stripes[Math.min(a, b)].lock.writeLock().lock();
+        if (a != b) stripes[Math.max(a, b)].lock.writeLock().lock();
+    }
+
+    private void writeUnlock(int first, int second) {
+        int a = index(first), b = index(second);
+        if (a != b) stripes[Math.max(a, b)].lock.writeLock().unlock();
+        stripes[Math.min(a, b)].lock.writeLock().unlock();
+    }
+
+    private static int[] copy(AdjacencyLists lists, int node) {
+        int[] result = new int[lists.degree(node)];
+        int[] count = {0};
+        lists.forEach(node, neighbour -> result[count[0]++] = neighbour);
+        return result;
+    }
+
+    private static long key(int from, int to) {
+        return ((long) from << 32) | (to & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Faixa do grafo: os grafos de todos os tipos de relacionamento restritos aos nós da faixa, com o seu bloqueio.
+     */
+    private static class Stripe {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Adjacency[] relations = new Adjacency[Relation.values().length];
+
+        Stripe() {
+            for (int i = 0; i < relations.length; i++) relations[i] = new Adjacency();
+        }
+    }
+
+    /**
+     * Grafo direcionado de um tipo de relacionamento nos nós de uma faixa: listas de saída e de entrada (o índice
+     * reverso, com os nós que apontam para cada nó), indexadas pela posição do nó na faixa, e o conjunto das
+     * arestas que partem dos nós da faixa.
+     */
+    private static class Adjacency {
+        private final AdjacencyLists out = new AdjacencyLists(); // Vizinhos de saída de cada nó.
+        private final AdjacencyLists in = new AdjacencyLists(); // Vizinhos de entrada de cada nó.
+        private final EdgeSet edges = new EdgeSet();
+
+        void compact(int nodeCount) {
+            out.compact(nodeCount);
+            in.compact(nodeCount);
+        }
+
+        void compactIfNeeded(int nodeCount) {
+            if (out.pending() > Math.max(MIN_COMPACTION, out.targets.length / 4)) out.compact(nodeCount);
+            if (in.pending() > Math.max(MIN_COMPACTION, in.targets.length / 4)) in.compact(nodeCount);
+        }
+    }
+
+    /**
+     * Listas de vizinhos de todos os nós de um grafo direcionado: forma compacta e camada delta.
+     */
+    private static class AdjacencyLists {
+        private int[] offsets = {0}; // Início dos vizinhos de cada nó em `targets` (forma compacta).
+        private int[] targets = new int[0]; // Vizinhos na forma compacta; -1 marca uma aresta removida.
+        private int compactNodes; // Quantidade de nós cobertos pela forma compacta.
+        private int[][] delta = new int[16][]; // Vizinhos inseridos desde a última compactação.
+        private int[] deltaSize = new int[16];
+        private int[] degree = new int[16]; // Grau atual de cada nó.
+        private long deltaEdges; // Arestas na camada delta.
+        private long removedEdges; // Marcas de remoção na forma compacta.
+
+        void append(int node, int neighbour) {
+            ensure(node);
+            int[] list = delta[node];
+            if (list == null) list = delta[node] = new int[4];
+            else if (deltaSize[node] == list.length) list = delta[node] = Arrays.copyOf(list, list.length * 2);
+            list[deltaSize[node]++] = neighbour;
+            degree[node]++;
+            deltaEdges++;
+        }
+
+        void remove(int node, int neighbour) {
+            int[] list = node < delta.length ? delta[node] : null;
+            if (list != null) {
+                for (int i = 0; i < deltaSize[node]; i++) {
+                    if (list[i] != neighbour) continue;
+                    System.arraycopy(list, i + 1, list, i, deltaSize[node] - i - 1);
+                    deltaSize[node]--;
+                    deltaEdges--;
+                    degree[node]--;
+                    return;
+                }
+            }
+            if (node < compactNodes) {
+                for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                    if (targets[i] != neighbour) continue;
+                    targets[i] = -1;
+                    removedEdges++;
+                    degree[node]--;
+                    return;
+                }
+            }
+        }
+
+        int degree(int node) {
+            return node < degree.length ? degree[node] : 0;
+        }
+
+        void forEach(int node, IntConsumer action) {
+            if (node < compactNodes) {
+                for (int i = offsets[node]; i < offsets[node + 1]; i++) if (targets[i] >= 0) action.accept(targets[i]);
+            }
+            if (node < delta.length && delta[node] != null) {
+                int[] list = delta[node];
+                for (int i = 0; i < deltaSize[node]; i++) action.accept(list[i]);
+            }
+        }
+
+        void clear(int node) {
+            if (degree(node) == 0) return;
+            if (node < compactNodes) {
+                for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                    if (targets[i] < 0) continue;
+                    targets[i] = -1;
+                    removedEdges++;
+                }
+            }
+            if (node < delta.length && delta[node] != null) {
+                deltaEdges -= deltaSize[node];
+                delta[node] = null;
+                deltaSize[node] = 0;
+            }
+            degree[node] = 0;
+        }
+
+        long pending() {
+            return deltaEdges + removedEdges;
+        }
+
+        void compact(int nodeCount) {
+            ensure(Math.max(nodeCount - 1, 0));
+            int[] newOffsets = new int[nodeCount + 1];
+            for (int node = 0; node < nodeCount; node++) newOffsets[node + 1] = newOffsets[node] + degree[node];
+            int[] newTargets = new int[newOffsets[nodeCount]];
+            int[] position = {0};
+            for (int node = 0; node < nodeCount; node++) {
+                position[0] = newOffsets[node];
+                forEach(node, neighbour -> newTargets[position[0]++] = neighbour);
+                delta[node] = null;
+                deltaSize[node] = 0;
+            }
+            offsets = newOffsets;
+            targets = newTargets;
+            compactNodes = nodeCount;
+            deltaEdges = 0;
+            removedEdges = 0;
+        }
+
+        private void ensure(int node) {
+            if (node < degree.length) return;
+            int size = Math.max(degree.length * 2, node + 1);
+            delta = Arrays.copyOf(delta, size);
+            deltaSize = Arrays.copyOf(deltaSize, size);
+            degree = Arrays.copyOf(degree, size);
+        }
+    }
+
+    /**
+     * Conjunto de `long` com endereçamento aberto e sondagem linear, sem objetos por elemento.
+     * As chaves são guardadas somadas de um, de modo que zero marca uma posição vazia.
+     */
+    private static class EdgeSet {
+        private long[] table = new long[64];
+        private int size;
+
+        boolean contains(long key) {
+            long stored = key + 1;
+            int mask = table.length - 1;
+            for (int i = hash(key) & mask; table[i] != 0; i = (i + 1) & mask) if (table[i] == stored) return true;
+            return false;
+        }
+
+        boolean add(long key) {
+            if ((size + 1) * 3L > table.length * 2L) resize();
+            long stored = key + 1;
+            int mask = table.length - 1;
+            int i = hash(key) & mask;
+            for (; table[i] != 0; i = (i + 1) & mask) if (table[i] == stored) return false;
+            table[i] = stored;
+            size++;
+            return true;
+        }
+
+        boolean remove(long key) {
+            long stored = key + 1;
+            int mask = table.length - 1;
+            int i = hash(key) & mask;
+            for (; table[i] != stored; i = (i + 1) & mask) if (table[i] == 0) return false;
+            // Remoção com deslocamento para trás, mantendo as sequências de sondagem sem marcas.
+            int gap = i;
+            for (int j = (gap + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+                int home = hash(table[j] - 1) & mask;
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    table[gap] = table[j];
+                    gap = j;
+                }
+            }
+            table[gap] = 0;
+            size--;
+            return true;
+        }
+
+        private void resize() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            int mask = table.length - 1;
+            for (long stored : old) {
+                if (stored == 0) continue;
+                int i = hash(stored - 1) & mask;
+                while (table[i] != 0) i = (i + 1) & mask;
+                table[i] = stored;
+            }
+        }
+
+        private static int hash(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            return (int) key;
+        }
+    }
+}
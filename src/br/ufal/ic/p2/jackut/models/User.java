@@ -4,24 +4,28 @@ import br.ufal.ic.p2.jackut.exceptions.*;
 import com.fasterxml.jackson.annotation.JsonAnyGetter;
 import com.fasterxml.jackson.annotation.JsonAnySetter;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A classe User representa um usurio do sistema de gerenciamento.
+ * A classe User representa um usuário do sistema de gerenciamento.
  *
  * @author Gustavo Gaia
  */
 public class User {
-    private String name;// Nome do usurio
-    private String login;// Login do usurio
-    private String password;// Senha do usurio
+    private String name;// Nome do usuário
+    private String login;// Login do usuário
+    private String password;// Senha do usuário
     private Relationships myRelationships;
-    private Map<String, String> attributes;// Atributos extras do usurio
-    private Queue<Message> messageBox;// Caixa de mensagens do usurio
-    private Queue<Message> communityMessages;// Mensagens da comunidade
-    private ArrayList<String> myCommunities;// Comunidades s quais o usurio pertence
+    private Map<String, String> attributes;// Atributos extras do usuário
+    private Mailbox messageBox;// Caixa de mensagens do usuário, com uso de memória limitado
+    private Mailbox communityMessages;// Mensagens de comunidade anteriores aos registros de mensagens das comunidades
+    private Set<String> myCommunities;// Comunidades às quais o usuário pertence, em ordem de entrada
+    private long communitiesVersion = COMMUNITIES_VERSIONS.incrementAndGet();// Versão da lista de comunidades
+    private static final AtomicLong COMMUNITIES_VERSIONS = new AtomicLong();// Última versão atribuída a uma lista de comunidades
 
     /**
      * Construtor da classe User
@@ -29,84 +33,97 @@ public class User {
     public User() {
     }
     /**
-     * Construtor da classe User nas configuraes para armazenamento JSON.
+     * Construtor da classe User nas configurações para armazenamento JSON.
      *
-     * @param login O login do usurio.
-     * @param senha A senha do usurio.
-     * @param nome O nome do usurio.
+     * @param login O login do usuário.
+     * @param senha A senha do usuário.
+     * @param nome O nome do usuário.
      */
     @JsonCreator
     public User(@JsonProperty("login") String login, @JsonProperty("senha") String senha, @JsonProperty("nome") String nome) {
         this.login = login;
         this.password = senha;
         this.name = nome;
-        myRelationships = new Relationships();
-        messageBox = new LinkedList<>();
+        myRelationships = new Relationships(this);
+        messageBox = new Mailbox();
         attributes = new HashMap<>();
-        myCommunities = new ArrayList<>();
-        communityMessages = new LinkedList<>();
+        myCommunities = new LinkedHashSet<>();
+        communityMessages = new Mailbox();
     }
     /**
-     * Verifica se a senha fornecida corresponde  senha do usurio.
+     * Verifica se a senha fornecida corresponde à senha do usuário.
      *
      * @param password A senha a ser verificada.
-     * @return `true` se a senha estiver correta, `false` caso contrrio.
+     * @return `true` se a senha estiver correta, `false` caso contrário.
      */
     public boolean verifyPassword(String password){
         return Objects.equals(password, this.password);
     }
     /**
-     * Obtm a lista de relacionamentos do usurio
-     * @return lista de relacionamentos do usurio
+     * Obtém a lista de relacionamentos do usuário
+     * @return lista de relacionamentos do usuário
      */
     public Relationships getMyRelationships() {
         return myRelationships;
     }
     /**
-     * Obtm a caixa de mensagens do usurio
-     * @return caixa de mensagens do usurio
+     * Obtém a caixa de mensagens do usuário
+     * @return caixa de mensagens do usuário
      */
-    public Queue<Message> getMessageBox() {
+    public Mailbox getMessageBox() {
         return messageBox;
     }
     /**
-     * Atualiza o nome do usurio
-     * @param name novo nome do usurio
+     * Atualiza o nome do usuário
+     * @param name novo nome do usuário
      */
     public void setName(String name) {
         this.name = name;
+        DirtyTracker.USERS.mark(login);
     }
     /**
-     * Atualiza o login do usurio
-     * @param login novo login do usurio
+     * Atualiza o login do usuário
+     * @param login novo login do usuário
      */
     public void setLogin(String login) {
+        DirtyTracker.USERS.mark(this.login);
         this.login = login;
+        DirtyTracker.USERS.mark(login);
     }
     /**
-     * Atualiza a senha do usurio
-     * @param password nova senha do usurio
+     * Atualiza a senha do usuário
+     * @param password nova senha do usuário
      */
     public void setPassword(String password) {
         this.password = password;
+        DirtyTracker.USERS.mark(login);
     }
     /**
-     * Atualiza aos relacionamentos do usurio
-     * @param relationships novos relacionamentos do usurio
+     * Atualiza aos relacionamentos do usuário, copiando as listas recebidas para o nó do usuário no grafo.
+     * @param relationships novos relacionamentos do usuário
      */
     public void setMyRelationships(Relationships relationships) {
-        this.myRelationships = relationships;
+        if (myRelationships == null) myRelationships = new Relationships(this);
+        if (relationships == myRelationships) return;
+        myRelationships.clear();
+        myRelationships.getFriendsList().addAll(relationships.getFriendsList());
+        myRelationships.getFriendSolicitation().addAll(relationships.getFriendSolicitation());
+        myRelationships.getIdols().addAll(relationships.getIdols());
+        myRelationships.getFans().addAll(relationships.getFans());
+        myRelationships.getCrush().addAll(relationships.getCrush());
+        myRelationships.getEnemy().addAll(relationships.getEnemy());
     }
 
     /**
-     * Atualiza a caixa de mensagem do usurio
-     * @param messageBox caixa de mensagem do usurio
+     * Atualiza a caixa de mensagem do usuário
+     * @param messageBox caixa de mensagem do usuário
      */
     public void setMessageBox(Queue<Message> messageBox) {
-        this.messageBox = messageBox;
+        this.messageBox.clear();
+        this.messageBox.addAll(messageBox);
     }
     /**
-     * Obtm o atributo do usurio escolhido.
+     * Obtém o atributo do usuário escolhido.
      * @param attribute o atributo desejado.
      * @return Valor do atributo desejado.
      */
@@ -117,16 +134,36 @@ public class User {
         else return getExtraAttribute(attribute);
     }
     /**
-     * Obtm o atributo extra do usurio escolhido.
+     * Busca o atributo do usuário escolhido, sem lançar exceção quando um atributo extra não foi preenchido.
+     * @param attribute o atributo desejado.
+     * @return Valor do atributo desejado, ou vazio se ele não estiver preenchido.
+     */
+    public Optional<String> findUserAttribute(String attribute){
+        if (Objects.equals(attribute, "nome")) return Optional.ofNullable(this.name);
+        else if (Objects.equals(attribute, "senha")) return Optional.ofNullable(this.password);
+        else if (Objects.equals(attribute, "login")) return Optional.ofNullable(this.login);
+        else return findExtraAttribute(attribute);
+    }
+    /**
+     * Obtém o atributo extra do usuário escolhido.
      * @param attribute o atributo desejado.
      * @return Valor do atributo desejado da lista de atributos extras.
+     * @throws InvalidCredentialException Se o atributo não estiver preenchido.
      */
     public String getExtraAttribute(String attribute) {
         if (attributes.containsKey(attribute)) return attributes.get(attribute);
-            else throw new InvalidCredentialException("Atributo no preenchido.");
+            else throw new InvalidCredentialException("Atributo não preenchido.");
+    }
+    /**
+     * Busca o atributo extra do usuário escolhido.
+     * @param attribute o atributo desejado.
+     * @return Valor do atributo desejado da lista de atributos extras, ou vazio se ele não estiver preenchido.
+     */
+    public Optional<String> findExtraAttribute(String attribute) {
+        return Optional.ofNullable(attributes.get(attribute));
     }
     /**
-     * Obtm os atributos extras do usurio em um mapa.
+     * Obtém os atributos extras do usuário em um mapa.
      *
      * @return Um mapa contendo os atributos extras e seus valores.
      */
@@ -135,7 +172,7 @@ public class User {
         return attributes;
     }
     /**
-     * Define os atributos extras do usurio a partir de um mapa.
+     * Define os atributos extras do usuário a partir de um mapa.
      *
      * @param attribute O nome do atributo.
      * @param value O valor do atributo.
@@ -144,123 +181,221 @@ public class User {
     public void setAttributes(String attribute, String value) {
         if (attributes.containsKey(attribute)) attributes.replace(attribute, value);
         else attributes.put(attribute, value);
+        DirtyTracker.USERS.mark(login);
     }
 
     /**
-     * Adiciona um recado  caixa de mensagens do usurio.
+     * Adiciona um recado à caixa de mensagens do usuário e registra o usuário entre os destinatários do
+     * remetente no grafo social, o que permite localizar os recados de um usuário excluído.
      *
      * @param message O recado a ser adicionado.
      */
     public void receiveMessage(Message message){
         this.messageBox.add(message);
+        DirtyTracker.USERS.mark(login);
+        indexSender(message.getRemetente());
     }
     /**
-     * Verifica se o usurio e f de um usurio recebido.
-     * @param idol O usurio a ser verificado.
-     * @return `true` se for f, `false` caso contrrio.
+     * Registra no grafo social os remetentes de todos os recados da caixa de mensagens.
+     * Usado após a carga dos dados, que preenche a caixa de mensagens diretamente.
+     */
+    public void indexMessageSenders(){
+        for (Message message : messageBox) indexSender(message.getRemetente());
+    }
+
+    private void indexSender(String sender){
+        if (sender == null || login == null) return;
+        SocialGraph.GRAPH.add(SocialGraph.Relation.MESSAGES, SocialGraph.GRAPH.node(sender), SocialGraph.GRAPH.node(login));
+    }
+    /**
+     * Verifica se o usuário e fã de um usuário recebido.
+     * @param idol O usuário a ser verificado.
+     * @return `true` se for fã, `false` caso contrário.
      */
     public boolean isFan(String idol){return myRelationships.getIdols().contains(idol);}
     /**
-     * Verifica se um usurio recebido  paquera do usurio.
-     * @param crush O usurio a ser verificado.
-     * @return `true` se for paquera, `false` caso contrrio.
+     * Verifica se um usuário recebido é paquera do usuário.
+     * @param crush O usuário a ser verificado.
+     * @return `true` se for paquera, `false` caso contrário.
      */
     public boolean isCrush(String crush){
         return myRelationships.getCrush().contains(crush);
     }
     /**
-     * Verifica se um usurio recebido  amigo do usurio.
-     * @param friend O usurio a ser verificado.
-     * @return `true` se for amigo, `false` caso contrrio.
+     * Verifica se um usuário recebido é amigo do usuário.
+     * @param friend O usuário a ser verificado.
+     * @return `true` se for amigo, `false` caso contrário.
      */
     public boolean isFriend(String friend){
         return myRelationships.getFriendsList().contains(friend);
     }
     /**
-     * Verifica se um usurio recebido  inimigo do usurio.
-     * @param enemy O usurio a ser verificado.
-     * @return `true` se for inimigo, `false` caso contrrio.
+     * Verifica se um usuário recebido é inimigo do usuário.
+     * @param enemy O usuário a ser verificado.
+     * @return `true` se for inimigo, `false` caso contrário.
      */
     public boolean isEnemy(String enemy){
         return myRelationships.getEnemy().contains(enemy);
     }
     /**
-     * Obtm a lista de amigos do usurio em formato de String.
-     * @return Uma String que representa a lista de amigos do usurio no formato JSON.
+     * Obtém a lista de amigos do usuário em formato de String.
+     * @return Uma String que representa a lista de amigos do usuário no formato JSON.
      *         Se a lista estiver vazia, retorna "{}".
      */
+    @JsonIgnore
     public String getFriendList(){
-        ArrayList<String> friends = this.myRelationships.getFriendsList();
+        Set<String> friends = this.myRelationships.getFriendsList();
         return friends.isEmpty() ? "{}" : "{" + String.join(",", friends) + "}";
     }
     /**
-     * L o primeiro recado da caixa de mensagens de um usurio.
-     * @throws RuntimeException Se no houver recados na caixa de mensagens.
+     * Lê o primeiro recado da caixa de mensagens de um usuário.
+     * @throws RuntimeException Se não houver recados na caixa de mensagens.
      */
     public String readMessage(){
+        return pollMessage().orElseThrow(() -> new MessageNotFoundException("Não há recados.")).getMessage();
+    }
+    /**
+     * Retira o primeiro recado da caixa de mensagens de um usuário, sem lançar exceção se ela estiver vazia.
+     * @return O recado retirado, ou vazio se não houver recados.
+     */
+    public Optional<Message> pollMessage(){
         Message message = this.messageBox.poll();
-        if(message == null) throw new MessageNotFoundException("No h recados.");
-        else return message.getMessage();
+        if (message != null) DirtyTracker.USERS.mark(login);
+        return Optional.ofNullable(message);
     }
     /**
-     * L a primeira mensagem da caixa de mensagens da comunidade.
+     * Lê a mensagem de comunidade mais antiga ainda não lida pelo usuário.
+     * As mensagens da caixa de mensagens da comunidade, carregadas de dados gravados antes dos registros de
+     * mensagens, são lidas primeiro; em seguida, a mensagem de menor sequência entre os registros das
+     * comunidades do usuário, o que mantém a ordem de envio entre comunidades diferentes.
      *
-     * @return O contedo da mensagem lida.
-     * @throws MessageNotFoundException Se no houver mensagens na caixa de mensagens da comunidade.
+     * @param communities As comunidades às quais o usuário pertence.
+     * @return O conteúdo da mensagem lida.
+     * @throws MessageNotFoundException Se não houver mensagens não lidas.
      */
-    public String readCommunityMessage(){
-        Message message = this.communityMessages.poll();
-        if(message == null) throw new MessageNotFoundException("No h mensagens.");
-        else return message.getMessage();
-
+    public String readCommunityMessage(Collection<Community> communities){
+        return pollCommunityMessage(communities).orElseThrow(() -> new MessageNotFoundException("Não há mensagens.")).getMessage();
     }
     /**
-     * Obtm o login do usurio.
-     * @return O login do usurio.
+     * Retira a mensagem de comunidade mais antiga ainda não lida pelo usuário, na mesma ordem de
+     * {@link #readCommunityMessage(Collection)}, sem lançar exceção se não houver mensagens.
+     *
+     * @param communities As comunidades às quais o usuário pertence.
+     * @return A mensagem retirada, ou vazio se não houver mensagens não lidas.
+     */
+    public Optional<Message> pollCommunityMessage(Collection<Community> communities){
+        return pollCommunityMessage(communityMessages.isEmpty() ? nextCommunity(communities) : null);
+    }
+    /**
+     * Obtém a comunidade cujo registro contém a mensagem não lida de menor sequência, entre as comunidades
+     * informadas. A caixa de mensagens da comunidade não é considerada.
+     *
+     * @param communities As comunidades às quais o usuário pertence.
+     * @return A comunidade da próxima mensagem, ou `null` se não houver mensagens não lidas nos registros.
+     */
+    public Community nextCommunity(Collection<Community> communities){
+        Community next = null;
+        long first = Long.MAX_VALUE;
+        for (Community community : communities){
+            long sequence = community.getMessageLog().peek(login);
+            if (sequence < first){
+                first = sequence;
+                next = community;
+            }
+        }
+        return next;
+    }
+    /**
+     * Retira a próxima mensagem não lida do registro de uma comunidade, ou da caixa de mensagens da
+     * comunidade se `community` for `null`.
+     *
+     * @param community A comunidade lida, ou `null` para a caixa de mensagens da comunidade.
+     * @return A mensagem retirada, ou vazio se não houver mensagens não lidas.
+     */
+    public Optional<Message> pollCommunityMessage(Community community){
+        Message message;
+        if (community == null){
+            message = this.communityMessages.poll();
+            if (message != null) DirtyTracker.USERS.mark(login);
+        }
+        else {
+            message = community.getMessageLog().read(login);
+            if (message != null) DirtyTracker.COMMUNITIES.mark(community.getName()); // O cursor do leitor fica no registro da comunidade.
+        }
+        return Optional.ofNullable(message);
+    }
+    /**
+     * Obtém o login do usuário.
+     * @return O login do usuário.
      */
     public String getLogin() {
         return login;
     }
     /**
-     * Obtm o nome do usurio.
-     * @return O nome do usurio.
+     * Obtém o nome do usuário.
+     * @return O nome do usuário.
      */
     public String getName() {
         return name;
     }
     /**
-     * Obtm a senha do usurio.
-     * @return A senha do usurio.
+     * Obtém a senha do usuário.
+     * @return A senha do usuário.
      */
     public String getPassword() {
         return password;
     }
     /**
-     * Adiciona o nome de uma comunidade  lista de comunidades s quais o usurio pertence.
+     * Adiciona o nome de uma comunidade à lista de comunidades às quais o usuário pertence.
      * @param name O nome da comunidade a ser adicionado.
      */
     public void addCommunity(String name){
-        this.myCommunities.add(name);
+        if (this.myCommunities.add(name)) changeCommunities();
+    }
+    /**
+     * Remove o nome de uma comunidade da lista de comunidades às quais o usuário pertence.
+     * @param name O nome da comunidade a ser removido.
+     */
+    public void removeCommunity(String name){
+        if (this.myCommunities.remove(name)) changeCommunities();
+    }
+
+    private void changeCommunities(){
+        communitiesVersion = COMMUNITIES_VERSIONS.incrementAndGet();
+        DirtyTracker.USERS.mark(login);
+    }
+    /**
+     * Obtém a versão da lista de comunidades do usuário, renovada a cada entrada ou saída de uma comunidade.
+     * As versões nunca se repetem, nem entre usuários diferentes.
+     * @return A versão da lista de comunidades.
+     */
+    @JsonIgnore
+    public long getCommunitiesVersion() {
+        return communitiesVersion;
     }
     /**
-     * Obtm a lista de comunidades s quais o usurio pertence.
-     * @return Uma lista de nomes de comunidades.
+     * Obtém as comunidades às quais o usuário pertence, em ordem de entrada.
+     * O conjunto só deve ser alterado diretamente durante a carga dos dados; depois dela, use
+     * {@link #addCommunity(String)} e {@link #removeCommunity(String)}, que renovam a versão da lista.
+     * @return Um conjunto de nomes de comunidades.
      */
-    public ArrayList<String> getMyCommunities() {
+    public Set<String> getMyCommunities() {
         return myCommunities;
     }
     /**
-     * Define a lista de comunidades s quais o usurio pertence.
-     * @param myCommunities Uma lista de nomes de comunidades.
+     * Define as comunidades às quais o usuário pertence.
+     * @param myCommunities Os nomes das comunidades, em ordem de entrada.
      */
-    public void setMyCommunities(ArrayList<String> myCommunities) {
-        this.myCommunities = myCommunities;
+    public void setMyCommunities(Collection<String> myCommunities) {
+        this.myCommunities = new LinkedHashSet<>(myCommunities);
+        changeCommunities();
     }
     /**
-     * Obtm a caixa de mensagens da comunidade.
+     * Obtém a caixa de mensagens da comunidade, que guarda apenas as mensagens carregadas de dados gravados
+     * antes dos registros de mensagens das comunidades. As novas mensagens ficam no {@link MessageLog} de cada comunidade.
      * @return Uma fila de mensagens da comunidade.
      */
-    public Queue<Message> getCommunityMessages() {
+    public Mailbox getCommunityMessages() {
         return communityMessages;
     }
     /**
@@ -268,7 +403,8 @@ public class User {
      * @param communityMessages Uma fila de mensagens da comunidade.
      */
     public void setCommunityMessages(Queue<Message> communityMessages) {
-        this.communityMessages = communityMessages;
+        this.communityMessages.clear();
+        this.communityMessages.addAll(communityMessages);
     }
 
 
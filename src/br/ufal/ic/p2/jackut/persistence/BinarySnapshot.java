@@ -0,0 +1,1028 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.*;
+import br.ufal.ic.p2.jackut.models.SocialGraph.Relation;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A classe `BinarySnapshot` grava e carrega o estado de usuários e comunidades do sistema Jackut
+ * em um formato binário versionado, muito mais rápido de carregar que os arquivos JSON.
+ *
+ * O arquivo é gravado através de um `FileChannel` e lido através de janelas de `MappedByteBuffer`.
+ * Após o cabeçalho (magic, versão, LSN do diário incorporado, identificador da base, marcas, quantidade de
+ * fragmentos e contadores), vêm as seções:
+ * <ol>
+ *     <li>dicionário de strings: logins, remetentes e nomes de comunidades, referenciados por índice;</li>
+ *     <li>usuários: login, nome, senha e atributos extras;</li>
+ *     <li>relacionamentos: as seis listas de cada usuário, como índices do dicionário;</li>
+ *     <li>caixas de mensagens: recados e mensagens de comunidade de cada usuário;</li>
+ *     <li>comunidades: nome, descrição, gerente, membros e registro de mensagens (posição inicial, mensagens
+ *     retidas com as suas sequências e cursores dos membros; ausente na versão 1);</li>
+ *     <li>participação: as comunidades de cada usuário;</li>
+ *     <li>exclusões: os logins e os nomes de comunidades excluídos (a partir da versão 3).</li>
+ * </ol>
+ * As strings são prefixadas pelo seu tamanho em bytes UTF-8 (-1 para `null`), e as seções de
+ * relacionamentos, caixas e participação seguem a ordem da seção de usuários. As versões 1 e 2 não têm o
+ * identificador da base, as marcas nem a seção de exclusões, e a versão 3 não tem a quantidade de fragmentos.
+ *
+ * Com `jackut.snapshot.compression` entre 1 e 9 (0, sem compressão, por padrão), tudo o que vem depois do
+ * cabeçalho é gravado em blocos comprimidos com o `Deflater` no nível informado: cada bloco,
+ * `[tamanho original][tamanho comprimido][dados]`, contém até 1 MiB do conteúdo, comprimido à medida que é
+ * gravado. Na leitura, a marca do cabeçalho indica a compressão, e as posições continuam sendo as do conteúdo
+ * original: um índice dos blocos, montado a partir dos seus tamanhos, localiza o bloco de cada posição, que é
+ * descomprimido sob demanda. Assim, nem o arquivo descomprimido nem o conteúdo inteiro existem em momento algum.
+ *
+ * O mesmo formato serve para a base, com todos os registros, e para as camadas incrementais, que contêm apenas
+ * os registros alterados desde o salvamento anterior e as exclusões, e guardam o identificador da base sobre a
+ * qual se aplicam. Uma base pode ser dividida em fragmentos, arquivos com os usuários e comunidades cujo
+ * login ou nome cai no fragmento ({@link #shardOf(String, int)}), gravados e lidos em paralelo.
+ * {@link #merge(List, File, int, int)} funde camadas e base (ou um fragmento dela) diretamente nos arquivos.
+ *
+ * Na carga, as seções por usuário são lidas em paralelo por cursores independentes, de modo que cada
+ * usuário é entregue assim que fica completo, sem manter todos os usuários lidos em memória. Os
+ * relacionamentos são inseridos diretamente no {@link SocialGraph}, traduzindo cada índice do dicionário
+ * para o nó correspondente uma única vez.
+ */
+public class BinarySnapshot {
+    private static final int MAGIC = 0x4A4B534E; // "JKSN"
+    private static final int VERSION = 5;
+    private static final int DICTIONARY = 1, USERS = 2, RELATIONSHIPS = 3, INBOXES = 4, COMMUNITIES = 5, MEMBERSHIP = 6, DELETIONS = 7; // Seções.
+    private static final int LAYER = 1, COMPRESSED = 2; // Marcas das camadas incrementais e dos arquivos comprimidos.
+    private static final int HEADER_SIZE = 44; // Tamanho do cabeçalho, nunca comprimido, a partir da versão 4.
+    private static final int COMPRESSION = Math.max(0, Math.min(9, Integer.getInteger("jackut.snapshot.compression", 0)));
+    private static final Relation[] RELATIONS = { // Mesma ordem de `relations(Relationships)`.
+            Relation.FRIENDS, Relation.FRIEND_REQUESTS, Relation.IDOLS, Relation.FANS, Relation.CRUSHES, Relation.ENEMIES};
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final long MAP_WINDOW = 1L << 30; // Janela máxima mapeada por vez.
+
+    private BinarySnapshot() {
+    }
+    /**
+     * Cabeçalho de um snapshot: o LSN incorporado, o identificador da base, se o arquivo é uma camada e a
+     * quantidade de fragmentos da base.
+     */
+    public static final class Header {
+        private final long checkpointLsn, baseId;
+        private final boolean layer;
+        private final int shardCount;
+
+        private Header(long checkpointLsn, long baseId, boolean layer, int shardCount) {
+            this.checkpointLsn = checkpointLsn;
+            this.baseId = baseId;
+            this.layer = layer;
+            this.shardCount = shardCount;
+        }
+        /**
+         * Obtém o LSN do diário incorporado ao arquivo.
+         * @return O LSN incorporado.
+         */
+        public long getCheckpointLsn() {
+            return checkpointLsn;
+        }
+        /**
+         * Obtém o identificador da base: o da própria base ou, em uma camada, o da base sobre a qual ela se aplica.
+         * @return O identificador, ou 0 em arquivos anteriores à versão 3.
+         */
+        public long getBaseId() {
+            return baseId;
+        }
+        /**
+         * Verifica se o arquivo é uma camada incremental.
+         * @return `true` para uma camada, `false` para uma base.
+         */
+        public boolean isLayer() {
+            return layer;
+        }
+        /**
+         * Obtém a quantidade de fragmentos da base à qual o arquivo pertence.
+         * @return A quantidade de fragmentos; 1 em camadas, em bases não fragmentadas e em arquivos anteriores à versão 4.
+         */
+        public int getShardCount() {
+            return shardCount;
+        }
+    }
+    /**
+     * Obtém o fragmento de um login ou nome de comunidade. A função de hash de `String` é especificada, de modo
+     * que a distribuição não muda entre execuções.
+     *
+     * @param key O login ou nome.
+     * @param shardCount A quantidade de fragmentos.
+     * @return O índice do fragmento, entre 0 e `shardCount - 1`.
+     */
+    public static int shardOf(String key, int shardCount) {
+        return Math.floorMod(key.hashCode(), shardCount);
+    }
+    /**
+     * Grava um snapshot binário com os usuários e comunidades informados, sem identificador de base.
+     *
+     * @param file O arquivo de destino.
+     * @param users Os usuários do sistema.
+     * @param communities As comunidades do sistema.
+     * @param checkpointLsn O LSN do diário incorporado a este snapshot.
+     * @throws IOException Se o arquivo não puder ser gravado.
+     */
+    public static void write(File file, Collection<User> users, Collection<Community> communities, long checkpointLsn) throws IOException {
+        write(file, users, users.size(), communities, checkpointLsn, 0, 1);
+    }
+    /**
+     * Grava uma base a partir de uma visão dos usuários que pode ser percorrida várias vezes,
+     * como a do registro paginado, sem exigir que todos estejam em memória.
+     *
+     * @param file O arquivo de destino.
+     * @param users Os usuários do sistema.
+     * @param userCount A quantidade de usuários.
+     * @param communities As comunidades do sistema.
+     * @param checkpointLsn O LSN do diário incorporado a este snapshot.
+     * @param baseId O identificador da base, usado para associar as camadas a ela.
+     * @param shardCount A quantidade de fragmentos da base, se o arquivo for um deles, ou 1.
+     * @throws IOException Se o arquivo não puder ser gravado.
+     */
+    public static void write(File file, Iterable<User> users, int userCount, Collection<Community> communities, long checkpointLsn,
+                             long baseId, int shardCount) throws IOException {
+        write(file, users, userCount, communities, List.of(), List.of(), checkpointLsn, baseId, 0, shardCount);
+    }
+    /**
+     * Grava uma camada incremental, com os registros alterados e as chaves dos registros excluídos.
+     *
+     * @param file O arquivo de destino.
+     * @param users Os usuários alterados.
+     * @param communities As comunidades alteradas.
+     * @param deletedUsers Os logins dos usuários excluídos.
+     * @param deletedCommunities Os nomes das comunidades excluídas.
+     * @param checkpointLsn O LSN do diário incorporado a esta camada.
+     * @param baseId O identificador da base sobre a qual a camada se aplica.
+     * @throws IOException Se o arquivo não puder ser gravado.
+     */
+    public static void writeLayer(File file, Collection<User> users, Collection<Community> communities, Collection<String> deletedUsers,
+                                  Collection<String> deletedCommunities, long checkpointLsn, long baseId) throws IOException {
+        write(file, users, users.size(), communities, deletedUsers, deletedCommunities, checkpointLsn, baseId, LAYER, 1);
+    }
+
+    /**
+     * Codifica uma camada incremental em memória, no mesmo formato do arquivo, para que ela seja gravada
+     * depois, sem acesso aos registros.
+     *
+     * @param users Os usuários alterados.
+     * @param communities As comunidades alteradas.
+     * @param deletedUsers Os logins dos usuários excluídos.
+     * @param deletedCommunities Os nomes das comunidades excluídas.
+     * @param checkpointLsn O LSN do diário incorporado a esta camada.
+     * @param baseId O identificador da base sobre a qual a camada se aplica.
+     * @return O conteúdo do arquivo da camada.
+     */
+    public static byte[] encodeLayer(Collection<User> users, Collection<Community> communities, Collection<String> deletedUsers,
+                                     Collection<String> deletedCommunities, long checkpointLsn, long baseId) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            encode(Channels.newChannel(bytes), users, users.size(), communities, deletedUsers, deletedCommunities, checkpointLsn, baseId, LAYER, 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Não acontece em memória.
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void write(File file, Iterable<User> users, int userCount, Collection<Community> communities, Collection<String> deletedUsers,
+                              Collection<String> deletedCommunities, long checkpointLsn, long baseId, int flags, int shardCount) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            encode(channel, users, userCount, communities, deletedUsers, deletedCommunities, checkpointLsn, baseId, flags, shardCount);
+            channel.force(true);
+        }
+    }
+
+    private static void encode(WritableByteChannel channel, Iterable<User> users, int userCount, Collection<Community> communities, Collection<String> deletedUsers,
+                               Collection<String> deletedCommunities, long checkpointLsn, long baseId, int flags, int shardCount) throws IOException {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (User user : users) {
+            index(dictionary, user.getLogin());
+            Relationships relationships = user.getMyRelationships();
+            for (Collection<String> relation : relations(relationships)) for (String login : relation) index(dictionary, login);
+            for (Message message : user.getMessageBox()) index(dictionary, message.getRemetente());
+            for (Message message : user.getCommunityMessages()) index(dictionary, message.getRemetente());
+            for (String community : user.getMyCommunities()) index(dictionary, community);
+        }
+        for (Community community : communities) {
+            index(dictionary, community.getName());
+            index(dictionary, community.getManager());
+            for (String member : community.getMembers()) index(dictionary, member);
+            for (Message message : community.getMessageLog().getMessages()) index(dictionary, message.getRemetente());
+            for (String login : community.getMessageLog().getCursors().keySet()) index(dictionary, login);
+        }
+
+        try (Output out = new Output(channel)) {
+            putHeader(out, checkpointLsn, baseId, flags, shardCount, dictionary.size(), userCount, communities.size());
+
+            out.putInt(DICTIONARY);
+            for (String value : dictionary.keySet()) out.putString(value);
+
+            out.putInt(USERS);
+            for (User user : users) {
+                out.putInt(dictionary.get(user.getLogin()));
+                out.putString(user.getName()).putString(user.getPassword());
+                out.putInt(user.getAttributes().size());
+                for (Map.Entry<String, String> attribute : user.getAttributes().entrySet())
+                    out.putString(attribute.getKey()).putString(attribute.getValue());
+            }
+
+            out.putInt(RELATIONSHIPS);
+            for (User user : users) {
+                for (Collection<String> relation : relations(user.getMyRelationships())) {
+                    out.putInt(relation.size());
+                    for (String login : relation) out.putInt(dictionary.get(login));
+                }
+            }
+
+            out.putInt(INBOXES);
+            for (User user : users) {
+                putMessages(out, dictionary, user.getMessageBox());
+                putMessages(out, dictionary, user.getCommunityMessages());
+            }
+
+            out.putInt(COMMUNITIES);
+            for (Community community : communities) {
+                out.putInt(dictionary.get(community.getName()));
+                out.putString(community.getDescription());
+                out.putInt(community.getManager() == null ? -1 : dictionary.get(community.getManager()));
+                out.putInt(community.getMembers().size());
+                for (String member : community.getMembers()) out.putInt(dictionary.get(member));
+                MessageLog log = community.getMessageLog();
+                long[] sequences = log.getSequences();
+                List<Message> messages = log.getMessages();
+                out.putLong(log.getBase()).putInt(messages.size());
+                for (int m = 0; m < messages.size(); m++) {
+                    out.putLong(sequences[m]);
+                    out.putInt(messages.get(m).getRemetente() == null ? -1 : dictionary.get(messages.get(m).getRemetente()));
+                    out.putString(messages.get(m).getMessage());
+                }
+                Map<String, Long> cursors = log.getCursors();
+                out.putInt(cursors.size());
+                for (Map.Entry<String, Long> cursor : cursors.entrySet()) out.putInt(dictionary.get(cursor.getKey())).putLong(cursor.getValue());
+            }
+
+            out.putInt(MEMBERSHIP);
+            for (User user : users) {
+                out.putInt(user.getMyCommunities().size());
+                for (String community : user.getMyCommunities()) out.putInt(dictionary.get(community));
+            }
+
+            out.putInt(DELETIONS);
+            putStrings(out, deletedUsers);
+            putStrings(out, deletedCommunities);
+        }
+    }
+    /**
+     * Lê apenas o cabeçalho de um snapshot.
+     *
+     * @param file O arquivo do snapshot.
+     * @return O cabeçalho.
+     * @throws IOException Se o arquivo não puder ser lido ou não for um snapshot válido.
+     */
+    public static Header readHeader(File file) throws IOException {
+        try (Source source = new Source(file)) {
+            return source.header;
+        }
+    }
+    /**
+     * Carrega um snapshot binário, entregando cada usuário e comunidade aos consumidores.
+     * Os usuários são entregues depois de completamente preenchidos.
+     *
+     * @param file O arquivo do snapshot.
+     * @param userSink O consumidor que registra cada usuário.
+     * @param communitySink O consumidor que registra cada comunidade.
+     * @return O LSN do diário incorporado ao snapshot.
+     * @throws IOException Se o arquivo não puder ser lido ou não for um snapshot válido.
+     */
+    public static long read(File file, Consumer<User> userSink, Consumer<Community> communitySink) throws IOException {
+        return read(file, null, null, userSink, communitySink);
+    }
+    /**
+     * Carrega um snapshot binário ignorando os registros sobrepostos por camadas mais novas, já carregadas.
+     * Os usuários e comunidades cujas chaves estão nos conjuntos informados são saltados; se o arquivo for uma
+     * camada, as suas chaves e exclusões são acrescentadas aos conjuntos, para que sobreponham os arquivos mais
+     * antigos, lidos em seguida.
+     *
+     * @param file O arquivo do snapshot.
+     * @param shadowedUsers Os logins já carregados ou excluídos por camadas mais novas, ou `null`.
+     * @param shadowedCommunities Os nomes de comunidades já carregados ou excluídos por camadas mais novas, ou `null`.
+     * @param userSink O consumidor que registra cada usuário.
+     * @param communitySink O consumidor que registra cada comunidade.
+     * @return O LSN do diário incorporado ao snapshot.
+     * @throws IOException Se o arquivo não puder ser lido ou não for um snapshot válido.
+     */
+    public static long read(File file, Set<String> shadowedUsers, Set<String> shadowedCommunities,
+                            Consumer<User> userSink, Consumer<Community> communitySink) throws IOException {
+        try (Source source = new Source(file)) {
+            source.locate();
+            String[] dictionary = source.dictionary;
+            boolean record = source.header.layer && shadowedUsers != null;
+
+            List<Community> communities = new ArrayList<>(source.communityCount);
+            Input in = source.input(source.communities);
+            for (int i = 0; i < source.communityCount; i++) {
+                String name = dictionary[in.getInt()];
+                if (shadowedCommunities != null && shadowedCommunities.contains(name)) {
+                    skipCommunityFields(in, source.version);
+                    continue;
+                }
+                String description = in.getString();
+                int manager = in.getInt();
+                Community community = new Community(name, description, manager < 0 ? null : dictionary[manager]);
+                for (int count = in.getInt(); count > 0; count--) community.getMembers().add(dictionary[in.getInt()]);
+                if (source.version >= 2) readMessageLog(in, dictionary, community.getMessageLog());
+                for (String member : community.getMembers()) community.getMessageLog().join(member); // Versão 1: cursores no final.
+                communities.add(community);
+            }
+
+            Input usersIn = source.input(source.users);
+            Input relationshipsIn = source.input(source.relationships);
+            Input inboxesIn = source.input(source.inboxes);
+            Input membershipIn = source.input(source.membership);
+            int[] nodes = new int[dictionary.length]; // Índice do dicionário -> nó do grafo.
+            Arrays.fill(nodes, -1);
+            for (int i = 0; i < source.userCount; i++) {
+                String login = dictionary[usersIn.getInt()];
+                if (shadowedUsers != null && shadowedUsers.contains(login)) {
+                    skipUserFields(usersIn);
+                    skipRelationships(relationshipsIn);
+                    skipInboxes(inboxesIn);
+                    skipMembership(membershipIn);
+                    continue;
+                }
+                String name = usersIn.getString();
+                String password = usersIn.getString();
+                User user = new User(login, password, name);
+                Map<String, String> attributes = user.getAttributes(); // Sem marcar o usuário como alterado.
+                for (int count = usersIn.getInt(); count > 0; count--) attributes.put(usersIn.getString(), usersIn.getString());
+                int node = SocialGraph.GRAPH.node(login);
+                for (Relation relation : RELATIONS) {
+                    for (int count = relationshipsIn.getInt(); count > 0; count--) {
+                        int index = relationshipsIn.getInt();
+                        if (nodes[index] < 0) nodes[index] = SocialGraph.GRAPH.node(dictionary[index]);
+                        SocialGraph.GRAPH.add(relation, node, nodes[index]);
+                    }
+                }
+                getMessages(inboxesIn, dictionary, user.getMessageBox());
+                user.indexMessageSenders();
+                getMessages(inboxesIn, dictionary, user.getCommunityMessages());
+                for (int count = membershipIn.getInt(); count > 0; count--) user.getMyCommunities().add(dictionary[membershipIn.getInt()]);
+                if (record) shadowedUsers.add(login);
+                userSink.accept(user);
+            }
+            for (Community community : communities) {
+                if (record) shadowedCommunities.add(community.getName());
+                communitySink.accept(community);
+            }
+            if (record) {
+                shadowedUsers.addAll(source.deletedUsers);
+                shadowedCommunities.addAll(source.deletedCommunities);
+            }
+            return source.header.checkpointLsn;
+        }
+    }
+    /**
+     * Funde uma base e as suas camadas em uma nova base, diretamente nos arquivos, sem carregar os registros
+     * no sistema. De cada chave é mantido o registro do arquivo mais novo em que ela aparece, e as chaves
+     * excluídas por uma camada deixam de existir. A nova base mantém o identificador da base original, de modo
+     * que as camadas mais novas que as fundidas continuam se aplicando sobre ela, e incorpora o maior LSN
+     * dos arquivos fundidos. Em uma base fragmentada, cada fragmento é fundido separadamente, mantendo das
+     * camadas apenas os registros do fragmento.
+     *
+     * @param files As camadas, da mais nova para a mais antiga, seguidas da base ou do fragmento.
+     * @param target O arquivo de destino.
+     * @param shardCount A quantidade de fragmentos da base.
+     * @param shard O fragmento fundido.
+     * @throws IOException Se algum arquivo não puder ser lido ou for anterior à versão 3, ou se o destino não puder ser gravado.
+     */
+    public static void merge(List<File> files, File target, int shardCount, int shard) throws IOException {
+        List<Source> sources = new ArrayList<>();
+        try {
+            for (File file : files) {
+                Source source = new Source(file);
+                sources.add(source);
+                if (source.version < 3) throw new IOException("Versão de snapshot não suportada na fusão: " + source.version);
+                source.locate();
+            }
+            // Primeira passagem: escolhe os registros mantidos e numera as strings que eles usam.
+            Map<String, Integer> dictionary = new LinkedHashMap<>();
+            Set<String> shadowedUsers = new HashSet<>(), shadowedCommunities = new HashSet<>();
+            int userCount = 0, communityCount = 0;
+            long checkpointLsn = 0;
+            for (Source source : sources) {
+                checkpointLsn = Math.max(checkpointLsn, source.header.checkpointLsn);
+                boolean record = source.header.layer;
+                source.remap = new int[source.dictionary.length];
+                Arrays.fill(source.remap, -1);
+                source.keptUsers = new boolean[source.userCount];
+                Input usersIn = source.input(source.users);
+                Input relationshipsIn = source.input(source.relationships);
+                Input inboxesIn = source.input(source.inboxes);
+                Input membershipIn = source.input(source.membership);
+                for (int i = 0; i < source.userCount; i++) {
+                    int login = usersIn.getInt();
+                    String key = source.dictionary[login];
+                    boolean kept = source.keptUsers[i] = !shadowedUsers.contains(key) && shardOf(key, shardCount) == shard;
+                    if (record) shadowedUsers.add(key);
+                    skipUserFields(usersIn);
+                    if (!kept) {
+                        skipRelationships(relationshipsIn);
+                        skipInboxes(inboxesIn);
+                        skipMembership(membershipIn);
+                        continue;
+                    }
+                    userCount++;
+                    source.use(dictionary, login);
+                    for (int relation = 0; relation < RELATIONS.length; relation++)
+                        for (int count = relationshipsIn.getInt(); count > 0; count--) source.use(dictionary, relationshipsIn.getInt());
+                    for (int box = 0; box < 2; box++) {
+                        for (int count = inboxesIn.getInt(); count > 0; count--) {
+                            source.use(dictionary, inboxesIn.getInt());
+                            inboxesIn.skipString();
+                        }
+                    }
+                    for (int count = membershipIn.getInt(); count > 0; count--) source.use(dictionary, membershipIn.getInt());
+                }
+                source.keptCommunities = new boolean[source.communityCount];
+                Input in = source.input(source.communities);
+                for (int i = 0; i < source.communityCount; i++) {
+                    int name = in.getInt();
+                    String key = source.dictionary[name];
+                    boolean kept = source.keptCommunities[i] = !shadowedCommunities.contains(key) && shardOf(key, shardCount) == shard;
+                    if (record) shadowedCommunities.add(key);
+                    if (!kept) {
+                        skipCommunityFields(in, source.version);
+                        continue;
+                    }
+                    communityCount++;
+                    source.use(dictionary, name);
+                    in.skipString();
+                    source.use(dictionary, in.getInt());
+                    for (int count = in.getInt(); count > 0; count--) source.use(dictionary, in.getInt());
+                    in.skip(8);
+                    for (int count = in.getInt(); count > 0; count--) {
+                        in.skip(8);
+                        source.use(dictionary, in.getInt());
+                        in.skipString();
+                    }
+                    for (int count = in.getInt(); count > 0; count--) {
+                        source.use(dictionary, in.getInt());
+                        in.skip(8);
+                    }
+                }
+                if (record) {
+                    shadowedUsers.addAll(source.deletedUsers);
+                    shadowedCommunities.addAll(source.deletedCommunities);
+                }
+            }
+
+            // Segunda passagem: copia os registros mantidos, seção por seção, traduzindo os índices do dicionário.
+            try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 Output out = new Output(channel)) {
+                long baseId = sources.get(sources.size() - 1).header.baseId;
+                putHeader(out, checkpointLsn, baseId, 0, shardCount, dictionary.size(), userCount, communityCount);
+
+                out.putInt(DICTIONARY);
+                for (String value : dictionary.keySet()) out.putString(value);
+
+                out.putInt(USERS);
+                for (Source source : sources) {
+                    Input in = source.input(source.users);
+                    for (int i = 0; i < source.userCount; i++) {
+                        int login = in.getInt();
+                        if (!source.keptUsers[i]) {
+                            skipUserFields(in);
+                            continue;
+                        }
+                        out.putInt(source.remap[login]).putString(in.getString()).putString(in.getString());
+                        int attributes = in.getInt();
+                        out.putInt(attributes);
+                        for (int count = attributes * 2; count > 0; count--) out.putString(in.getString());
+                    }
+                }
+
+                out.putInt(RELATIONSHIPS);
+                for (Source source : sources) {
+                    Input in = source.input(source.relationships);
+                    for (int i = 0; i < source.userCount; i++) {
+                        if (!source.keptUsers[i]) {
+                            skipRelationships(in);
+                            continue;
+                        }
+                        for (int relation = 0; relation < RELATIONS.length; relation++) {
+                            int count = in.getInt();
+                            out.putInt(count);
+                            for (; count > 0; count--) out.putInt(source.remap[in.getInt()]);
+                        }
+                    }
+                }
+
+                out.putInt(INBOXES);
+                for (Source source : sources) {
+                    Input in = source.input(source.inboxes);
+                    for (int i = 0; i < source.userCount; i++) {
+                        if (!source.keptUsers[i]) {
+                            skipInboxes(in);
+                            continue;
+                        }
+                        for (int box = 0; box < 2; box++) {
+                            int count = in.getInt();
+                            out.putInt(count);
+                            for (; count > 0; count--) out.putInt(source.map(in.getInt())).putString(in.getString());
+                        }
+                    }
+                }
+
+                out.putInt(COMMUNITIES);
+                for (Source source : sources) {
+                    Input in = source.input(source.communities);
+                    for (int i = 0; i < source.communityCount; i++) {
+                        int name = in.getInt();
+                        if (!source.keptCommunities[i]) {
+                            skipCommunityFields(in, source.version);
+                            continue;
+                        }
+                        out.putInt(source.remap[name]).putString(in.getString()).putInt(source.map(in.getInt()));
+                        int members = in.getInt();
+                        out.putInt(members);
+                        for (; members > 0; members--) out.putInt(source.remap[in.getInt()]);
+                        out.putLong(in.getLong());
+                        int messages = in.getInt();
+                        out.putInt(messages);
+                        for (; messages > 0; messages--) out.putLong(in.getLong()).putInt(source.map(in.getInt())).putString(in.getString());
+                        int cursors = in.getInt();
+                        out.putInt(cursors);
+                        for (; cursors > 0; cursors--) out.putInt(source.remap[in.getInt()]).putLong(in.getLong());
+                    }
+                }
+
+                out.putInt(MEMBERSHIP);
+                for (Source source : sources) {
+                    Input in = source.input(source.membership);
+                    for (int i = 0; i < source.userCount; i++) {
+                        if (!source.keptUsers[i]) {
+                            skipMembership(in);
+                            continue;
+                        }
+                        int count = in.getInt();
+                        out.putInt(count);
+                        for (; count > 0; count--) out.putInt(source.remap[in.getInt()]);
+                    }
+                }
+
+                out.putInt(DELETIONS);
+                out.putInt(0).putInt(0);
+                out.flush();
+                channel.force(true);
+            }
+        } finally {
+            for (Source source : sources) source.close();
+        }
+    }
+
+    private static void readMessageLog(Input in, String[] dictionary, MessageLog log) throws IOException {
+        long base = in.getLong();
+        List<Message> messages = new ArrayList<>();
+        long[] sequences = new long[in.getInt()];
+        for (int m = 0; m < sequences.length; m++) {
+            sequences[m] = in.getLong();
+            int sender = in.getInt();
+            messages.add(new Message(sender < 0 ? null : dictionary[sender], in.getString()));
+        }
+        Map<String, Long> cursors = new LinkedHashMap<>();
+        for (int count = in.getInt(); count > 0; count--) cursors.put(dictionary[in.getInt()], in.getLong());
+        log.restore(base, messages, sequences, cursors);
+    }
+
+    private static List<Collection<String>> relations(Relationships relationships) {
+        return List.of(relationships.getFriendsList(), relationships.getFriendSolicitation(), relationships.getIdols(),
+                relationships.getFans(), relationships.getCrush(), relationships.getEnemy());
+    }
+
+    /**
+     * Grava o cabeçalho e, se a compressão estiver ativa, passa a comprimir o restante do arquivo.
+     */
+    private static void putHeader(Output out, long checkpointLsn, long baseId, int flags, int shardCount,
+                                  int dictionarySize, int userCount, int communityCount) throws IOException {
+        out.putInt(MAGIC).putInt(VERSION).putLong(checkpointLsn).putLong(baseId).putInt(flags | (COMPRESSION > 0 ? COMPRESSED : 0)).putInt(shardCount);
+        out.putInt(dictionarySize).putInt(userCount).putInt(communityCount);
+        out.compress(COMPRESSION);
+    }
+
+    private static void index(Map<String, Integer> dictionary, String value) {
+        if (value != null) dictionary.putIfAbsent(value, dictionary.size());
+    }
+
+    private static void putMessages(Output out, Map<String, Integer> dictionary, Queue<Message> messages) throws IOException {
+        out.putInt(messages.size());
+        for (Message message : messages) {
+            out.putInt(message.getRemetente() == null ? -1 : dictionary.get(message.getRemetente()));
+            out.putString(message.getMessage());
+        }
+    }
+
+    private static void getMessages(Input in, String[] dictionary, Queue<Message> messages) throws IOException {
+        for (int count = in.getInt(); count > 0; count--) {
+            int sender = in.getInt();
+            messages.add(new Message(sender < 0 ? null : dictionary[sender], in.getString()));
+        }
+    }
+
+    private static void putStrings(Output out, Collection<String> values) throws IOException {
+        out.putInt(values.size());
+        for (String value : values) out.putString(value);
+    }
+
+    private static void getStrings(Input in, Collection<String> values) throws IOException {
+        for (int count = in.getInt(); count > 0; count--) values.add(in.getString());
+    }
+
+    private static void skipUserFields(Input in) throws IOException {
+        in.skipString();
+        in.skipString();
+        for (int attributes = in.getInt() * 2; attributes > 0; attributes--) in.skipString();
+    }
+
+    private static void skipRelationships(Input in) throws IOException {
+        for (int relation = 0; relation < RELATIONS.length; relation++) in.skip(4L * in.getInt());
+    }
+
+    private static void skipInboxes(Input in) throws IOException {
+        for (int box = 0; box < 2; box++) {
+            for (int count = in.getInt(); count > 0; count--) {
+                in.skip(4);
+                in.skipString();
+            }
+        }
+    }
+
+    private static void skipMembership(Input in) throws IOException {
+        in.skip(4L * in.getInt());
+    }
+
+    private static void skipCommunityFields(Input in, int version) throws IOException {
+        in.skipString();
+        in.skip(4);
+        in.skip(4L * in.getInt());
+        if (version < 2) return;
+        in.skip(8);
+        for (int count = in.getInt(); count > 0; count--) {
+            in.skip(12);
+            in.skipString();
+        }
+        in.skip(12L * in.getInt());
+    }
+
+    /**
+     * Arquivo de snapshot aberto para leitura: o cabeçalho, o dicionário e o início de cada seção.
+     * Na fusão, guarda também os registros mantidos e a tradução do seu dicionário para o da nova base.
+     */
+    private static class Source implements Closeable {
+        final FileChannel channel;
+        final int version;
+        final Header header;
+        final String[] dictionary;
+        final int userCount, communityCount;
+        final List<String> deletedUsers = new ArrayList<>(), deletedCommunities = new ArrayList<>();
+        long users, relationships, inboxes, communities, membership; // Posições logo após o identificador de cada seção.
+        int[] remap; // Índice deste dicionário -> índice do dicionário da nova base.
+        boolean[] keptUsers, keptCommunities;
+        private final boolean compressed;
+        private Blocks blocks; // Índice dos blocos comprimidos, montado no primeiro acesso ao conteúdo.
+        private Input in;
+
+        Source(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                in = new Input(channel);
+                if (in.getInt() != MAGIC) throw new IOException("Arquivo de snapshot inválido: " + file);
+                version = in.getInt();
+                if (version < 1 || version > VERSION) throw new IOException("Versão de snapshot não suportada: " + version);
+                long checkpointLsn = in.getLong();
+                int flags = 0;
+                if (version < 3) header = new Header(checkpointLsn, 0, false, 1);
+                else {
+                    long baseId = in.getLong();
+                    flags = in.getInt();
+                    header = new Header(checkpointLsn, baseId, (flags & LAYER) != 0, version >= 4 ? in.getInt() : 1);
+                }
+                compressed = version >= 5 && (flags & COMPRESSED) != 0;
+                dictionary = new String[in.getInt()];
+                userCount = in.getInt();
+                communityCount = in.getInt();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        /**
+         * Lê o dicionário e localiza o início de cada seção, saltando o conteúdo das anteriores.
+         */
+        void locate() throws IOException {
+            if (compressed) in = input(HEADER_SIZE);
+            in.expectSection(DICTIONARY);
+            for (int i = 0; i < dictionary.length; i++) dictionary[i] = in.getString();
+            in.expectSection(USERS);
+            users = in.position();
+            for (int i = 0; i < userCount; i++) {
+                in.skip(4);
+                skipUserFields(in);
+            }
+            in.expectSection(RELATIONSHIPS);
+            relationships = in.position();
+            for (int i = 0; i < userCount; i++) skipRelationships(in);
+            in.expectSection(INBOXES);
+            inboxes = in.position();
+            for (int i = 0; i < userCount; i++) skipInboxes(in);
+            in.expectSection(COMMUNITIES);
+            communities = in.position();
+            for (int i = 0; i < communityCount; i++) {
+                in.skip(4);
+                skipCommunityFields(in, version);
+            }
+            in.expectSection(MEMBERSHIP);
+            membership = in.position();
+            if (version < 3) return;
+            for (int i = 0; i < userCount; i++) skipMembership(in);
+            in.expectSection(DELETIONS);
+            getStrings(in, deletedUsers);
+            getStrings(in, deletedCommunities);
+        }
+
+        Input input(long position) throws IOException {
+            if (compressed && blocks == null) blocks = new Blocks(channel);
+            return new Input(channel, blocks, position);
+        }
+        /**
+         * Registra o uso de uma string deste dicionário pela nova base, numerando-a na primeira vez.
+         */
+        void use(Map<String, Integer> target, int index) {
+            if (index < 0 || remap[index] >= 0) return;
+            Integer mapped = target.putIfAbsent(dictionary[index], target.size());
+            remap[index] = mapped == null ? target.size() - 1 : mapped;
+        }
+
+        int map(int index) {
+            return index < 0 ? -1 : remap[index];
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (blocks != null) blocks.inflater.end();
+            channel.close();
+        }
+    }
+
+    /**
+     * Índice dos blocos de um arquivo comprimido: a posição de cada bloco no conteúdo original e no arquivo.
+     * Os blocos são descomprimidos sob demanda, um de cada vez, pelo mesmo `Inflater`.
+     */
+    private static class Blocks {
+        final FileChannel channel;
+        final Inflater inflater = new Inflater();
+        final long size; // Tamanho do conteúdo original, incluindo o cabeçalho.
+        long[] starts = new long[16], offsets = new long[16];
+        int[] lengths = new int[16], compressedLengths = new int[16];
+        int count;
+
+        Blocks(FileChannel channel) throws IOException {
+            this.channel = channel;
+            long offset = HEADER_SIZE, start = HEADER_SIZE, fileSize = channel.size();
+            ByteBuffer frame = ByteBuffer.allocate(8);
+            while (offset < fileSize) {
+                frame.clear();
+                while (frame.hasRemaining() && channel.read(frame, offset + frame.position()) >= 0) ;
+                if (frame.hasRemaining()) throw new EOFException("Snapshot truncado.");
+                if (count == starts.length) grow();
+                starts[count] = start;
+                lengths[count] = frame.getInt(0);
+                compressedLengths[count] = frame.getInt(4);
+                offsets[count] = offset + 8;
+                offset += 8 + compressedLengths[count];
+                start += lengths[count];
+                count++;
+            }
+            if (offset != fileSize) throw new EOFException("Snapshot truncado.");
+            size = start;
+        }
+        /**
+         * Descomprime os blocos a partir da posição informada até cobrir pelo menos `minimum` bytes.
+         *
+         * @return O conteúdo a partir da posição.
+         */
+        ByteBuffer window(long position, int minimum) throws IOException {
+            int block = Arrays.binarySearch(starts, 0, count, position);
+            if (block < 0) block = -block - 2;
+            ByteBuffer window = ByteBuffer.wrap(inflate(block));
+            window.position((int) (position - starts[block]));
+            if (window.remaining() >= minimum) return window.slice();
+            ByteArrayOutputStream joined = new ByteArrayOutputStream(minimum);
+            joined.write(window.array(), window.position(), window.remaining());
+            while (joined.size() < minimum && ++block < count) joined.write(inflate(block));
+            return ByteBuffer.wrap(joined.toByteArray());
+        }
+
+        private byte[] inflate(int block) throws IOException {
+            ByteBuffer compressed = ByteBuffer.allocate(compressedLengths[block]);
+            while (compressed.hasRemaining() && channel.read(compressed, offsets[block] + compressed.position()) >= 0) ;
+            byte[] raw = new byte[lengths[block]];
+            inflater.reset();
+            inflater.setInput(compressed.array());
+            try {
+                if (inflater.inflate(raw) != raw.length || !inflater.finished()) throw new IOException("Bloco de snapshot corrompido.");
+            } catch (DataFormatException e) {
+                throw new IOException("Bloco de snapshot corrompido.", e);
+            }
+            return raw;
+        }
+
+        private void grow() {
+            starts = Arrays.copyOf(starts, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+            compressedLengths = Arrays.copyOf(compressedLengths, count * 2);
+        }
+    }
+
+    /**
+     * Saída bufferizada sobre um canal, de arquivo ou de memória.
+     */
+    private static class Output implements Closeable {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private Deflater deflater; // Compressor dos blocos, depois do cabeçalho; `null` sem compressão.
+        private byte[] block;
+
+        Output(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+        /**
+         * Passa a gravar o restante em blocos comprimidos, um por descarga do buffer.
+         *
+         * @param level O nível de compressão do `Deflater`, ou 0 para continuar sem compressão.
+         */
+        void compress(int level) throws IOException {
+            if (level <= 0) return;
+            flush();
+            deflater = new Deflater(level);
+            block = new byte[BUFFER_SIZE + BUFFER_SIZE / 8];
+        }
+
+        Output putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            return this;
+        }
+
+        Output putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+            return this;
+        }
+
+        Output putString(String value) throws IOException {
+            if (value == null) return putInt(-1);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            if (bytes.length > buffer.capacity() && deflater == null) {
+                flush();
+                ByteBuffer large = ByteBuffer.wrap(bytes);
+                while (large.hasRemaining()) channel.write(large);
+            } else if (bytes.length > buffer.capacity()) {
+                for (int offset = 0; offset < bytes.length; ) { // Dividida entre vários blocos.
+                    if (!buffer.hasRemaining()) flush();
+                    int length = Math.min(buffer.remaining(), bytes.length - offset);
+                    buffer.put(bytes, offset, length);
+                    offset += length;
+                }
+            } else {
+                ensure(bytes.length);
+                buffer.put(bytes);
+            }
+            return this;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            if (deflater == null) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            } else if (buffer.hasRemaining()) {
+                int length = buffer.remaining(), compressed = 0;
+                deflater.reset();
+                deflater.setInput(buffer);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (compressed == block.length) block = Arrays.copyOf(block, block.length * 2);
+                    compressed += deflater.deflate(block, compressed, block.length - compressed);
+                }
+                ByteBuffer frame = ByteBuffer.allocate(8).putInt(length).putInt(compressed).flip();
+                while (frame.hasRemaining()) channel.write(frame);
+                ByteBuffer data = ByteBuffer.wrap(block, 0, compressed);
+                while (data.hasRemaining()) channel.write(data);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                if (deflater != null) deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Entrada sequencial sobre janelas mapeadas em memória de um `FileChannel`.
+     * Cada janela cobre até {@link #MAP_WINDOW} bytes; a janela é remapeada quando um valor não cabe no restante.
+     * Em um arquivo comprimido, a janela é o conteúdo descomprimido de um bloco (ou de vários, para um valor
+     * dividido entre eles), e as posições são as do conteúdo original.
+     * Várias entradas podem percorrer o mesmo arquivo a partir de posições diferentes.
+     */
+    private static class Input {
+        private final FileChannel channel;
+        private final Blocks blocks; // Índice dos blocos, ou `null` se o arquivo não for comprimido.
+        private final long size;
+        private ByteBuffer window;
+        private long windowStart;
+
+        Input(FileChannel channel) throws IOException {
+            this(channel, null, 0);
+        }
+
+        Input(FileChannel channel, Blocks blocks, long position) throws IOException {
+            this.channel = channel;
+            this.blocks = blocks;
+            this.size = blocks == null ? channel.size() : blocks.size;
+            map(position, 0);
+        }
+
+        long position() {
+            return windowStart + window.position();
+        }
+
+        void skip(long bytes) throws IOException {
+            long target = position() + bytes;
+            if (target > size) throw new EOFException("Snapshot truncado.");
+            if (target - windowStart <= window.limit()) window.position((int) (target - windowStart));
+            else map(target, 0);
+        }
+
+        void skipString() throws IOException {
+            int length = getInt();
+            if (length > 0) skip(length);
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(8);
+            return window.getLong();
+        }
+
+        String getString() throws IOException {
+            int length = getInt();
+            if (length < 0) return null;
+            ensure(length);
+            byte[] bytes = new byte[length];
+            window.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void expectSection(int section) throws IOException {
+            int actual = getInt();
+            if (actual != section) throw new IOException("Seção de snapshot inesperada: " + actual + " (esperada " + section + ")");
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() >= bytes) return;
+            long position = position();
+            if (position + bytes > size) throw new EOFException("Snapshot truncado.");
+            map(position, bytes);
+            if (window.remaining() < bytes) throw new IOException("Valor maior que a janela de mapeamento.");
+        }
+
+        private void map(long position, int minimum) throws IOException {
+            windowStart = position;
+            if (blocks != null) window = position == size ? ByteBuffer.allocate(0) : blocks.window(position, minimum);
+            else window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * A classe `Journal` implementa o diário de escrita antecipada (write-ahead journal) do sistema Jackut.
+ * Cada operação de escrita bem-sucedida é anexada ao final do arquivo como um registro compacto,
+ * de modo que o custo de gravação é proporcional ao tamanho da alteração e não ao tamanho dos dados.
+ *
+ * As sincronizações com o disco (fsync) são agrupadas (group commit): uma única thread de gravação
+ * descarrega de uma vez todos os registros acumulados enquanto a sincronização anterior estava em andamento,
+ * e acorda todos os chamadores cujos registros ficaram duráveis.
+ *
+ * Formato do arquivo: cabeçalho (magic, versão, LSN base) seguido de registros
+ * `[tamanho][crc32][lsn][código da operação][argumentos]`, onde cada argumento é uma string UTF-8
+ * prefixada pelo seu tamanho (-1 para `null`).
+ *
+ * O diário é reiniciado a cada checkpoint. Se houver registros posteriores ao checkpoint (um checkpoint feito
+ * em segundo plano, com as operações em andamento), apenas esses registros são copiados para um arquivo novo,
+ * que substitui o diário por renomeação; as gravações em grupo ficam suspensas só durante a cópia da cauda.
+ */
+public class Journal implements Closeable {
+    private static final int MAGIC = 0x4A4B4A4E; // "JKJN"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16; // magic + versão + LSN base
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    private static final long GROUP_COMMIT_MILLIS = Long.getLong("jackut.journal.groupCommitMillis", 0L);
+
+    private final File file; // Arquivo do diário.
+    private FileChannel channel; // Canal do arquivo do diário, trocado na compactação.
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(8192); // Registros ainda não gravados.
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream(8192); // Buffer em gravação pela thread.
+    private final CRC32 crc = new CRC32();
+    private long lastLsn; // Último LSN atribuído.
+    private long durableLsn; // Último LSN gravado e sincronizado com o disco.
+    private long durableSize; // Tamanho do arquivo até o último registro sincronizado.
+    private boolean writing; // A thread de gravação está gravando um grupo de registros.
+    private boolean compacting; // A compactação está copiando a cauda; as gravações ficam suspensas.
+    private long syncCount; // Quantidade de fsyncs realizados.
+    private boolean closed;
+    private IOException failure; // Falha de gravação, repassada aos chamadores.
+    private final Thread writer;
+
+    private Journal(File file, FileChannel channel, long lastLsn) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.lastLsn = lastLsn;
+        this.durableLsn = lastLsn;
+        this.durableSize = channel.size();
+        this.writer = new Thread(this::writeLoop, "jackut-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+    /**
+     * Abre (ou cria) o diário e reaplica os registros posteriores ao último checkpoint.
+     * Um registro final incompleto ou corrompido (por exemplo, após uma queda durante a gravação)
+     * encerra a reaplicação e é descartado do arquivo.
+     *
+     * @param file O arquivo do diário.
+     * @param checkpointLsn O LSN já contido no snapshot carregado; registros até ele são ignorados.
+     * @param handler O consumidor que reaplica cada operação sobre o estado em memória.
+     * @return O diário aberto, pronto para receber novos registros.
+     * @throws IOException Se o arquivo não puder ser lido ou não for um diário válido.
+     */
+    public static Journal open(File file, long checkpointLsn, BiConsumer<JournalOp, String[]> handler) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long lastLsn = checkpointLsn;
+            if (channel.size() < HEADER_SIZE) {
+                writeHeader(channel, checkpointLsn);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) throw new IOException("Arquivo de diário inválido: " + file);
+                lastLsn = Math.max(lastLsn, header.getLong());
+                lastLsn = Math.max(lastLsn, replay(channel, checkpointLsn, handler));
+            }
+            channel.position(channel.size());
+            return new Journal(file, channel, lastLsn);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    /**
+     * Lê os registros do diário, reaplicando os que são posteriores ao checkpoint, e trunca a cauda inválida.
+     *
+     * @return O maior LSN encontrado.
+     */
+    private static long replay(FileChannel channel, long checkpointLsn, BiConsumer<JournalOp, String[]> handler) throws IOException {
+        channel.position(HEADER_SIZE);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+        CRC32 crc = new CRC32();
+        long validEnd = HEADER_SIZE;
+        long maxLsn = 0;
+        while (true) {
+            byte[] payload;
+            try {
+                int length = in.readInt();
+                if (length < 9 || length > MAX_RECORD_SIZE) break;
+                int checksum = in.readInt();
+                payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) break;
+            } catch (EOFException e) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.wrap(payload);
+            long lsn = record.getLong();
+            JournalOp op = JournalOp.fromCode(record.get());
+            if (op == null) break;
+            String[] args = new String[op.getArity()];
+            for (int i = 0; i < args.length && record.hasRemaining(); i++) args[i] = readString(record); // Registros antigos podem ter menos argumentos.
+            validEnd += 8 + payload.length;
+            maxLsn = Math.max(maxLsn, lsn);
+            if (lsn > checkpointLsn) handler.accept(op, args);
+        }
+        if (validEnd < channel.size()) {
+            System.err.println("Diário com registro final incompleto; descartando " + (channel.size() - validEnd) + " bytes.");
+            channel.truncate(validEnd);
+        }
+        return maxLsn;
+    }
+    /**
+     * Anexa uma operação ao diário. O registro fica em memória até a próxima gravação em grupo.
+     *
+     * @param op A operação realizada.
+     * @param args Os argumentos da operação.
+     * @return O LSN atribuído ao registro.
+     * @throws UncheckedIOException Se o diário já falhou ou foi fechado.
+     */
+    public long append(JournalOp op, String... args) {
+        byte[][] encoded = new byte[args.length][];
+        int length = 9;
+        for (int i = 0; i < args.length; i++) {
+            encoded[i] = args[i] == null ? null : args[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + (encoded[i] == null ? 0 : encoded[i].length);
+        }
+        ByteBuffer record = ByteBuffer.allocate(8 + length);
+        record.putInt(length).putInt(0).putLong(0).put(op.getCode());
+        for (byte[] arg : encoded) {
+            record.putInt(arg == null ? -1 : arg.length);
+            if (arg != null) record.put(arg);
+        }
+        synchronized (this) {
+            checkOpen();
+            long lsn = ++lastLsn;
+            record.putLong(8, lsn);
+            crc.reset();
+            crc.update(record.array(), 8, length);
+            record.putInt(4, (int) crc.getValue());
+            pending.write(record.array(), 0, record.capacity());
+            notifyAll();
+            return lsn;
+        }
+    }
+    /**
+     * Aguarda até que o registro com o LSN informado esteja gravado e sincronizado com o disco.
+     *
+     * @param lsn O LSN a aguardar.
+     * @throws UncheckedIOException Se a gravação do diário falhar.
+     */
+    public synchronized void awaitDurable(long lsn) {
+        boolean interrupted = false;
+        while (durableLsn < lsn && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (durableLsn < lsn) throw new UncheckedIOException("Falha ao gravar o diário.", failure);
+    }
+    /**
+     * Aguarda a gravação de todos os registros pendentes.
+     *
+     * @return O último LSN atribuído, já durável.
+     */
+    public long sync() {
+        long lsn;
+        synchronized (this) {
+            lsn = lastLsn;
+        }
+        awaitDurable(lsn);
+        return lsn;
+    }
+    /**
+     * Descarta os registros já incorporados a um snapshot, reiniciando o arquivo a partir do LSN informado.
+     * Se novos registros foram anexados depois do snapshot, eles são copiados para um arquivo novo, que
+     * substitui o diário (ver {@link #compact(long)}).
+     *
+     * @param checkpointLsn O LSN incorporado ao snapshot.
+     * @throws IOException Se o arquivo não puder ser truncado.
+     */
+    public void truncate(long checkpointLsn) throws IOException {
+        synchronized (this) {
+            while (durableLsn < lastLsn) awaitDurable(lastLsn);
+            if (lastLsn <= checkpointLsn) {
+                channel.truncate(0);
+                writeHeader(channel, checkpointLsn);
+                channel.position(HEADER_SIZE);
+                channel.force(true);
+                durableSize = HEADER_SIZE;
+                return;
+            }
+        }
+        compact(checkpointLsn);
+    }
+    /**
+     * Substitui o diário por um arquivo com apenas os registros posteriores ao checkpoint, sem impedir novos
+     * registros. A parte já sincronizada da cauda é copiada sem bloqueios, pois o arquivo só cresce; em seguida
+     * as gravações em grupo são suspensas, o restante da cauda é copiado e o arquivo novo é sincronizado e
+     * renomeado sobre o diário. Os registros anexados nesse meio-tempo ficam pendentes e são gravados no
+     * arquivo novo.
+     *
+     * @param checkpointLsn O LSN incorporado ao snapshot.
+     * @throws IOException Se o arquivo novo não puder ser gravado.
+     */
+    private void compact(long checkpointLsn) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long copied;
+            synchronized (this) {
+                copied = durableSize;
+            }
+            long start = tailStart(source, copied, checkpointLsn);
+            writeHeader(target, checkpointLsn);
+            transfer(source, start, copied, target, HEADER_SIZE);
+            synchronized (this) {
+                compacting = true;
+                while (writing) awaitWriter();
+            }
+            try {
+                long end;
+                synchronized (this) {
+                    end = durableSize;
+                }
+                transfer(source, copied, end, target, HEADER_SIZE + copied - start);
+                target.force(true);
+                try {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                FileChannel compacted = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                compacted.position(compacted.size());
+                synchronized (this) {
+                    FileChannel old = channel;
+                    channel = compacted;
+                    durableSize = compacted.size();
+                    old.close();
+                }
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                    notifyAll();
+                }
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+    /**
+     * Encontra o início do primeiro registro posterior ao checkpoint.
+     *
+     * @return A posição do registro, ou `end` se não houver registros posteriores até lá.
+     */
+    private static long tailStart(FileChannel source, long end, long checkpointLsn) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(source.position(HEADER_SIZE)), 64 * 1024));
+        long position = HEADER_SIZE;
+        while (position < end) {
+            int length = in.readInt();
+            in.readInt();
+            if (in.readLong() > checkpointLsn) return position;
+            in.skipNBytes(length - 8);
+            position += 8 + length;
+        }
+        return end;
+    }
+
+    private static void transfer(FileChannel source, long from, long to, FileChannel target, long position) throws IOException {
+        while (from < to) {
+            long count = source.transferTo(from, to - from, target.position(position));
+            from += count;
+            position += count;
+        }
+    }
+
+    private void awaitWriter() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    /**
+     * Obtém a quantidade de fsyncs realizados desde a abertura do diário.
+     * @return A quantidade de sincronizações.
+     */
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+    /**
+     * Obtém o último LSN atribuído.
+     * @return O último LSN.
+     */
+    public synchronized long getLastLsn() {
+        return lastLsn;
+    }
+    /**
+     * Grava os registros pendentes e fecha o arquivo do diário.
+     *
+     * @throws IOException Se o arquivo não puder ser fechado.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+    /**
+     * Laço da thread de gravação: aguarda registros, grava todos os acumulados de uma só vez e sincroniza.
+     */
+    private void writeLoop() {
+        while (true) {
+            ByteArrayOutputStream batch;
+            long batchLsn;
+            FileChannel target;
+            synchronized (this) {
+                try {
+                    while ((pending.size() == 0 && !closed) || compacting) wait();
+                    if (pending.size() == 0) return;
+                    long deadline = System.currentTimeMillis() + GROUP_COMMIT_MILLIS;
+                    for (long left = GROUP_COMMIT_MILLIS; left > 0 && !closed; left = deadline - System.currentTimeMillis()) {
+                        wait(left);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (compacting) continue; // A compactação começou durante a espera do grupo.
+                batch = pending;
+                pending = spare;
+                spare = batch;
+                batchLsn = lastLsn;
+                target = channel;
+                writing = true;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+                while (buffer.hasRemaining()) target.write(buffer);
+                target.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    writing = false;
+                    notifyAll();
+                }
+                System.err.println("Erro ao gravar o diário.");
+                e.printStackTrace();
+                return;
+            }
+            synchronized (this) {
+                durableSize += batch.size();
+                batch.reset();
+                durableLsn = batchLsn;
+                writing = false;
+                syncCount++;
+                notifyAll();
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (failure != null) throw new UncheckedIOException("Falha ao gravar o diário.", failure);
+        if (closed) throw new UncheckedIOException(new IOException("Diário fechado."));
+    }
+
+    private static void writeHeader(FileChannel channel, long baseLsn) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(baseLsn).flip();
+        channel.write(header, 0);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,60 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+/**
+ * O enum `JournalOp` enumera as operações de escrita do sistema Jackut que são registradas no diário.
+ * Cada operação possui um código compacto de um byte, usado no arquivo, e o número de argumentos
+ * que o registro carrega. Os argumentos são sempre os logins já resolvidos, nunca IDs de sessão,
+ * pois as sessões não sobrevivem a um reinício do sistema. Os argumentos acrescentados a uma operação
+ * depois que ela já era gravada são lidos como `null` nos registros antigos.
+ */
+public enum JournalOp {
+    CREATE_USER(1, 3),       // login, senha, nome
+    EDIT_PROFILE(2, 3),      // login, atributo, valor
+    ADD_FRIEND(3, 2),        // login, amigo
+    SEND_MESSAGE(4, 3),      // remetente, destinatário, recado
+    READ_MESSAGE(5, 1),      // login
+    CREATE_COMMUNITY(6, 3),  // login, nome, descrição
+    JOIN_COMMUNITY(7, 2),    // login, comunidade
+    SEND_COMMUNITY_MESSAGE(8, 3), // remetente, comunidade, mensagem
+    READ_COMMUNITY_MESSAGE(9, 2), // login, comunidade lida (`null` para a caixa de mensagens da comunidade)
+    ADD_IDOL(10, 2),         // login, ídolo
+    ADD_CRUSH(11, 2),        // login, paquera
+    ADD_ENEMY(12, 2),        // login, inimigo
+    REMOVE_USER(13, 1);      // login
+
+    private static final JournalOp[] BY_CODE = new JournalOp[14];
+    static {
+        for (JournalOp op : values()) BY_CODE[op.code] = op;
+    }
+
+    private final byte code; // Código gravado no arquivo.
+    private final int arity; // Quantidade de argumentos do registro.
+
+    JournalOp(int code, int arity) {
+        this.code = (byte) code;
+        this.arity = arity;
+    }
+    /**
+     * Obtém o código da operação gravado no diário.
+     * @return O código da operação.
+     */
+    public byte getCode() {
+        return code;
+    }
+    /**
+     * Obtém a quantidade de argumentos do registro.
+     * @return A quantidade de argumentos.
+     */
+    public int getArity() {
+        return arity;
+    }
+    /**
+     * Obtém a operação correspondente a um código lido do diário.
+     *
+     * @param code O código lido.
+     * @return A operação correspondente, ou `null` se o código for desconhecido.
+     */
+    public static JournalOp fromCode(byte code) {
+        return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
@@ -0,0 +1,435 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.*;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A classe `JsonSnapshotReader` carrega os arquivos `usuarios.json` e `comunidades.json` com o
+ * `JsonParser` de streaming do Jackson, construindo cada `User` e `Community` uma única vez à medida
+ * que os tokens chegam, sem materializar uma lista intermediária com todo o conteúdo do arquivo.
+ *
+ * Os logins repetidos nos relacionamentos, recados e membros de comunidades são canonizados durante
+ * a carga, de modo que cada login ocupa uma única `String` no heap.
+ *
+ * São aceitos os dois formatos de exportação: a lista de objetos gerada pelo `ObjectMapper` e o formato
+ * compacto do {@link JsonSnapshotWriter}, com dicionários de strings e de textos. No formato compacto,
+ * os textos de mensagens repetidos também são compartilhados entre os registros.
+ *
+ * Arquivos com a extensão `.gz` são descomprimidos à medida que são lidos.
+ */
+public class JsonSnapshotReader {
+    public static final int PROGRESS_INTERVAL = 100_000; // Registros entre dois relatórios de progresso.
+
+    private final JsonFactory factory = new JsonFactory();
+    private final Map<String, String> logins = new HashMap<>(); // Logins canônicos da carga.
+    private final LongConsumer progress; // Recebe a quantidade de registros lidos a cada intervalo.
+    private final List<String> strings = new ArrayList<>(), texts = new ArrayList<>(); // Dicionários do arquivo compacto em leitura.
+
+    /**
+     * Leitor de um registro do formato compacto.
+     */
+    private interface RecordReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * Construtor da classe JsonSnapshotReader.
+     *
+     * @param progress O consumidor que recebe a quantidade de registros lidos a cada {@link #PROGRESS_INTERVAL}.
+     */
+    public JsonSnapshotReader(LongConsumer progress) {
+        this.progress = progress;
+    }
+    /**
+     * Lê o arquivo de usuários, entregando cada usuário ao consumidor assim que o objeto termina.
+     *
+     * @param file O arquivo de usuários.
+     * @param sink O consumidor que registra cada usuário.
+     * @return A quantidade de usuários lidos.
+     * @throws IOException Se o arquivo não puder ser lido ou não estiver no formato esperado.
+     */
+    public long readUsers(File file, Consumer<User> sink) throws IOException {
+        try (JsonParser parser = factory.createParser(open(file))) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) return readCompact(parser, "users", this::readCompactUser, sink);
+            expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+            long count = 0;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                sink.accept(readUser(parser));
+                if (++count % PROGRESS_INTERVAL == 0) progress.accept(count);
+            }
+            expect(parser, parser.getCurrentToken(), JsonToken.END_ARRAY);
+            return count;
+        }
+    }
+    /**
+     * Lê o arquivo de comunidades, entregando cada comunidade ao consumidor assim que o objeto termina.
+     *
+     * @param file O arquivo de comunidades.
+     * @param sink O consumidor que registra cada comunidade.
+     * @return A quantidade de comunidades lidas.
+     * @throws IOException Se o arquivo não puder ser lido ou não estiver no formato esperado.
+     */
+    public long readCommunities(File file, Consumer<Community> sink) throws IOException {
+        try (JsonParser parser = factory.createParser(open(file))) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) return readCompact(parser, "communities", this::readCompactCommunity, sink);
+            expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+            long count = 0;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                sink.accept(readCommunity(parser));
+                if (++count % PROGRESS_INTERVAL == 0) progress.accept(count);
+            }
+            expect(parser, parser.getCurrentToken(), JsonToken.END_ARRAY);
+            return count;
+        }
+    }
+
+    /**
+     * Abre o arquivo para leitura, descomprimindo-o se tiver a extensão `.gz`.
+     */
+    static InputStream open(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return file.getName().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Lê um arquivo no formato compacto: os dicionários e, em seguida, a lista de registros.
+     * O analisador deve estar posicionado no início do objeto principal.
+     */
+    private <T> long readCompact(JsonParser parser, String recordsField, RecordReader<T> reader, Consumer<T> sink) throws IOException {
+        strings.clear();
+        texts.clear();
+        long count = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("format")) {
+                if (parser.getIntValue() > JsonSnapshotWriter.FORMAT)
+                    throw new JsonParseException("Formato de exportação não suportado: " + parser.getIntValue(), parser.getCurrentLocation());
+            } else if (field.equals("strings")) readStrings(parser, strings, true);
+            else if (field.equals("texts")) readStrings(parser, texts, false);
+            else if (field.equals(recordsField) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    sink.accept(reader.read(parser));
+                    if (++count % PROGRESS_INTERVAL == 0) progress.accept(count);
+                }
+                expect(parser, parser.getCurrentToken(), JsonToken.END_ARRAY);
+            } else parser.skipChildren();
+        }
+        strings.clear();
+        texts.clear();
+        return count;
+    }
+
+    private User readCompactUser(JsonParser parser) throws IOException {
+        User user = new User(null, null, null);
+        Map<String, List<String>> relationships = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "login" -> user.setLogin(lookup(parser, strings));
+                case "name" -> user.setName(text(parser, value));
+                case "password" -> user.setPassword(text(parser, value));
+                case "attributes" -> {
+                    if (value != JsonToken.START_OBJECT) parser.skipChildren();
+                    else while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String attribute = parser.getCurrentName();
+                        if (parser.nextToken() == JsonToken.VALUE_STRING) user.setAttributes(attribute, parser.getText());
+                        else parser.skipChildren();
+                    }
+                }
+                case "relationships" -> {
+                    if (value != JsonToken.START_OBJECT) parser.skipChildren();
+                    else while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String relation = parser.getCurrentName();
+                        parser.nextToken();
+                        if (Arrays.asList(JsonSnapshotWriter.RELATION_FIELDS).contains(relation))
+                            readValues(parser, relationships.computeIfAbsent(relation, name -> new ArrayList<>()));
+                        else parser.skipChildren();
+                    }
+                }
+                case "messageBox" -> readCompactMessages(parser, user.getMessageBox());
+                case "communityMessages" -> readCompactMessages(parser, user.getCommunityMessages());
+                case "myCommunities" -> readValues(parser, user.getMyCommunities());
+                default -> parser.skipChildren();
+            }
+        }
+        if (user.getLogin() != null) {
+            for (Map.Entry<String, List<String>> relation : relationships.entrySet())
+                relation(user.getMyRelationships(), relation.getKey()).addAll(relation.getValue());
+            user.indexMessageSenders();
+        }
+        return user;
+    }
+
+    private Community readCompactCommunity(JsonParser parser) throws IOException {
+        Community community = new Community(null, null, null);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "name" -> community.setName(text(parser, value));
+                case "description" -> community.setDescription(text(parser, value));
+                case "manager" -> community.setManager(lookup(parser, strings));
+                case "members" -> readValues(parser, community.getMembers());
+                case "messageLog" -> readCompactMessageLog(parser, community.getMessageLog());
+                default -> parser.skipChildren();
+            }
+        }
+        for (String member : community.getMembers()) community.getMessageLog().join(member); // Cursores omitidos: no final.
+        return community;
+    }
+
+    private void readCompactMessageLog(JsonParser parser, MessageLog log) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        long base = 0;
+        List<Message> messages = new ArrayList<>();
+        List<Long> sequences = new ArrayList<>();
+        Map<String, Long> cursors = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "base" -> base = parser.getLongValue();
+                case "messages" -> {
+                    if (value != JsonToken.START_ARRAY) parser.skipChildren();
+                    else while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        sequences.add(parser.getLongValue());
+                        String sender = next(parser, strings);
+                        messages.add(new Message(sender, next(parser, texts)));
+                    }
+                }
+                case "cursors" -> {
+                    if (value != JsonToken.START_ARRAY) parser.skipChildren();
+                    else while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        String login = lookup(parser, strings);
+                        parser.nextToken();
+                        cursors.put(login, parser.getLongValue());
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        long[] sequenceArray = new long[messages.size()];
+        for (int i = 0; i < sequenceArray.length; i++) sequenceArray[i] = sequences.get(i);
+        log.restore(base, messages, sequenceArray, cursors);
+    }
+    /**
+     * Lê uma sequência plana de pares (remetente, texto).
+     */
+    private void readCompactMessages(JsonParser parser, Collection<Message> box) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            String sender = lookup(parser, strings);
+            box.add(new Message(sender, next(parser, texts)));
+        }
+    }
+
+    private void readValues(JsonParser parser, Collection<String> target) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) target.add(lookup(parser, strings));
+    }
+
+    private String next(JsonParser parser, List<String> dictionary) throws IOException {
+        parser.nextToken();
+        return lookup(parser, dictionary);
+    }
+    /**
+     * Obtém o valor corrente: uma string gravada diretamente ou o índice de uma string do dicionário (-1 para `null`).
+     */
+    private String lookup(JsonParser parser, List<String> dictionary) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_STRING) return dictionary == strings ? login(parser.getText()) : parser.getText();
+        if (token != JsonToken.VALUE_NUMBER_INT)
+            throw new JsonParseException("String ou índice de dicionário esperado, encontrado " + token, parser.getCurrentLocation());
+        int index = parser.getIntValue();
+        if (index < 0) return null;
+        if (index >= dictionary.size())
+            throw new JsonParseException("Índice fora do dicionário: " + index, parser.getCurrentLocation());
+        return dictionary.get(index);
+    }
+
+    private User readUser(JsonParser parser) throws IOException {
+        User user = new User(null, null, null);
+        Map<String, List<String>> relationships = new HashMap<>(); // Aplicados quando o login já é conhecido.
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "login" -> user.setLogin(login(parser.getText()));
+                case "name", "nome" -> user.setName(text(parser, value));
+                case "password", "senha" -> user.setPassword(text(parser, value));
+                case "myRelationships" -> readRelationships(parser, relationships);
+                case "messageBox" -> readMessages(parser, user.getMessageBox());
+                case "communityMessages" -> readMessages(parser, user.getCommunityMessages());
+                case "myCommunities" -> readStrings(parser, user.getMyCommunities(), false);
+                case "friendList" -> parser.skipChildren(); // Campo derivado de `getFriendList`.
+                default -> {
+                    if (value == JsonToken.VALUE_STRING) user.setAttributes(field, parser.getText());
+                    else parser.skipChildren();
+                }
+            }
+        }
+        if (user.getLogin() != null) {
+            for (Map.Entry<String, List<String>> relation : relationships.entrySet())
+                relation(user.getMyRelationships(), relation.getKey()).addAll(relation.getValue());
+            user.indexMessageSenders();
+        }
+        return user;
+    }
+    /**
+     * Lê os relacionamentos de um usuário para listas temporárias, pois os relacionamentos ficam no
+     * grafo social, indexados pelo login, que pode aparecer depois deles no objeto JSON.
+     */
+    private void readRelationships(JsonParser parser, Map<String, List<String>> relationships) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "friendsList", "friendSolicitation", "idols", "fans", "crush", "enemy" ->
+                        readStrings(parser, relationships.computeIfAbsent(field, name -> new ArrayList<>()), true);
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private static Set<String> relation(Relationships relationships, String field) {
+        return switch (field) {
+            case "friendsList" -> relationships.getFriendsList();
+            case "friendSolicitation" -> relationships.getFriendSolicitation();
+            case "idols" -> relationships.getIdols();
+            case "fans" -> relationships.getFans();
+            case "crush" -> relationships.getCrush();
+            default -> relationships.getEnemy();
+        };
+    }
+
+    private void readMessages(JsonParser parser, Collection<Message> box) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String sender = null, text = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "remetente" -> sender = value == JsonToken.VALUE_NULL ? null : login(parser.getText());
+                    case "message", "mensagem" -> text = text(parser, value);
+                    default -> parser.skipChildren();
+                }
+            }
+            box.add(new Message(sender, text));
+        }
+    }
+
+    private Community readCommunity(JsonParser parser) throws IOException {
+        Community community = new Community(null, null, null);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "name" -> community.setName(text(parser, value));
+                case "description" -> community.setDescription(text(parser, value));
+                case "manager" -> community.setManager(value == JsonToken.VALUE_NULL ? null : login(parser.getText()));
+                case "members" -> readStrings(parser, community.getMembers(), true);
+                case "messageLog" -> readMessageLog(parser, community.getMessageLog());
+                default -> parser.skipChildren();
+            }
+        }
+        for (String member : community.getMembers()) community.getMessageLog().join(member); // Arquivos sem cursores.
+        return community;
+    }
+
+    private void readMessageLog(JsonParser parser, MessageLog log) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        long base = 0;
+        List<Message> messages = new ArrayList<>();
+        List<Long> sequences = new ArrayList<>();
+        Map<String, Long> cursors = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "base" -> base = parser.getLongValue();
+                case "messages" -> readMessages(parser, messages);
+                case "sequences" -> {
+                    if (value != JsonToken.START_ARRAY) parser.skipChildren();
+                    else while (parser.nextToken() == JsonToken.VALUE_NUMBER_INT) sequences.add(parser.getLongValue());
+                }
+                case "cursors" -> {
+                    if (value != JsonToken.START_OBJECT) parser.skipChildren();
+                    else while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String login = login(parser.getCurrentName());
+                        parser.nextToken();
+                        cursors.put(login, parser.getLongValue());
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        long[] sequenceArray = new long[messages.size()];
+        for (int i = 0; i < sequenceArray.length && i < sequences.size(); i++) sequenceArray[i] = sequences.get(i);
+        log.restore(base, messages, sequenceArray, cursors);
+    }
+
+    private void readStrings(JsonParser parser, Collection<String> target, boolean areLogins) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_STRING) {
+                parser.skipChildren();
+                continue;
+            }
+            target.add(areLogins ? login(parser.getText()) : parser.getText());
+        }
+    }
+
+    private String login(String login) {
+        String canonical = logins.putIfAbsent(login, login);
+        return canonical == null ? login : canonical;
+    }
+
+    private static String text(JsonParser parser, JsonToken value) throws IOException {
+        return value == JsonToken.VALUE_NULL ? null : parser.getText();
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected)
+            throw new JsonParseException("Esperado " + expected + ", encontrado " + actual, parser.getCurrentLocation());
+    }
+}
@@ -0,0 +1,242 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.*;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A classe `JsonSnapshotWriter` exporta usuários e comunidades para os arquivos `usuarios.json` e
+ * `comunidades.json`, o formato de exportação e importação do sistema Jackut.
+ *
+ * Os arquivos são gravados no formato compacto (versão {@link #FORMAT}), um objeto com três campos:
+ * <ol>
+ *     <li>`strings`: dicionário com os logins e os nomes de comunidades que aparecem mais de uma vez no arquivo;</li>
+ *     <li>`texts`: os textos de mensagens que aparecem mais de uma vez, cada um gravado uma única vez;</li>
+ *     <li>`users` ou `communities`: os registros, que referenciam as strings e os textos pelo seu índice nos
+ *     dicionários. Valores que aparecem uma única vez são gravados diretamente, como string.</li>
+ * </ol>
+ * Campos vazios, nulos ou derivados não são gravados: listas de relacionamentos vazias, o campo calculado
+ * `friendList` e os cursores de membros que já leram todas as mensagens da comunidade. As mensagens são
+ * gravadas como sequências planas de valores (remetente e texto), com -1 para `null`.
+ *
+ * O formato anterior, uma lista de objetos gerada pelo `ObjectMapper`, continua aceito pelo {@link JsonSnapshotReader}.
+ *
+ * Arquivos com a extensão `.gz` são gravados comprimidos com o `GZIPOutputStream`, à medida que o conteúdo é gerado.
+ */
+public class JsonSnapshotWriter {
+    public static final int FORMAT = 2; // Versão do formato compacto.
+    static final String[] RELATION_FIELDS = {"friendsList", "friendSolicitation", "idols", "fans", "crush", "enemy"};
+
+    private JsonSnapshotWriter() {
+    }
+    /**
+     * Grava os usuários e as comunidades nos arquivos JSON informados.
+     *
+     * @param usersFile O arquivo de usuários.
+     * @param communitiesFile O arquivo de comunidades.
+     * @param users Os usuários a exportar.
+     * @param communities As comunidades a exportar.
+     * @throws IOException Se algum dos arquivos não puder ser gravado.
+     */
+    public static void write(File usersFile, File communitiesFile, Collection<User> users, Collection<Community> communities) throws IOException {
+        JsonFactory factory = new JsonFactory();
+        writeUsers(factory, usersFile, users);
+        writeCommunities(factory, communitiesFile, communities);
+    }
+
+    private static void writeUsers(JsonFactory factory, File file, Iterable<User> users) throws IOException {
+        Map<String, Integer> strings = new HashMap<>(), texts = new HashMap<>();
+        for (User user : users) {
+            count(strings, user.getLogin());
+            for (Collection<String> relation : relations(user.getMyRelationships())) for (String login : relation) count(strings, login);
+            for (Message message : user.getMessageBox()) count(strings, texts, message);
+            for (Message message : user.getCommunityMessages()) count(strings, texts, message);
+            for (String community : user.getMyCommunities()) count(strings, community);
+        }
+        try (JsonGenerator out = factory.createGenerator(open(file), JsonEncoding.UTF8)) {
+            writeHeader(out, strings, texts);
+            out.writeArrayFieldStart("users");
+            for (User user : users) {
+                out.writeStartObject();
+                out.writeFieldName("login");
+                writeValue(out, strings, user.getLogin());
+                if (user.getName() != null) out.writeStringField("name", user.getName());
+                if (user.getPassword() != null) out.writeStringField("password", user.getPassword());
+                if (!user.getAttributes().isEmpty()) {
+                    out.writeObjectFieldStart("attributes");
+                    for (Map.Entry<String, String> attribute : user.getAttributes().entrySet())
+                        out.writeStringField(attribute.getKey(), attribute.getValue());
+                    out.writeEndObject();
+                }
+                writeRelationships(out, strings, user.getMyRelationships());
+                writeMessages(out, "messageBox", strings, texts, user.getMessageBox());
+                writeMessages(out, "communityMessages", strings, texts, user.getCommunityMessages());
+                writeValues(out, "myCommunities", strings, user.getMyCommunities());
+                out.writeEndObject();
+            }
+            out.writeEndArray();
+            out.writeEndObject();
+        }
+    }
+
+    private static void writeCommunities(JsonFactory factory, File file, Iterable<Community> communities) throws IOException {
+        Map<String, Integer> strings = new HashMap<>(), texts = new HashMap<>();
+        for (Community community : communities) {
+            count(strings, community.getManager());
+            for (String member : community.getMembers()) count(strings, member);
+            for (Message message : community.getMessageLog().getMessages()) count(strings, texts, message);
+            for (String login : pendingCursors(community.getMessageLog()).keySet()) count(strings, login);
+        }
+        try (JsonGenerator out = factory.createGenerator(open(file), JsonEncoding.UTF8)) {
+            writeHeader(out, strings, texts);
+            out.writeArrayFieldStart("communities");
+            for (Community community : communities) {
+                out.writeStartObject();
+                if (community.getName() != null) out.writeStringField("name", community.getName());
+                if (community.getDescription() != null) out.writeStringField("description", community.getDescription());
+                if (community.getManager() != null) {
+                    out.writeFieldName("manager");
+                    writeValue(out, strings, community.getManager());
+                }
+                writeValues(out, "members", strings, community.getMembers());
+                writeMessageLog(out, strings, texts, community.getMessageLog());
+                out.writeEndObject();
+            }
+            out.writeEndArray();
+            out.writeEndObject();
+        }
+    }
+
+    /**
+     * Abre o arquivo para gravação, comprimindo-o se tiver a extensão `.gz`.
+     */
+    private static OutputStream open(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        return new BufferedOutputStream(file.getName().endsWith(".gz") ? new GZIPOutputStream(out, 1 << 16) : out, 1 << 16);
+    }
+
+    /**
+     * Grava o início do objeto principal com os dicionários, substituindo as contagens de ocorrências pelos
+     * índices dos valores repetidos e descartando os valores únicos.
+     */
+    private static void writeHeader(JsonGenerator out, Map<String, Integer> strings, Map<String, Integer> texts) throws IOException {
+        out.writeStartObject();
+        out.writeNumberField("format", FORMAT);
+        writeDictionary(out, "strings", strings);
+        writeDictionary(out, "texts", texts);
+    }
+
+    private static void writeDictionary(JsonGenerator out, String field, Map<String, Integer> dictionary) throws IOException {
+        out.writeArrayFieldStart(field);
+        int size = 0;
+        for (Iterator<Map.Entry<String, Integer>> entries = dictionary.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<String, Integer> entry = entries.next();
+            if (entry.getValue() < 2) {
+                entries.remove();
+                continue;
+            }
+            entry.setValue(size++);
+            out.writeString(entry.getKey());
+        }
+        out.writeEndArray();
+    }
+
+    private static void writeRelationships(JsonGenerator out, Map<String, Integer> strings, Relationships relationships) throws IOException {
+        List<Collection<String>> relations = relations(relationships);
+        boolean started = false;
+        for (int i = 0; i < relations.size(); i++) {
+            if (relations.get(i).isEmpty()) continue;
+            if (!started) out.writeObjectFieldStart("relationships");
+            started = true;
+            writeValues(out, RELATION_FIELDS[i], strings, relations.get(i));
+        }
+        if (started) out.writeEndObject();
+    }
+    /**
+     * Grava as mensagens como uma sequência plana de pares (remetente, texto).
+     */
+    private static void writeMessages(JsonGenerator out, String field, Map<String, Integer> strings, Map<String, Integer> texts, Collection<Message> messages) throws IOException {
+        if (messages.isEmpty()) return;
+        out.writeArrayFieldStart(field);
+        for (Message message : messages) {
+            writeValue(out, strings, message.getRemetente());
+            writeValue(out, texts, message.getMessage());
+        }
+        out.writeEndArray();
+    }
+    /**
+     * Grava o registro de mensagens como triplas (sequência, remetente, texto) e apenas os cursores de membros
+     * com mensagens não lidas, pois os demais são recriados no final do registro pela carga.
+     */
+    private static void writeMessageLog(JsonGenerator out, Map<String, Integer> strings, Map<String, Integer> texts, MessageLog log) throws IOException {
+        List<Message> messages = log.getMessages();
+        long[] sequences = log.getSequences();
+        Map<String, Long> pending = pendingCursors(log);
+        if (messages.isEmpty() && log.getBase() == 0 && pending.isEmpty()) return;
+        out.writeObjectFieldStart("messageLog");
+        out.writeNumberField("base", log.getBase());
+        if (!messages.isEmpty()) {
+            out.writeArrayFieldStart("messages");
+            for (int m = 0; m < messages.size(); m++) {
+                out.writeNumber(sequences[m]);
+                writeValue(out, strings, messages.get(m).getRemetente());
+                writeValue(out, texts, messages.get(m).getMessage());
+            }
+            out.writeEndArray();
+        }
+        if (!pending.isEmpty()) {
+            out.writeArrayFieldStart("cursors");
+            for (Map.Entry<String, Long> cursor : pending.entrySet()) {
+                writeValue(out, strings, cursor.getKey());
+                out.writeNumber(cursor.getValue());
+            }
+            out.writeEndArray();
+        }
+        out.writeEndObject();
+    }
+
+    /**
+     * Obtém os cursores dos membros que ainda têm mensagens não lidas.
+     */
+    private static Map<String, Long> pendingCursors(MessageLog log) {
+        long end = log.getBase() + log.getRetainedMessages();
+        Map<String, Long> pending = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> cursor : log.getCursors().entrySet())
+            if (cursor.getValue() < end) pending.put(cursor.getKey(), cursor.getValue());
+        return pending;
+    }
+
+    private static void writeValues(JsonGenerator out, String field, Map<String, Integer> strings, Collection<String> values) throws IOException {
+        if (values.isEmpty()) return;
+        out.writeArrayFieldStart(field);
+        for (String value : values) writeValue(out, strings, value);
+        out.writeEndArray();
+    }
+
+    private static List<Collection<String>> relations(Relationships relationships) {
+        return List.of(relationships.getFriendsList(), relationships.getFriendSolicitation(), relationships.getIdols(),
+                relationships.getFans(), relationships.getCrush(), relationships.getEnemy());
+    }
+
+    private static void count(Map<String, Integer> strings, Map<String, Integer> texts, Message message) {
+        count(strings, message.getRemetente());
+        count(texts, message.getMessage());
+    }
+
+    private static void count(Map<String, Integer> dictionary, String value) {
+        if (value != null) dictionary.merge(value, 1, Integer::sum);
+    }
+    /**
+     * Grava um valor como o seu índice no dicionário, como string se não estiver nele, ou como -1 se for `null`.
+     */
+    private static void writeValue(JsonGenerator out, Map<String, Integer> dictionary, String value) throws IOException {
+        Integer index = value == null ? Integer.valueOf(-1) : dictionary.get(value);
+        if (index == null) out.writeString(value);
+        else out.writeNumber(index);
+    }
+}
@@ -0,0 +1,432 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Community;
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * A classe `LayeredSnapshot` mantém o snapshot binário do sistema Jackut como uma base completa
+ * (`jackut.snapshot`) e uma pilha de camadas incrementais (`jackut.snapshot.1`, `jackut.snapshot.2`, ...),
+ * cada uma com apenas os usuários e comunidades alterados desde o salvamento anterior e as chaves dos
+ * registros excluídos. Assim, o tempo de um salvamento é proporcional às alterações, e não ao total de usuários.
+ *
+ * Na carga, as camadas são lidas da mais nova para a mais antiga e a base por último; cada registro vem do
+ * arquivo mais novo que o contém. Cada camada guarda o identificador da base sobre a qual foi gravada, e as
+ * camadas de outra base (restos de uma gravação completa interrompida) são ignoradas e apagadas.
+ *
+ * Quando a pilha atinge `jackut.snapshot.mergeLayers` camadas (4 por padrão), ou quando as camadas passam da
+ * metade do tamanho da base, uma thread de fundo funde as camadas existentes na base, diretamente nos arquivos
+ * ({@link BinarySnapshot#merge(List, File)}). A base fundida mantém o identificador, de modo que as camadas
+ * gravadas durante a fusão continuam válidas; se uma gravação completa ou uma limpeza acontecer no meio,
+ * o resultado da fusão é descartado.
+ *
+ * Bases grandes são divididas em fragmentos pelo hash do login ou do nome da comunidade: o fragmento 0 é o
+ * próprio `jackut.snapshot`, e os demais ficam em `jackut.snapshot.shard{n}-{identificador da base}`. Os
+ * fragmentos são gravados, carregados e fundidos em paralelo, em um `ForkJoinPool` com uma thread por núcleo,
+ * e o fragmento 0 é renomeado por último, de modo que uma gravação interrompida deixa intacta a base anterior
+ * e os seus fragmentos. As camadas, pequenas, não são fragmentadas.
+ *
+ * Para um checkpoint em segundo plano, uma camada pode ser capturada em memória ({@link #capture}) enquanto
+ * os registros estão parados, e gravada depois ({@link #writeLayer(Capture)}), sem acesso a eles.
+ */
+public class LayeredSnapshot {
+    private static final int MERGE_LAYERS = Math.max(1, Integer.getInteger("jackut.snapshot.mergeLayers", 4));
+    private static final int MAX_LAYERS = 4 * MERGE_LAYERS; // A partir disso, a fusão ficou para trás.
+    private static final int MAX_CHURN_PERCENT = Integer.getInteger("jackut.snapshot.maxChurnPercent", 25);
+    private static final int MIN_SHARD_USERS = 4096; // Usuários mínimos por fragmento; bases menores não são divididas.
+    private static final SecureRandom IDS = new SecureRandom();
+
+    private final File base;
+    private final int maxShards;
+    private long baseId; // Identificador da base atual; 0 se não houver base que aceite camadas.
+    private int shardCount = 1; // Quantidade de fragmentos da base atual.
+    private long generation; // Renovado a cada base nova ou limpeza, invalidando fusões em andamento.
+    private Thread merger;
+
+    /**
+     * Camada incremental codificada em memória, à espera de ser gravada.
+     */
+    public static final class Capture {
+        private final long baseId, checkpointLsn;
+        private final byte[] bytes;
+
+        private Capture(long baseId, long checkpointLsn, byte[] bytes) {
+            this.baseId = baseId;
+            this.checkpointLsn = checkpointLsn;
+            this.bytes = bytes;
+        }
+        /**
+         * Obtém o LSN do diário incorporado à camada.
+         * @return O LSN do checkpoint.
+         */
+        public long getCheckpointLsn() {
+            return checkpointLsn;
+        }
+        /**
+         * Obtém o tamanho da camada codificada.
+         * @return O tamanho, em bytes.
+         */
+        public int size() {
+            return bytes.length;
+        }
+    }
+
+    /**
+     * Construtor da classe LayeredSnapshot.
+     *
+     * @param base O arquivo da base; as camadas e os fragmentos ficam ao lado dele, com sufixos próprios.
+     * @param maxShards A quantidade máxima de fragmentos das bases gravadas (1 para não fragmentar).
+     */
+    public LayeredSnapshot(File base, int maxShards) {
+        this.base = base;
+        this.maxShards = Math.max(1, maxShards);
+    }
+    /**
+     * Verifica se há uma base gravada.
+     *
+     * @return `true` se a base existir.
+     */
+    public boolean exists() {
+        return base.exists();
+    }
+    /**
+     * Carrega a base e as suas camadas, entregando a versão mais recente de cada usuário e comunidade.
+     *
+     * @param userSink O consumidor que registra cada usuário.
+     * @param communitySink O consumidor que registra cada comunidade.
+     * @return O LSN do diário incorporado ao arquivo mais recente.
+     * @throws IOException Se algum arquivo não puder ser lido.
+     */
+    public synchronized long load(Consumer<User> userSink, Consumer<Community> communitySink) throws IOException {
+        BinarySnapshot.Header header = BinarySnapshot.readHeader(base);
+        baseId = header.getBaseId();
+        shardCount = header.getShardCount();
+        generation++;
+        List<File> shards = shards(baseId, shardCount);
+        for (File shard : shards) if (!shard.exists()) throw new IOException("Fragmento do snapshot ausente: " + shard);
+        deleteShardsExcept(baseId);
+        List<File> layers = layers(); // Da mais nova para a mais antiga.
+        Set<String> users = new HashSet<>(), communities = new HashSet<>();
+        long checkpointLsn = 0;
+        for (File layer : layers) {
+            if (baseId == 0 || BinarySnapshot.readHeader(layer).getBaseId() != baseId) {
+                System.err.println("Camada de outra base ignorada: " + layer);
+                layer.delete();
+                continue;
+            }
+            checkpointLsn = Math.max(checkpointLsn, BinarySnapshot.read(layer, users, communities, userSink, communitySink));
+        }
+        // As camadas já foram lidas: os fragmentos apenas consultam os conjuntos, e podem ser lidos ao mesmo tempo.
+        return Math.max(checkpointLsn, forEachShard(shardCount, shard -> BinarySnapshot.read(shards.get(shard), users, communities, userSink, communitySink)));
+    }
+    /**
+     * Verifica se um salvamento com a quantidade de registros alterados informada deve ser gravado como uma
+     * camada. É preciso haver uma base com identificador e as alterações não podem passar de
+     * `jackut.snapshot.maxChurnPercent` por cento dos usuários (25 por padrão), caso em que uma base nova custa
+     * pouco mais que a camada e dispensa a fusão.
+     *
+     * Se a pilha tiver ficado para trás da fusão, com `4 * jackut.snapshot.mergeLayers` camadas, aguarda a fusão
+     * em andamento; sem fusão em andamento, o salvamento grava uma base nova.
+     *
+     * @param changed A quantidade de registros alterados.
+     * @param total A quantidade total de usuários.
+     * @return `true` se o salvamento deve ser incremental.
+     */
+    public boolean acceptsLayer(int changed, int total) {
+        Thread running;
+        synchronized (this) {
+            running = layers().size() >= MAX_LAYERS ? merger : null;
+        }
+        if (running != null) {
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            return hasBase() && layers().size() < MAX_LAYERS && (long) changed * 100 <= (long) total * MAX_CHURN_PERCENT;
+        }
+    }
+    /**
+     * Grava uma base nova com todos os registros, com um identificador novo, e apaga as camadas e os fragmentos
+     * da base anterior. A base é dividida em até `maxShards` fragmentos de pelo menos 4096 usuários, gravados
+     * em paralelo; sem divisão, os usuários são percorridos diretamente, sem ser copiados para listas.
+     *
+     * @param users Os usuários do sistema.
+     * @param userCount A quantidade de usuários.
+     * @param communities As comunidades do sistema.
+     * @param checkpointLsn O LSN do diário incorporado.
+     * @throws IOException Se a base não puder ser gravada.
+     */
+    public synchronized void writeBase(Iterable<User> users, int userCount, Collection<Community> communities, long checkpointLsn) throws IOException {
+        long id = newId();
+        int count = Math.max(1, Math.min(maxShards, userCount / MIN_SHARD_USERS));
+        List<Iterable<User>> userShards = new ArrayList<>();
+        List<Collection<Community>> communityShards = new ArrayList<>();
+        if (count == 1) {
+            userShards.add(users);
+            communityShards.add(communities);
+        } else {
+            for (int shard = 0; shard < count; shard++) {
+                userShards.add(new ArrayList<>(userCount / count + 16));
+                communityShards.add(new ArrayList<>());
+            }
+            for (User user : users) ((List<User>) userShards.get(BinarySnapshot.shardOf(user.getLogin(), count))).add(user);
+            for (Community community : communities) communityShards.get(BinarySnapshot.shardOf(community.getName(), count)).add(community);
+        }
+        List<File> shards = shards(id, count);
+        forEachShard(count, shard -> {
+            Iterable<User> part = userShards.get(shard);
+            int size = count == 1 ? userCount : ((List<User>) part).size();
+            BinarySnapshot.write(temp(shards.get(shard)), part, size, communityShards.get(shard), checkpointLsn, id, count);
+            return 0;
+        });
+        for (int shard = count - 1; shard >= 0; shard--) replace(temp(shards.get(shard)), shards.get(shard)); // A base por último.
+        baseId = id;
+        shardCount = count;
+        generation++;
+        for (File layer : layers()) layer.delete();
+        deleteShardsExcept(id);
+    }
+    /**
+     * Grava uma camada incremental sobre a base atual e, se a pilha tiver crescido o bastante, inicia a fusão
+     * em segundo plano.
+     *
+     * @param users Os usuários alterados.
+     * @param communities As comunidades alteradas.
+     * @param deletedUsers Os logins dos usuários excluídos.
+     * @param deletedCommunities Os nomes das comunidades excluídas.
+     * @param checkpointLsn O LSN do diário incorporado.
+     * @throws IOException Se a camada não puder ser gravada.
+     */
+    public synchronized void writeLayer(Collection<User> users, Collection<Community> communities, Collection<String> deletedUsers,
+                                        Collection<String> deletedCommunities, long checkpointLsn) throws IOException {
+        addLayer(temp -> BinarySnapshot.writeLayer(temp, users, communities, deletedUsers, deletedCommunities, checkpointLsn, baseId));
+    }
+    /**
+     * Codifica em memória uma camada incremental sobre a base atual. Diferente de {@link #acceptsLayer(int, int)},
+     * não aguarda a fusão: se a pilha tiver ficado para trás da fusão, não captura nada. É preciso haver uma
+     * base que aceite camadas ({@link #hasBase()}).
+     *
+     * @param users Os usuários alterados.
+     * @param communities As comunidades alteradas.
+     * @param deletedUsers Os logins dos usuários excluídos.
+     * @param deletedCommunities Os nomes das comunidades excluídas.
+     * @param checkpointLsn O LSN do diário incorporado.
+     * @return A camada capturada, ou `null` se ela não puder ser gravada agora.
+     */
+    public synchronized Capture capture(Collection<User> users, Collection<Community> communities, Collection<String> deletedUsers,
+                                        Collection<String> deletedCommunities, long checkpointLsn) {
+        if (!hasBase() || layers().size() >= MAX_LAYERS) return null;
+        return new Capture(baseId, checkpointLsn, BinarySnapshot.encodeLayer(users, communities, deletedUsers, deletedCommunities, checkpointLsn, baseId));
+    }
+    /**
+     * Verifica se há uma base com identificador, sobre a qual as camadas podem ser gravadas.
+     *
+     * @return `true` se houver uma base que aceite camadas.
+     */
+    public synchronized boolean hasBase() {
+        return baseId != 0 && base.exists();
+    }
+    /**
+     * Grava uma camada capturada em memória. Se uma base nova foi gravada depois da captura, ou o snapshot foi
+     * apagado, a camada é descartada: a base nova já contém as alterações.
+     *
+     * @param capture A camada capturada.
+     * @return `true` se a camada foi gravada.
+     * @throws IOException Se a camada não puder ser gravada.
+     */
+    public synchronized boolean writeLayer(Capture capture) throws IOException {
+        if (capture.baseId != baseId) return false;
+        addLayer(temp -> {
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(capture.bytes);
+                while (buffer.hasRemaining()) channel.write(buffer);
+                channel.force(true);
+            }
+        });
+        return true;
+    }
+    /**
+     * Grava a próxima camada da pilha em um arquivo temporário, renomeia-o e, se a pilha tiver crescido o
+     * bastante, inicia a fusão em segundo plano.
+     */
+    private void addLayer(LayerWriter writer) throws IOException {
+        List<File> layers = layers();
+        File layer = layerFile(layers.isEmpty() ? 1 : number(layers.get(0)) + 1);
+        File temp = new File(layer.getPath() + ".tmp");
+        writer.write(temp);
+        replace(temp, layer);
+        layers.add(0, layer);
+        long layerBytes = 0;
+        for (File file : layers) layerBytes += file.length();
+        long baseBytes = 0;
+        for (File shard : shards(baseId, shardCount)) baseBytes += shard.length();
+        if (layers.size() >= MERGE_LAYERS || layerBytes > baseBytes / 2) startMerge(layers);
+    }
+    /**
+     * Apaga a base e as camadas, descartando uma fusão em andamento.
+     */
+    public synchronized void delete() {
+        generation++;
+        baseId = 0;
+        base.delete();
+        for (File layer : layers()) layer.delete();
+        deleteShardsExcept(0);
+        merged(base).delete();
+    }
+
+    private void startMerge(List<File> layers) {
+        if (merger != null && merger.isAlive()) return;
+        List<File> shards = shards(baseId, shardCount);
+        long startGeneration = generation;
+        merger = new Thread(() -> merge(layers, shards, startGeneration), "jackut-snapshot-merge");
+        merger.setDaemon(true);
+        merger.start();
+    }
+    /**
+     * Funde as camadas informadas em cada fragmento da base e, se nenhuma base nova tiver sido gravada nesse
+     * meio-tempo, substitui os fragmentos e apaga as camadas fundidas. Se a substituição for interrompida antes
+     * de apagar as camadas, elas são reaplicadas na próxima carga sobre fragmentos que já as contêm, com o mesmo
+     * resultado.
+     */
+    private void merge(List<File> layers, List<File> shards, long startGeneration) {
+        try {
+            forEachShard(shards.size(), shard -> {
+                List<File> sources = new ArrayList<>(layers);
+                sources.add(shards.get(shard));
+                BinarySnapshot.merge(sources, merged(shards.get(shard)), shards.size(), shard);
+                return 0;
+            });
+            synchronized (this) {
+                if (generation != startGeneration) return;
+                for (File shard : shards) replace(merged(shard), shard);
+                for (File layer : layers) layer.delete();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Erro ao fundir as camadas do snapshot.");
+            e.printStackTrace();
+        } finally {
+            for (File shard : shards) merged(shard).delete();
+        }
+    }
+    /**
+     * Executa uma tarefa por fragmento, em paralelo quando há mais de um.
+     *
+     * @return O maior valor devolvido pelas tarefas.
+     */
+    private static long forEachShard(int count, ShardTask task) throws IOException {
+        if (count == 1) return task.run(0);
+        ForkJoinPool pool = new ForkJoinPool(Math.min(count, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Callable<Long>> tasks = new ArrayList<>(count);
+            for (int shard = 0; shard < count; shard++) {
+                int index = shard;
+                tasks.add(() -> task.run(index));
+            }
+            long result = 0;
+            for (Future<Long> future : pool.invokeAll(tasks)) result = Math.max(result, future.get());
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Operação do snapshot interrompida.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+    /**
+     * Gravação do arquivo temporário de uma camada.
+     */
+    private interface LayerWriter {
+        void write(File temp) throws IOException;
+    }
+    /**
+     * Tarefa executada sobre um fragmento.
+     */
+    private interface ShardTask {
+        long run(int shard) throws IOException;
+    }
+    /**
+     * Obtém os arquivos dos fragmentos de uma base; o fragmento 0 é a própria base.
+     */
+    private List<File> shards(long id, int count) {
+        List<File> shards = new ArrayList<>(count);
+        shards.add(base);
+        for (int shard = 1; shard < count; shard++) shards.add(new File(base.getPath() + ".shard" + shard + "-" + Long.toHexString(id)));
+        return shards;
+    }
+    /**
+     * Apaga os fragmentos que não pertencem à base informada, restos de bases anteriores ou de gravações interrompidas.
+     */
+    private void deleteShardsExcept(long id) {
+        String prefix = base.getName() + ".shard", suffix = "-" + Long.toHexString(id);
+        File[] files = base.getAbsoluteFile().getParentFile().listFiles((dir, name) -> name.startsWith(prefix) && !name.endsWith(suffix));
+        if (files != null) for (File file : files) file.delete();
+    }
+
+    private static File temp(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    private static File merged(File file) {
+        return new File(file.getPath() + ".merge");
+    }
+    /**
+     * Lista as camadas existentes, da mais nova para a mais antiga.
+     */
+    private List<File> layers() {
+        File directory = base.getAbsoluteFile().getParentFile();
+        String prefix = base.getName() + ".";
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix) && name.length() > prefix.length()
+                && name.substring(prefix.length()).chars().allMatch(Character::isDigit));
+        List<File> layers = new ArrayList<>(files == null ? List.of() : Arrays.asList(files));
+        layers.sort(Comparator.comparingLong(LayeredSnapshot::number).reversed());
+        return layers;
+    }
+
+    private File layerFile(long number) {
+        return new File(base.getPath() + "." + number);
+    }
+
+    private static long number(File layer) {
+        String name = layer.getName();
+        return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    private static long newId() {
+        long id;
+        do id = IDS.nextLong(); while (id == 0);
+        return id;
+    }
+    /**
+     * Substitui um arquivo por sua versão temporária recém-gravada, atomicamente quando possível.
+     */
+    private static void replace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
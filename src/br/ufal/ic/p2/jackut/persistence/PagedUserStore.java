@@ -0,0 +1,594 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.interfaces.UserStore;
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A classe `PagedUserStore` é o registro de usuários do modo de paginação: apenas um número limitado
+ * de usuários fica hidratado no heap, em um cache LRU, e os demais ficam como registros
+ * ({@link UserRecord}) em um arquivo de páginas, de onde são carregados sob demanda.
+ *
+ * Ao remover um usuário frio do cache, o seu registro só é regravado se o conteúdo mudou desde que foi
+ * carregado (comparando o CRC do registro). Registros regravados são anexados ao final do arquivo; quando
+ * o espaço morto supera o espaço vivo, o arquivo é compactado.
+ *
+ * Usuários com sessões abertas ou com operações em andamento ficam fixados no heap, pois a sessão e a
+ * operação mantêm uma referência ao objeto. As fixações são contadas por login.
+ *
+ * O monitor do registro protege apenas os mapas em memória; as leituras, as decodificações e as gravações no
+ * arquivo de páginas são feitas fora dele. Uma falta registra o carregamento em andamento do login, de modo que
+ * acessos simultâneos ao mesmo usuário aguardam o mesmo objeto, e as regravações reservam a sua posição no final
+ * do arquivo sob o monitor e são gravadas depois, ficando até lá disponíveis em memória para novos acessos. O
+ * bloqueio do arquivo é compartilhado pelas leituras e gravações e exclusivo na compactação e na limpeza, que
+ * trocam o arquivo; quando ambos são necessários, ele é adquirido antes do monitor.
+ */
+public class PagedUserStore implements UserStore {
+    private static final long COMPACTION_THRESHOLD = 64L * 1024 * 1024;
+    private static final Page UNWRITTEN = new Page(-1, 0); // Posição dos usuários ainda não gravados.
+
+    private final int capacity; // Quantidade máxima de usuários residentes não fixados.
+    private final File file;
+    private final ReentrantReadWriteLock fileLock = new ReentrantReadWriteLock(); // Bloqueio do arquivo de páginas.
+    private FileChannel pages; // Arquivo de páginas com os registros dos usuários.
+    private long end; // Posição do final do arquivo de páginas.
+    private long deadBytes; // Bytes de registros obsoletos no arquivo.
+    private final Map<String, Page> offsets = new HashMap<>(); // Login -> registro no arquivo.
+    private final Map<String, Resident> pinned = new HashMap<>(); // Usuários fixados por sessões e operações.
+    private final Map<String, Integer> pins = new HashMap<>(); // Login -> quantidade de fixações.
+    private final LinkedHashMap<String, Resident> resident = new LinkedHashMap<>(16, 0.75f, true); // Cache LRU.
+    private final Map<String, CompletableFuture<Resident>> loading = new HashMap<>(); // Carregamentos em andamento.
+    private final Map<String, WriteBack> writing = new HashMap<>(); // Regravações reservadas e ainda não gravadas.
+    private long hits, misses, evictions, writeBacks;
+
+    /**
+     * Usuário hidratado, com o CRC e o tamanho do registro a partir do qual foi carregado.
+     */
+    private static class Resident {
+        final User user;
+        final long crc;
+        final int length;
+
+        Resident(User user, long crc, int length) {
+            this.user = user;
+            this.crc = crc;
+            this.length = length;
+        }
+    }
+    /**
+     * Posição e tamanho de um registro no arquivo de páginas.
+     */
+    private static class Page {
+        final long position;
+        final int length;
+
+        Page(long position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+    }
+    /**
+     * Regravação de um usuário removido do cache: o registro já codificado e a posição reservada para ele.
+     */
+    private static class WriteBack {
+        final String login;
+        final Resident entry;
+        final ByteBuffer buffer;
+        final long position;
+
+        WriteBack(String login, Resident entry, ByteBuffer buffer, long position) {
+            this.login = login;
+            this.entry = entry;
+            this.buffer = buffer;
+            this.position = position;
+        }
+    }
+    /**
+     * Construtor da classe PagedUserStore.
+     * O arquivo de páginas é recriado; o estado durável continua sendo o snapshot e o diário.
+     *
+     * @param file O arquivo de páginas.
+     * @param capacity A quantidade máxima de usuários residentes não fixados por sessões.
+     * @throws IOException Se o arquivo de páginas não puder ser criado.
+     */
+    public PagedUserStore(File file, int capacity) throws IOException {
+        this.file = file;
+        this.capacity = Math.max(capacity, 2);
+        this.pages = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public User get(String login) {
+        synchronized (this) {
+            Resident entry = cached(login);
+            if (entry != null) {
+                hits++;
+                return entry.user;
+            }
+            if (!offsets.containsKey(login)) return null;
+        }
+        List<WriteBack> victims = new ArrayList<>();
+        fileLock.readLock().lock();
+        try {
+            return load(login, victims);
+        } finally {
+            try {
+                write(victims);
+            } finally {
+                fileLock.readLock().unlock();
+            }
+            compactIfNeeded();
+        }
+    }
+
+    @Override
+    public synchronized boolean contains(String login) {
+        return offsets.containsKey(login);
+    }
+
+    @Override
+    public boolean add(User user) {
+        List<WriteBack> victims;
+        fileLock.readLock().lock();
+        try {
+            synchronized (this) {
+                if (offsets.putIfAbsent(user.getLogin(), UNWRITTEN) != null) return false;
+                resident.put(user.getLogin(), new Resident(user, -1, -1));
+                victims = evict();
+            }
+            write(victims);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+        compactIfNeeded();
+        return true;
+    }
+
+    @Override
+    public void remove(String login) {
+        fileLock.readLock().lock();
+        try {
+            synchronized (this) {
+                Page page = offsets.remove(login);
+                if (page == null) return;
+                deadBytes += dead(page);
+                pins.remove(login);
+                pinned.remove(login);
+                resident.remove(login);
+                writing.remove(login);
+            }
+        } finally {
+            fileLock.readLock().unlock();
+        }
+        compactIfNeeded();
+    }
+
+    @Override
+    public void rename(User user, String login) {
+        List<WriteBack> victims;
+        fileLock.readLock().lock();
+        try {
+            synchronized (this) {
+                String oldLogin = user.getLogin();
+                boolean wasPinned = pinned.containsKey(oldLogin);
+                if (wasPinned) pinned.remove(oldLogin);
+                else resident.remove(oldLogin);
+                writing.remove(oldLogin);
+                Page page = offsets.remove(oldLogin);
+                if (page != null) deadBytes += dead(page);
+                user.setLogin(login);
+                offsets.put(login, UNWRITTEN);
+                Resident renamed = new Resident(user, -1, -1);
+                if (wasPinned) {
+                    pinned.put(login, renamed);
+                    pins.put(login, pins.remove(oldLogin));
+                }
+                else resident.put(login, renamed);
+                victims = evict();
+            }
+            write(victims);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+        compactIfNeeded();
+    }
+
+    @Override
+    public void pin(String login) {
+        while (true) {
+            synchronized (this) {
+                if (pins.containsKey(login)) {
+                    pins.merge(login, 1, Integer::sum);
+                    return;
+                }
+                Resident entry = cached(login);
+                if (entry != null) {
+                    resident.remove(login);
+                    pins.put(login, 1);
+                    pinned.put(login, entry);
+                    return;
+                }
+            }
+            // Carrega o usuário e tenta de novo, pois ele pode ter sido removido do cache nesse meio-tempo.
+            if (get(login) == null) return;
+        }
+    }
+
+    @Override
+    public void unpin(String login) {
+        List<WriteBack> victims;
+        fileLock.readLock().lock();
+        try {
+            synchronized (this) {
+                Integer count = pins.get(login);
+                if (count == null) return;
+                if (count > 1) {
+                    pins.put(login, count - 1);
+                    return;
+                }
+                pins.remove(login);
+                resident.put(login, pinned.remove(login));
+                victims = evict();
+            }
+            write(victims);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized int size() {
+        return offsets.size();
+    }
+
+    @Override
+    public void clear() {
+        fileLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                offsets.clear();
+                pins.clear();
+                pinned.clear();
+                resident.clear();
+                writing.clear();
+                pages.truncate(0);
+                end = 0;
+                deadBytes = 0;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+    /**
+     * Percorre os usuários sem carregá-los no cache: os residentes são visitados diretamente e os demais
+     * são decodificados do arquivo de páginas apenas para a visita, fora do monitor do registro.
+     *
+     * @return Uma visão somente leitura dos usuários.
+     */
+    @Override
+    public Iterable<User> values() {
+        List<String> logins;
+        synchronized (this) {
+            logins = new ArrayList<>(offsets.keySet());
+        }
+        return () -> new Iterator<>() {
+            private final Iterator<String> iterator = logins.iterator();
+            private User next = advance();
+
+            private User advance() {
+                while (iterator.hasNext()) {
+                    String login = iterator.next();
+                    fileLock.readLock().lock();
+                    try {
+                        Page page;
+                        synchronized (PagedUserStore.this) {
+                            Resident entry = pinned.get(login);
+                            if (entry == null) entry = resident.get(login);
+                            if (entry == null && writing.containsKey(login)) entry = writing.get(login).entry;
+                            if (entry != null) return entry.user;
+                            page = offsets.get(login);
+                        }
+                        if (page != null && page.position >= 0) return read(page).user;
+                    } finally {
+                        fileLock.readLock().unlock();
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public User next() {
+                if (next == null) throw new NoSuchElementException();
+                User current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+    /**
+     * Grava no arquivo de páginas todos os usuários residentes alterados.
+     */
+    public void flush() {
+        List<WriteBack> changed = new ArrayList<>();
+        fileLock.readLock().lock();
+        try {
+            synchronized (this) {
+                for (Map.Entry<String, Resident> entry : resident.entrySet()) entry.setValue(reserve(entry.getKey(), entry.getValue(), changed));
+                for (Map.Entry<String, Resident> entry : pinned.entrySet()) entry.setValue(reserve(entry.getKey(), entry.getValue(), changed));
+            }
+            write(changed);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+        compactIfNeeded();
+    }
+    /**
+     * Obtém a quantidade de acessos atendidos por usuários já residentes.
+     * @return A quantidade de acertos do cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+    /**
+     * Obtém a quantidade de acessos que precisaram carregar o usuário do disco.
+     * @return A quantidade de faltas do cache.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+    /**
+     * Obtém a quantidade de usuários removidos do cache para respeitar a capacidade.
+     * @return A quantidade de remoções.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+    /**
+     * Obtém a quantidade de registros regravados por conterem alterações.
+     * @return A quantidade de regravações.
+     */
+    public synchronized long getWriteBacks() {
+        return writeBacks;
+    }
+    /**
+     * Obtém a quantidade de usuários residentes, incluindo os fixados por sessões.
+     * @return A quantidade de usuários residentes.
+     */
+    public synchronized int getResidentCount() {
+        return resident.size() + pinned.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Cache de usuários: " + getResidentCount() + " residentes de " + offsets.size() + ", " + hits + " acertos, "
+                + misses + " faltas, " + evictions + " remoções, " + writeBacks + " regravações";
+    }
+
+    /**
+     * Obtém o usuário em memória: fixado, residente ou removido do cache com a regravação ainda pendente.
+     * Neste último caso, o usuário volta ao cache.
+     */
+    private Resident cached(String login) {
+        Resident entry = pinned.get(login);
+        if (entry == null) entry = resident.get(login);
+        if (entry != null) return entry;
+        WriteBack pending = writing.get(login);
+        if (pending == null) return null;
+        resident.put(login, pending.entry);
+        return pending.entry;
+    }
+    /**
+     * Carrega um usuário que não estava em memória, com o bloqueio do arquivo já adquirido. Apenas o primeiro
+     * acesso lê e decodifica o registro; os acessos simultâneos ao mesmo login aguardam o mesmo carregamento.
+     *
+     * @param victims Recebe as regravações dos usuários removidos do cache para dar lugar ao carregado.
+     */
+    private User load(String login, List<WriteBack> victims) {
+        CompletableFuture<Resident> pending;
+        Page page;
+        synchronized (this) {
+            Resident entry = cached(login);
+            if (entry != null) {
+                hits++;
+                return entry.user;
+            }
+            page = offsets.get(login);
+            if (page == null) return null;
+            pending = loading.get(login);
+            if (pending == null) {
+                misses++;
+                loading.put(login, new CompletableFuture<>());
+            }
+        }
+        if (pending != null) {
+            try {
+                return pending.join().user;
+            } catch (CompletionException e) {
+                throw (RuntimeException) e.getCause();
+            }
+        }
+        CompletableFuture<Resident> result;
+        Resident entry;
+        try {
+            entry = read(page);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                result = loading.remove(login);
+            }
+            result.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            result = loading.remove(login);
+            if (offsets.get(login) == page) {
+                resident.put(login, entry);
+                victims.addAll(evict());
+            }
+        }
+        result.complete(entry);
+        return entry.user;
+    }
+    /**
+     * Remove do cache os usuários mais antigos além da capacidade e reserva as regravações dos alterados.
+     *
+     * @return As regravações reservadas, a serem gravadas fora do monitor.
+     */
+    private List<WriteBack> evict() {
+        List<WriteBack> victims = new ArrayList<>();
+        Iterator<Map.Entry<String, Resident>> iterator = resident.entrySet().iterator();
+        while (resident.size() > capacity && iterator.hasNext()) {
+            Map.Entry<String, Resident> eldest = iterator.next();
+            iterator.remove();
+            evictions++;
+            reserve(eldest.getKey(), eldest.getValue(), victims);
+        }
+        return victims;
+    }
+    /**
+     * Codifica o usuário e, se o registro mudou desde a última leitura ou gravação, reserva a sua posição no
+     * final do arquivo. O registro antigo passa a ser espaço morto.
+     *
+     * @param changed Recebe a regravação reservada.
+     * @return A entrada atualizada com o CRC e o tamanho do registro a ser gravado.
+     */
+    private Resident reserve(String login, Resident entry, List<WriteBack> changed) {
+        byte[] record = UserRecord.encode(entry.user);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if (crc.getValue() == entry.crc && record.length == entry.length) return entry;
+        deadBytes += dead(offsets.get(login));
+        ByteBuffer buffer = ByteBuffer.allocate(4 + record.length);
+        buffer.putInt(record.length).put(record).flip();
+        Page page = new Page(end, record.length);
+        end += buffer.remaining();
+        offsets.put(login, page);
+        Resident written = new Resident(entry.user, crc.getValue(), record.length);
+        WriteBack writeBack = new WriteBack(login, written, buffer, page.position);
+        writing.put(login, writeBack);
+        changed.add(writeBack);
+        writeBacks++;
+        return written;
+    }
+    /**
+     * Grava as regravações reservadas, com o bloqueio do arquivo já adquirido e fora do monitor. Se alguma
+     * gravação falhar, o usuário volta ao cache, marcado para ser regravado na próxima remoção, e as demais
+     * gravações ainda são feitas antes de a falha ser lançada.
+     */
+    private void write(List<WriteBack> changed) {
+        UncheckedIOException failure = null;
+        for (WriteBack writeBack : changed) {
+            try {
+                long position = writeBack.position;
+                while (writeBack.buffer.hasRemaining()) position += pages.write(writeBack.buffer, position);
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (writing.remove(writeBack.login, writeBack) && !pinned.containsKey(writeBack.login))
+                        resident.put(writeBack.login, new Resident(writeBack.entry.user, -1, -1));
+                }
+                if (failure == null) failure = new UncheckedIOException("Erro ao gravar o arquivo de páginas.", e);
+                continue;
+            }
+            synchronized (this) {
+                writing.remove(writeBack.login, writeBack);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private static long dead(Page page) {
+        return page == null || page.position < 0 ? 0 : 4L + page.length;
+    }
+
+    private Resident read(Page page) {
+        try {
+            ByteBuffer record = ByteBuffer.allocate(page.length);
+            while (record.hasRemaining()) {
+                if (pages.read(record, page.position + 4 + record.position()) < 0) throw new EOFException();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(record.array());
+            record.flip();
+            return new Resident(UserRecord.decode(record), crc.getValue(), page.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao ler o arquivo de páginas.", e);
+        }
+    }
+    /**
+     * Compacta o arquivo de páginas se o espaço morto superar o limite e o espaço vivo, com o bloqueio
+     * exclusivo do arquivo.
+     */
+    private void compactIfNeeded() {
+        synchronized (this) {
+            if (!needsCompaction()) return;
+        }
+        fileLock.writeLock().lock();
+        try {
+            compact();
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    private boolean needsCompaction() {
+        return deadBytes > COMPACTION_THRESHOLD && deadBytes > end - deadBytes;
+    }
+    /**
+     * Reescreve o arquivo de páginas apenas com os registros vivos, com o bloqueio exclusivo do arquivo. As
+     * posições só mudam sob o bloqueio compartilhado, de modo que a cópia é feita fora do monitor e apenas a
+     * instalação das novas posições o adquire.
+     */
+    private void compact() {
+        Map<String, Page> live;
+        synchronized (this) {
+            if (!needsCompaction()) return;
+            live = new HashMap<>(offsets);
+        }
+        File compacted = new File(file.getPath() + ".tmp");
+        try (FileChannel target = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            for (Map.Entry<String, Page> entry : live.entrySet()) {
+                Page page = entry.getValue();
+                if (page.position < 0) continue;
+                long size = 4L + page.length;
+                long copied = 0;
+                while (copied < size) copied += pages.transferTo(page.position + copied, size - copied, target);
+                entry.setValue(new Page(position, page.length));
+                position += size;
+            }
+            pages.close();
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            pages = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            synchronized (this) {
+                offsets.putAll(live);
+                end = position;
+                deadBytes = 0;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao compactar o arquivo de páginas.", e);
+        }
+    }
+}
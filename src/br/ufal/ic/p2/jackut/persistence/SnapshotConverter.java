@@ -0,0 +1,73 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Community;
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A classe `SnapshotConverter` converte os dados do sistema Jackut entre o snapshot binário
+ * (`jackut.snapshot`) e os arquivos de exportação JSON (`usuarios.json` e `comunidades.json`).
+ * A exportação grava o formato compacto do {@link JsonSnapshotWriter}; a importação aceita também o formato anterior.
+ * Os arquivos JSON com a extensão `.gz` são comprimidos com gzip (por exemplo, `usuarios.json.gz`).
+ *
+ * Uso: {@code SnapshotConverter export|import [snapshot] [usuarios.json] [comunidades.json]}
+ */
+public class SnapshotConverter {
+
+    private SnapshotConverter() {
+    }
+    /**
+     * Exporta um snapshot binário, com as suas camadas incrementais, para os arquivos JSON.
+     *
+     * @param snapshot A base do snapshot binário de origem.
+     * @param usersFile O arquivo de usuários de destino.
+     * @param communitiesFile O arquivo de comunidades de destino.
+     * @throws IOException Se a leitura ou a gravação falhar.
+     */
+    public static void exportJson(File snapshot, File usersFile, File communitiesFile) throws IOException {
+        List<User> users = new ArrayList<>();
+        List<Community> communities = new ArrayList<>();
+        new LayeredSnapshot(snapshot, 1).load(users::add, communities::add);
+        JsonSnapshotWriter.write(usersFile, communitiesFile, users, communities);
+    }
+    /**
+     * Importa os arquivos JSON para um snapshot binário.
+     * O snapshot gerado não incorpora nenhum registro do diário.
+     * Ele não tem identificador de base, de modo que as camadas deixadas ao lado dele são descartadas na carga.
+     *
+     * @param usersFile O arquivo de usuários de origem.
+     * @param communitiesFile O arquivo de comunidades de origem.
+     * @param snapshot O snapshot binário de destino.
+     * @throws IOException Se a leitura ou a gravação falhar.
+     */
+    public static void importJson(File usersFile, File communitiesFile, File snapshot) throws IOException {
+        List<User> users = new ArrayList<>();
+        List<Community> communities = new ArrayList<>();
+        JsonSnapshotReader reader = new JsonSnapshotReader(count -> System.out.println("Registros lidos: " + count));
+        reader.readUsers(usersFile, users::add);
+        reader.readCommunities(communitiesFile, communities::add);
+        BinarySnapshot.write(snapshot, users, communities, 0);
+    }
+    /**
+     * Ponto de entrada da conversão pela linha de comando.
+     *
+     * @param args `export` ou `import`, seguido opcionalmente dos caminhos do snapshot e dos arquivos JSON.
+     * @throws IOException Se a conversão falhar.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.err.println("Uso: SnapshotConverter export|import [snapshot] [usuarios.json] [comunidades.json]");
+            System.exit(1);
+        }
+        File snapshot = new File(args.length > 1 ? args[1] : "jackut.snapshot");
+        File usersFile = new File(args.length > 2 ? args[2] : "usuarios.json");
+        File communitiesFile = new File(args.length > 3 ? args[3] : "comunidades.json");
+        if (args[0].equals("export")) exportJson(snapshot, usersFile, communitiesFile);
+        else importJson(usersFile, communitiesFile, snapshot);
+        System.out.println("Conversão concluída.");
+    }
+}
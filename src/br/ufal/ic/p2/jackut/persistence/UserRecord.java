@@ -0,0 +1,100 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A classe `UserRecord` codifica um usuário (dados, atributos, caixas de mensagens e comunidades) em um
+ * registro binário autocontido, com as strings gravadas diretamente no registro e prefixadas pelo seu
+ * tamanho em bytes UTF-8 (-1 para `null`).
+ *
+ * As caixas de mensagens entram apenas com o seu estado ({@link Mailbox#writeState}): as mensagens em memória
+ * e a posição dos segmentos em disco, de modo que o registro não cresce com as mensagens não lidas.
+ *
+ * Os relacionamentos não fazem parte do registro: ficam no {@link SocialGraph}, que permanece em memória,
+ * e o usuário decodificado os enxerga pelo seu login.
+ */
+public class UserRecord {
+
+    private UserRecord() {
+    }
+    /**
+     * Codifica um usuário em um registro binário.
+     *
+     * @param user O usuário a ser codificado.
+     * @return Os bytes do registro.
+     */
+    public static byte[] encode(User user) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            putString(out, user.getLogin());
+            putString(out, user.getName());
+            putString(out, user.getPassword());
+            out.writeInt(user.getAttributes().size());
+            for (Map.Entry<String, String> attribute : user.getAttributes().entrySet()) {
+                putString(out, attribute.getKey());
+                putString(out, attribute.getValue());
+            }
+            user.getMessageBox().writeState(out);
+            user.getCommunityMessages().writeState(out);
+            putStrings(out, user.getMyCommunities());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * Decodifica um usuário a partir de um registro binário.
+     *
+     * @param record O registro, posicionado no seu início.
+     * @return O usuário decodificado.
+     */
+    public static User decode(ByteBuffer record) {
+        String login = getString(record);
+        String name = getString(record);
+        String password = getString(record);
+        User user = new User(login, password, name);
+        // Os atributos são restaurados direto no mapa: decodificar um usuário não o altera em relação ao registro.
+        Map<String, String> attributes = user.getAttributes();
+        for (int count = record.getInt(); count > 0; count--) attributes.put(getString(record), getString(record));
+        user.getMessageBox().readState(record);
+        user.getCommunityMessages().readState(record);
+        getStrings(record, user.getMyCommunities());
+        return user;
+    }
+
+    private static void putStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) putString(out, value);
+    }
+
+    private static void getStrings(ByteBuffer record, Collection<String> values) {
+        for (int count = record.getInt(); count > 0; count--) values.add(getString(record));
+    }
+
+    private static void putString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String getString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,457 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.models.Community;
+import br.ufal.ic.p2.jackut.models.Session;
+import br.ufal.ic.p2.jackut.models.SocialGraph.Relation;
+import br.ufal.ic.p2.jackut.models.User;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static br.ufal.ic.p2.jackut.models.FriendRecommendations.RECOMMENDATIONS;
+import static br.ufal.ic.p2.jackut.models.SocialGraph.GRAPH;
+import static br.ufal.ic.p2.jackut.services.JackutSystemManager.SYSTEM;
+
+/**
+ * A classe `BulkImporter` importa em massa usuários, atributos, amizades, comunidades e membros para o sistema
+ * em execução, a partir de arquivos CSV ou NDJSON, construindo os usuários, os relacionamentos e as comunidades
+ * diretamente, sem passar pela {@link Facade} registro a registro.
+ *
+ * Cada linha é um registro. Em CSV, o primeiro campo é o tipo e os demais seguem a ordem dos parâmetros da
+ * `Facade` (campos com vírgulas ou aspas vão entre aspas, com as aspas duplicadas):
+ * <pre>
+ * usuario,login,senha,nome
+ * atributo,login,atributo,valor
+ * amizade,login,amigo
+ * comunidade,nome,dono,descricao
+ * membro,comunidade,login
+ * </pre>
+ * Em NDJSON (`.ndjson`, `.jsonl` ou `.json`), cada linha é um objeto com o campo `tipo` e os campos de mesmo
+ * nome, por exemplo `{"tipo":"amizade","login":"a","amigo":"b"}`. Linhas vazias e iniciadas por `#` são ignoradas.
+ *
+ * A importação valida todos os registros em uma passada, com detecção de duplicidade por hash, e rejeita
+ * (sem interromper a importação) os registros que a `Facade` também recusaria. Os arquivos são lidos em
+ * streaming, em três leituras: a primeira guarda apenas os usuários e os atributos, particionados pelo hash do
+ * login, que são construídos e registrados em paralelo por `jackut.import.workers` threads (por padrão, uma
+ * por processador); a segunda cria as comunidades e a terceira aplica os membros e as amizades, que alteram
+ * usuários de várias partições, por uma única thread e sem guardar os registros. Assim, a ordem dos registros
+ * no arquivo não importa: uma amizade pode aparecer antes dos seus usuários.
+ *
+ * A importação mantém o bloqueio exclusivo do sistema do início ao fim e não passa pelo diário: ao final,
+ * o estado é gravado em um novo snapshot, como no encerramento do sistema, e uma falha na gravação é lançada
+ * ao chamador.
+ *
+ * Uso: {@code BulkImporter arquivo...}
+ */
+public class BulkImporter {
+    private static final int WORKERS = Integer.getInteger("jackut.import.workers", Runtime.getRuntime().availableProcessors());
+    private static final int REPORTED_REJECTS = 20; // Rejeições listadas individualmente no resumo.
+
+    /**
+     * Tipos de registro, com os nomes dos campos na ordem das colunas do CSV.
+     */
+    enum Kind {
+        USER("usuario", "login", "senha", "nome"), ATTRIBUTE("atributo", "login", "atributo", "valor"),
+        FRIEND("amizade", "login", "amigo"), COMMUNITY("comunidade", "nome", "dono", "descricao"),
+        MEMBER("membro", "comunidade", "login");
+
+        final String label;
+        final String[] fields;
+
+        Kind(String label, String... fields) {
+            this.label = label;
+            this.fields = fields;
+        }
+
+        static Kind of(String label) {
+            for (Kind kind : values()) if (kind.label.equals(label)) return kind;
+            return null;
+        }
+    }
+
+    /**
+     * Registro lido, com a sua origem para o relatório de rejeições.
+     */
+    private static final class Row {
+        final Kind kind;
+        final String[] values;
+        final String file;
+        final int line;
+
+        Row(Kind kind, String[] values, String file, int line) {
+            this.kind = kind;
+            this.values = values;
+            this.file = file;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Resumo de uma importação: registros lidos, aceitos por tipo e rejeitados por motivo.
+     */
+    public static final class Summary {
+        private final LongAdder read = new LongAdder();
+        private final LongAdder[] accepted = new LongAdder[Kind.values().length];
+        private final Map<String, LongAdder> rejects = new ConcurrentHashMap<>();
+        private final List<String> reported = new ArrayList<>();
+        private long millis;
+
+        private Summary() {
+            for (int i = 0; i < accepted.length; i++) accepted[i] = new LongAdder();
+        }
+
+        private void accept(Kind kind) {
+            accepted[kind.ordinal()].increment();
+        }
+
+        private void reject(String file, int number, String line, String reason) {
+            rejects.computeIfAbsent(reason, key -> new LongAdder()).increment();
+            synchronized (reported) {
+                if (reported.size() < REPORTED_REJECTS) reported.add(file + ":" + number + ": " + reason + " (" + line + ")");
+            }
+        }
+
+        private void reject(Row row, String reason) {
+            reject(row.file, row.line, row.kind.label + "," + String.join(",", row.values), reason);
+        }
+        /**
+         * Obtém a quantidade de registros lidos, incluindo os malformados.
+         * @return A quantidade de registros lidos.
+         */
+        public long getRead() {
+            return read.sum();
+        }
+        /**
+         * Obtém a quantidade de registros aplicados ao sistema.
+         * @return A quantidade de registros aceitos.
+         */
+        public long getAccepted() {
+            long total = 0;
+            for (LongAdder count : accepted) total += count.sum();
+            return total;
+        }
+        /**
+         * Obtém a quantidade de registros rejeitados.
+         * @return A quantidade de registros rejeitados.
+         */
+        public long getRejected() {
+            long total = 0;
+            for (LongAdder count : rejects.values()) total += count.sum();
+            return total;
+        }
+        /**
+         * Obtém a quantidade de registros rejeitados por motivo.
+         * @return As rejeições por motivo, em ordem alfabética.
+         */
+        public Map<String, Long> getRejectsByReason() {
+            Map<String, Long> result = new TreeMap<>();
+            rejects.forEach((reason, count) -> result.put(reason, count.sum()));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder("Importação concluída em ").append(millis).append(" ms: ")
+                    .append(getRead()).append(" registros lidos, ").append(getAccepted()).append(" aceitos, ")
+                    .append(getRejected()).append(" rejeitados.");
+            for (Kind kind : Kind.values())
+                text.append("\n  ").append(kind.label).append(": ").append(accepted[kind.ordinal()].sum()).append(" aceitos");
+            if (!rejects.isEmpty()) {
+                text.append("\nRejeições por motivo:");
+                getRejectsByReason().forEach((reason, count) -> text.append("\n  ").append(reason).append(": ").append(count));
+                text.append("\nPrimeiras rejeições:");
+                for (String reject : reported) text.append("\n  ").append(reject);
+            }
+            return text.toString();
+        }
+    }
+
+    private final JsonFactory factory = new JsonFactory();
+    private final Summary summary = new Summary();
+    private final int partitionCount = Math.max(WORKERS, 1) * 4;
+    private final List<List<Row>> users = new ArrayList<>(), attributes = new ArrayList<>(); // Por partição do login.
+    private final List<Row> existingAttributes = new ArrayList<>(); // Atributos de usuários que não estão na importação.
+
+    private BulkImporter() {
+        for (int p = 0; p < partitionCount; p++) {
+            users.add(new ArrayList<>());
+            attributes.add(new ArrayList<>());
+        }
+    }
+    /**
+     * Importa os arquivos informados para o sistema e grava um novo snapshot.
+     *
+     * @param files Os arquivos CSV ou NDJSON a serem importados, lidos como um único conjunto de registros.
+     * @return O resumo da importação.
+     * @throws IOException Se algum arquivo não puder ser lido ou o snapshot não puder ser gravado.
+     */
+    @SuppressWarnings("try") // O bloqueio exclusivo é mantido pelo `try`, sem ser referenciado no corpo.
+    public static Summary importFiles(File... files) throws IOException {
+        BulkImporter importer = new BulkImporter();
+        long start = System.nanoTime();
+        for (File file : files) importer.read(file, EnumSet.of(Kind.USER, Kind.ATTRIBUTE), importer::partition, true);
+        try (OperationLock lock = SYSTEM.lockExclusive()) {
+            importer.importUsers();
+            for (Row row : importer.existingAttributes) importer.importExistingAttribute(row);
+            for (File file : files) importer.read(file, EnumSet.of(Kind.COMMUNITY), importer::importCommunity, false);
+            for (File file : files) importer.read(file, EnumSet.of(Kind.MEMBER, Kind.FRIEND), importer::importRelation, false);
+            GRAPH.compact();
+            RECOMMENDATIONS.clear(); // Amizades importadas diretamente no grafo.
+            SYSTEM.save();
+        }
+        importer.summary.millis = (System.nanoTime() - start) / 1_000_000;
+        return importer.summary;
+    }
+    /**
+     * Ponto de entrada da importação pela linha de comando. O sistema é carregado a partir dos dados do
+     * diretório atual antes da importação.
+     *
+     * @param args Os arquivos a serem importados.
+     * @throws IOException Se algum arquivo não puder ser lido.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Uso: BulkImporter arquivo...");
+            System.exit(1);
+        }
+        File[] files = new File[args.length];
+        for (int i = 0; i < args.length; i++) files[i] = new File(args[i]);
+        System.out.println(importFiles(files));
+    }
+
+    /**
+     * Lê um arquivo em streaming, entregando ao consumidor os registros dos tipos informados. Os demais
+     * registros são descartados sem serem separados em campos, quando o tipo pode ser lido do início da linha.
+     *
+     * @param first `true` na primeira leitura do arquivo, que conta os registros e rejeita os malformados.
+     */
+    private void read(File file, Set<Kind> kinds, Consumer<Row> sink, boolean first) throws IOException {
+        boolean csv = file.getName().toLowerCase(Locale.ROOT).endsWith(".csv");
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.isBlank() || line.startsWith("#")) continue;
+                if (first) summary.read.increment();
+                else if (csv && skip(line, kinds)) continue;
+                Row row = csv ? parseCsv(line, file.getName(), number) : parseJson(line, file.getName(), number);
+                if (row == null) {
+                    if (first) summary.reject(file.getName(), number, line, "registro malformado");
+                } else if (kinds.contains(row.kind)) sink.accept(row);
+            }
+        }
+    }
+    /**
+     * Verifica, pelo primeiro campo de uma linha CSV, se ela é de um tipo fora dos informados.
+     */
+    private static boolean skip(String line, Set<Kind> kinds) {
+        for (Kind kind : Kind.values()) {
+            int length = kind.label.length();
+            if (line.startsWith(kind.label) && line.length() > length && line.charAt(length) == ',') return !kinds.contains(kind);
+        }
+        return false;
+    }
+
+    private void partition(Row row) {
+        (row.kind == Kind.USER ? users : attributes).get(partition(row.values[0])).add(row);
+    }
+
+    private int partition(String login) {
+        return login == null ? 0 : (login.hashCode() & Integer.MAX_VALUE) % partitionCount;
+    }
+    /**
+     * Separa uma linha CSV em campos. Campos entre aspas podem conter vírgulas e aspas duplicadas; um campo
+     * vazio é lido como `null`.
+     */
+    private static Row parseCsv(String line, String file, int number) {
+        if (line.indexOf('"') < 0) return parseSimpleCsv(line, file, number);
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false, wasQuoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') field.append(c);
+                else if (i + 1 < line.length() && line.charAt(i + 1) == '"') field.append(line.charAt(++i));
+                else quoted = false;
+            } else if (c == '"') quoted = wasQuoted = true;
+            else if (c == ',') {
+                fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+                field.setLength(0);
+                wasQuoted = false;
+            } else field.append(c);
+        }
+        if (quoted) return null;
+        fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+        Kind kind = Kind.of(fields.get(0));
+        if (kind == null || fields.size() != kind.fields.length + 1) return null;
+        return new Row(kind, fields.subList(1, fields.size()).toArray(new String[0]), file, number);
+    }
+    /**
+     * Separa uma linha CSV sem aspas, o caso comum, sem copiar os campos para uma lista intermediária.
+     */
+    private static Row parseSimpleCsv(String line, String file, int number) {
+        int end = line.indexOf(',');
+        Kind kind = Kind.of(end < 0 ? line : line.substring(0, end));
+        if (kind == null) return null;
+        String[] values = new String[kind.fields.length];
+        for (int i = 0; i < values.length; i++) {
+            if (end < 0) return null;
+            int start = end + 1;
+            end = line.indexOf(',', start);
+            int stop = end < 0 ? line.length() : end;
+            values[i] = stop == start ? null : line.substring(start, stop);
+        }
+        return end < 0 ? new Row(kind, values, file, number) : null;
+    }
+
+    private Row parseJson(String line, String file, int number) {
+        Map<String, String> fields = new HashMap<>();
+        try (JsonParser parser = factory.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.VALUE_STRING) fields.put(field, parser.getText());
+                else if (value != JsonToken.VALUE_NULL) return null;
+            }
+            if (parser.nextToken() != null) return null;
+        } catch (IOException e) {
+            return null;
+        }
+        Kind kind = Kind.of(fields.get("tipo"));
+        if (kind == null) return null;
+        String[] values = new String[kind.fields.length];
+        for (int i = 0; i < values.length; i++) values[i] = fields.get(kind.fields[i]);
+        return new Row(kind, values, file, number);
+    }
+    /**
+     * Constrói e registra os usuários e os seus atributos, uma partição por tarefa.
+     */
+    private void importUsers() throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(WORKERS, 1));
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int p = 0; p < partitionCount; p++) {
+                int partition = p;
+                tasks.add(workers.submit(() -> importPartition(partition)));
+            }
+            for (Future<?> task : tasks) task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Importação interrompida.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw new IOException(e.getCause());
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private void importPartition(int partition) {
+        Map<String, User> created = new HashMap<>();
+        for (Row row : users.get(partition)) {
+            String login = row.values[0], password = row.values[1];
+            if (login == null) summary.reject(row, "login inválido");
+            else if (password == null) summary.reject(row, "senha inválida");
+            else if (created.containsKey(login) || SYSTEM.verifyUser(login)) summary.reject(row, "login repetido");
+            else created.put(login, new User(login, password, row.values[2]));
+        }
+        for (Row row : attributes.get(partition)) {
+            User user = created.get(row.values[0]);
+            if (user == null) {
+                synchronized (existingAttributes) {
+                    existingAttributes.add(row);
+                }
+            } else applyAttribute(row, user);
+        }
+        for (Row row : users.get(partition)) {
+            User user = created.remove(row.values[0]);
+            if (user == null) continue;
+            if (SYSTEM.importUser(user)) summary.accept(Kind.USER);
+            else summary.reject(row, "login repetido");
+        }
+        users.get(partition).clear(); // Os registros lidos não são mais necessários.
+        attributes.get(partition).clear();
+    }
+
+    private void applyAttribute(Row row, User user) {
+        String attribute = row.values[1], value = row.values[2];
+        if (attribute == null || attribute.equals("login")) {
+            summary.reject(row, "atributo inválido");
+            return;
+        }
+        if (attribute.equals("nome")) user.setName(value);
+        else if (attribute.equals("senha")) user.setPassword(value);
+        else user.setAttributes(attribute, value);
+        summary.accept(Kind.ATTRIBUTE);
+    }
+    /**
+     * Aplica um atributo de um usuário que não está na importação, depois que os usuários importados foram registrados.
+     */
+    private void importExistingAttribute(Row row) {
+        Optional<User> user = SYSTEM.findUser(row.values[0]);
+        if (user.isPresent()) applyAttribute(row, user.get());
+        else summary.reject(row, "usuário não encontrado");
+    }
+    /**
+     * Cria uma comunidade, tendo o dono como primeiro membro. As comunidades são criadas em uma leitura própria,
+     * antes dos membros, que podem aparecer antes delas no arquivo.
+     */
+    private void importCommunity(Row row) {
+        String name = row.values[0];
+        Optional<User> manager = SYSTEM.findUser(row.values[1]);
+        if (name == null) summary.reject(row, "nome de comunidade inválido");
+        else if (SYSTEM.findCommunity(name).isPresent()) summary.reject(row, "comunidade repetida");
+        else if (manager.isEmpty()) summary.reject(row, "usuário não encontrado");
+        else {
+            SYSTEM.importCommunity(new Session(manager.get()).createCommunity(name, row.values[2]));
+            summary.accept(Kind.COMMUNITY);
+        }
+    }
+    /**
+     * Aplica um registro de membro ou de amizade, que alteram usuários de várias partições e por isso são
+     * aplicados por uma única thread. As amizades são gravadas diretamente no grafo social, pelos IDs dos nós.
+     */
+    private void importRelation(Row row) {
+        if (row.kind == Kind.MEMBER) {
+            Optional<Community> community = SYSTEM.findCommunity(row.values[0]);
+            Optional<User> user = SYSTEM.findUser(row.values[1]);
+            if (community.isEmpty()) summary.reject(row, "comunidade não encontrada");
+            else if (user.isEmpty()) summary.reject(row, "usuário não encontrado");
+            else if (community.get().getMembers().contains(user.get().getLogin())) summary.reject(row, "membro repetido");
+            else {
+                community.get().addMember(user.get());
+                user.get().addCommunity(community.get().getName());
+                summary.accept(Kind.MEMBER);
+            }
+            return;
+        }
+        String login = row.values[0], friend = row.values[1];
+        if (!SYSTEM.verifyUser(login) || !SYSTEM.verifyUser(friend)) {
+            summary.reject(row, "usuário não encontrado");
+            return;
+        }
+        int from = GRAPH.node(login), to = GRAPH.node(friend);
+        if (from == to) summary.reject(row, "amizade consigo mesmo");
+        else if (GRAPH.contains(Relation.ENEMIES, from, to) || GRAPH.contains(Relation.ENEMIES, to, from))
+            summary.reject(row, "inimigo");
+        else if (GRAPH.contains(Relation.FRIENDS, from, to)) summary.reject(row, "amizade repetida");
+        else {
+            GRAPH.remove(Relation.FRIEND_REQUESTS, from, to);
+            GRAPH.remove(Relation.FRIEND_REQUESTS, to, from);
+            GRAPH.add(Relation.FRIENDS, from, to);
+            GRAPH.add(Relation.FRIENDS, to, from);
+            summary.accept(Kind.FRIEND);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.services.Metrics.Operation;
+
+import java.util.function.Consumer;
+
+/**
+ * A classe `Command` representa uma operação de escrita da {@link Facade} a ser executada em lote por
+ * {@link Facade#executarLote(java.util.List)}. Os comandos são criados pelos métodos estáticos desta classe,
+ * que têm os mesmos nomes e parâmetros dos métodos correspondentes da `Facade`.
+ *
+ * As operações que alteram o registro como um todo (exclusão de contas, limpeza e encerramento) não podem
+ * ser executadas em lote.
+ */
+public final class Command {
+    private final Operation operation;
+    private final String[] args;
+    private final Consumer<Facade> action;
+
+    private Command(Operation operation, Consumer<Facade> action, String... args) {
+        this.operation = operation;
+        this.action = action;
+        this.args = args;
+    }
+    /**
+     * Cria o comando de criação de um usuário.
+     *
+     * @param login O login do usuário.
+     * @param senha A senha do usuário.
+     * @param nome O nome do usuário.
+     * @return O comando.
+     * @see Facade#criarUsuario(String, String, String)
+     */
+    public static Command criarUsuario(String login, String senha, String nome) {
+        return new Command(Operation.CRIAR_USUARIO, facade -> facade.criarUsuario(login, senha, nome), login, nome);
+    }
+    /**
+     * Cria o comando de edição de um atributo do perfil.
+     *
+     * @param id O ID da sessão do usuário.
+     * @param atributo O atributo a ser editado.
+     * @param valor O novo valor do atributo.
+     * @return O comando.
+     * @see Facade#editarPerfil(String, String, String)
+     */
+    public static Command editarPerfil(String id, String atributo, String valor) {
+        return new Command(Operation.EDITAR_PERFIL, facade -> facade.editarPerfil(id, atributo, valor), id, atributo);
+    }
+    /**
+     * Cria o comando de adição de um amigo.
+     *
+     * @param id O ID da sessão do usuário.
+     * @param login O login do amigo.
+     * @return O comando.
+     * @see Facade#adicionarAmigo(String, String)
+     */
+    public static Command adicionarAmigo(String id, String login) {
+        return new Command(Operation.ADICIONAR_AMIGO, facade -> facade.adicionarAmigo(id, login), id, login);
+    }
+    /**
+     * Cria o comando de envio de um recado.
+     *
+     * @param id O ID da sessão do usuário.
+     * @param destinatario O login do destinatário do recado.
+     * @param mensagem O conteúdo da mensagem.
+     * @return O comando.
+     * @see Facade#enviarRecado(String, String, String)
+     */
+    public static Command enviarRecado(String id, String destinatario, String mensagem) {
+        return new Command(Operation.ENVIAR_RECADO, facade -> facade.enviarRecado(id, destinatario, mensagem), id, destinatario);
+    }
+    /**
+     * Cria o comando de criação de uma comunidade.
+     *
+     * @param sessao O ID da sessão do usuário.
+     * @param nome O nome da comunidade.
+     * @param descricao A descrição da comunidade.
+     * @return O comando.
+     * @see Facade#criarComunidade(String, String, String)
+     */
+    public static Command criarComunidade(String sessao, String nome, String descricao) {
+        return new Command(Operation.CRIAR_COMUNIDADE, facade -> facade.criarComunidade(sessao, nome, descricao), sessao, nome);
+    }
+    /**
+     * Cria o comando de entrada em uma comunidade.
+     *
+     * @param sessao O ID da sessão do usuário.
+     * @param nome O nome da comunidade.
+     * @return O comando.
+     * @see Facade#adicionarComunidade(String, String)
+     */
+    public static Command adicionarComunidade(String sessao, String nome) {
+        return new Command(Operation.ADICIONAR_COMUNIDADE, facade -> facade.adicionarComunidade(sessao, nome), sessao, nome);
+    }
+    /**
+     * Cria o comando de envio de uma mensagem a uma comunidade.
+     *
+     * @param id O ID da sessão do usuário.
+     * @param comunidade O nome da comunidade de destino.
+     * @param mensagem O conteúdo da mensagem.
+     * @return O comando.
+     * @see Facade#enviarMensagem(String, String, String)
+     */
+    public static Command enviarMensagem(String id, String comunidade, String mensagem) {
+        return new Command(Operation.ENVIAR_MENSAGEM, facade -> facade.enviarMensagem(id, comunidade, mensagem), id, comunidade);
+    }
+    /**
+     * Cria o comando de adição de um ídolo.
+     *
+     * @param id O ID da sessão do usuário.
+     * @param idolo O login do ídolo.
+     * @return O comando.
+     * @see Facade#adicionarIdolo(String, String)
+     */
+    public static Command adicionarIdolo(String id, String idolo) {
+        return new Command(Operation.ADICIONAR_IDOLO, facade -> facade.adicionarIdolo(id, idolo), id, idolo);
+    }
+    /**
+     * Cria o comando de adição de uma paquera.
+     *
+     * @param id O ID da sessão do usuário.
+     * @param paquera O login da paquera.
+     * @return O comando.
+     * @see Facade#adicionarPaquera(String, String)
+     */
+    public static Command adicionarPaquera(String id, String paquera) {
+        return new Command(Operation.ADICIONAR_PAQUERA, facade -> facade.adicionarPaquera(id, paquera), id, paquera);
+    }
+    /**
+     * Cria o comando de adição de um inimigo.
+     *
+     * @param id O ID da sessão do usuário.
+     * @param inimigo O login do inimigo.
+     * @return O comando.
+     * @see Facade#adicionarInimigo(String, String)
+     */
+    public static Command adicionarInimigo(String id, String inimigo) {
+        return new Command(Operation.ADICIONAR_INIMIGO, facade -> facade.adicionarInimigo(id, inimigo), id, inimigo);
+    }
+    /**
+     * Executa o comando, capturando o erro da operação no resultado.
+     *
+     * @param facade A fachada que executa a operação.
+     * @return O resultado do comando.
+     */
+    CommandResult execute(Facade facade) {
+        try {
+            action.accept(facade);
+            return new CommandResult(this, null);
+        } catch (RuntimeException e) {
+            return new CommandResult(this, e);
+        }
+    }
+    /**
+     * Obtém o nome da operação do comando, igual ao nome do método da `Facade`.
+     * @return O nome da operação.
+     */
+    public String getOperation() {
+        return operation.label;
+    }
+
+    @Override
+    public String toString() {
+        return operation.label + "(" + String.join(", ", args) + ")";
+    }
+}
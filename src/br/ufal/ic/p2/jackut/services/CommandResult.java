@@ -0,0 +1,48 @@
+package br.ufal.ic.p2.jackut.services;
+
+/**
+ * A classe `CommandResult` representa o resultado de um comando executado em lote por
+ * {@link Facade#executarLote(java.util.List)}: sucesso, ou a exceção que a operação lançaria se fosse
+ * chamada diretamente.
+ */
+public final class CommandResult {
+    private final Command command;
+    private final RuntimeException error;
+
+    /**
+     * Construtor da classe CommandResult.
+     *
+     * @param command O comando executado.
+     * @param error A exceção lançada pela operação, ou `null` se ela foi bem-sucedida.
+     */
+    CommandResult(Command command, RuntimeException error) {
+        this.command = command;
+        this.error = error;
+    }
+    /**
+     * Obtém o comando executado.
+     * @return O comando.
+     */
+    public Command getCommand() {
+        return command;
+    }
+    /**
+     * Verifica se a operação foi bem-sucedida.
+     * @return `true` se a operação foi aplicada e registrada no diário.
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+    /**
+     * Obtém a exceção lançada pela operação.
+     * @return A exceção, ou `null` se a operação foi bem-sucedida.
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return command + (error == null ? ": ok" : ": " + error.getMessage());
+    }
+}
@@ -1,19 +1,48 @@
 package br.ufal.ic.p2.jackut.services;
 
+import br.ufal.ic.p2.jackut.models.Community;
+import br.ufal.ic.p2.jackut.models.Message;
+import br.ufal.ic.p2.jackut.models.Relationships;
+import br.ufal.ic.p2.jackut.models.Session;
 import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.persistence.JournalOp;
+import br.ufal.ic.p2.jackut.services.Metrics.Operation;
+import br.ufal.ic.p2.jackut.services.ViewCache.Kind;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
+import static br.ufal.ic.p2.jackut.models.FriendRecommendations.RECOMMENDATIONS;
 import static br.ufal.ic.p2.jackut.services.JackutSystemManager.SYSTEM;
+import static br.ufal.ic.p2.jackut.services.Metrics.METRICS;
+import static br.ufal.ic.p2.jackut.services.ViewCache.VIEWS;
 
 /**
  * A classe Facade oferece uma interface para acessar as funcionalidades do sistema Jackut.
- * Ela fornece mtodos para criar usurios, gerenciar sesses, editar perfis, interagir com amigos,
- * enviar e ler mensagens, criar comunidades e realizar vrias operaes relacionadas ao sistema.
- * A classe Facade  projetada para simplificar a interao com o sistema Jackut e fornecer uma
+ * Ela fornece métodos para criar usuários, gerenciar sessões, editar perfis, interagir com amigos,
+ * enviar e ler mensagens, criar comunidades e realizar várias operações relacionadas ao sistema.
+ * A classe Facade é projetada para simplificar a interação com o sistema Jackut e fornecer uma
  * maneira conveniente de acessar suas funcionalidades.
+ * Toda operação de escrita bem-sucedida é registrada no diário do sistema antes de retornar.
+ * Os métodos podem ser chamados por várias threads: cada operação bloqueia os usuários e a comunidade
+ * envolvidos (em ordem determinística) e só os libera depois de registrada no diário, de modo que a ordem
+ * do diário respeita a ordem em que as operações conflitantes foram aplicadas.
+ * Os métodos `buscar...` e `tentarLer...` respondem com um `Optional` vazio, em vez de uma exceção, aos
+ * resultados comuns de consultas frequentes (atributo não preenchido, caixa vazia).
+ * As listas exibidas (amigos, fãs, paqueras, membros e comunidades) são servidas pelo {@link ViewCache}
+ * enquanto a lista de origem não muda.
+ * As sugestões de amigos são calculadas pelo {@link br.ufal.ic.p2.jackut.models.FriendRecommendations}, que
+ * mantém as contagens de amigos em comum atualizadas a cada amizade concluída.
+ * Os comandos de escrita podem ser executados em lote por {@link #executarLote(List)}, com uma única
+ * sincronização do diário por lote.
+ * Cada chamada é contada, com a exceção lançada, se houver, e uma amostra das latências, nas métricas do
+ * sistema ({@link Metrics}), expostas por JMX.
  * @author Gustavo Gaia
  */
+@SuppressWarnings("try") // Os bloqueios das operações são mantidos pelo `try`, sem serem referenciados no corpo.
 public class Facade {
+    private static final int SUGGESTIONS = 10; // Quantidade padrão de sugestões de amigos.
     /**
      * Construtor da classe Facade.
      * Inicializa o sistema.
@@ -21,260 +50,627 @@ public class Facade {
     public Facade() {
     }
     /**
-     * Mtodo zerarSistema exclui todos os dados do sistema, limpando os mapas de usurios, sesses e arquivo de dados.
+     * Método zerarSistema exclui todos os dados do sistema, limpando os mapas de usuários, sessões e arquivo de dados.
      */
     public void zerarSistema(){
-        SYSTEM.cleanSystem();
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lockExclusive()) {
+            SYSTEM.cleanSystem();
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.ZERAR_SISTEMA, e);
+        } finally {
+            METRICS.record(Operation.ZERAR_SISTEMA, start);
+        }
     }
     /**
-     * Cria um novo usurio com as informaes fornecidas e o adiciona ao sistema.
-     * @param login O login do novo usurio.
-     * @param senha A senha do novo usurio.
-     * @param nome O nome do novo usurio.
+     * Cria um novo usuário com as informações fornecidas e o adiciona ao sistema.
+     * @param login O login do novo usuário.
+     * @param senha A senha do novo usuário.
+     * @param nome O nome do novo usuário.
      */
     public void criarUsuario(String login, String senha, String nome){
-        SYSTEM.createUser(login, senha, nome);
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().users(login)) {
+            SYSTEM.createUser(login, senha, nome);
+            SYSTEM.log(JournalOp.CREATE_USER, login, senha, nome);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.CRIAR_USUARIO, e);
+        } finally {
+            METRICS.record(Operation.CRIAR_USUARIO, start);
+        }
     }
     /**
-     * Obtm o valor de um atributo especfico para um usurio desejado a partir de seu login.
+     * Obtém o valor de um atributo específico para um usuário desejado a partir de seu login.
      *
-     * @param login O login do usurio.
+     * @param login O login do usuário.
      * @param atributo O atributo desejado ("nome", "senha", "login" ou atributo extra).
      * @return O valor do atributo solicitado.
      */
     public String getAtributoUsuario(String login, String atributo){
-        return SYSTEM.getUser(login).getUserAttribute(atributo);
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().users(login)) {
+            return SYSTEM.getUser(login).getUserAttribute(atributo);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.GET_ATRIBUTO_USUARIO, e);
+        } finally {
+            METRICS.record(Operation.GET_ATRIBUTO_USUARIO, start);
+        }
     }
     /**
-     * Abre uma sesso para um usurio autenticado.
+     * Busca o valor de um atributo de um usuário, sem lançar exceção quando o usuário não existe ou o
+     * atributo não foi preenchido.
      *
-     * @param login O login do usurio.
-     * @param senha A senha do usurio.
-     * @return O ID da sesso.
+     * @param login O login do usuário.
+     * @param atributo O atributo desejado ("nome", "senha", "login" ou atributo extra).
+     * @return O valor do atributo solicitado, ou vazio se não houver.
+     */
+    public Optional<String> buscarAtributoUsuario(String login, String atributo){
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().users(login)) {
+            return SYSTEM.findUser(login).flatMap(user -> user.findUserAttribute(atributo));
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.BUSCAR_ATRIBUTO_USUARIO, e);
+        } finally {
+            METRICS.record(Operation.BUSCAR_ATRIBUTO_USUARIO, start);
+        }
+    }
+    /**
+     * Abre uma sessão para um usuário autenticado.
+     *
+     * @param login O login do usuário.
+     * @param senha A senha do usuário.
+     * @return O ID da sessão.
      */
     public String abrirSessao (String login, String senha){
-        return SYSTEM.openSession(login, senha);
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().users(login)) {
+            return SYSTEM.openSession(login, senha);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.ABRIR_SESSAO, e);
+        } finally {
+            METRICS.record(Operation.ABRIR_SESSAO, start);
+        }
     }
     /**
-     * Edita o perfil de um usurio autenticado.
+     * Edita o perfil de um usuário autenticado.
      *
-     * @param Id O ID da sesso do usurio.
+     * @param Id O ID da sessão do usuário.
      * @param atributo O atributo a ser editado ("nome", "senha", "login" ou atributo extra).
      * @param valor O novo valor para o atributo.
      */
     public void editarPerfil(String Id, String atributo, String valor){
-        SYSTEM.getSession(Id).editProfile(atributo, valor);
+        long start = METRICS.start();
+        boolean changesLogin = "login".equals(atributo); // A troca de login reindexa o registro de usuários.
+        try (OperationLock lock = changesLogin ? SYSTEM.lockExclusive() : SYSTEM.lock()) {
+            Session session = SYSTEM.getSession(Id);
+            String login = session.getUser().getLogin();
+            if (!changesLogin) lock.users(login);
+            session.editProfile(atributo, valor);
+            SYSTEM.log(JournalOp.EDIT_PROFILE, login, atributo, valor);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.EDITAR_PERFIL, e);
+        } finally {
+            METRICS.record(Operation.EDITAR_PERFIL, start);
+        }
     }
     /**
-     * Verifica se um usurio  amigo de outro usurio.
+     * Verifica se um usuário é amigo de outro usuário.
      *
-     * @param login O login do primeiro usurio.
-     * @param amigo O login do segundo usurio.
-     * @return `true` se forem amigos, `false` caso contrrio.
+     * @param login O login do primeiro usuário.
+     * @param amigo O login do segundo usuário.
+     * @return `true` se forem amigos, `false` caso contrário.
      */
     public boolean ehAmigo(String login, String amigo){
-        return SYSTEM.getUser(login). isFriend(amigo);
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().users(login)) {
+            return SYSTEM.getUser(login).isFriend(amigo);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.EH_AMIGO, e);
+        } finally {
+            METRICS.record(Operation.EH_AMIGO, start);
+        }
     }
     /**
-     * Obtm a lista de amigos de um usurio.
+     * Obtém a lista de amigos de um usuário.
      *
-     * @param login O login do usurio.
-     * @return Uma representao da lista de amigos.
+     * @param login O login do usuário.
+     * @return Uma representação da lista de amigos.
      */
     public String getAmigos(String login){
-        return  SYSTEM.getUser(login).getFriendList();
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().users(login)) {
+            User user = SYSTEM.getUser(login);
+            return VIEWS.get(Kind.FRIENDS, user.getLogin(), user.getMyRelationships().getVersion(), user::getFriendList);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.GET_AMIGOS, e);
+        } finally {
+            METRICS.record(Operation.GET_AMIGOS, start);
+        }
+    }
+    /**
+     * Obtém as sugestões de amigos de um usuário: até 10 amigos dos seus amigos, do maior para o menor número
+     * de amigos em comum, excluindo os amigos, as solicitações de amizade pendentes e os inimigos.
+     *
+     * @param login O login do usuário.
+     * @return Uma representação da lista de sugestões.
+     */
+    public String getSugestoesAmigos(String login){
+        return getSugestoesAmigos(login, SUGGESTIONS);
     }
     /**
-     * Adiciona um amigo a um usurio com base em seu ID de sesso e login de amigo.
+     * Obtém as sugestões de amigos de um usuário, limitadas à quantidade informada.
      *
-     * @param id O ID da sesso do usurio.
+     * @param login O login do usuário.
+     * @param quantidade A quantidade máxima de sugestões.
+     * @return Uma representação da lista de sugestões.
+     * @see #getSugestoesAmigos(String)
+     */
+    public String getSugestoesAmigos(String login, int quantidade){
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().users(login)) {
+            User user = SYSTEM.getUser(login);
+            return "{" + String.join(",", RECOMMENDATIONS.suggest(user, quantidade)) + "}";
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.GET_SUGESTOES_AMIGOS, e);
+        } finally {
+            METRICS.record(Operation.GET_SUGESTOES_AMIGOS, start);
+        }
+    }
+    /**
+     * Adiciona um amigo a um usuário com base em seu ID de sessão e login de amigo.
+     *
+     * @param id O ID da sessão do usuário.
      * @param login O login do amigo a ser adicionado.
      */
     public void adicionarAmigo(String id, String login) {
-        SYSTEM.getSession(id).addFriend(SYSTEM.getUser(login));
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock()) {
+            Session session = SYSTEM.getSession(id);
+            lock.users(session.getUser().getLogin(), login);
+            session.addFriend(SYSTEM.getUser(login));
+            SYSTEM.log(JournalOp.ADD_FRIEND, session.getUser().getLogin(), login);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.ADICIONAR_AMIGO, e);
+        } finally {
+            METRICS.record(Operation.ADICIONAR_AMIGO, start);
+        }
     }
     /**
-     * Envia um recado de um usurio para outro.
+     * Envia um recado de um usuário para outro.
      *
-     * @param id O ID da sesso do remetente.
-     * @param destinatario O login do destinatrio do recado.
-     * @param mensagem O contedo da mensagem.
-     * @throws RuntimeException Se os usurios no forem encontrados.
+     * @param id O ID da sessão do remetente.
+     * @param destinatario O login do destinatário do recado.
+     * @param mensagem O conteúdo da mensagem.
+     * @throws RuntimeException Se os usuários não forem encontrados.
      */
     public void enviarRecado(String id, String destinatario, String mensagem){
-        SYSTEM.getSession(id).messageSender(destinatario, mensagem, new UserMessageStrategy());
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock()) {
+            Session session = SYSTEM.getSession(id);
+            lock.users(session.getUser().getLogin(), destinatario);
+            session.messageSender(destinatario, mensagem, new UserMessageStrategy());
+            SYSTEM.log(JournalOp.SEND_MESSAGE, session.getUser().getLogin(), destinatario, mensagem);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.ENVIAR_RECADO, e);
+        } finally {
+            METRICS.record(Operation.ENVIAR_RECADO, start);
+        }
     }
     /**
-     * L o primeiro recado da caixa de mensagens de um usurio.
+     * Lê o primeiro recado da caixa de mensagens de um usuário.
      *
-     * @param id O ID da sesso do usurio.
-     * @return O contedo do recado lido.
-     * @throws RuntimeException Se no houver recados na caixa de mensagens.
+     * @param id O ID da sessão do usuário.
+     * @return O conteúdo do recado lido.
+     * @throws RuntimeException Se não houver recados na caixa de mensagens.
      */
     public String lerRecado(String id){
-        return SYSTEM.getSession(id).getUser().readMessage();
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock()) {
+            User user = SYSTEM.getSession(id).getUser();
+            lock.users(user.getLogin());
+            String message = user.readMessage();
+            SYSTEM.log(JournalOp.READ_MESSAGE, user.getLogin());
+            return message;
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.LER_RECADO, e);
+        } finally {
+            METRICS.record(Operation.LER_RECADO, start);
+        }
     }
     /**
-     * Cria uma nova comunidade com nome e descrio especificados.
+     * Lê o primeiro recado da caixa de mensagens de um usuário, sem lançar exceção quando ela está vazia,
+     * o que torna barata a consulta periódica da caixa.
      *
-     * @param sessao O ID da sesso do usurio criador da comunidade.
+     * @param id O ID da sessão do usuário.
+     * @return O conteúdo do recado lido, ou vazio se não houver recados.
+     */
+    public Optional<String> tentarLerRecado(String id){
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock()) {
+            User user = SYSTEM.getSession(id).getUser();
+            lock.users(user.getLogin());
+            Optional<Message> message = user.pollMessage();
+            if (message.isPresent()) SYSTEM.log(JournalOp.READ_MESSAGE, user.getLogin());
+            return message.map(Message::getMessage);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.TENTAR_LER_RECADO, e);
+        } finally {
+            METRICS.record(Operation.TENTAR_LER_RECADO, start);
+        }
+    }
+    /**
+     * Cria uma nova comunidade com nome e descrição especificados.
+     *
+     * @param sessao O ID da sessão do usuário criador da comunidade.
      * @param nome O nome da comunidade.
-     * @param descricao A descrio da comunidade.
+     * @param descricao A descrição da comunidade.
      */
     public void criarComunidade(String sessao, String nome, String descricao){
-        SYSTEM.createCommunity(sessao, nome, descricao);
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().community(nome)) {
+            SYSTEM.checkCommunityName(nome);
+            lock.users(SYSTEM.getSession(sessao).getUser().getLogin());
+            SYSTEM.createCommunity(sessao, nome, descricao);
+            SYSTEM.log(JournalOp.CREATE_COMMUNITY, SYSTEM.getSession(sessao).getUser().getLogin(), nome, descricao);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.CRIAR_COMUNIDADE, e);
+        } finally {
+            METRICS.record(Operation.CRIAR_COMUNIDADE, start);
+        }
     }
     /**
      * Encerra o sistema, salvando os dados em um arquivo JSON.
      */
     public void encerrarSistema() {
-        SYSTEM.closeSystem();
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lockExclusive()) {
+            SYSTEM.closeSystem();
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.ENCERRAR_SISTEMA, e);
+        } finally {
+            METRICS.record(Operation.ENCERRAR_SISTEMA, start);
+        }
     }
     /**
-     * Obtm a descrio de uma comunidade com base em seu nome.
+     * Obtém a descrição de uma comunidade com base em seu nome.
      *
      * @param nome O nome da comunidade.
-     * @return A descrio da comunidade.
+     * @return A descrição da comunidade.
      */
     public String getDescricaoComunidade(String nome){
-        return SYSTEM.getCommunity(nome).getDescription();
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().community(nome)) {
+            return SYSTEM.getCommunity(nome).getDescription();
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.GET_DESCRICAO_COMUNIDADE, e);
+        } finally {
+            METRICS.record(Operation.GET_DESCRICAO_COMUNIDADE, start);
+        }
     }
     /**
-     * Obtm o nome do dono de uma comunidade com base em seu nome.
+     * Obtém o nome do dono de uma comunidade com base em seu nome.
      *
      * @param nome O nome da comunidade.
      * @return O nome do dono da comunidade.
      */
     public String getDonoComunidade(String nome){
-        return SYSTEM.getCommunity(nome).getManager();
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().community(nome)) {
+            return SYSTEM.getCommunity(nome).getManager();
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.GET_DONO_COMUNIDADE, e);
+        } finally {
+            METRICS.record(Operation.GET_DONO_COMUNIDADE, start);
+        }
     }
     /**
-     * Obtm a lista de membros de uma comunidade com base em seu nome.
+     * Obtém a lista de membros de uma comunidade com base em seu nome.
      *
      * @param nome O nome da comunidade.
-     * @return Uma representao da lista de membros.
+     * @return Uma representação da lista de membros.
      */
     public String getMembrosComunidade(String nome) {
-        ArrayList<String> members = SYSTEM.getCommunity(nome).getMembers();
-        return "{" + String.join(",", members) + "}";
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().community(nome)) {
+            Community community = SYSTEM.getCommunity(nome);
+            return VIEWS.get(Kind.MEMBERS, nome, community.getVersion(), () -> render(community.getMembers()));
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.GET_MEMBROS_COMUNIDADE, e);
+        } finally {
+            METRICS.record(Operation.GET_MEMBROS_COMUNIDADE, start);
+        }
+    }
+    /**
+     * Obtém a quantidade de membros de uma comunidade com base em seu nome, sem montar a lista de membros.
+     *
+     * @param nome O nome da comunidade.
+     * @return A quantidade de membros da comunidade.
+     */
+    public int getQuantidadeMembrosComunidade(String nome) {
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().community(nome)) {
+            return SYSTEM.getCommunity(nome).getMemberCount();
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.GET_QUANTIDADE_MEMBROS_COMUNIDADE, e);
+        } finally {
+            METRICS.record(Operation.GET_QUANTIDADE_MEMBROS_COMUNIDADE, start);
+        }
     }
     /**
-     * Obtm a lista de comunidades a que um usurio pertence com base em seu login.
+     * Obtém a lista de comunidades a que um usuário pertence com base em seu login.
      *
-     * @param login O login do usurio.
-     * @return Uma representao da lista de comunidades.
+     * @param login O login do usuário.
+     * @return Uma representação da lista de comunidades.
      */
     public String getComunidades(String login){
-        ArrayList<String> communities = SYSTEM.getUser(login).getMyCommunities();
-        return "{" + String.join(",", communities) + "}";
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().users(login)) {
+            User user = SYSTEM.getUser(login);
+            return VIEWS.get(Kind.COMMUNITIES, user.getLogin(), user.getCommunitiesVersion(), () -> render(user.getMyCommunities()));
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.GET_COMUNIDADES, e);
+        } finally {
+            METRICS.record(Operation.GET_COMUNIDADES, start);
+        }
     }
     /**
-     * Adiciona um usurio a uma comunidade com base em seu ID de sesso e o nome da comunidade.
+     * Adiciona um usuário a uma comunidade com base em seu ID de sessão e o nome da comunidade.
      *
-     * @param sessao O ID da sesso do usurio.
-     * @param nome O nome da comunidade  qual o usurio ser adicionado.
+     * @param sessao O ID da sessão do usuário.
+     * @param nome O nome da comunidade à qual o usuário será adicionado.
      */
     public void adicionarComunidade(String sessao, String nome){
-        SYSTEM.getSession(sessao).joinCommunity(SYSTEM.getCommunity(nome));
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().community(nome)) {
+            Session session = SYSTEM.getSession(sessao);
+            lock.users(session.getUser().getLogin());
+            session.joinCommunity(SYSTEM.getCommunity(nome));
+            SYSTEM.log(JournalOp.JOIN_COMMUNITY, session.getUser().getLogin(), nome);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.ADICIONAR_COMUNIDADE, e);
+        } finally {
+            METRICS.record(Operation.ADICIONAR_COMUNIDADE, start);
+        }
     }
     /**
-     * L a primeira mensagem da caixa de mensagens da comunidade com base em seu ID de sesso.
+     * Lê a mensagem mais antiga ainda não lida das comunidades do usuário com base em seu ID de sessão.
      *
-     * @param id O ID da sesso do usurio.
-     * @return O contedo da mensagem lida.
-     * @throws RuntimeException Se no houver mensagens na caixa de mensagens da comunidade.
+     * @param id O ID da sessão do usuário.
+     * @return O conteúdo da mensagem lida.
+     * @throws RuntimeException Se não houver mensagens na caixa de mensagens da comunidade.
      */
     public String lerMensagem(String id){
-        return SYSTEM.getSession(id).readCommunityMessages();
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock()) {
+            Session session = SYSTEM.getSession(id);
+            lock.users(session.getUser().getLogin());
+            return SYSTEM.readCommunityMessage(session);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.LER_MENSAGEM, e);
+        } finally {
+            METRICS.record(Operation.LER_MENSAGEM, start);
+        }
     }
     /**
-     * Envia uma mensagem para uma comunidade com base em seu ID de sesso, o nome da comunidade e o contedo da mensagem.
+     * Lê a mensagem mais antiga ainda não lida das comunidades do usuário, sem lançar exceção quando não
+     * há mensagens.
      *
-     * @param id O ID da sesso do remetente.
+     * @param id O ID da sessão do usuário.
+     * @return O conteúdo da mensagem lida, ou vazio se não houver mensagens não lidas.
+     */
+    public Optional<String> tentarLerMensagem(String id){
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock()) {
+            Session session = SYSTEM.getSession(id);
+            lock.users(session.getUser().getLogin());
+            return SYSTEM.pollCommunityMessage(session);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.TENTAR_LER_MENSAGEM, e);
+        } finally {
+            METRICS.record(Operation.TENTAR_LER_MENSAGEM, start);
+        }
+    }
+    /**
+     * Envia uma mensagem para uma comunidade com base em seu ID de sessão, o nome da comunidade e o conteúdo da mensagem.
+     *
+     * @param id O ID da sessão do remetente.
      * @param comunidade O nome da comunidade de destino da mensagem.
-     * @param mensagem O contedo da mensagem.
+     * @param mensagem O conteúdo da mensagem.
      */
     public void enviarMensagem(String id, String comunidade, String mensagem){
-        SYSTEM.getSession(id).messageSender(comunidade, mensagem, new CommunityMessageStrategy());
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().community(comunidade)) {
+            Session session = SYSTEM.getSession(id);
+            lock.users(session.getUser().getLogin());
+            SYSTEM.sendCommunityMessage(session, comunidade, mensagem);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.ENVIAR_MENSAGEM, e);
+        } finally {
+            METRICS.record(Operation.ENVIAR_MENSAGEM, start);
+        }
     }
     /**
-     * Verifica se um usurio  f de outro usurio com base em seus logins.
+     * Verifica se um usuário é fã de outro usuário com base em seus logins.
      *
-     * @param login O login do primeiro usurio.
-     * @param idolo O login do segundo usurio.
-     * @return `true` se o primeiro usurio for f do segundo, `false` caso contrrio.
+     * @param login O login do primeiro usuário.
+     * @param idolo O login do segundo usuário.
+     * @return `true` se o primeiro usuário for fã do segundo, `false` caso contrário.
      */
     public boolean ehFa(String login, String idolo){
-        return SYSTEM.getUser(login).isFan(idolo);
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().users(login)) {
+            return SYSTEM.getUser(login).isFan(idolo);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.EH_FA, e);
+        } finally {
+            METRICS.record(Operation.EH_FA, start);
+        }
     }
     /**
-     * Adiciona um usurio como f de outro usurio com base em seus IDs de sesso.
+     * Adiciona um usuário como fã de outro usuário com base em seus IDs de sessão.
      *
-     * @param id O ID da sesso do usurio que se tornar f.
-     * @param idolo O login do usurio a ser seguido como dolo.
+     * @param id O ID da sessão do usuário que se tornará fã.
+     * @param idolo O login do usuário a ser seguido como ídolo.
      */
     public void adicionarIdolo(String id, String idolo){
-        User idol = SYSTEM.getUser(idolo);
-        SYSTEM.getSession(id).addIdol(idol);
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock()) {
+            SYSTEM.getUser(idolo);
+            Session session = SYSTEM.getSession(id);
+            lock.users(session.getUser().getLogin(), idolo);
+            session.addIdol(SYSTEM.getUser(idolo));
+            SYSTEM.log(JournalOp.ADD_IDOL, session.getUser().getLogin(), idolo);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.ADICIONAR_IDOLO, e);
+        } finally {
+            METRICS.record(Operation.ADICIONAR_IDOLO, start);
+        }
     }
     /**
-     * Verifica se um usurio  paquera de outro usurio com base em seus IDs de sesso.
+     * Verifica se um usuário é paquera de outro usuário com base em seus IDs de sessão.
      *
-     * @param id O ID da sesso do usurio.
-     * @param paquera O login do usurio que est sendo verificado como paquera.
-     * @return `true` se o primeiro usurio for paquera do segundo, `false` caso contrrio.
+     * @param id O ID da sessão do usuário.
+     * @param paquera O login do usuário que está sendo verificado como paquera.
+     * @return `true` se o primeiro usuário for paquera do segundo, `false` caso contrário.
      */
     public boolean ehPaquera(String id, String paquera){
-        return SYSTEM.getSession(id).getUser().isCrush(paquera);
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock()) {
+            User user = SYSTEM.getSession(id).getUser();
+            lock.users(user.getLogin());
+            return user.isCrush(paquera);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.EH_PAQUERA, e);
+        } finally {
+            METRICS.record(Operation.EH_PAQUERA, start);
+        }
     }
     /**
-     * Adiciona um usurio como paquera de outro usurio com base em seus IDs de sesso.
+     * Adiciona um usuário como paquera de outro usuário com base em seus IDs de sessão.
      *
-     * @param id O ID da sesso do usurio que est adicionando a paquera.
-     * @param paquera O login do usurio que ser adicionado como paquera.
+     * @param id O ID da sessão do usuário que está adicionando a paquera.
+     * @param paquera O login do usuário que será adicionado como paquera.
      */
     public void adicionarPaquera(String id, String paquera){
-        User crush = SYSTEM.getUser(paquera);
-        SYSTEM.getSession(id).addCrush(crush);
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock()) {
+            SYSTEM.getUser(paquera);
+            Session session = SYSTEM.getSession(id);
+            lock.users(session.getUser().getLogin(), paquera);
+            session.addCrush(SYSTEM.getUser(paquera));
+            SYSTEM.log(JournalOp.ADD_CRUSH, session.getUser().getLogin(), paquera);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.ADICIONAR_PAQUERA, e);
+        } finally {
+            METRICS.record(Operation.ADICIONAR_PAQUERA, start);
+        }
     }
     /**
-     * Obtm a lista de fs de um usurio com base em seu login.
+     * Obtém a lista de fãs de um usuário com base em seu login.
      *
-     * @param login O login do usurio.
-     * @return Uma representao da lista de fs.
+     * @param login O login do usuário.
+     * @return Uma representação da lista de fãs.
      */
     public String getFas(String login){
-        ArrayList<String> fans = SYSTEM.getUser(login).getMyRelationships().getFans();
-        return "{" + String.join(",", fans) + "}";
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock().users(login)) {
+            Relationships relationships = SYSTEM.getUser(login).getMyRelationships();
+            return VIEWS.get(Kind.FANS, login, relationships.getVersion(), () -> render(relationships.getFans()));
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.GET_FAS, e);
+        } finally {
+            METRICS.record(Operation.GET_FAS, start);
+        }
     }
     /**
-     * Obtm a lista de paqueras de um usurio com base em seu ID de sesso.
+     * Obtém a lista de paqueras de um usuário com base em seu ID de sessão.
      *
-     * @param id O ID da sesso do usurio.
-     * @return Uma representao da lista de paqueras.
+     * @param id O ID da sessão do usuário.
+     * @return Uma representação da lista de paqueras.
      */
     public String getPaqueras(String id){
-        ArrayList<String> paqueras = SYSTEM.getSession(id).getUser().getMyRelationships().getCrush();
-        return "{" + String.join(",", paqueras) + "}";
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock()) {
+            User user = SYSTEM.getSession(id).getUser();
+            lock.users(user.getLogin());
+            Relationships relationships = user.getMyRelationships();
+            return VIEWS.get(Kind.CRUSHES, user.getLogin(), relationships.getVersion(), () -> render(relationships.getCrush()));
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.GET_PAQUERAS, e);
+        } finally {
+            METRICS.record(Operation.GET_PAQUERAS, start);
+        }
     }
     /**
-     * Adiciona um usurio como inimigo de outro usurio com base em seus IDs de sesso.
+     * Adiciona um usuário como inimigo de outro usuário com base em seus IDs de sessão.
      *
-     * @param id O ID da sesso do usurio que est adicionando o inimigo.
-     * @param inimigo O login do usurio que ser adicionado como inimigo.
+     * @param id O ID da sessão do usuário que está adicionando o inimigo.
+     * @param inimigo O login do usuário que será adicionado como inimigo.
      */
     public void adicionarInimigo(String id, String inimigo){
-        User enemy = SYSTEM.getUser(inimigo);
-        SYSTEM.getSession(id).addEnemy(enemy.getLogin());
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lock()) {
+            User enemy = SYSTEM.getUser(inimigo);
+            Session session = SYSTEM.getSession(id);
+            lock.users(session.getUser().getLogin());
+            session.addEnemy(enemy.getLogin());
+            SYSTEM.log(JournalOp.ADD_ENEMY, session.getUser().getLogin(), enemy.getLogin());
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.ADICIONAR_INIMIGO, e);
+        } finally {
+            METRICS.record(Operation.ADICIONAR_INIMIGO, start);
+        }
     }
     /**
-     * Remove um usurio do sistema com base em seu ID de sesso.
+     * Remove um usuário do sistema com base em seu ID de sessão.
      *
-     * @param id O ID da sesso do usurio a ser removido.
+     * @param id O ID da sessão do usuário a ser removido.
      */
     public void removerUsuario(String id){
-        SYSTEM.deleteAccount(id);
+        long start = METRICS.start();
+        try (OperationLock lock = SYSTEM.lockExclusive()) {
+            String login = SYSTEM.getSession(id).getUser().getLogin();
+            SYSTEM.deleteAccount(id);
+            SYSTEM.log(JournalOp.REMOVE_USER, login);
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.REMOVER_USUARIO, e);
+        } finally {
+            METRICS.record(Operation.REMOVER_USUARIO, start);
+        }
+    }
+    /**
+     * Executa um lote de comandos de escrita, em ordem, e sincroniza o diário uma única vez ao final do lote.
+     * Cada comando é aplicado como a chamada correspondente da `Facade`, com os seus próprios bloqueios, de modo
+     * que lotes que envolvem usuários distintos podem ser executados em paralelo por threads diferentes. A falha
+     * de um comando não interrompe o lote: a exceção é devolvida no seu resultado.
+     * As alterações de um comando ficam visíveis para as outras operações antes de o lote terminar, mas só são
+     * confirmadas como duráveis no retorno deste método.
+     *
+     * @param comandos Os comandos a serem executados.
+     * @return Os resultados dos comandos, na mesma ordem.
+     * @throws java.io.UncheckedIOException Se a gravação do diário falhar.
+     */
+    public List<CommandResult> executarLote(List<Command> comandos){
+        long start = METRICS.start();
+        try {
+            return SYSTEM.deferDurability(() -> {
+                List<CommandResult> results = new ArrayList<>(comandos.size());
+                for (Command command : comandos) results.add(command.execute(this));
+                return results;
+            });
+        } catch (RuntimeException e) {
+            throw METRICS.failed(Operation.EXECUTAR_LOTE, e);
+        } finally {
+            METRICS.record(Operation.EXECUTAR_LOTE, start);
+        }
+    }
+    /**
+     * Renderiza uma lista no formato exibido pelo sistema, `{a,b,c}`.
+     *
+     * @param values Os valores da lista, em ordem.
+     * @return A lista renderizada.
+     */
+    private static String render(Set<String> values){
+        return "{" + String.join(",", values) + "}";
     }
 }
-
-
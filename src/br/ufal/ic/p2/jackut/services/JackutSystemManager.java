@@ -1,101 +1,384 @@
 package br.ufal.ic.p2.jackut.services;
 
 import br.ufal.ic.p2.jackut.exceptions.*;
+import br.ufal.ic.p2.jackut.interfaces.UserStore;
 import br.ufal.ic.p2.jackut.models.*;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import br.ufal.ic.p2.jackut.persistence.*;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 /**
- * A classe `JackutSystemManager`  responsvel por gerenciar todo o sistema Jackut.
- * Ela mantm os mapas de usurios, sesses e comunidades, e  projetada para inicializar
- * e carregar os dados do sistema a partir de arquivos JSON, bem como salvar os dados em
- * arquivos JSON quando o sistema  encerrado.
+ * A classe `JackutSystemManager` é responsável por gerenciar todo o sistema Jackut.
+ * Ela mantém os mapas de usuários, sessões e comunidades, e é projetada para inicializar
+ * e carregar os dados do sistema a partir do snapshot binário (`jackut.snapshot`), bem como salvar
+ * os dados nele quando o sistema é encerrado. Os salvamentos gravam apenas os registros alterados desde o
+ * salvamento anterior, marcados pelo {@link DirtyTracker}, em camadas incrementais do {@link LayeredSnapshot}. Os arquivos JSON (`usuarios.json` e `comunidades.json`)
+ * são o formato de exportação e importação: são carregados apenas quando não há snapshot binário, e
+ * podem ser gerados a partir dele com o {@link SnapshotConverter}.
  *
- * A classe `JackutSystemManager`  implementada como um singleton para garantir que haja apenas
- * uma instncia do gerenciador do sistema em execuo.
+ * Bases grandes são divididas em até `jackut.snapshot.shards` fragmentos (um por núcleo, por padrão),
+ * gravados e carregados em paralelo.
+ *
+ * Entre dois encerramentos, cada operação de escrita é registrada no diário (`jackut.journal`);
+ * na inicialização, o último snapshot é carregado e a cauda do diário é reaplicada sobre ele.
+ *
+ * A cada `jackut.checkpoint.intervalMillis` milissegundos (60 s por padrão; 0 desativa), um checkpoint em
+ * segundo plano salva as alterações sem parar o sistema pelo tempo da gravação: as operações ficam suspensas
+ * apenas enquanto os registros alterados são codificados em memória; a camada é gravada e renomeada, e o
+ * diário é compactado, com as operações já liberadas ({@link #checkpoint()}). Como a pausa é proporcional
+ * às alterações capturadas, o checkpoint é antecipado quando elas chegam a `jackut.checkpoint.maxChanges`
+ * registros (4096 por padrão).
+ *
+ * Com a propriedade `jackut.paging.maxResidentUsers` maior que zero, apenas essa quantidade de usuários
+ * fica hidratada no heap; os demais ficam no arquivo de páginas (`jackut.pages`) e são carregados sob demanda.
+ *
+ * Os registros de usuários, sessões e comunidades são concorrentes, e o estado de cada usuário e comunidade é
+ * protegido por bloqueios em faixas obtidos através de {@link #lock()} e {@link #lockExclusive()}; a
+ * {@link Facade} mantém esses bloqueios durante a operação e o seu registro no diário.
+ *
+ * A classe `JackutSystemManager` é implementada como um singleton para garantir que haja apenas
+ * uma instância do gerenciador do sistema em execução.
  */
 public class JackutSystemManager {
 
-    private Map<String, User> users; // Mapa para armazenar usurios
-    private Map<String, Session> sessions; // Mapa para armazenar sesses
+    private UserStore users; // Registro de usuários
+    private SessionRegistry sessions; // Registro das sessões abertas
     private Map<String, Community> communities; //Mapa de Comunidades
-    private File usersData, communitiesData;// Arquivos para armazenar dados em JSON
-    public static final JackutSystemManager SYSTEM = new JackutSystemManager();// Instncia nica do sistema
+    private File usersData, communitiesData;// Arquivos de exportação e importação em JSON
+    private LayeredSnapshot snapshot;// Snapshot binário dos dados, com as camadas incrementais
+    private File journalData, checkpointData;// Diário de operações e LSN incorporado aos arquivos JSON importados
+    private Journal journal;// Diário de operações de escrita
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();// Bloqueio estrutural do sistema
+    private final OperationLock.Stripes userStripes, communityStripes;// Bloqueios em faixas de usuários e comunidades
+    private final ReentrantLock checkpointLock = new ReentrantLock();// Serializa os checkpoints, os encerramentos e as limpezas
+    private Thread checkpointer;// Thread dos checkpoints periódicos
+    private volatile long checkpoints, checkpointPauseNanos, checkpointNanos;// Estatísticas dos checkpoints em segundo plano
+    private final ThreadLocal<long[]> deferredLsn = new ThreadLocal<>();// Maior LSN registrado pelo lote em execução na thread
+    private static final boolean JOURNAL_SYNC = !Boolean.getBoolean("jackut.journal.async");
+    private static final int MAX_RESIDENT_USERS = Integer.getInteger("jackut.paging.maxResidentUsers", 0);
+    private static final int SNAPSHOT_SHARDS = Integer.getInteger("jackut.snapshot.shards", Runtime.getRuntime().availableProcessors());
+    private static final long CHECKPOINT_INTERVAL = Long.getLong("jackut.checkpoint.intervalMillis", 60_000L);
+    private static final int CHECKPOINT_MAX_CHANGES = Integer.getInteger("jackut.checkpoint.maxChanges", 4096);
+    private static final long CHECKPOINT_POLL_MILLIS = 100;// Intervalo de verificação da quantidade de alterações
+    private static final int LOCK_STRIPES = Integer.getInteger("jackut.lockStripes", 1024);
+    private static final long SESSION_IDLE_TTL = Long.getLong("jackut.session.idleTtlMillis", 30 * 60 * 1000L);
+    private static final long SESSION_ABSOLUTE_TTL = Long.getLong("jackut.session.absoluteTtlMillis", 12 * 60 * 60 * 1000L);
+    private static final long SESSION_SWEEP_MILLIS = Long.getLong("jackut.session.sweepMillis", 1000L);
+    public static final JackutSystemManager SYSTEM;// Instância única do sistema
+    static {
+        SYSTEM = new JackutSystemManager();
+        SYSTEM.loadSystem();// Carregado após a atribuição, pois a reaplicação do diário usa a instância única
+    }
     /**
      * Construtor privado da classe `JackutSystemManager`.
-     * Inicializa os mapas de usurios e sesses e carrega os dados existentes do sistema, se disponveis.
-     * Este construtor  privado para garantir que apenas uma instncia seja criada.
+     * Inicializa o registro de usuários e os mapas de sessões e comunidades; os dados existentes são carregados logo
+     * após a criação da instância única.
+     * Este construtor é privado para garantir que apenas uma instância seja criada.
      */
     private JackutSystemManager() {
-        this.users = new HashMap<>();
-        this.sessions = new HashMap<>();
-        this.communities = new HashMap<>();
+        Mailbox.resetSegments();
+        this.users = createUserStore();
+        this.sessions = new SessionRegistry(users, SESSION_IDLE_TTL, SESSION_ABSOLUTE_TTL, SESSION_SWEEP_MILLIS);
+        this.communities = new ConcurrentHashMap<>();
+        this.userStripes = new OperationLock.Stripes(LOCK_STRIPES);
+        this.communityStripes = new OperationLock.Stripes(LOCK_STRIPES);
         this.usersData = new File("usuarios.json");
         this.communitiesData =  new File("comunidades.json");
-        loadSystem();
+        // Com o registro paginado, a carga decodifica os usuários de novo no arquivo de páginas; não compensa fragmentar.
+        this.snapshot = new LayeredSnapshot(new File("jackut.snapshot"), users instanceof PagedUserStore ? 1 : SNAPSHOT_SHARDS);
+        this.journalData = new File("jackut.journal");
+        this.checkpointData = new File("jackut.checkpoint");
     }
     /**
-     * Carrega os dados do sistema a partir de arquivos JSON, se existirem.
-     * Os dados carregados incluem informaes sobre usurios, sesses e comunidades.
-     * Isso  feito durante a inicializao do sistema.
+     * Cria o registro de usuários: paginado, se houver um limite de usuários residentes configurado,
+     * ou inteiramente em memória, caso contrário.
+     *
+     * @return O registro de usuários.
+     */
+    private static UserStore createUserStore(){
+        if (MAX_RESIDENT_USERS > 0) {
+            try {
+                return new PagedUserStore(new File("jackut.pages"), MAX_RESIDENT_USERS);
+            } catch (IOException e){
+                System.err.println("Erro ao criar o arquivo de páginas; os usuários serão mantidos em memória.");
+                e.printStackTrace();
+            }
+        }
+        return new MemoryUserStore();
+    }
+    /**
+     * Carrega os dados do sistema a partir do snapshot binário ou, na sua ausência, dos arquivos JSON.
+     * Os dados carregados incluem informações sobre usuários, sessões e comunidades.
+     * Isso é feito durante a inicialização do sistema.
+     *
+     * Os arquivos JSON são lidos em streaming: cada usuário e comunidade é construído uma única vez e
+     * registrado assim que seu objeto JSON termina, sem uma lista intermediária.
+     *
+     * A marcação de registros alterados fica suspensa durante a carga, que apenas reproduz os arquivos;
+     * as operações reaplicadas do diário são marcadas, pois o diário é truncado no próximo salvamento.
      */
     public void loadSystem(){
+        long checkpointLsn = 0;
+        DirtyTracker.USERS.setEnabled(false);
+        DirtyTracker.COMMUNITIES.setEnabled(false);
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-
-            if(usersData.exists() && communitiesData.exists()){
-                List<User> usersList = objectMapper.readValue(usersData, new TypeReference<List<User>>() {});
-                List<Community> communitiesList = objectMapper.readValue(communitiesData, new TypeReference<List<Community>>() {});
-
-                for (User user : usersList) {
-                    createUser(user.getLogin(), user.getPassword(), user.getName());
-                    User newUser = users.get(user.getUserAttribute("login"));
-                    newUser.setMyRelationships(user.getMyRelationships());
-                    newUser.setMessageBox(user.getMessageBox());
-                    newUser.setMyCommunities(user.getMyCommunities());
-                    newUser.setCommunityMessages(user.getCommunityMessages());
-                    for(Map.Entry<String, String> entry : user.getAttributes().entrySet()){
-                        newUser.setAttributes(entry.getKey(), entry.getValue());}
-                }
-                for (Community community : communitiesList){
-                    Community newCommunity = new Community(community.getName(), community.getDescription(), community.getManager());
-                    communities.put(newCommunity.getName(), newCommunity);
-                    newCommunity.setMembers(community.getMembers());
-                }
+            if (snapshot.exists()){
+                checkpointLsn = snapshot.load(this::registerLoadedUser, community -> communities.put(community.getName(), community));
+                System.out.println("Dados carregados com sucesso");
+            }
+            else if(usersData.exists() && communitiesData.exists()){
+                JsonSnapshotReader reader = new JsonSnapshotReader(count -> System.out.println("Registros carregados: " + count));
+                reader.readUsers(usersData, this::registerLoadedUser);
+                reader.readCommunities(communitiesData, community -> communities.put(community.getName(), community));
+                if (checkpointData.exists())
+                    checkpointLsn = Long.parseLong(new String(Files.readAllBytes(checkpointData.toPath()), StandardCharsets.US_ASCII).trim());
                 System.out.println("Dados carregados com sucesso");
             }
+        } catch (IOException | NumberFormatException e){
+            System.err.println("Erro ao carregar dados.");
+            e.printStackTrace();
+        }
+        DirtyTracker.USERS.setEnabled(true);
+        DirtyTracker.COMMUNITIES.setEnabled(true);
+        openJournal(checkpointLsn);
+        SocialGraph.GRAPH.compact();
+        FriendRecommendations.RECOMMENDATIONS.clear(); // Amizades carregadas sem passar pelas sessões.
+        if (CHECKPOINT_INTERVAL > 0 && checkpointer == null) {
+            checkpointer = new Thread(this::checkpointLoop, "jackut-checkpoint");
+            checkpointer.setDaemon(true);
+            checkpointer.start();
+        }
+    }
+    /**
+     * Registra um usuário lido do snapshot, ignorando registros sem login ou com login repetido.
+     *
+     * @param user O usuário lido.
+     */
+    private void registerLoadedUser(User user){
+        if (user.getLogin() == null || user.getPassword() == null || !users.add(user))
+            System.err.println("Usuário inválido ou repetido ignorado na carga: " + user.getLogin());
+    }
+    /**
+     * Abre o diário de operações, reaplicando sobre o snapshot carregado os registros posteriores a ele.
+     * Se o diário não puder ser aberto, o sistema continua funcionando, mas sem durabilidade entre encerramentos.
+     *
+     * @param checkpointLsn O LSN do diário já incorporado ao snapshot carregado.
+     */
+    private void openJournal(long checkpointLsn){
+        try {
+            if (journal != null) journal.close();
+            journal = Journal.open(journalData, checkpointLsn, this::replay);
         } catch (IOException e){
-            System.err.println("Erro ao carregar dados do JSON.");
+            journal = null;
+            System.err.println("Erro ao abrir o diário de operações.");
             e.printStackTrace();
         }
     }
     /**
-     * Mtodo `cleanSystem` exclui todos os dados do sistema, limpando os mapas de usurios, sesses
-     * e excluindo os arquivos de dados JSON.
+     * Reaplica uma operação lida do diário sobre o estado em memória.
+     * As operações feitas através de uma sessão são reaplicadas com uma sessão temporária do mesmo usuário.
+     *
+     * @param op A operação registrada.
+     * @param args Os argumentos da operação.
+     */
+    private void replay(JournalOp op, String[] args){
+        try {
+            switch (op) {
+                case CREATE_USER -> createUser(args[0], args[1], args[2]);
+                case EDIT_PROFILE -> new Session(getUser(args[0])).editProfile(args[1], args[2]);
+                case ADD_FRIEND -> new Session(getUser(args[0])).addFriend(getUser(args[1]));
+                case SEND_MESSAGE -> new Session(getUser(args[0])).messageSender(args[1], args[2], new UserMessageStrategy());
+                case READ_MESSAGE -> getUser(args[0]).readMessage();
+                case CREATE_COMMUNITY -> registerCommunity(new Session(getUser(args[0])), args[1], args[2]);
+                case JOIN_COMMUNITY -> new Session(getUser(args[0])).joinCommunity(getCommunity(args[1]));
+                case SEND_COMMUNITY_MESSAGE -> new Session(getUser(args[0])).messageSender(args[1], args[2], new CommunityMessageStrategy());
+                case READ_COMMUNITY_MESSAGE -> {
+                    User reader = getUser(args[0]);
+                    if (args[1] == null) reader.readCommunityMessage(getCommunities(reader)); // Caixa de mensagens ou registro antigo.
+                    else reader.pollCommunityMessage(getCommunity(args[1])).orElseThrow(() -> new MessageNotFoundException("Não há mensagens."));
+                }
+                case ADD_IDOL -> new Session(getUser(args[0])).addIdol(getUser(args[1]));
+                case ADD_CRUSH -> new Session(getUser(args[0])).addCrush(getUser(args[1]));
+                case ADD_ENEMY -> new Session(getUser(args[0])).addEnemy(args[1]);
+                case REMOVE_USER -> deleteUser(getUser(args[0]));
+            }
+        } catch (RuntimeException e){
+            System.err.println("Erro ao reaplicar operação do diário: " + op + " " + e.getMessage());
+        }
+    }
+    /**
+     * Registra no diário uma operação de escrita já aplicada com sucesso.
+     * Por padrão, aguarda até que o registro esteja sincronizado com o disco; as sincronizações de
+     * chamadas concorrentes são agrupadas pela thread de gravação do diário. Dentro de um lote
+     * ({@link #deferDurability(Supplier)}), a espera é adiada para o fim do lote.
+     *
+     * @param op A operação realizada.
+     * @param args Os argumentos da operação (logins, nunca IDs de sessão).
+     */
+    public void log(JournalOp op, String... args){
+        awaitDurable(append(op, args));
+    }
+
+    private long append(JournalOp op, String... args){
+        return journal == null ? -1 : journal.append(op, args);
+    }
+
+    private void awaitDurable(long lsn){
+        if (lsn < 0 || !JOURNAL_SYNC) return;
+        long[] deferred = deferredLsn.get();
+        if (deferred != null) deferred[0] = Math.max(deferred[0], lsn);
+        else journal.awaitDurable(lsn);
+    }
+    /**
+     * Executa um lote de operações aguardando a sincronização do diário uma única vez, ao final do lote,
+     * em vez de uma vez por operação. Cada operação continua sendo anexada ao diário sob os seus bloqueios,
+     * de modo que a ordem do diário não muda; apenas o retorno espera pela gravação de todo o lote.
+     * Um lote aninhado em outro, na mesma thread, é sincronizado com o lote externo. Se o lote for
+     * interrompido por uma exceção, as operações já registradas também são sincronizadas antes do retorno.
+     *
+     * @param batch O lote de operações.
+     * @return O resultado do lote.
+     * @throws UncheckedIOException Se a gravação do diário falhar.
+     */
+    public <T> T deferDurability(Supplier<T> batch){
+        if (deferredLsn.get() != null) return batch.get();
+        long[] deferred = {-1};
+        deferredLsn.set(deferred);
+        try {
+            return batch.get();
+        } finally {
+            deferredLsn.remove();
+            awaitDurable(deferred[0]);
+        }
+    }
+    /**
+     * Envia uma mensagem a uma comunidade e registra a operação no diário.
+     * A mensagem entra no diário antes de ser acrescentada ao registro da comunidade, de modo que nenhum
+     * leitor a retira antes que o envio esteja no diário; os envios a uma mesma comunidade são ordenados
+     * pelo bloqueio da comunidade, mantido pelo chamador.
+     *
+     * @param session A sessão do remetente.
+     * @param community O nome da comunidade de destino.
+     * @param message O conteúdo da mensagem.
+     * @throws InvalidCommunityException Se a comunidade não existir.
+     */
+    public void sendCommunityMessage(Session session, String community, String message){
+        getCommunity(community);
+        long lsn = append(JournalOp.SEND_COMMUNITY_MESSAGE, session.getUser().getLogin(), community, message);
+        session.messageSender(community, message, new CommunityMessageStrategy());
+        awaitDurable(lsn);
+    }
+    /**
+     * Lê a próxima mensagem das comunidades do usuário da sessão e registra no diário a comunidade lida,
+     * para que a reaplicação avance o mesmo cursor sem depender da ordem entre comunidades diferentes.
+     *
+     * @param session A sessão do usuário.
+     * @return O conteúdo da mensagem lida.
+     * @throws MessageNotFoundException Se não houver mensagens não lidas.
+     */
+    public String readCommunityMessage(Session session){
+        return pollCommunityMessage(session).orElseThrow(() -> new MessageNotFoundException("Não há mensagens."));
+    }
+    /**
+     * Lê a próxima mensagem das comunidades do usuário da sessão, como {@link #readCommunityMessage(Session)},
+     * mas sem lançar exceção quando não há mensagens; nesse caso, nada é registrado no diário.
+     *
+     * @param session A sessão do usuário.
+     * @return O conteúdo da mensagem lida, ou vazio se não houver mensagens não lidas.
+     */
+    public Optional<String> pollCommunityMessage(Session session){
+        User user = session.getUser();
+        Community source = user.getCommunityMessages().isEmpty() ? user.nextCommunity(getCommunities(user)) : null;
+        Optional<Message> message = user.pollCommunityMessage(source);
+        if (message.isEmpty()) return Optional.empty();
+        log(JournalOp.READ_COMMUNITY_MESSAGE, user.getLogin(), source == null ? null : source.getName());
+        return message.map(Message::getMessage);
+    }
+    /**
+     * Obtém as comunidades às quais um usuário pertence, ignorando as que já foram excluídas.
+     *
+     * @param user O usuário.
+     * @return As comunidades do usuário.
+     */
+    public List<Community> getCommunities(User user){
+        List<Community> result = new ArrayList<>(user.getMyCommunities().size());
+        for (String name : user.getMyCommunities()){
+            Community community = communities.get(name);
+            if (community != null) result.add(community);
+        }
+        return result;
+    }
+    /**
+     * Adquire o bloqueio compartilhado de uma operação comum. Os usuários e a comunidade envolvidos
+     * devem ser bloqueados em seguida, através do objeto retornado.
+     *
+     * @return O bloqueio da operação, a ser fechado ao seu término.
+     */
+    OperationLock lock(){
+        return new OperationLock(structureLock, false, userStripes, communityStripes, users);
+    }
+    /**
+     * Adquire o bloqueio exclusivo usado pelas operações que alteram o registro como um todo, aguardando
+     * o término de todas as operações em andamento.
+     *
+     * @return O bloqueio da operação, a ser fechado ao seu término.
+     */
+    OperationLock lockExclusive(){
+        return new OperationLock(structureLock, true, userStripes, communityStripes, users);
+    }
+    /**
+     * Método `cleanSystem` exclui todos os dados do sistema, limpando os mapas de usuários, sessões
+     * e excluindo o snapshot e os arquivos de dados JSON.
      */
     public void cleanSystem(){
+        checkpointLock.lock();
+        try {
+            clearData();
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    private void clearData(){
         users.clear();
+        SocialGraph.GRAPH.clear();
+        ViewCache.VIEWS.clear();
+        FriendRecommendations.RECOMMENDATIONS.clear();
+        Mailbox.resetSegments();
         sessions.clear();
         communities.clear();
+        DirtyTracker.USERS.clear();
+        DirtyTracker.COMMUNITIES.clear();
+        snapshot.delete();
         usersData.delete();
         communitiesData.delete();
+        checkpointData.delete();
+        try {
+            if (journal != null) journal.truncate(journal.getLastLsn());
+        } catch (IOException e){
+            System.err.println("Erro ao limpar o diário de operações.");
+            e.printStackTrace();
+        }
     }
     /**
-     * Mtodo `closeSystem` encerra o sistema, salvando os dados em arquivos JSON.
-     * Isso  feito quando o sistema  encerrado.
+     * Método `closeSystem` encerra o sistema, salvando os dados no snapshot binário.
+     * Isso é feito quando o sistema é encerrado.
+     *
+     * Se houver uma base e as alterações forem poucas, apenas os usuários e comunidades alterados desde o
+     * salvamento anterior são gravados, em uma camada incremental; caso contrário, é gravada uma base nova
+     * com todos os registros. Os dois arquivos registram o LSN do diário incorporado e são gravados em um
+     * arquivo temporário e renomeados; em seguida o diário é truncado.
      */
     public void closeSystem() {
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-
-            List<User> usersList = new ArrayList<>(users.values());
-            List<Community> communityList = new ArrayList<>(communities.values());
-
-            objectMapper.writeValue(usersData, usersList);
-            objectMapper.writeValue(communitiesData, communityList);
-
+            save();
             System.out.println("Todos os dados foram salvos.");
         } catch (IOException e) {
             System.err.println("Erro ao salvar dados.");
@@ -103,119 +386,448 @@ public class JackutSystemManager {
         }
     }
     /**
-     * Cria um novo usurio com as informaes fornecidas e o adiciona ao sistema.
+     * Grava os dados no snapshot, sem mensagens, e trunca o diário até o LSN gravado: uma camada incremental,
+     * se houver uma base e as alterações forem poucas, ou uma base nova com todos os registros.
+     * Deve ser chamado com o bloqueio exclusivo; o bloqueio dos checkpoints é adquirido aqui. Ao contrário de
+     * {@link #closeSystem()}, nada é exibido e as falhas são lançadas ao chamador; os registros alterados
+     * continuam marcados para o próximo salvamento.
+     *
+     * @throws IOException Se o snapshot não puder ser gravado.
+     */
+    void save() throws IOException {
+        checkpointLock.lock();
+        try {
+            long checkpointLsn = journal != null ? journal.sync() : 0;
+
+            Set<String> changedUsers = DirtyTracker.USERS.drain(), changedCommunities = DirtyTracker.COMMUNITIES.drain();
+            try {
+                if (snapshot.acceptsLayer(changedUsers.size(), users.size())) saveChanges(changedUsers, changedCommunities, checkpointLsn);
+                else snapshot.writeBase(users.values(), users.size(), communities.values(), checkpointLsn);
+            } catch (IOException | RuntimeException e) {
+                DirtyTracker.USERS.restore(changedUsers);
+                DirtyTracker.COMMUNITIES.restore(changedCommunities);
+                throw e;
+            }
+            checkpointData.delete();
+
+            if (journal != null) journal.truncate(checkpointLsn);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+    /**
+     * Faz um checkpoint sem parar o sistema durante a gravação. Com o bloqueio exclusivo, os registros
+     * alterados desde o salvamento anterior são codificados em memória como uma camada incremental, junto com
+     * o último LSN do diário; esse é o único intervalo em que as operações ficam suspensas, proporcional às
+     * alterações e não ao total de usuários. Em seguida, já com as operações liberadas, a camada é gravada em
+     * um arquivo temporário e renomeada, e o diário é compactado até o LSN capturado.
      *
-     * @param login O login do novo usurio.
-     * @param password A senha do novo usurio.
-     * @param name O nome do novo usurio.
-     * @throws InvalidCredentialException Se o login ou a senha forem invlidos.
-     * @throws InvalidCredentialException Se um usurio com o mesmo login j existir.
+     * Se ainda não houver uma base, o checkpoint grava uma base completa com as operações suspensas, pois as
+     * camadas só podem ser aplicadas sobre uma base; ao contrário de {@link #closeSystem()}, nada é exibido.
+     * Se a pilha de camadas tiver ficado para trás da fusão, o checkpoint é adiado.
+     * Os checkpoints, os encerramentos e as limpezas nunca se sobrepõem.
+     */
+    @SuppressWarnings("try") // O bloqueio exclusivo é mantido pelo `try`, sem ser referenciado no corpo.
+    void checkpoint(){
+        long start = System.nanoTime();
+        LayeredSnapshot.Capture capture;
+        Set<String> changedUsers, changedCommunities;
+        try (OperationLock lock = lockExclusive()) {
+            if (DirtyTracker.USERS.size() == 0 && DirtyTracker.COMMUNITIES.size() == 0) return;
+            if (!snapshot.hasBase()) {
+                try {
+                    save();
+                    checkpoints++;
+                    checkpointPauseNanos = checkpointNanos = System.nanoTime() - start;
+                } catch (IOException e) {
+                    System.err.println("Erro ao gravar o checkpoint.");
+                    e.printStackTrace();
+                }
+                return;
+            }
+            checkpointLock.lock();
+            changedUsers = DirtyTracker.USERS.drain();
+            changedCommunities = DirtyTracker.COMMUNITIES.drain();
+            try {
+                capture = captureChanges(changedUsers, changedCommunities, journal != null ? journal.getLastLsn() : 0);
+            } catch (RuntimeException e) {
+                checkpointLock.unlock();
+                DirtyTracker.USERS.restore(changedUsers);
+                DirtyTracker.COMMUNITIES.restore(changedCommunities);
+                throw e;
+            }
+        }
+        long pause = System.nanoTime() - start;
+        try {
+            if (capture == null) {
+                DirtyTracker.USERS.restore(changedUsers);
+                DirtyTracker.COMMUNITIES.restore(changedCommunities);
+                return;
+            }
+            if (journal != null) journal.awaitDurable(capture.getCheckpointLsn());
+            if (snapshot.writeLayer(capture) && journal != null) journal.truncate(capture.getCheckpointLsn());
+            checkpoints++;
+            checkpointPauseNanos = pause;
+            checkpointNanos = System.nanoTime() - start;
+        } catch (IOException | RuntimeException e) {
+            DirtyTracker.USERS.restore(changedUsers);
+            DirtyTracker.COMMUNITIES.restore(changedCommunities);
+            System.err.println("Erro ao gravar o checkpoint.");
+            e.printStackTrace();
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+    /**
+     * Laço da thread de checkpoints: faz um checkpoint a cada intervalo configurado, ou antes, quando as
+     * alterações pendentes chegam ao limite.
+     */
+    private void checkpointLoop(){
+        long last = System.nanoTime();
+        while (true) {
+            try {
+                Thread.sleep(Math.min(CHECKPOINT_INTERVAL, CHECKPOINT_POLL_MILLIS));
+            } catch (InterruptedException e) {
+                return;
+            }
+            boolean due = System.nanoTime() - last >= CHECKPOINT_INTERVAL * 1_000_000;
+            if (!due && DirtyTracker.USERS.size() + DirtyTracker.COMMUNITIES.size() < CHECKPOINT_MAX_CHANGES) continue;
+            last = System.nanoTime();
+            try {
+                checkpoint();
+            } catch (RuntimeException e) {
+                System.err.println("Erro ao fazer o checkpoint.");
+                e.printStackTrace();
+            }
+        }
+    }
+    /**
+     * Codifica em memória uma camada com os usuários e comunidades alterados, como {@link #saveChanges}.
+     *
+     * @return A camada capturada, ou `null` se a pilha de camadas estiver cheia.
+     */
+    private LayeredSnapshot.Capture captureChanges(Set<String> changedUsers, Set<String> changedCommunities, long checkpointLsn){
+        List<User> changed = new ArrayList<>(changedUsers.size());
+        List<Community> changedGroups = new ArrayList<>(changedCommunities.size());
+        List<String> deleted = new ArrayList<>(), deletedGroups = new ArrayList<>();
+        partition(changedUsers, users::get, changed, deleted);
+        partition(changedCommunities, communities::get, changedGroups, deletedGroups);
+        return snapshot.capture(changed, changedGroups, deleted, deletedGroups, checkpointLsn);
+    }
+    /**
+     * Separa as chaves marcadas em registros alterados, que ainda existem, e chaves de registros excluídos.
+     */
+    private static <T> void partition(Set<String> keys, Function<String, T> lookup, List<T> changed, List<String> deleted){
+        for (String key : keys){
+            T record = lookup.apply(key);
+            if (record != null) changed.add(record);
+            else deleted.add(key);
+        }
+    }
+    /**
+     * Grava uma camada incremental com os usuários e comunidades alterados; as chaves marcadas que não existem
+     * mais são gravadas como exclusões. Não grava nada se não houver alterações.
+     *
+     * @param changedUsers Os logins marcados como alterados.
+     * @param changedCommunities Os nomes de comunidades marcados como alterados.
+     * @param checkpointLsn O LSN do diário incorporado.
+     * @throws IOException Se a camada não puder ser gravada.
+     */
+    private void saveChanges(Set<String> changedUsers, Set<String> changedCommunities, long checkpointLsn) throws IOException {
+        if (changedUsers.isEmpty() && changedCommunities.isEmpty()) return;
+        List<User> changed = new ArrayList<>(changedUsers.size());
+        List<Community> changedGroups = new ArrayList<>(changedCommunities.size());
+        List<String> deleted = new ArrayList<>(), deletedGroups = new ArrayList<>();
+        partition(changedUsers, users::get, changed, deleted);
+        partition(changedCommunities, communities::get, changedGroups, deletedGroups);
+        snapshot.writeLayer(changed, changedGroups, deleted, deletedGroups, checkpointLsn);
+    }
+    /**
+     * Cria um novo usuário com as informações fornecidas e o adiciona ao sistema.
+     *
+     * @param login O login do novo usuário.
+     * @param password A senha do novo usuário.
+     * @param name O nome do novo usuário.
+     * @throws InvalidCredentialException Se o login ou a senha forem inválidos.
+     * @throws InvalidCredentialException Se um usuário com o mesmo login já existir.
      */
     public void createUser(String login, String password, String name){
-        if (!users.containsKey(login)) {
-            if(login == null) throw new InvalidCredentialException("Login invlido.");
-            if (password == null) throw new InvalidCredentialException("Senha invlida.");
-            User user = new User(login, password, name);
-            users.put(login, user);
+        if (!users.contains(login)) {
+            if(login == null) throw new InvalidCredentialException("Login inválido.");
+            if (password == null) throw new InvalidCredentialException("Senha inválida.");
+            users.add(new User(login, password, name));
+            DirtyTracker.USERS.mark(login);
         }
-        else throw new InvalidCredentialException("Conta com esse nome j existe.");
+        else throw new InvalidCredentialException("Conta com esse nome já existe.");
     }
     /**
-     * Obtm um usurio com base em seu login.
+     * Registra um usuário já construído pelo {@link BulkImporter}, sem passar pelo diário.
      *
-     * @param login O login do usurio a ser obtido.
-     * @return O usurio correspondente ao login.
-     * @throws UserNotFoundException Se o usurio com o login especificado no for encontrado.
+     * @param user O usuário a ser registrado.
+     * @return `true` se o usuário foi registrado, `false` se já existia um usuário com o mesmo login.
+     */
+    boolean importUser(User user){
+        DirtyTracker.USERS.mark(user.getLogin());
+        return users.add(user);
+    }
+    /**
+     * Obtém um usuário com base em seu login.
+     *
+     * @param login O login do usuário a ser obtido.
+     * @return O usuário correspondente ao login.
+     * @throws UserNotFoundException Se o usuário com o login especificado não for encontrado.
      */
     public User getUser(String login){
-        if (users.containsKey(login)) return users.get(login);
+        User user = users.get(login);
+        if (user != null) return user;
         else throw new UserNotFoundException();
     }
     /**
-     * Abre uma sesso para um usurio autenticado com base em seu login e senha.
+     * Busca um usuário com base em seu login, sem lançar exceção se ele não existir.
+     *
+     * @param login O login do usuário a ser buscado.
+     * @return O usuário correspondente ao login, ou vazio se não houver.
+     */
+    public Optional<User> findUser(String login){
+        return Optional.ofNullable(login == null ? null : users.get(login));
+    }
+    /**
+     * Abre uma sessão para um usuário autenticado com base em seu login e senha.
      *
-     * @param login O login do usurio.
-     * @param password A senha do usurio.
-     * @return O ID da sesso aberta.
-     * @throws InvalidCredentialException Se o login ou a senha forem invlidos.
-     * @throws InvalidCredentialException Se o login e senha no corresponderem a um usurio vlido.
+     * @param login O login do usuário.
+     * @param password A senha do usuário.
+     * @return O ID da sessão aberta.
+     * @throws InvalidCredentialException Se o login ou a senha forem inválidos.
+     * @throws InvalidCredentialException Se o login e senha não corresponderem a um usuário válido.
      */
     public String openSession (String login, String password) {
         User user = users.get(login);
         if(user != null && user.verifyPassword(password)){
-            Session session = new Session(user);
-            sessions.put(session.getID(), session);
-            return session.getID();
+            return sessions.open(user).getID();
         }
-        else throw new InvalidCredentialException("Login ou senha invlidos.");
+        else throw new InvalidCredentialException("Login ou senha inválidos.");
     }
     /**
-     * Obtm uma sesso com base em seu ID.
+     * Obtém uma sessão com base em seu ID.
      *
-     * @param id O ID da sesso a ser obtida.
-     * @return A sesso correspondente ao ID.
-     * @throws UserNotFoundException Se a sesso com o ID especificado no for encontrada.
+     * @param id O ID da sessão a ser obtida.
+     * @return A sessão correspondente ao ID.
+     * @throws UserNotFoundException Se a sessão com o ID especificado não for encontrada ou tiver expirado.
      */
     public Session getSession(String id){
-        if (sessions.containsKey(id)) return sessions.get(id);
+        Session session = sessions.get(id);
+        if (session != null) return session;
         else throw new UserNotFoundException();
     }
     /**
-     * Verifica se um usurio com o login especificado existe no sistema.
+     * Busca uma sessão com base em seu ID, sem lançar exceção se ela não existir ou tiver expirado.
+     *
+     * @param id O ID da sessão a ser buscada.
+     * @return A sessão correspondente ao ID, ou vazio se não houver.
+     */
+    public Optional<Session> findSession(String id){
+        return Optional.ofNullable(sessions.get(id));
+    }
+    /**
+     * Obtém o registro de sessões, com a quantidade de sessões ativas e as métricas de expiração.
+     *
+     * @return O registro de sessões.
+     */
+    public SessionRegistry getSessionRegistry(){
+        return sessions;
+    }
+    /**
+     * Obtém a quantidade de usuários registrados.
+     *
+     * @return A quantidade de usuários.
+     */
+    public int getUserCount(){
+        return users.size();
+    }
+    /**
+     * Obtém a quantidade de comunidades registradas.
      *
-     * @param login O login do usurio a ser verificado.
-     * @return `true` se o usurio existir, `false` caso contrrio.
+     * @return A quantidade de comunidades.
+     */
+    public int getCommunityCount(){
+        return communities.size();
+    }
+    /**
+     * Obtém o registro de usuários paginado, cujos contadores de cache são expostos nas métricas.
+     *
+     * @return O registro paginado, ou `null` se os usuários são mantidos inteiramente em memória.
+     */
+    public PagedUserStore getPagedUserStore(){
+        return users instanceof PagedUserStore paged ? paged : null;
+    }
+    /**
+     * Obtém a quantidade de checkpoints em segundo plano concluídos.
+     * @return A quantidade de checkpoints.
+     */
+    public long getCheckpoints(){
+        return checkpoints;
+    }
+    /**
+     * Obtém o tempo em que as operações ficaram suspensas no último checkpoint em segundo plano.
+     * @return A pausa do último checkpoint, em nanossegundos.
+     */
+    public long getCheckpointPauseNanos(){
+        return checkpointPauseNanos;
+    }
+    /**
+     * Obtém a duração total do último checkpoint em segundo plano, incluindo a gravação.
+     * @return A duração do último checkpoint, em nanossegundos.
+     */
+    public long getCheckpointNanos(){
+        return checkpointNanos;
+    }
+    /**
+     * Obtém a quantidade de mensagens retidas nos registros de mensagens de todas as comunidades.
+     *
+     * @return A quantidade de mensagens de comunidade retidas.
+     */
+    public long getRetainedCommunityMessages(){
+        long retained = 0;
+        for (Community community : communities.values()) retained += community.getMessageLog().getRetainedMessages();
+        return retained;
+    }
+    /**
+     * Verifica se um usuário com o login especificado existe no sistema.
+     *
+     * @param login O login do usuário a ser verificado.
+     * @return `true` se o usuário existir, `false` caso contrário.
      */
     public boolean verifyUser(String login){
-        return users.containsKey(login);
+        return users.contains(login);
+    }
+    /**
+     * Altera o login de um usuário, mantendo indexados pelo login atual o registro de usuários, os membros e o
+     * gerente das suas comunidades e o remetente dos recados que enviou, para que a exclusão do usuário
+     * alcance todos eles. Os destinatários dos recados são localizados pelo grafo social.
+     *
+     * @param user O usuário cujo login será alterado.
+     * @param login O novo login.
+     */
+    public void changeLogin(User user, String login){
+        String oldLogin = user.getLogin();
+        for (Community community : getCommunities(user)) community.renameMember(oldLogin, login);
+        int node = SocialGraph.GRAPH.find(oldLogin);
+        if (node >= 0) for (int recipient : SocialGraph.GRAPH.neighbours(SocialGraph.Relation.MESSAGES, node)){
+            User other = users.get(SocialGraph.GRAPH.name(recipient));
+            if (other != null && other.getMessageBox().renameSender(oldLogin, login)) DirtyTracker.USERS.mark(other.getLogin());
+        }
+        SocialGraph.GRAPH.rename(oldLogin, login);
+        users.rename(user, login);
     }
     /**
-     * Cria uma nova comunidade com base no nome e na descrio fornecidos e a adiciona ao sistema.
+     * Cria uma nova comunidade com base no nome e na descrição fornecidos e a adiciona ao sistema.
      *
-     * @param session A sesso do usurio que est criando a comunidade.
+     * @param session A sessão do usuário que está criando a comunidade.
      * @param name O nome da nova comunidade.
-     * @param description A descrio da nova comunidade.
-     * @throws InvalidCommunityException Se uma comunidade com o mesmo nome j existir.
+     * @param description A descrição da nova comunidade.
+     * @throws InvalidCommunityException Se o nome for nulo ou se uma comunidade com o mesmo nome já existir.
      */
     public void createCommunity(String session, String name, String description) {
-        if (communities.containsKey(name)) {
-            throw new InvalidCommunityException("Comunidade com esse nome j existe.");
-        } else{
-            Community community = getSession(session).createCommunity(name, description);
-            communities.put(name, community);
-        }
+        checkCommunityName(name);
+        registerCommunity(getSession(session), name, description);
+    }
+    /**
+     * Verifica se o nome pode ser usado por uma nova comunidade. É chamado antes da resolução da sessão, para
+     * que um nome inválido ou repetido seja informado antes de uma sessão inválida.
+     *
+     * @param name O nome da nova comunidade.
+     * @throws InvalidCommunityException Se o nome for nulo ou se uma comunidade com o mesmo nome já existir.
+     */
+    void checkCommunityName(String name) {
+        if (name == null) throw new InvalidCommunityException("Nome de comunidade inválido.");
+        if (communities.containsKey(name)) throw new InvalidCommunityException("Comunidade com esse nome já existe.");
     }
     /**
-     * Obtm uma comunidade com base em seu nome.
+     * Cria a comunidade através da sessão do usuário criador e a registra no sistema.
+     *
+     * @param session A sessão do usuário criador.
+     * @param name O nome da nova comunidade.
+     * @param description A descrição da nova comunidade.
+     */
+    private void registerCommunity(Session session, String name, String description){
+        Community community = session.createCommunity(name, description);
+        communities.put(name, community);
+        DirtyTracker.COMMUNITIES.mark(name);
+    }
+    /**
+     * Registra uma comunidade já construída pelo {@link BulkImporter}, sem passar pelo diário.
+     *
+     * @param community A comunidade a ser registrada.
+     * @return `true` se a comunidade foi registrada, `false` se já existia uma comunidade com o mesmo nome.
+     */
+    boolean importCommunity(Community community){
+        DirtyTracker.COMMUNITIES.mark(community.getName());
+        return communities.putIfAbsent(community.getName(), community) == null;
+    }
+    /**
+     * Obtém uma comunidade com base em seu nome.
      *
      * @param name O nome da comunidade a ser obtida.
      * @return A comunidade correspondente ao nome.
-     * @throws InvalidCommunityException Se a comunidade com o nome especificado no for encontrada.
+     * @throws InvalidCommunityException Se a comunidade com o nome especificado não for encontrada.
      */
     public Community getCommunity(String name) {
-        if(communities.containsKey(name)) return communities.get(name);
-        else throw new InvalidCommunityException("Comunidade no existe.");
+        Community community = name == null ? null : communities.get(name);
+        if(community != null) return community;
+        else throw new InvalidCommunityException("Comunidade não existe.");
+    }
+    /**
+     * Busca uma comunidade com base em seu nome, sem lançar exceção se ela não existir.
+     *
+     * @param name O nome da comunidade a ser buscada.
+     * @return A comunidade correspondente ao nome, ou vazio se não houver.
+     */
+    public Optional<Community> findCommunity(String name) {
+        return Optional.ofNullable(name == null ? null : communities.get(name));
     }
     /**
-     * Exclui uma conta de usurio do sistema com base na sesso do usurio.
+     * Exclui uma conta de usuário do sistema com base na sessão do usuário.
      *
-     * @param id O ID da sesso do usurio que deseja excluir sua conta.
-     * @throws UserNotFoundException Se a conta de usurio especificada no for encontrada.
+     * @param id O ID da sessão do usuário que deseja excluir sua conta.
+     * @throws UserNotFoundException Se a conta de usuário especificada não for encontrada.
      */
     public void deleteAccount(String id){
-        if (!users.containsKey(getSession(id).getUser().getLogin())) throw new UserNotFoundException();
-        User deletedUser = getSession(id).getUser();
-        ArrayList<String> deletedCommunities = deletedUser.getMyCommunities();
-        users.remove(deletedUser.getLogin(), deletedUser);
-        for (String community : deletedCommunities){
-            this.communities.remove(community);
-        }
-        for(User user : users.values()){
-            for (String community : deletedCommunities){
-                user.getMyCommunities().remove(community);
+        if (!users.contains(getSession(id).getUser().getLogin())) throw new UserNotFoundException();
+        deleteUser(getSession(id).getUser());
+    }
+    /**
+     * Exclui um usuário do sistema, junto com todas as comunidades das quais participa ou que gerencia, os
+     * recados que enviou e todos os seus relacionamentos, nos dois sentidos.
+     * Os registros afetados são localizados pelos índices reversos (membros das comunidades e destinatários
+     * no grafo social), sem percorrer os demais usuários.
+     *
+     * @param deletedUser O usuário a ser excluído.
+     */
+    private void deleteUser(User deletedUser){
+        String deletedLogin = deletedUser.getLogin();
+        users.remove(deletedLogin);
+        DirtyTracker.USERS.mark(deletedLogin);
+        sessions.removeAll(deletedUser);
+        deletedUser.getMessageBox().clear();
+        deletedUser.getCommunityMessages().clear();
+        for (String name : deletedUser.getMyCommunities()){
+            Community community = communities.remove(name);
+            if (community == null) continue;
+            DirtyTracker.COMMUNITIES.mark(name);
+            for (String member : community.getMembers()){
+                User user = users.get(member);
+                if (user != null) user.removeCommunity(name);
             }
-            user.getMessageBox().removeIf(message -> Objects.equals(message.getRemetente(), deletedUser.getLogin()));
         }
+        int node = SocialGraph.GRAPH.find(deletedLogin);
+        if (node < 0) return;
+        for (int recipient : SocialGraph.GRAPH.neighbours(SocialGraph.Relation.MESSAGES, node)){
+            User user = users.get(SocialGraph.GRAPH.name(recipient));
+            if (user != null && user.getMessageBox().removeIf(message -> Objects.equals(message.getRemetente(), deletedLogin)))
+                DirtyTracker.USERS.mark(user.getLogin());
+        }
+        SocialGraph.GRAPH.removeNode(node);
+        FriendRecommendations.RECOMMENDATIONS.clear(); // Os amigos em comum que passavam pelo usuário excluído.
     }
 
 }
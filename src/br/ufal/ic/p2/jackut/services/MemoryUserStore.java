@@ -0,0 +1,66 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.interfaces.UserStore;
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A classe `MemoryUserStore` mantém todos os usuários do sistema Jackut no heap, em um mapa indexado pelo login.
+ * É o registro padrão, usado quando o modo de paginação de usuários está desativado.
+ * O mapa é concorrente; a consistência de cada usuário é garantida pelos bloqueios das operações.
+ */
+class MemoryUserStore implements UserStore {
+    private final Map<String, User> users = new ConcurrentHashMap<>(); // Mapa para armazenar usuários
+
+    @Override
+    public User get(String login) {
+        return login == null ? null : users.get(login);
+    }
+
+    @Override
+    public boolean contains(String login) {
+        return login != null && users.containsKey(login);
+    }
+
+    @Override
+    public boolean add(User user) {
+        return users.putIfAbsent(user.getLogin(), user) == null;
+    }
+
+    @Override
+    public void remove(String login) {
+        if (login != null) users.remove(login);
+    }
+
+    @Override
+    public void rename(User user, String login) {
+        users.remove(user.getLogin(), user);
+        user.setLogin(login);
+        users.put(login, user);
+    }
+
+    @Override
+    public void pin(String login) {
+    }
+
+    @Override
+    public void unpin(String login) {
+    }
+
+    @Override
+    public int size() {
+        return users.size();
+    }
+
+    @Override
+    public void clear() {
+        users.clear();
+    }
+
+    @Override
+    public Iterable<User> values() {
+        return users.values();
+    }
+}
@@ -0,0 +1,360 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.interfaces.MetricsMXBean;
+import br.ufal.ic.p2.jackut.models.Mailbox;
+import br.ufal.ic.p2.jackut.persistence.PagedUserStore;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+import static br.ufal.ic.p2.jackut.services.JackutSystemManager.SYSTEM;
+import static br.ufal.ic.p2.jackut.services.ViewCache.VIEWS;
+
+/**
+ * A classe `Metrics` acumula a quantidade de chamadas, os erros e a latência de cada operação da {@link Facade}
+ * e os expõe por JMX, junto com indicadores do estado do sistema (usuários, sessões, comunidades e mensagens).
+ *
+ * O registro de uma chamada não usa bloqueios: os contadores são {@link LongAdder}s, que espalham as
+ * atualizações concorrentes em células separadas, e a latência entra em um histograma log-linear de faixas
+ * fixas, com erro relativo de cerca de 12% nos percentis. As chamadas e os erros são sempre contados, mas a
+ * latência é medida em uma amostra aleatória de uma a cada `jackut.metrics.latencySampling` chamadas (8 por
+ * padrão; 1 mede todas), pois cada leitura do relógio custa dezenas de nanossegundos, comparáveis às
+ * operações mais rápidas. Os indicadores de estado são lidos apenas quando consultados.
+ *
+ * A classe é implementada como um singleton, registrado no servidor de MBeans da plataforma na inicialização.
+ */
+class Metrics implements MetricsMXBean {
+    static final String OBJECT_NAME = "br.ufal.ic.p2.jackut:type=Metrics";
+    private static final int LATENCY_SAMPLING = Math.max(Integer.getInteger("jackut.metrics.latencySampling", 8), 1);
+    private static final long NOT_SAMPLED = Long.MIN_VALUE; // Início de uma chamada cuja latência não é medida.
+    static final Metrics METRICS = register(new Metrics());// Instância única das métricas
+
+    /**
+     * Operações instrumentadas, uma para cada método da `Facade`.
+     */
+    enum Operation {
+        ZERAR_SISTEMA("zerarSistema"), CRIAR_USUARIO("criarUsuario"), GET_ATRIBUTO_USUARIO("getAtributoUsuario"),
+        ABRIR_SESSAO("abrirSessao"), EDITAR_PERFIL("editarPerfil"), EH_AMIGO("ehAmigo"), GET_AMIGOS("getAmigos"),
+        ADICIONAR_AMIGO("adicionarAmigo"), ENVIAR_RECADO("enviarRecado"), LER_RECADO("lerRecado"),
+        CRIAR_COMUNIDADE("criarComunidade"), ENCERRAR_SISTEMA("encerrarSistema"),
+        GET_DESCRICAO_COMUNIDADE("getDescricaoComunidade"), GET_DONO_COMUNIDADE("getDonoComunidade"),
+        GET_MEMBROS_COMUNIDADE("getMembrosComunidade"), GET_QUANTIDADE_MEMBROS_COMUNIDADE("getQuantidadeMembrosComunidade"),
+        GET_COMUNIDADES("getComunidades"), ADICIONAR_COMUNIDADE("adicionarComunidade"), LER_MENSAGEM("lerMensagem"),
+        ENVIAR_MENSAGEM("enviarMensagem"), EH_FA("ehFa"), ADICIONAR_IDOLO("adicionarIdolo"), EH_PAQUERA("ehPaquera"),
+        ADICIONAR_PAQUERA("adicionarPaquera"), GET_FAS("getFas"), GET_PAQUERAS("getPaqueras"),
+        ADICIONAR_INIMIGO("adicionarInimigo"), REMOVER_USUARIO("removerUsuario"),
+        BUSCAR_ATRIBUTO_USUARIO("buscarAtributoUsuario"), TENTAR_LER_RECADO("tentarLerRecado"),
+        TENTAR_LER_MENSAGEM("tentarLerMensagem"), EXECUTAR_LOTE("executarLote"),
+        GET_SUGESTOES_AMIGOS("getSugestoesAmigos");
+
+        final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+    }
+
+    private final Histogram[] operations = new Histogram[Operation.values().length];
+    private final ConcurrentHashMap<Class<?>, LongAdder> errorsByType = new ConcurrentHashMap<>();
+
+    /**
+     * Construtor privado da classe `Metrics`.
+     * Cria um histograma para cada operação.
+     */
+    private Metrics() {
+        for (int o = 0; o < operations.length; o++) operations[o] = new Histogram();
+    }
+    /**
+     * Registra as métricas no servidor de MBeans da plataforma. Se o registro falhar, as métricas continuam
+     * sendo acumuladas, mas não ficam visíveis por JMX.
+     *
+     * @param metrics As métricas a serem registradas.
+     * @return As mesmas métricas.
+     */
+    private static Metrics register(Metrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.err.println("Erro ao registrar as métricas no JMX.");
+            e.printStackTrace();
+        }
+        return metrics;
+    }
+    /**
+     * Inicia a medição de uma chamada, sorteando se a sua latência entra na amostra.
+     *
+     * @return O instante de início da chamada, a ser passado para {@link #record(Operation, long)}.
+     */
+    long start() {
+        if (LATENCY_SAMPLING > 1 && ThreadLocalRandom.current().nextInt(LATENCY_SAMPLING) != 0) return NOT_SAMPLED;
+        return System.nanoTime();
+    }
+    /**
+     * Registra uma chamada concluída, com ou sem exceção.
+     *
+     * @param operation A operação chamada.
+     * @param start O instante de início da chamada, obtido com {@link #start()}.
+     */
+    void record(Operation operation, long start) {
+        Histogram histogram = operations[operation.ordinal()];
+        histogram.calls.increment();
+        if (start != NOT_SAMPLED) histogram.record(System.nanoTime() - start);
+    }
+    /**
+     * Registra o erro de uma chamada, contando-o na operação e no tipo da exceção.
+     *
+     * @param operation A operação chamada.
+     * @param e A exceção lançada pela operação.
+     * @return A mesma exceção, para ser relançada.
+     * @param <E> O tipo da exceção.
+     */
+    <E extends RuntimeException> E failed(Operation operation, E e) {
+        operations[operation.ordinal()].errors.increment();
+        LongAdder errors = errorsByType.get(e.getClass());
+        if (errors == null) errors = errorsByType.computeIfAbsent(e.getClass(), type -> new LongAdder());
+        errors.increment();
+        return e;
+    }
+
+    @Override
+    public int getUsers() {
+        return SYSTEM.getUserCount();
+    }
+
+    @Override
+    public int getSessions() {
+        return SYSTEM.getSessionRegistry().getLiveSessions();
+    }
+
+    @Override
+    public long getOpenedSessions() {
+        return SYSTEM.getSessionRegistry().getOpenedSessions();
+    }
+
+    @Override
+    public long getExpiredSessions() {
+        return SYSTEM.getSessionRegistry().getIdleEvictions() + SYSTEM.getSessionRegistry().getAbsoluteEvictions();
+    }
+
+    @Override
+    public int getCommunities() {
+        return SYSTEM.getCommunityCount();
+    }
+
+    @Override
+    public long getQueuedMessages() {
+        return Mailbox.getQueuedMessages();
+    }
+
+    @Override
+    public long getRetainedCommunityMessages() {
+        return SYSTEM.getRetainedCommunityMessages();
+    }
+
+    @Override
+    public long getViewCacheHits() {
+        return VIEWS.getHits();
+    }
+
+    @Override
+    public long getViewCacheMisses() {
+        return VIEWS.getMisses();
+    }
+
+    @Override
+    public double getViewCacheHitRate() {
+        long hits = VIEWS.getHits(), total = hits + VIEWS.getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getViewCacheEvictions() {
+        return VIEWS.getEvictions();
+    }
+
+    @Override
+    public long getViewCacheBytes() {
+        return VIEWS.getBytes();
+    }
+
+    @Override
+    public long getCheckpoints() {
+        return SYSTEM.getCheckpoints();
+    }
+
+    @Override
+    public double getLastCheckpointPause() {
+        return SYSTEM.getCheckpointPauseNanos() / 1000.0;
+    }
+
+    @Override
+    public double getLastCheckpointDuration() {
+        return SYSTEM.getCheckpointNanos() / 1000.0;
+    }
+
+    @Override
+    public long getUserCacheHits() {
+        PagedUserStore paged = SYSTEM.getPagedUserStore();
+        return paged == null ? 0 : paged.getHits();
+    }
+
+    @Override
+    public long getUserCacheMisses() {
+        PagedUserStore paged = SYSTEM.getPagedUserStore();
+        return paged == null ? 0 : paged.getMisses();
+    }
+
+    @Override
+    public long getUserCacheEvictions() {
+        PagedUserStore paged = SYSTEM.getPagedUserStore();
+        return paged == null ? 0 : paged.getEvictions();
+    }
+
+    @Override
+    public long getUserCacheWriteBacks() {
+        PagedUserStore paged = SYSTEM.getPagedUserStore();
+        return paged == null ? 0 : paged.getWriteBacks();
+    }
+
+    @Override
+    public int getResidentUsers() {
+        PagedUserStore paged = SYSTEM.getPagedUserStore();
+        return paged == null ? getUsers() : paged.getResidentCount();
+    }
+
+    @Override
+    public Map<String, Long> getCalls() {
+        return byOperation(histogram -> histogram.calls.sum());
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        return byOperation(histogram -> histogram.errors.sum());
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByType() {
+        Map<String, Long> result = new TreeMap<>();
+        errorsByType.forEach((type, errors) -> result.merge(type.getSimpleName(), errors.sum(), Long::sum));
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP50() {
+        return latencyByOperation(histogram -> histogram.percentile(0.5));
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP99() {
+        return latencyByOperation(histogram -> histogram.percentile(0.99));
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP999() {
+        return latencyByOperation(histogram -> histogram.percentile(0.999));
+    }
+
+    @Override
+    public Map<String, Double> getLatencyMax() {
+        return latencyByOperation(histogram -> histogram.percentile(1));
+    }
+
+    @Override
+    public void reset() {
+        for (Histogram histogram : operations) histogram.reset();
+        errorsByType.clear();
+    }
+
+    private Map<String, Long> byOperation(ToLongFunction<Histogram> value) {
+        Map<String, Long> result = new TreeMap<>();
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = operations[operation.ordinal()];
+            if (histogram.calls.sum() > 0) result.put(operation.label, value.applyAsLong(histogram));
+        }
+        return result;
+    }
+
+    private Map<String, Double> latencyByOperation(ToDoubleFunction<Histogram> nanos) {
+        Map<String, Double> result = new TreeMap<>();
+        for (Operation operation : Operation.values()) {
+            double value = nanos.applyAsDouble(operations[operation.ordinal()]);
+            if (value >= 0) result.put(operation.label, value / 1e3);
+        }
+        return result;
+    }
+    /**
+     * Histograma concorrente das latências amostradas de uma operação, em nanossegundos, com as contagens de
+     * todas as chamadas e de todos os erros. Cada potência de dois é dividida em {@link #SUB_BUCKETS} faixas
+     * iguais, até cerca de 2^40 ns; latências maiores entram na última faixa.
+     *
+     * As leituras não são atômicas em relação aos registros concorrentes, o que basta para métricas.
+     */
+    static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_MAGNITUDE = 40;
+
+        private final LongAdder[] counts = new LongAdder[(MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS];
+        final LongAdder calls = new LongAdder(), errors = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            nanos = Math.max(nanos, 0);
+            counts[index(nanos)].increment();
+            max.accumulate(nanos);
+        }
+        /**
+         * Obtém o limite superior da faixa que contém o percentil informado, limitado à maior latência.
+         *
+         * @param quantile A fração das chamadas, entre 0 e 1.
+         * @return O percentil, em nanossegundos, ou -1 se nenhuma chamada tiver sido amostrada.
+         */
+        long percentile(double quantile) {
+            long[] snapshot = new long[counts.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) total += snapshot[i] = counts[i].sum();
+            if (total == 0) return -1;
+            long target = Math.max((long) Math.ceil(quantile * total), 1), seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= target) return Math.min(upperBound(i), max.get());
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (LongAdder count : counts) count.reset();
+            calls.reset();
+            errors.reset();
+            max.reset();
+        }
+
+        private int index(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            int shift = magnitude - SUB_BUCKET_BITS;
+            int index = (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+            return Math.min(index, counts.length - 1);
+        }
+
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS) return index;
+            int shift = index / SUB_BUCKETS - 1;
+            long base = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+            return base + (1L << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.interfaces.UserStore;
+
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A classe `OperationLock` representa os bloqueios mantidos por uma operação do sistema Jackut.
+ *
+ * Os bloqueios são sempre adquiridos na mesma hierarquia, o que evita impasses entre operações concorrentes:
+ * <ol>
+ *     <li>o bloqueio estrutural: compartilhado pelas operações comuns e exclusivo para as que alteram o
+ *     registro como um todo (exclusão de contas, troca de login, limpeza e encerramento);</li>
+ *     <li>no máximo uma faixa de comunidades;</li>
+ *     <li>as faixas dos usuários envolvidos, em ordem crescente de índice e adquiridas de uma só vez.</li>
+ * </ol>
+ * Enquanto a operação mantém o bloqueio de um usuário, ele fica fixado no registro de usuários, para que
+ * o objeto alterado não seja descartado pelo modo de paginação. Os bloqueios são liberados na ordem inversa.
+ */
+class OperationLock implements AutoCloseable {
+    private final Stripes userStripes, communityStripes;
+    private final UserStore users;
+    private final Deque<Lock> held = new ArrayDeque<>();
+    private final List<String> pinned = new ArrayList<>();
+    private boolean usersLocked;
+
+    /**
+     * Conjunto de bloqueios distribuídos por faixas, escolhidas pelo hash da chave.
+     */
+    static class Stripes {
+        private final ReentrantLock[] locks;
+
+        /**
+         * Construtor da classe Stripes.
+         *
+         * @param count A quantidade mínima de faixas; é arredondada para uma potência de dois.
+         */
+        Stripes(int count) {
+            int size = Integer.highestOneBit(Math.max(count, 1) - 1) << 1;
+            locks = new ReentrantLock[Math.max(size, 1)];
+            for (int i = 0; i < locks.length; i++) locks[i] = new ReentrantLock();
+        }
+
+        int index(String key) {
+            int hash = Objects.hashCode(key);
+            return (hash ^ (hash >>> 16)) & (locks.length - 1);
+        }
+
+        Lock get(int index) {
+            return locks[index];
+        }
+    }
+
+    /**
+     * Construtor da classe OperationLock.
+     * Adquire o bloqueio estrutural, compartilhado ou exclusivo.
+     *
+     * @param structure O bloqueio estrutural do sistema.
+     * @param exclusive `true` para adquirir o bloqueio estrutural exclusivo.
+     * @param userStripes As faixas de bloqueio dos usuários.
+     * @param communityStripes As faixas de bloqueio das comunidades.
+     * @param users O registro de usuários, no qual os usuários bloqueados são fixados.
+     */
+    OperationLock(ReentrantReadWriteLock structure, boolean exclusive, Stripes userStripes, Stripes communityStripes, UserStore users) {
+        this.userStripes = userStripes;
+        this.communityStripes = communityStripes;
+        this.users = users;
+        acquire(exclusive ? structure.writeLock() : structure.readLock());
+    }
+    /**
+     * Bloqueia uma comunidade. Deve ser chamado antes do bloqueio dos usuários.
+     *
+     * @param name O nome da comunidade.
+     * @return Este bloqueio.
+     * @throws IllegalStateException Se os usuários já tiverem sido bloqueados.
+     */
+    OperationLock community(String name) {
+        if (usersLocked) throw new IllegalStateException("Comunidades devem ser bloqueadas antes dos usuários.");
+        acquire(communityStripes.get(communityStripes.index(name)));
+        return this;
+    }
+    /**
+     * Bloqueia os usuários informados, em ordem crescente de faixa.
+     *
+     * @param logins Os logins dos usuários envolvidos na operação.
+     * @return Este bloqueio.
+     * @throws IllegalStateException Se os usuários já tiverem sido bloqueados por este objeto.
+     */
+    OperationLock users(String... logins) {
+        return users(Arrays.asList(logins));
+    }
+    /**
+     * Bloqueia os usuários informados, em ordem crescente de faixa.
+     *
+     * @param logins Os logins dos usuários envolvidos na operação.
+     * @return Este bloqueio.
+     * @throws IllegalStateException Se os usuários já tiverem sido bloqueados por este objeto.
+     */
+    OperationLock users(Collection<String> logins) {
+        if (usersLocked) throw new IllegalStateException("Os usuários de uma operação devem ser bloqueados de uma só vez.");
+        usersLocked = true;
+        BitSet stripes = new BitSet();
+        for (String login : logins) stripes.set(userStripes.index(login));
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) acquire(userStripes.get(i));
+        for (String login : new LinkedHashSet<>(logins)) {
+            if (login == null) continue;
+            users.pin(login);
+            pinned.add(login);
+        }
+        return this;
+    }
+
+    private void acquire(Lock lock) {
+        lock.lock();
+        held.push(lock);
+    }
+    /**
+     * Libera os usuários fixados e todos os bloqueios, na ordem inversa da aquisição.
+     */
+    @Override
+    public void close() {
+        for (String login : pinned) users.unpin(login);
+        pinned.clear();
+        while (!held.isEmpty()) held.pop().unlock();
+    }
+}
@@ -0,0 +1,252 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.interfaces.UserStore;
+import br.ufal.ic.p2.jackut.models.Session;
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A classe `SessionRegistry` mantém as sessões abertas do sistema Jackut, indexadas pelo seu token.
+ *
+ * Os tokens são gerados com {@link SecureRandom} (128 bits em Base64 sem preenchimento, 22 caracteres) e
+ * registrados com `putIfAbsent`, de modo que duas sessões nunca compartilham o mesmo ID.
+ *
+ * Uma sessão expira quando fica ociosa por mais que o TTL de ociosidade ou quando ultrapassa o TTL absoluto
+ * (zero desativa o respectivo limite). A expiração é verificada na consulta e por uma thread de varredura
+ * que percorre uma roda de temporização (timing wheel): cada sessão fica na posição do seu prazo, e a cada
+ * tique apenas a posição corrente é examinada. Uma sessão acessada desde o agendamento é reagendada para o
+ * novo prazo em vez de removida, sem nunca percorrer o mapa inteiro.
+ *
+ * Ao ser removida, a sessão libera a fixação do seu usuário no registro de usuários.
+ */
+public class SessionRegistry {
+    private static final int WHEEL_SIZE = 512; // Quantidade de posições da roda (potência de dois).
+
+    private final ConcurrentHashMap<String, Entry> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<User, Set<Entry>> byUser = new ConcurrentHashMap<>(); // Sessões de cada usuário (por identidade).
+    private final UserStore users;
+    private final long idleTtlNanos, absoluteTtlNanos, tickNanos;
+    private final SecureRandom random = new SecureRandom();
+    private final List<Entry>[] wheel; // Posições da roda, protegidas pelo próprio array.
+    private final long origin = System.nanoTime();
+    private long currentTick; // Último tique processado pela varredura.
+    private final AtomicLong opened = new AtomicLong(), idleEvictions = new AtomicLong(), absoluteEvictions = new AtomicLong();
+
+    /**
+     * Sessão registrada, com os instantes de criação e do último acesso.
+     */
+    private static class Entry {
+        final Session session;
+        final long createdAt;
+        volatile long lastAccess;
+
+        Entry(Session session, long now) {
+            this.session = session;
+            this.createdAt = now;
+            this.lastAccess = now;
+        }
+    }
+    /**
+     * Cria as posições vazias da roda. Um array de tipo genérico só pode ser criado com o tipo curinga.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Entry>[] newWheel() {
+        List<Entry>[] wheel = (List<Entry>[]) new List<?>[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) wheel[i] = new ArrayList<>();
+        return wheel;
+    }
+    /**
+     * Construtor da classe SessionRegistry.
+     * Se algum TTL estiver ativo, inicia a thread de varredura das sessões expiradas.
+     *
+     * @param users O registro de usuários, no qual os usuários com sessões abertas ficam fixados.
+     * @param idleTtlMillis O tempo máximo sem uso de uma sessão, em milissegundos (0 para ilimitado).
+     * @param absoluteTtlMillis O tempo máximo de vida de uma sessão, em milissegundos (0 para ilimitado).
+     * @param tickMillis O intervalo entre duas varreduras, em milissegundos.
+     */
+    public SessionRegistry(UserStore users, long idleTtlMillis, long absoluteTtlMillis, long tickMillis) {
+        this.users = users;
+        this.idleTtlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(idleTtlMillis, 0));
+        this.absoluteTtlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(absoluteTtlMillis, 0));
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(tickMillis, 1));
+        this.wheel = newWheel();
+        if (idleTtlNanos > 0 || absoluteTtlNanos > 0) {
+            Thread sweeper = new Thread(this::sweepLoop, "jackut-sessions");
+            sweeper.setDaemon(true);
+            sweeper.start();
+        }
+    }
+    /**
+     * Abre uma sessão para o usuário, com um token novo e único.
+     *
+     * @param user O usuário autenticado.
+     * @return A sessão aberta.
+     */
+    public Session open(User user) {
+        users.pin(user.getLogin());
+        long now = System.nanoTime();
+        while (true) {
+            Session session = new Session(user, nextToken());
+            Entry entry = new Entry(session, now);
+            if (sessions.putIfAbsent(session.getID(), entry) == null) {
+                byUser.compute(user, (key, entries) -> {
+                    if (entries == null) entries = ConcurrentHashMap.newKeySet();
+                    entries.add(entry);
+                    return entries;
+                });
+                opened.incrementAndGet();
+                schedule(entry, deadline(entry));
+                return session;
+            }
+        }
+    }
+    /**
+     * Obtém uma sessão ativa e renova o seu prazo de ociosidade.
+     *
+     * @param id O token da sessão.
+     * @return A sessão, ou `null` se não existir ou tiver expirado.
+     */
+    public Session get(String id) {
+        if (id == null) return null;
+        Entry entry = sessions.get(id);
+        if (entry == null) return null;
+        long now = System.nanoTime();
+        if (expired(entry, now)) {
+            expire(entry, now);
+            return null;
+        }
+        entry.lastAccess = now;
+        return entry.session;
+    }
+    /**
+     * Remove as sessões de um usuário excluído do sistema, localizadas pelo índice de sessões por usuário.
+     *
+     * @param user O usuário excluído.
+     */
+    public void removeAll(User user) {
+        Set<Entry> entries = byUser.remove(user);
+        if (entries == null) return;
+        for (Entry entry : entries) sessions.remove(entry.session.getID(), entry);
+    }
+    /**
+     * Remove todas as sessões, sem desfazer as fixações de usuários (usado quando o registro de usuários
+     * também é esvaziado).
+     */
+    public void clear() {
+        sessions.clear();
+        byUser.clear();
+        synchronized (wheel) {
+            for (List<Entry> slot : wheel) slot.clear();
+        }
+    }
+    /**
+     * Obtém a quantidade de sessões ativas.
+     * @return A quantidade de sessões ativas.
+     */
+    public int getLiveSessions() {
+        return sessions.size();
+    }
+    /**
+     * Obtém a quantidade de sessões abertas desde a inicialização.
+     * @return A quantidade de sessões abertas.
+     */
+    public long getOpenedSessions() {
+        return opened.get();
+    }
+    /**
+     * Obtém a quantidade de sessões removidas por ociosidade.
+     * @return A quantidade de remoções por ociosidade.
+     */
+    public long getIdleEvictions() {
+        return idleEvictions.get();
+    }
+    /**
+     * Obtém a quantidade de sessões removidas por atingirem o TTL absoluto.
+     * @return A quantidade de remoções por TTL absoluto.
+     */
+    public long getAbsoluteEvictions() {
+        return absoluteEvictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Sessões: " + getLiveSessions() + " ativas, " + getOpenedSessions() + " abertas, "
+                + getIdleEvictions() + " expiradas por ociosidade, " + getAbsoluteEvictions() + " expiradas por TTL absoluto";
+    }
+
+    private String nextToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private long deadline(Entry entry) {
+        long deadline = Long.MAX_VALUE;
+        if (idleTtlNanos > 0) deadline = entry.lastAccess + idleTtlNanos;
+        if (absoluteTtlNanos > 0) deadline = Math.min(deadline, entry.createdAt + absoluteTtlNanos);
+        return deadline;
+    }
+
+    private boolean expired(Entry entry, long now) {
+        long deadline = deadline(entry);
+        return deadline != Long.MAX_VALUE && deadline - now <= 0;
+    }
+
+    private void expire(Entry entry, long now) {
+        if (!sessions.remove(entry.session.getID(), entry)) return;
+        byUser.computeIfPresent(entry.session.getUser(), (key, entries) -> {
+            entries.remove(entry);
+            return entries.isEmpty() ? null : entries;
+        });
+        boolean absolute = absoluteTtlNanos > 0 && entry.createdAt + absoluteTtlNanos - now <= 0;
+        (absolute ? absoluteEvictions : idleEvictions).incrementAndGet();
+        users.unpin(entry.session.getUser().getLogin());
+    }
+
+    private void schedule(Entry entry, long deadline) {
+        if (deadline == Long.MAX_VALUE) return;
+        long tick = Math.max((deadline - origin) / tickNanos + 1, 0);
+        synchronized (wheel) {
+            wheel[(int) (Math.max(tick, currentTick + 1) & (WHEEL_SIZE - 1))].add(entry);
+        }
+    }
+    /**
+     * Laço da thread de varredura: a cada tique, examina apenas a posição corrente da roda.
+     * Sessões cujo prazo ainda não chegou (acessadas desde o agendamento, ou com prazo além de uma volta
+     * da roda) são reagendadas.
+     */
+    private void sweepLoop() {
+        while (true) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(tickNanos);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            long target = (now - origin) / tickNanos;
+            while (true) {
+                List<Entry> due;
+                synchronized (wheel) {
+                    if (currentTick >= target) break;
+                    currentTick++;
+                    int slot = (int) (currentTick & (WHEEL_SIZE - 1));
+                    due = wheel[slot];
+                    wheel[slot] = new ArrayList<>();
+                }
+                for (Entry entry : due) {
+                    if (sessions.get(entry.session.getID()) != entry) continue;
+                    if (expired(entry, now)) expire(entry, now);
+                    else schedule(entry, deadline(entry));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package br.ufal.ic.p2.jackut.services;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A classe `ViewCache` guarda as listas já renderizadas pela {@link Facade} no formato `{a,b,c}` (amigos, fãs,
+ * paqueras, membros e comunidades), para que as listas lidas com frequência e alteradas raramente não sejam
+ * montadas de novo a cada consulta.
+ *
+ * Cada lista renderizada é guardada com a versão da lista de origem no momento em que a renderização começou
+ * ({@link br.ufal.ic.p2.jackut.models.Relationships#getVersion()},
+ * {@link br.ufal.ic.p2.jackut.models.Community#getVersion()} e
+ * {@link br.ufal.ic.p2.jackut.models.User#getCommunitiesVersion()}). Como toda alteração da origem renova a
+ * versão, e as versões nunca se repetem, uma entrada só é usada enquanto a lista de origem não mudou; não há
+ * invalidação explícita nem janela de dados antigos.
+ *
+ * O cache ocupa no máximo `jackut.viewCache.maxBytes` bytes (64 MiB por padrão; 0 desativa o cache), estimados
+ * pelo tamanho das listas renderizadas. Ao ultrapassar o limite, as entradas são descartadas pelo algoritmo do
+ * relógio (segunda chance): uma entrada usada desde a última passagem é poupada uma vez. As consultas não usam
+ * bloqueios; apenas o descarte é serializado.
+ */
+class ViewCache {
+    private static final long MAX_BYTES = Long.getLong("jackut.viewCache.maxBytes", 64L * 1024 * 1024);
+    private static final int ENTRY_OVERHEAD = 96; // Estimativa dos objetos da entrada, da chave e da String.
+    static final ViewCache VIEWS = new ViewCache(MAX_BYTES);// Instância única do cache
+
+    /**
+     * Tipos de lista renderizada.
+     */
+    enum Kind {
+        FRIENDS, FANS, CRUSHES, MEMBERS, COMMUNITIES
+    }
+
+    private final long maxBytes;
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ArrayDeque<Key> clock = new ArrayDeque<>(); // Ordem de passagem do relógio, protegida pelo próprio objeto.
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+
+    /**
+     * Identifica uma lista: o tipo e o login do usuário ou o nome da comunidade.
+     */
+    private static final class Key {
+        final Kind kind;
+        final String name;
+
+        Key(Kind kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && kind == key.kind && name.equals(key.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind.hashCode() + name.hashCode();
+        }
+    }
+    /**
+     * Lista renderizada, com a versão da origem e a marca de uso do relógio.
+     */
+    private static final class Entry {
+        final long version;
+        final String text;
+        final int bytes;
+        volatile boolean referenced;
+
+        Entry(long version, String text) {
+            this.version = version;
+            this.text = text;
+            this.bytes = ENTRY_OVERHEAD + 2 * text.length();
+        }
+    }
+    /**
+     * Construtor da classe ViewCache.
+     *
+     * @param maxBytes O tamanho máximo estimado do cache, em bytes (0 desativa o cache).
+     */
+    ViewCache(long maxBytes) {
+        this.maxBytes = Math.max(maxBytes, 0);
+    }
+    /**
+     * Obtém uma lista renderizada, renderizando-a e guardando-a se não houver uma entrada com a versão atual
+     * da origem.
+     *
+     * @param kind O tipo da lista.
+     * @param name O login do usuário ou o nome da comunidade dona da lista.
+     * @param version A versão atual da lista de origem, lida antes da renderização.
+     * @param render A renderização da lista.
+     * @return A lista renderizada.
+     */
+    String get(Kind kind, String name, long version, Supplier<String> render) {
+        if (maxBytes == 0 || name == null) return render.get();
+        Key key = new Key(kind, name);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.version == version) {
+            hits.increment();
+            if (!entry.referenced) entry.referenced = true;
+            return entry.text;
+        }
+        misses.increment();
+        String text = render.get();
+        put(key, new Entry(version, text));
+        return text;
+    }
+    /**
+     * Remove todas as entradas. É chamado na limpeza do sistema, para liberar a memória das listas que não
+     * serão mais consultadas.
+     */
+    void clear() {
+        synchronized (clock) {
+            entries.clear();
+            clock.clear();
+            bytes.set(0);
+        }
+    }
+    /**
+     * Obtém a quantidade de consultas respondidas pelo cache.
+     * @return A quantidade de acertos.
+     */
+    long getHits() {
+        return hits.sum();
+    }
+    /**
+     * Obtém a quantidade de consultas que precisaram renderizar a lista.
+     * @return A quantidade de falhas.
+     */
+    long getMisses() {
+        return misses.sum();
+    }
+    /**
+     * Obtém a quantidade de entradas descartadas para respeitar o limite de memória.
+     * @return A quantidade de descartes.
+     */
+    long getEvictions() {
+        return evictions.sum();
+    }
+    /**
+     * Obtém o tamanho estimado do cache.
+     * @return O tamanho estimado, em bytes.
+     */
+    long getBytes() {
+        return bytes.get();
+    }
+
+    private void put(Key key, Entry entry) {
+        if (entry.bytes > maxBytes / 4) return; // Uma lista enorme descartaria boa parte do cache.
+        Entry old = entries.put(key, entry);
+        bytes.addAndGet(entry.bytes - (old == null ? 0 : old.bytes));
+        if (old == null) {
+            synchronized (clock) {
+                clock.add(key);
+            }
+        }
+        if (bytes.get() > maxBytes) evict();
+    }
+    /**
+     * Percorre o relógio descartando entradas até que o cache volte ao limite de memória.
+     */
+    private void evict() {
+        synchronized (clock) {
+            while (bytes.get() > maxBytes && !clock.isEmpty()) {
+                Key key = clock.poll();
+                Entry entry = entries.get(key);
+                if (entry == null) continue;
+                if (entry.referenced) {
+                    entry.referenced = false;
+                    clock.add(key);
+                } else if (entries.remove(key, entry)) {
+                    bytes.addAndGet(-entry.bytes);
+                    evictions.increment();
+                } else clock.add(key); // Substituída por uma versão nova durante a passagem.
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        long hits = getHits(), total = hits + getMisses();
+        return "Cache de listas: " + entries.size() + " entradas, " + getBytes() + " bytes, "
+                + (total == 0 ? 0 : 100 * hits / total) + "% de acertos, " + getEvictions() + " descartes";
+    }
+}